@@ -0,0 +1,158 @@
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.swing.*;
+
+// Runs scanning and syntax analysis off the event dispatch thread.
+//
+// Each request takes an immutable snapshot of the document on the EDT and
+// analyses it on a single background worker. Every request (and every
+// document change) bumps a generation counter; a run whose generation is no
+// longer current is interrupted, and if it still finishes its result is
+// dropped instead of published. Results reach the Token, Symbol and Error
+// tabs through one invokeLater, so the UI is updated in a single batch.
+//
+// In live mode, edits restart an idle timer and the document is re-analysed
+// once typing has paused for the configured delay.
+public class AnalysisScheduler {
+    public static class Result {
+        // The document snapshot that was analysed
+        public final String source;
+        public final String tokenTable;
+        public final String symbolTable;
+        public final List<Diagnostic> diagnostics;
+        public final long nanos;
+
+        Result(String source, String tokenTable, String symbolTable, List<Diagnostic> diagnostics, long nanos) {
+            this.source = source;
+            this.tokenTable = tokenTable;
+            this.symbolTable = symbolTable;
+            this.diagnostics = diagnostics;
+            this.nanos = nanos;
+        }
+
+        public boolean hasErrors() {
+            for (Diagnostic diagnostic : diagnostics) {
+                if (diagnostic.severity == Diagnostic.Severity.ERROR) return true;
+            }
+            return false;
+        }
+    }
+
+    private final Supplier<String> snapshot;
+    private final Consumer<Result> publisher;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "analysis-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong generation = new AtomicLong();
+    private final Timer idleTimer;
+    private Future<?> running;
+    private boolean live;
+    // Only touched by the worker thread
+    private final LineCache lineCache = new LineCache();
+    private final TreeCache treeCache = new TreeCache();
+
+    // snapshot is called on the EDT to read the document; publisher is
+    // called on the EDT with every result that is still current
+    public AnalysisScheduler(Supplier<String> snapshot, Consumer<Result> publisher, int idleDelayMs) {
+        this.snapshot = snapshot;
+        this.publisher = publisher;
+        idleTimer = new Timer(idleDelayMs, e -> submit(null));
+        idleTimer.setRepeats(false);
+    }
+
+    public void setLive(boolean live) {
+        this.live = live;
+        if (live) {
+            idleTimer.restart();
+        } else {
+            idleTimer.stop();
+        }
+    }
+
+    public boolean isLive() {
+        return live;
+    }
+
+    public void setIdleDelay(int delayMs) {
+        idleTimer.setInitialDelay(delayMs);
+        idleTimer.setDelay(delayMs);
+    }
+
+    // Called on every edit: whatever is being analysed is now stale
+    public void documentChanged() {
+        generation.incrementAndGet();
+        cancelRunning();
+        if (live) {
+            idleTimer.restart();
+        }
+    }
+
+    // Analyses the current document right away; then (may be null) runs on
+    // the EDT after the result has been published
+    public void analyzeNow(Consumer<Result> then) {
+        idleTimer.stop();
+        submit(then);
+    }
+
+    private void submit(Consumer<Result> then) {
+        String source = snapshot.get();
+        long current = generation.incrementAndGet();
+        cancelRunning();
+        running = worker.submit(() -> {
+            Result result = analyze(source);
+            if (result == null) return;
+            SwingUtilities.invokeLater(() -> {
+                if (current != generation.get()) return;
+                publisher.accept(result);
+                if (then != null) {
+                    then.accept(result);
+                }
+            });
+        });
+    }
+
+    private void cancelRunning() {
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+    }
+
+    // Runs on the worker thread; returns null when interrupted by a newer
+    // request, which the analyzer notices between lines and functions.
+    // Lines that haven't changed since an earlier run are answered from
+    // lineCache, and treeCache reparses only the statements an edit
+    // touched; the token list comes from its tokens too, so the file is
+    // not lexed again either.
+    private Result analyze(String source) {
+        long start = System.nanoTime();
+
+        PreprocessedSource preprocessed = PreprocessedSource.of(source);
+        SyntaxAnalyzer analyzer = new SyntaxAnalyzer(lineCache, treeCache);
+        analyzer.setCancellation(Thread.currentThread()::isInterrupted);
+        DiagnosticCollector diagnostics = new DiagnosticCollector();
+        try {
+            analyzer.analyze(preprocessed, diagnostics);
+        } catch (CancellationException e) {
+            return null;
+        }
+        String symbolTable = analyzer.symbolTableText();
+
+        Ast tree = analyzer.syntaxTree();
+        TokenStream tokens = tree != null ? tree.tokens() : preprocessed.tokens();
+        StringBuilder tokenTable = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i % 4096 == 0 && Thread.currentThread().isInterrupted()) return null;
+            tokens.appendTo(tokenTable, i);
+            tokenTable.append('\n');
+        }
+
+        return new Result(source, tokenTable.toString(), symbolTable, diagnostics.diagnostics(),
+            System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,587 @@
+import java.util.*;
+
+// Compact syntax tree built by the Parser, stored like TokenStream: one
+// int id per node and parallel primitive arrays, so a whole program is a
+// handful of arrays rather than an object per node.
+//
+// Every node has a kind, a main token (the operator, name, literal or
+// keyword it stands for, or -1) and a source span given as its first and
+// last token index; offsets and lines come from the TokenStream. Children
+// are an ordered first-child / next-sibling list. What each child means
+// depends on the kind:
+//
+//   PROGRAM      top-level statements and functions
+//   FUNCTION     TYPE, PARAM..., BLOCK (no BLOCK for a prototype); token = name
+//   PARAM        TYPE; token = name (-1 when unnamed)
+//   DECLARATION  TYPE, DECLARATOR...
+//   DECLARATOR   NAME, [initializer]
+//   TYPE         no children; the span is the type's words
+//   BLOCK        statements
+//   IF           condition, then, [ELSE]; condition is EMPTY for "if ()"
+//   ELSE         statement; token = else
+//   WHILE        condition, body
+//   DO           body, condition
+//   FOR          init, condition, update, body; missing parts are EMPTY
+//   RETURN       [value]
+//   EXPRESSION   expression (an expression statement)
+//   BREAK, CONTINUE, EMPTY
+//
+//   ASSIGN, BINARY          left, right; token = operator
+//   UNARY, POSTFIX          operand; token = operator
+//   CONDITIONAL             condition, then, else
+//   CALL                    callee, arguments...
+//   INDEX                   array, index
+//   MEMBER                  object; token = member name
+//   NAME, LITERAL           no children; token = the name or literal (a
+//                           qualified name spans std::cout, token = cout)
+//   ERROR                   unparseable expression, already reported; for
+//                           a stray character token = that character and
+//                           the operand glued to it, if any, is the child
+//
+// statements() lists every statement node, nested ones included, in the
+// order the statements start in the source, which lets the line-based
+// rules find the statements that begin on a given line with a cursor.
+//
+// Parser.reparse updates a tree in place after an IncrementalLexer edit:
+// the statements it replaces stay in the arrays as dead nodes, the new
+// ones are appended, and the token indices of everything after the edit
+// move by the edit's token delta. That move is lazy. Node ids are grouped
+// in chunks of 2^CHUNK_BITS, each with a pending shift that the accessors
+// add and with the range of tokens its nodes start at; an edit shifts a
+// chunk that lies wholly after it by changing one number, and only
+// rewrites the nodes of a chunk that has nodes on both sides.
+public final class Ast {
+    public enum Kind {
+        PROGRAM, FUNCTION, PARAM, DECLARATION, DECLARATOR, TYPE,
+        BLOCK, IF, ELSE, WHILE, DO, FOR, RETURN, BREAK, CONTINUE, EXPRESSION, EMPTY,
+        ASSIGN, BINARY, UNARY, POSTFIX, CONDITIONAL, CALL, INDEX, MEMBER, NAME, LITERAL, ERROR;
+
+        private static final Kind[] VALUES = values();
+
+        static Kind of(int code) {
+            return VALUES[code];
+        }
+    }
+
+    private final TokenStream tokens;
+    private byte[] kinds;
+    private int[] mainTokens;
+    private int[] firstTokens;
+    private int[] lastTokens;
+    private int[] firstChildren;
+    private int[] lastChildren;
+    private int[] nextSiblings;
+    private int size;
+
+    private int[] statements = new int[64];
+    private int statementCount;
+
+    // Syntax errors in the order they were reported, with the token each
+    // is at, the parser's position when it was reported, and its anchor:
+    // the token the statement being parsed started at, which tells a
+    // reparse whose problems to replace. problems() is the same list
+    // ordered by line, built when asked for.
+    private final List<Diagnostic> reported = new ArrayList<>();
+    private int[] problemTokens = new int[16];
+    private int[] problemPositions = new int[16];
+    private int[] problemAnchors = new int[16];
+    private List<Diagnostic> problems;
+
+    // Incremental state, null until the first reparse: each node's parent,
+    // and per chunk the pending token shift and the lowest and highest
+    // first token of its live nodes (before the shift)
+    private static final int CHUNK_BITS = 8;
+    // mainTokens value of a node a reparse replaced
+    private static final int DEAD = -2;
+    private int[] parents;
+    private int deadCount;
+    private int[] chunkShifts;
+    private int[] chunkMins;
+    private int[] chunkMaxes;
+
+    Ast(TokenStream tokens) {
+        this.tokens = tokens;
+        int capacity = Math.max(16, tokens.size());
+        kinds = new byte[capacity];
+        mainTokens = new int[capacity];
+        firstTokens = new int[capacity];
+        lastTokens = new int[capacity];
+        firstChildren = new int[capacity];
+        lastChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+    }
+
+    // ===== BUILDING (used by Parser) =====
+
+    int add(Kind kind, int token, int firstToken) {
+        if (size == kinds.length) {
+            int grown = size + (size >> 1) + 16;
+            kinds = Arrays.copyOf(kinds, grown);
+            mainTokens = Arrays.copyOf(mainTokens, grown);
+            firstTokens = Arrays.copyOf(firstTokens, grown);
+            lastTokens = Arrays.copyOf(lastTokens, grown);
+            firstChildren = Arrays.copyOf(firstChildren, grown);
+            lastChildren = Arrays.copyOf(lastChildren, grown);
+            nextSiblings = Arrays.copyOf(nextSiblings, grown);
+            if (parents != null) parents = Arrays.copyOf(parents, grown);
+        }
+        int node = size++;
+        writable(node);
+        kinds[node] = (byte) kind.ordinal();
+        mainTokens[node] = token;
+        firstTokens[node] = firstToken;
+        lastTokens[node] = firstToken - 1; // empty until finish()
+        firstChildren[node] = -1;
+        lastChildren[node] = -1;
+        nextSiblings[node] = -1;
+        if (parents != null) {
+            parents[node] = -1;
+            bound(node, firstToken);
+        }
+        return node;
+    }
+
+    // Like add(), and also lists the node in statements()
+    int addStatement(Kind kind, int token, int firstToken) {
+        int node = add(kind, token, firstToken);
+        if (statementCount == statements.length) {
+            statements = Arrays.copyOf(statements, statementCount * 2);
+        }
+        statements[statementCount++] = node;
+        return node;
+    }
+
+    void addChild(int parent, int child) {
+        if (lastChildren[parent] < 0) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[lastChildren[parent]] = child;
+        }
+        lastChildren[parent] = child;
+        if (parents != null) parents[child] = parent;
+    }
+
+    void setToken(int node, int token) {
+        writable(node);
+        mainTokens[node] = token;
+    }
+
+    void setFirstToken(int node, int token) {
+        writable(node);
+        firstTokens[node] = token;
+        bound(node, token);
+    }
+
+    void finish(int node, int lastToken) {
+        writable(node);
+        lastTokens[node] = lastToken;
+    }
+
+    void problem(Diagnostic diagnostic, int token, int position, int anchor) {
+        int index = reported.size();
+        if (index == problemTokens.length) growProblems(index * 2);
+        reported.add(diagnostic);
+        problemTokens[index] = token;
+        problemPositions[index] = position;
+        problemAnchors[index] = anchor;
+        problems = null;
+    }
+
+    private void growProblems(int capacity) {
+        problemTokens = Arrays.copyOf(problemTokens, capacity);
+        problemPositions = Arrays.copyOf(problemPositions, capacity);
+        problemAnchors = Arrays.copyOf(problemAnchors, capacity);
+    }
+
+    // ===== INCREMENTAL UPDATES (used by Parser.reparse) =====
+
+    // Builds the parent links and chunk bounds the first time a tree is
+    // reparsed; a tree that is only ever parsed once never pays for them
+    void makeIncremental() {
+        if (parents != null) return;
+        parents = new int[kinds.length];
+        Arrays.fill(parents, -1);
+        for (int node = 0; node < size; node++) {
+            for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+                parents[child] = node;
+            }
+        }
+        int chunks = (kinds.length >> CHUNK_BITS) + 1;
+        chunkShifts = new int[chunks];
+        chunkMins = new int[chunks];
+        chunkMaxes = new int[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            computeBounds(chunk);
+        }
+    }
+
+    // Enclosing node, or -1 for the root; only after makeIncremental()
+    int parent(int node) {
+        return parents[node];
+    }
+
+    // Nodes replaced by reparses, still taking up room in the arrays
+    int deadNodes() {
+        return deadCount;
+    }
+
+    int lastChild(int node) {
+        return lastChildren[node];
+    }
+
+    int statementsMark() {
+        return statementCount;
+    }
+
+    int problemsMark() {
+        return reported.size();
+    }
+
+    // Forgets the nodes, statements and problems added since the marks,
+    // after a reparse that had to give up on a region
+    void truncate(int sizeMark, int statementsMark, int problemsMark) {
+        size = sizeMark;
+        statementCount = statementsMark;
+        while (reported.size() > problemsMark) {
+            reported.remove(reported.size() - 1);
+        }
+        problems = null;
+    }
+
+    // Makes children[0, count) the children of parent between before and
+    // after (existing children, -1 for the start and end of the list),
+    // dropping whatever was between them
+    void replaceChildren(int parent, int before, int after, int[] children, int count) {
+        int previous = before;
+        for (int k = 0; k < count; k++) {
+            int child = children[k];
+            parents[child] = parent;
+            if (previous < 0) {
+                firstChildren[parent] = child;
+            } else {
+                nextSiblings[previous] = child;
+            }
+            previous = child;
+        }
+        if (previous < 0) {
+            firstChildren[parent] = after;
+        } else {
+            nextSiblings[previous] = after;
+        }
+        if (after < 0) lastChildren[parent] = previous;
+    }
+
+    // Marks node and everything under it dead
+    void kill(int node) {
+        int[] stack = new int[16];
+        int depth = 0;
+        stack[depth++] = node;
+        while (depth > 0) {
+            int top = stack[--depth];
+            mainTokens[top] = DEAD;
+            deadCount++;
+            for (int child = firstChildren[top]; child >= 0; child = nextSiblings[child]) {
+                if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+                stack[depth++] = child;
+            }
+        }
+    }
+
+    // Replaces statements [from, to) by the ones appended since
+    // statementsMark, which the reparse created in source order
+    void replaceStatements(int from, int to, int statementsMark) {
+        int added = statementCount - statementsMark;
+        int[] created = Arrays.copyOfRange(statements, statementsMark, statementCount);
+        int tail = statementsMark - to;
+        int count = from + added + tail;
+        if (count > statements.length) statements = Arrays.copyOf(statements, Math.max(count, statements.length * 2));
+        System.arraycopy(statements, to, statements, from + added, tail);
+        System.arraycopy(created, 0, statements, from, added);
+        statementCount = count;
+    }
+
+    // First statement index in [0, limit) whose node starts at or after
+    // token; the statements before limit are in source order
+    int statementAtOrAfter(int token, int limit) {
+        int low = 0;
+        int high = limit;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (firstToken(statements[mid]) < token) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Replaces the problems reported while parsing the region [regionStart,
+    // regionEnd] by the ones reported since problemsMark, and moves the
+    // problems that stay by delta from token from on, rebuilding the ones
+    // whose line changed. The region is in the coordinates before the
+    // edit, the new problems are already in the ones after it.
+    //
+    // The region's problems are the ones anchored in it. They were
+    // reported together, so they are a contiguous run, and the new ones
+    // take their place, behind the problems that earlier and enclosing
+    // statements reported before the parser reached the region's end. The
+    // parser only moves forward, so that is the order a full parse reports
+    // them in, even when the region had no problems before.
+    void replaceProblems(int regionStart, int regionEnd, int problemsMark, int from, int delta) {
+        int added = reported.size() - problemsMark;
+        List<Diagnostic> created = new ArrayList<>(reported.subList(problemsMark, reported.size()));
+        int[] createdTokens = Arrays.copyOfRange(problemTokens, problemsMark, problemsMark + added);
+        int[] createdPositions = Arrays.copyOfRange(problemPositions, problemsMark, problemsMark + added);
+        int[] createdAnchors = Arrays.copyOfRange(problemAnchors, problemsMark, problemsMark + added);
+        truncate(size, statementCount, problemsMark);
+
+        int start = 0;
+        while (start < problemsMark && problemAnchors[start] < regionStart && problemPositions[start] <= regionEnd) {
+            start++;
+        }
+        int end = start;
+        while (end < problemsMark && problemAnchors[end] >= regionStart && problemAnchors[end] <= regionEnd) end++;
+
+        for (int p = 0; p < problemsMark; p++) {
+            if (p >= start && p < end) continue;
+            if (problemPositions[p] >= from) problemPositions[p] += delta;
+            if (problemAnchors[p] >= from) problemAnchors[p] += delta;
+            int token = problemTokens[p];
+            if (token < from) continue;
+            token += delta;
+            problemTokens[p] = token;
+            // An edit earlier on the token's line moves its column too
+            Diagnostic old = reported.get(p);
+            int line = token < tokens.size() ? tokens.line(token) : 0;
+            int column = token < tokens.size() ? tokens.column(token) : 0;
+            if (line != old.line || column != old.column) {
+                reported.set(p, new Diagnostic(old.severity, old.code, line, column, old.length, old.message));
+            }
+        }
+
+        int tail = problemsMark - end;
+        int count = start + added + tail;
+        if (count > problemTokens.length) growProblems(count * 2);
+        System.arraycopy(problemTokens, end, problemTokens, start + added, tail);
+        System.arraycopy(problemPositions, end, problemPositions, start + added, tail);
+        System.arraycopy(problemAnchors, end, problemAnchors, start + added, tail);
+        System.arraycopy(createdTokens, 0, problemTokens, start, added);
+        System.arraycopy(createdPositions, 0, problemPositions, start, added);
+        System.arraycopy(createdAnchors, 0, problemAnchors, start, added);
+        reported.subList(start, end).clear();
+        reported.addAll(start, created);
+        problems = null;
+    }
+
+    // Moves the nodes before nodeLimit, the ones that were there before
+    // the edit, that start at or after token from by delta, and the end of
+    // the nodes that span from: container and the nodes above it. Spans
+    // nest, so every other node lies wholly on one side of from and moves
+    // as a whole, main and last token included (an empty node starting at
+    // from, whose last token is from - 1, too).
+    void shiftTokens(int from, int delta, int nodeLimit, int container) {
+        if (delta == 0) return;
+        int lastChunk = (nodeLimit - 1) >> CHUNK_BITS;
+        for (int chunk = 0; chunk <= lastChunk; chunk++) {
+            if (chunkMins[chunk] > chunkMaxes[chunk]) continue; // no live nodes
+            int shift = chunkShifts[chunk];
+            if (chunkMaxes[chunk] + shift < from) continue;
+            boolean whole = ((chunk + 1) << CHUNK_BITS) <= nodeLimit;
+            if (whole && chunkMins[chunk] + shift >= from) {
+                chunkShifts[chunk] = shift + delta;
+                continue;
+            }
+            materialize(chunk);
+            int end = Math.min(nodeLimit, (chunk + 1) << CHUNK_BITS);
+            for (int node = chunk << CHUNK_BITS; node < end; node++) {
+                if (mainTokens[node] == DEAD || firstTokens[node] < from) continue;
+                firstTokens[node] += delta;
+                lastTokens[node] += delta;
+                if (mainTokens[node] >= 0) mainTokens[node] += delta;
+            }
+            computeBounds(chunk);
+        }
+        for (int node = container; node >= 0; node = parents[node]) {
+            if (lastToken(node) < from) continue;
+            writable(node);
+            lastTokens[node] += delta;
+        }
+    }
+
+    // Folds a chunk's pending shift into its nodes, before one of them is
+    // written or the chunk has to be shifted node by node
+    private void materialize(int chunk) {
+        int shift = chunkShifts[chunk];
+        if (shift == 0) return;
+        int end = Math.min(size, (chunk + 1) << CHUNK_BITS);
+        for (int node = chunk << CHUNK_BITS; node < end; node++) {
+            if (mainTokens[node] == DEAD) continue;
+            firstTokens[node] += shift;
+            lastTokens[node] += shift;
+            if (mainTokens[node] >= 0) mainTokens[node] += shift;
+        }
+        chunkShifts[chunk] = 0;
+        if (chunkMins[chunk] <= chunkMaxes[chunk]) {
+            chunkMins[chunk] += shift;
+            chunkMaxes[chunk] += shift;
+        }
+    }
+
+    private void computeBounds(int chunk) {
+        chunkMins[chunk] = Integer.MAX_VALUE;
+        chunkMaxes[chunk] = Integer.MIN_VALUE;
+        int end = Math.min(size, (chunk + 1) << CHUNK_BITS);
+        for (int node = chunk << CHUNK_BITS; node < end; node++) {
+            if (mainTokens[node] == DEAD) continue;
+            bound(node, firstTokens[node]);
+        }
+    }
+
+    // Before a node is written: its chunk's shift must be folded in, and
+    // the chunk arrays must cover it
+    private void writable(int node) {
+        if (parents == null) return;
+        int chunk = node >> CHUNK_BITS;
+        if (chunk >= chunkShifts.length) {
+            int old = chunkShifts.length;
+            int grown = Math.max(chunk + 1, old * 2);
+            chunkShifts = Arrays.copyOf(chunkShifts, grown);
+            chunkMins = Arrays.copyOf(chunkMins, grown);
+            chunkMaxes = Arrays.copyOf(chunkMaxes, grown);
+            Arrays.fill(chunkMins, old, grown, Integer.MAX_VALUE);
+            Arrays.fill(chunkMaxes, old, grown, Integer.MIN_VALUE);
+        }
+        materialize(chunk);
+    }
+
+    private void bound(int node, int token) {
+        if (parents == null || token < 0) return;
+        int chunk = node >> CHUNK_BITS;
+        if (token < chunkMins[chunk]) chunkMins[chunk] = token;
+        if (token > chunkMaxes[chunk]) chunkMaxes[chunk] = token;
+    }
+
+    private int shift(int node) {
+        return chunkShifts == null ? 0 : chunkShifts[node >> CHUNK_BITS];
+    }
+
+    // ===== ACCESSORS =====
+
+    public TokenStream tokens() {
+        return tokens;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int root() {
+        return 0;
+    }
+
+    public Kind kind(int node) {
+        return Kind.of(kinds[node]);
+    }
+
+    // The operator, name, literal or keyword token, or -1
+    public int token(int node) {
+        int token = mainTokens[node];
+        return token < 0 ? -1 : token + shift(node);
+    }
+
+    public int firstToken(int node) {
+        return firstTokens[node] + shift(node);
+    }
+
+    // Inclusive; less than firstToken() for a node that covers no tokens
+    public int lastToken(int node) {
+        return lastTokens[node] + shift(node);
+    }
+
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    // k-th child, or -1
+    public int child(int node, int k) {
+        int child = firstChildren[node];
+        while (child >= 0 && k-- > 0) child = nextSiblings[child];
+        return child;
+    }
+
+    public int childCount(int node) {
+        int count = 0;
+        for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) count++;
+        return count;
+    }
+
+    public boolean isEmpty(int node) {
+        return lastTokens[node] < firstTokens[node];
+    }
+
+    // Line of the node's first token (0 for an empty node at end of input)
+    public int line(int node) {
+        int first = firstToken(node);
+        return first < tokens.size() ? tokens.line(first) : 0;
+    }
+
+    public int endLine(int node) {
+        int last = lastToken(node);
+        return last >= 0 && last < tokens.size() ? tokens.line(last) : line(node);
+    }
+
+    // Source offsets of the span, end exclusive
+    public int start(int node) {
+        int first = firstToken(node);
+        return first < tokens.size() ? tokens.start(first) : tokens.source().length();
+    }
+
+    public int end(int node) {
+        return isEmpty(node) ? start(node) : tokens.end(lastToken(node));
+    }
+
+    // The node's source text as written
+    public String text(int node) {
+        return tokens.source().subSequence(start(node), end(node)).toString();
+    }
+
+    // SymbolPool id of the node's main token, -1 when it is not a word
+    public int symbol(int node) {
+        int token = token(node);
+        return token < 0 ? -1 : tokens.symbol(token);
+    }
+
+    public String tokenText(int node) {
+        int token = token(node);
+        return token < 0 ? "" : tokens.textString(token);
+    }
+
+    public boolean tokenIs(int node, String text) {
+        int token = token(node);
+        return token >= 0 && tokens.textEquals(token, text);
+    }
+
+    // Every statement node (FUNCTION and DECLARATION included), in source order
+    public int statementCount() {
+        return statementCount;
+    }
+
+    public int statement(int index) {
+        return statements[index];
+    }
+
+    // Syntax errors found while parsing, ordered by line (problems on the
+    // same line in the order they were found)
+    public List<Diagnostic> problems() {
+        if (problems == null) {
+            problems = new ArrayList<>(reported);
+            problems.sort((a, b) -> Integer.compare(a.line, b.line));
+        }
+        return problems;
+    }
+}
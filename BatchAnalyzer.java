@@ -0,0 +1,284 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Headless command-line front end: runs the same checks as the GUI over
+// many files at once.
+//
+//   java BatchAnalyzer [-j threads] [--virtual] [-q] <file|dir|glob>...
+//
+// Directories are searched recursively for C++ sources; arguments with
+// glob characters ("src/**/*.cpp") are matched relative to their fixed
+// prefix. Files are analysed in parallel, each by its own SyntaxAnalyzer
+// session, but diagnostics are printed in file order as soon as every
+// earlier file is done. Nothing on this path touches AWT or Swing, so no
+// toolkit is ever loaded.
+//
+// A file that can't be read, or whose analysis fails, is reported as such
+// and the batch goes on with the next one. Exit status is 1 if any file
+// has errors, 2 on bad arguments or files that could not be analysed, 0
+// otherwise.
+public class BatchAnalyzer {
+    private static final String[] SOURCE_EXTENSIONS = {".cpp", ".cc", ".cxx", ".h", ".hpp"};
+
+    private static class FileResult {
+        final Path path;
+        final int lines;
+        final List<Diagnostic> diagnostics;
+        // Why the file has no diagnostics, or null
+        final String failure;
+
+        FileResult(Path path, int lines, List<Diagnostic> diagnostics, String failure) {
+            this.path = path;
+            this.lines = lines;
+            this.diagnostics = diagnostics;
+            this.failure = failure;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean virtual = false;
+        boolean quiet = false;
+        List<String> patterns = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-j":
+                case "--threads":
+                    if (i + 1 == args.length) usage("missing thread count");
+                    try {
+                        threads = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        usage("thread count is not a number: " + args[i]);
+                    }
+                    if (threads < 1) usage("thread count must be at least 1");
+                    break;
+                case "--virtual":
+                    virtual = true;
+                    break;
+                case "-q":
+                case "--quiet":
+                    quiet = true;
+                    break;
+                default:
+                    if (args[i].startsWith("-")) usage("unknown option " + args[i]);
+                    patterns.add(args[i]);
+            }
+        }
+        if (patterns.isEmpty()) usage("no input files");
+
+        List<Path> files = collectFiles(patterns);
+        ExecutorService executor = virtual ? newVirtualThreadExecutor() : null;
+        String mode;
+        if (executor != null) {
+            mode = "virtual threads";
+        } else {
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "batch-analyzer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            mode = threads + (threads == 1 ? " thread" : " threads")
+                + (virtual ? " (virtual threads need Java 21)" : "");
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+            false, "UTF-8");
+        long start = System.nanoTime();
+        long totalLines = 0;
+        int errors = 0;
+        int warnings = 0;
+        int failures = 0;
+
+        // Keep a bounded window of files in flight so a huge file list
+        // doesn't hold every result in memory while the first one is slow
+        int window = Math.max(64, threads * 4);
+        ArrayDeque<Future<FileResult>> pending = new ArrayDeque<>();
+        int next = 0;
+        int done = 0;
+        while (next < files.size() || !pending.isEmpty()) {
+            while (next < files.size() && pending.size() < window) {
+                Path file = files.get(next++);
+                pending.add(executor.submit(() -> analyzeFile(file)));
+            }
+            FileResult result;
+            try {
+                result = pending.poll().get();
+            } catch (ExecutionException e) {
+                result = new FileResult(files.get(done), 0, Collections.emptyList(),
+                    "analysis failed: " + e.getCause());
+            }
+            done++;
+            totalLines += result.lines;
+            if (result.failure != null) {
+                failures++;
+                out.println(result.path + ": " + result.failure);
+                continue;
+            }
+            for (Diagnostic d : result.diagnostics) {
+                if (d.severity == Diagnostic.Severity.ERROR) errors++;
+                else if (d.severity == Diagnostic.Severity.WARNING) warnings++;
+                if (!quiet) print(out, result.path, d);
+            }
+        }
+        executor.shutdown();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("%d files, %d lines in %.2f s (%s): %.0f files/s, %.0f lines/s%n",
+            files.size(), totalLines, seconds, mode, files.size() / seconds, totalLines / seconds);
+        out.printf("%d errors, %d warnings%s%n", errors, warnings,
+            failures > 0 ? ", " + failures + " files not analysed" : "");
+        out.flush();
+        System.exit(failures > 0 ? 2 : errors > 0 ? 1 : 0);
+    }
+
+    private static FileResult analyzeFile(Path path) {
+        String source;
+        try {
+            source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return new FileResult(path, 0, Collections.emptyList(), "cannot read: " + e.getMessage());
+        }
+        DiagnosticCollector diagnostics = new DiagnosticCollector();
+        try {
+            new SyntaxAnalyzer().analyze(PreprocessedSource.of(source), diagnostics);
+        } catch (RuntimeException | StackOverflowError e) {
+            // A bug this file runs into shouldn't cost the rest of the batch
+            return new FileResult(path, countLines(source), Collections.emptyList(), "analysis failed: " + e);
+        }
+        return new FileResult(path, countLines(source), diagnostics.diagnostics(), null);
+    }
+
+    // file:line: severity: message [code], the format editors and CI
+    // log parsers already understand
+    private static void print(PrintStream out, Path path, Diagnostic d) {
+        out.print(path);
+        if (d.line > 0) {
+            out.print(':');
+            out.print(d.line);
+            if (d.column > 0) {
+                out.print(':');
+                out.print(d.column);
+            }
+        }
+        out.print(": ");
+        out.print(d.severity.name().toLowerCase(Locale.ROOT));
+        out.print(": ");
+        out.print(d.message);
+        out.print(" [");
+        out.print(d.code);
+        out.println(']');
+    }
+
+    private static int countLines(String source) {
+        if (source.isEmpty()) return 0;
+        int lines = 1;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') lines++;
+        }
+        return source.charAt(source.length() - 1) == '\n' ? lines - 1 : lines;
+    }
+
+    // ===== INPUT FILES =====
+
+    // Expands the arguments in order; within a directory or glob, files are
+    // sorted so the output order doesn't depend on the file system
+    private static List<Path> collectFiles(List<String> patterns) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (String pattern : patterns) {
+            if (isGlob(pattern)) {
+                files.addAll(expandGlob(pattern));
+                continue;
+            }
+            Path path = Paths.get(pattern);
+            if (Files.isDirectory(path)) {
+                files.addAll(walk(path, p -> isSourceFile(p)));
+            } else if (Files.exists(path)) {
+                files.add(path);
+            } else {
+                usage("no such file: " + pattern);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static boolean isGlob(String pattern) {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0
+            || pattern.indexOf('[') >= 0 || pattern.indexOf('{') >= 0;
+    }
+
+    // Walks the directory part before the first glob character and matches
+    // the whole pattern against each file below it
+    private static List<Path> expandGlob(String pattern) throws IOException {
+        String normalized = pattern.replace(File.separatorChar, '/');
+        int firstGlob = normalized.length();
+        for (char c : new char[]{'*', '?', '[', '{'}) {
+            int index = normalized.indexOf(c);
+            if (index >= 0) firstGlob = Math.min(firstGlob, index);
+        }
+        int slash = normalized.lastIndexOf('/', firstGlob);
+        Path base = Paths.get(slash < 0 ? "." : slash == 0 ? "/" : normalized.substring(0, slash));
+        String relative = slash < 0 ? normalized : normalized.substring(slash + 1);
+        // "**/" also matches no directory at all, as in most shells
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relative.replace("**/", "{**/,}"));
+        if (!Files.isDirectory(base)) return Collections.emptyList();
+        return walk(base, p -> matcher.matches(base.relativize(p)));
+    }
+
+    private interface PathFilter {
+        boolean accept(Path path);
+    }
+
+    private static List<Path> walk(Path root, PathFilter filter) throws IOException {
+        List<Path> found = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, java.nio.file.attribute.BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && filter.accept(file)) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            // An unreadable directory or file is kept, and reported as
+            // such when it is read, instead of ending the walk
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                found.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(found);
+        return found;
+    }
+
+    private static boolean isSourceFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : SOURCE_EXTENSIONS) {
+            if (name.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    // ===== EXECUTORS =====
+
+    // Executors.newVirtualThreadPerTaskExecutor() only exists on Java 21+;
+    // looked up reflectively so this still compiles and runs on 17. Returns
+    // null when it is not available.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static void usage(String problem) {
+        System.err.println("BatchAnalyzer: " + problem);
+        System.err.println("usage: java BatchAnalyzer [-j threads] [--virtual] [-q] <file|dir|glob>...");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,1334 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.regex.*;
+
+// Micro-benchmarks for the analyzer pipeline. Run with the benchmark name:
+//
+//   java Benchmarks lexer [lines]
+//   java Benchmarks tokens [lines]
+//   java Benchmarks relex [edits]
+//   java Benchmarks diagnostics [lines]
+//   java Benchmarks linecache [lines]
+//   java Benchmarks sessions [count]
+//   java Benchmarks keywords [lines]
+//   java Benchmarks parse [lines]
+//   java Benchmarks reparse [edits]
+//   java Benchmarks alloc [lines]
+//   java Benchmarks scopes [depth]
+//   java Benchmarks symbols [lines]
+//   java Benchmarks flow [segments]
+//   java Benchmarks run [scale]
+//   java Benchmarks ssa [functions]
+//   java Benchmarks x86 [functions]
+//
+// Every benchmark works on a generated W++ program so results are
+// reproducible without sample files.
+public class Benchmarks {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) {
+        String name = args.length > 0 ? args[0] : "lexer";
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        switch (name) {
+            case "lexer":
+                benchLexer(lines);
+                break;
+            case "tokens":
+                benchTokenMemory(lines);
+                break;
+            case "relex":
+                benchRelex(args.length > 1 ? lines : 2000);
+                break;
+            case "diagnostics":
+                benchDiagnostics(args.length > 1 ? lines : 2000);
+                break;
+            case "linecache":
+                benchLineCache(args.length > 1 ? lines : 50000);
+                break;
+            case "sessions":
+                benchSessions(args.length > 1 ? lines : 400);
+                break;
+            case "keywords":
+                benchKeywords(args.length > 1 ? lines : 5000);
+                break;
+            case "parse":
+                benchParse(lines);
+                break;
+            case "reparse":
+                benchReparse(args.length > 1 ? lines : 2000);
+                break;
+            case "alloc":
+                benchAllocation(args.length > 1 ? lines : 5000);
+                break;
+            case "scopes":
+                benchScopes(args.length > 1 ? lines : 200);
+                break;
+            case "symbols":
+                benchSymbols(lines);
+                break;
+            case "flow":
+                benchFlow(args.length > 1 ? lines : 2000);
+                break;
+            case "run":
+                benchRun(args.length > 1 ? lines : 300);
+                break;
+            case "ssa":
+                benchSsa(args.length > 1 ? lines : 200);
+                break;
+            case "x86":
+                benchX86(args.length > 1 ? lines : 200);
+                break;
+            default:
+                System.err.println("Unknown benchmark: " + name);
+                System.exit(1);
+        }
+    }
+
+    // Builds a program of roughly the given number of lines that exercises
+    // every token category the lexer knows about
+    static String generateProgram(int lines) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("int main() {\n");
+        int i = 0;
+        while (sb.length() < lines * 32) {
+            sb.append("    int count").append(i).append(" = ").append(i).append(";\n");
+            sb.append("    float ratio").append(i).append(" = ").append(i).append(".5;\n");
+            sb.append("    char c").append(i).append(" = 'x';\n");
+            sb.append("    string s").append(i).append(" = \"value ").append(i).append("\";\n");
+            sb.append("    /* block comment ").append(i).append(" */\n");
+            sb.append("    if (count").append(i).append(" >= 10 && ratio").append(i).append(" != 0) {\n");
+            sb.append("        count").append(i).append(" = count").append(i).append(" * 2 + 1; // update\n");
+            sb.append("    } else {\n");
+            sb.append("        for (int k = 0; k < 10; k++) { continue; }\n");
+            sb.append("    }\n");
+            i++;
+        }
+        sb.append("    return 0;\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // ===== LEXER =====
+
+    private static void benchLexer(int lines) {
+        String program = generateProgram(lines);
+        int lineCount = program.split("\n", -1).length;
+        System.out.printf("Lexer benchmark: %d lines, %d chars%n", lineCount, program.length());
+
+        long regexTokens = 0;
+        long dfaTokens = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            regexTokens = legacyRegexScan(program);
+            dfaTokens = Lexer.tokenize(program).size();
+        }
+
+        long regexNanos = time(() -> legacyRegexScan(program));
+        long dfaNanos = time(() -> Lexer.tokenize(program).size());
+
+        report("regex + String.matches", regexNanos, regexTokens, program.length());
+        report("table-driven DFA", dfaNanos, dfaTokens, program.length());
+        System.out.printf("Speedup: %.1fx%n", (double) regexNanos / dfaNanos);
+    }
+
+    // The scanner ScannerGUI used before the Lexer existed: strip comments,
+    // run one alternation regex, then re-classify every token with
+    // String.matches (each call compiles a fresh Pattern)
+    private static long legacyRegexScan(String input) {
+        input = Pattern.compile("(?s)//[^\\r\\n]*|/\\*.*?\\*/").matcher(input).replaceAll("");
+        String regex = "\\b(int|float|double|char|string|if|else|for|while|do|break|continue|return|void)\\b" +
+                      "|[+\\-*/%<>=!&|]{1,2}" +
+                      "|\\d+(\\.\\d+)?" +
+                      "|\'[^\']\'" +
+                      "|\"([^\"]*)\"" +
+                      "|[a-zA-Z_][a-zA-Z0-9_]*" +
+                      "|[{}();,]|\\n";
+        Matcher matcher = Pattern.compile(regex).matcher(input);
+        long count = 0;
+        String category = null;
+        while (matcher.find()) {
+            String token = matcher.group();
+            if (token.equals("\n")) continue;
+            count++;
+            if (token.matches("\\b(int|float|double|char|string|void)\\b")) {
+                category = "DECLARATION";
+            } else if (token.matches("\\b(if|else)\\b")) {
+                category = "CONDITIONAL";
+            } else if (token.matches("\\b(for|while|do)\\b")) {
+                category = "LOOP";
+            } else if (token.matches("\\b(break|continue|return)\\b")) {
+                category = "CONTROL";
+            } else if (token.matches("[+\\-*/%<>=!&|]{1,2}")) {
+                category = "OPERATOR";
+            } else if (token.matches("\\d+(\\.\\d+)?")) {
+                category = "NUMBER";
+            } else if (token.matches("\'[^\']\'")) {
+                category = "CHAR_LITERAL";
+            } else if (token.matches("\"([^\"]*)\"")) {
+                category = "STRING_LITERAL";
+            } else if (token.matches("[a-zA-Z_][a-zA-Z0-9_]*")) {
+                category = "IDENTIFIER";
+            } else if (token.matches("[{}();,]")) {
+                category = "SEPARATOR";
+            }
+        }
+        sink += category == null ? 0 : 1;
+        return count;
+    }
+
+    // ===== TOKEN STREAM MEMORY =====
+
+    // Compares the retained heap of the old List<String> + List<Integer>
+    // pair with a TokenStream holding the same tokens
+    private static void benchTokenMemory(int lines) {
+        String program = generateProgram(lines);
+        long baseline = usedHeap();
+
+        TokenStream stream = Lexer.tokenize(program);
+        long streamBytes = usedHeap() - baseline;
+
+        List<String> tokens = new ArrayList<>(stream.size());
+        List<Integer> tokenLines = new ArrayList<>(stream.size());
+        for (int i = 0; i < stream.size(); i++) {
+            tokens.add(stream.textString(i));
+            tokenLines.add(stream.line(i));
+        }
+        long listBytes = usedHeap() - baseline - streamBytes;
+
+        System.out.printf("Token memory: %d tokens%n", stream.size());
+        System.out.printf("  %-24s %10.1f MB  %6.1f bytes/token%n", "List<String>+List<Integer>",
+            listBytes / 1e6, (double) listBytes / tokens.size());
+        System.out.printf("  %-24s %10.1f MB  %6.1f bytes/token%n", "TokenStream",
+            streamBytes / 1e6, (double) streamBytes / stream.size());
+        sink += tokens.size() + tokenLines.size() + stream.size();
+    }
+
+    // ===== INCREMENTAL RELEXING =====
+
+    // Applies the same stream of random keystrokes to documents of growing
+    // size and reports per-keystroke relex latency next to the cost of a
+    // full rescan. The incremental stream is checked against a
+    // fresh lex of the final text.
+    private static void benchRelex(int edits) {
+        String alphabet = "abcxyz019 ;=+(){}\n/*\"'";
+        System.out.printf("Incremental relex: %d random edits per document%n", edits);
+        for (int lines : new int[]{1000, 10000, 50000}) {
+            String program = generateProgram(lines);
+            IncrementalLexer relexer = new IncrementalLexer();
+            relexer.insert(0, program);
+            Random random = new Random(42);
+            long[] latencies = new long[edits];
+
+            // Typing model: bursts of 20 keystrokes (with the odd backspace)
+            // at a cursor that jumps to a random spot between bursts
+            int cursor = 0;
+            for (int e = 0; e < edits; e++) {
+                if (e % 20 == 0) {
+                    cursor = random.nextInt(relexer.text().length());
+                }
+                long start = System.nanoTime();
+                if (random.nextInt(4) == 0 && cursor > 0) {
+                    relexer.remove(--cursor, 1);
+                } else {
+                    relexer.insert(cursor++, String.valueOf(alphabet.charAt(random.nextInt(alphabet.length()))));
+                }
+                latencies[e] = System.nanoTime() - start;
+            }
+
+            String finalText = relexer.text().toString();
+            verifySameTokens(relexer.tokens(), Lexer.tokenize(finalText));
+            long fullNanos = time(() -> Lexer.tokenize(finalText).size());
+
+            Arrays.sort(latencies);
+            System.out.printf("  %6d lines: median %7.1f us  p99 %8.1f us  | full relex %8.1f us%n",
+                lines, latencies[edits / 2] / 1e3, latencies[edits * 99 / 100] / 1e3, fullNanos / 1e3);
+        }
+    }
+
+    // ===== DIAGNOSTIC SINKS =====
+
+    // Runs the line checks headless into a ring buffer, then compares the
+    // two ways of getting the result into the Error Console: appending
+    // every diagnostic to a JTextArea as it is reported (what the analyzer
+    // used to do) and one SwingDiagnosticSink flush
+    private static void benchDiagnostics(int lines) {
+        String program = generateProgram(lines);
+        DiagnosticRingBuffer ring = new DiagnosticRingBuffer(256);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            ring.clear();
+            new SyntaxAnalyzer().analyze(program, ring);
+        }
+        long analyzeNanos = time(() -> {
+            ring.clear();
+            new SyntaxAnalyzer().analyze(program, ring);
+            return ring.total();
+        });
+
+        DiagnosticCollector collected = new DiagnosticCollector();
+        new SyntaxAnalyzer().analyze(program, collected);
+        List<Diagnostic> diagnostics = collected.diagnostics();
+        javax.swing.JTextArea area = new javax.swing.JTextArea();
+        long appendNanos = time(() -> {
+            area.setText("");
+            for (Diagnostic d : diagnostics) {
+                area.append(d + "\n");
+            }
+            return area.getDocument().getLength();
+        });
+        SwingDiagnosticSink swingSink = new SwingDiagnosticSink(area);
+        long flushNanos = time(() -> {
+            for (Diagnostic d : diagnostics) {
+                swingSink.report(d);
+            }
+            try {
+                javax.swing.SwingUtilities.invokeAndWait(swingSink::flush);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return area.getDocument().getLength();
+        });
+
+        System.out.printf("Diagnostics: %d lines, %d diagnostics (ring buffer kept %d, dropped %d)%n",
+            lines, diagnostics.size(), ring.diagnostics().size(), ring.dropped());
+        System.out.printf("  %-24s %8.2f ms%n", "analysis (headless)", analyzeNanos / 1e6);
+        System.out.printf("  %-24s %8.2f ms%n", "JTextArea.append each", appendNanos / 1e6);
+        System.out.printf("  %-24s %8.2f ms%n", "SwingDiagnosticSink", flushNanos / 1e6);
+    }
+
+    // ===== LINE CACHE =====
+
+    // Re-analyses a file after one-line edits with a LineCache and a
+    // TreeCache carried over from the previous run, against a fresh
+    // analysis of the same text, and fails if the two disagree on a
+    // diagnostic or the symbol table. Measured with every rule and again
+    // without the dataflow rule, whose results the TreeCache keeps per
+    // function.
+    private static void benchLineCache(int lines) {
+        String program = mutateProgram(generateProgram(lines), 7);
+        System.out.printf("Line cache: %d lines, one-line edits re-analysed with the previous run's caches%n",
+            program.split("\n", -1).length);
+        benchLineCache(program, "all rules", true);
+        benchLineCache(program, "without dataflow", false);
+        // The program above is one function, whose dataflow every edit
+        // invalidates; the same size in small functions is the common case
+        int functions = lines / 17;
+        benchLineCache(generateOptimizerProgram(functions), "all rules, " + functions + " functions", true);
+    }
+
+    private static void benchLineCache(String program, String label, boolean dataflow) {
+        String[] text = program.split("\n", -1);
+        LineCache cache = new LineCache();
+        TreeCache trees = new TreeCache();
+        DiagnosticRingBuffer ring = new DiagnosticRingBuffer(256);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            ring.clear();
+            session(dataflow, null, null).analyze(program, ring);
+            session(dataflow, cache, trees).analyze(program, ring);
+        }
+        long fullNanos = time(() -> {
+            ring.clear();
+            session(dataflow, null, null).analyze(program, ring);
+            return ring.total();
+        });
+
+        Random random = new Random(42);
+        int edits = 8;
+        long[] latencies = new long[edits];
+        long hits = 0;
+        long checks = 0;
+        long functionHits = 0;
+        long functions = 0;
+        for (int e = 0; e < edits; e++) {
+            int at = 1 + random.nextInt(text.length - 2);
+            text[at] = random.nextBoolean() ? text[at] + " // edited " + e : "    count0 = count0 + " + e + ";";
+            PreprocessedSource source = PreprocessedSource.of(String.join("\n", text));
+
+            DiagnosticCollector cached = new DiagnosticCollector();
+            SyntaxAnalyzer analyzer = session(dataflow, cache, trees);
+            long start = System.nanoTime();
+            analyzer.analyze(source, cached);
+            latencies[e] = System.nanoTime() - start;
+            hits += cache.runHits();
+            checks += cache.runHits() + cache.runMisses();
+            functionHits += trees.runHits();
+            functions += trees.runHits() + trees.runMisses();
+
+            DiagnosticCollector fresh = new DiagnosticCollector();
+            SyntaxAnalyzer reference = session(dataflow, null, null);
+            reference.analyze(source, fresh);
+            if (!cached.toText().equals(fresh.toText())
+                    || !symbolRows(analyzer.symbolTableText()).equals(symbolRows(reference.symbolTableText()))) {
+                throw new IllegalStateException("Cached analysis differs after edit " + e + " at line " + (at + 1));
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.printf("  %s:%n", label);
+        System.out.printf("    %-26s %8.2f ms%n", "analysis without cache", fullNanos / 1e6);
+        System.out.printf("    %-26s %8.2f ms%n", "re-analysis after an edit", latencies[edits / 2] / 1e6);
+        System.out.printf("    %-26s %7.1f %%  (%d of %d line checks, %d entries)%n", "cache hit rate",
+            100.0 * hits / checks, hits, checks, cache.size());
+        if (dataflow) {
+            System.out.printf("    %-26s %7.1f %%  (%d of %d functions, %d entries)%n", "dataflow hit rate",
+                100.0 * functionHits / functions, functionHits, functions, trees.size());
+        }
+    }
+
+    private static SyntaxAnalyzer session(boolean dataflow, LineCache cache, TreeCache trees) {
+        RuleRegistry rules = SyntaxAnalyzer.defaultRules();
+        rules.setEnabled("dataflow", dataflow);
+        return new SyntaxAnalyzer(rules, cache, trees);
+    }
+
+    // The symbol table text without the caches' statistics and the name
+    // pool's, which a tree cache keeps from run to run
+    private static String symbolRows(String table) {
+        return table.replaceAll("(?m)^.*(line cache|tree cache|distinct names).*\n", "");
+    }
+
+    // ===== CONCURRENT SESSIONS =====
+
+    // Stress check for SyntaxAnalyzer sessions: analyses a set of inputs
+    // sequentially, then runs 'count' sessions over the same inputs on a
+    // thread pool and fails if any of them disagrees with the sequential
+    // result (symbol table and every diagnostic)
+    private static void benchSessions(int count) {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        List<String> inputs = new ArrayList<>();
+        for (int seed = 0; seed < 16; seed++) {
+            inputs.add(mutateProgram(generateProgram(40 + seed * 5), seed));
+        }
+
+        String[] expected = new String[inputs.size()];
+        long sequentialStart = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            String result = analyzeSession(inputs.get(i % inputs.size()));
+            if (i < inputs.size()) expected[i] = result;
+        }
+        long sequentialNanos = System.nanoTime() - sequentialStart;
+
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        List<java.util.concurrent.Future<String>> futures = new ArrayList<>();
+        long parallelStart = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            String input = inputs.get(i % inputs.size());
+            futures.add(pool.submit(() -> analyzeSession(input)));
+        }
+        int mismatches = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (!futures.get(i).get().equals(expected[i % inputs.size()])) mismatches++;
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+        long parallelNanos = System.nanoTime() - parallelStart;
+
+        System.out.printf("Sessions: %d analyses of %d inputs, %d threads%n", count, inputs.size(), threads);
+        System.out.printf("  %-24s %8.1f ms%n", "sequential", sequentialNanos / 1e6);
+        System.out.printf("  %-24s %8.1f ms  (%.1fx)%n", "thread pool", parallelNanos / 1e6,
+            (double) sequentialNanos / parallelNanos);
+        if (mismatches > 0) {
+            throw new IllegalStateException(mismatches + " concurrent sessions differ from the sequential run");
+        }
+        System.out.println("  all concurrent results match the sequential run");
+    }
+
+    // ===== KEYWORD MATCHING =====
+
+    // Every C++20 keyword and alternative operator token
+    static final String[] CPP_KEYWORDS = {
+        "alignas", "alignof", "and", "and_eq", "asm", "auto", "bitand", "bitor", "bool", "break", "case",
+        "catch", "char", "char8_t", "char16_t", "char32_t", "class", "compl", "concept", "const",
+        "consteval", "constexpr", "constinit", "const_cast", "continue", "co_await", "co_return",
+        "co_yield", "decltype", "default", "delete", "do", "double", "dynamic_cast", "else", "enum",
+        "explicit", "export", "extern", "false", "float", "for", "friend", "goto", "if", "inline", "int",
+        "long", "mutable", "namespace", "new", "noexcept", "not", "not_eq", "nullptr", "operator", "or",
+        "or_eq", "private", "protected", "public", "register", "reinterpret_cast", "requires", "return",
+        "short", "signed", "sizeof", "static", "static_assert", "static_cast", "struct", "switch",
+        "template", "this", "thread_local", "throw", "true", "try", "typedef", "typeid", "typename",
+        "union", "unsigned", "using", "virtual", "void", "volatile", "wchar_t", "while", "xor", "xor_eq",
+        "string"
+    };
+
+    // Counts miscased keyword occurrences per line, as checkKeywordCase
+    // does, with keyword sets growing up to full C++. The old way is one
+    // case-insensitive pattern per keyword per line; the KeywordMatcher
+    // automaton makes one pass whatever the set size.
+    private static void benchKeywords(int lines) {
+        String[] programLines = generateProgram(lines)
+            .replace("int count", "Int count").replace("if (", "IF (").replace("else", "Else")
+            .split("\n");
+        long chars = 0;
+        for (String line : programLines) {
+            chars += line.length();
+        }
+        System.out.printf("Keyword matching: %d lines, %d chars%n", programLines.length, chars);
+        System.out.printf("  %-9s %14s %14s %14s%n", "keywords", "regex/keyword", "compiled", "Aho-Corasick");
+
+        for (int size : new int[]{8, 16, 32, 64, CPP_KEYWORDS.length}) {
+            String[] keywords = Arrays.copyOf(CPP_KEYWORDS, size);
+            // The generated program uses these; keep them in every set
+            String[] common = {"int", "if", "else", "for", "float", "char", "string", "return"};
+            for (int i = 0; i < common.length; i++) {
+                keywords[i] = common[i];
+            }
+            Set<String> unique = new LinkedHashSet<>(Arrays.asList(keywords));
+            unique.addAll(Arrays.asList(CPP_KEYWORDS));
+            keywords = new ArrayList<>(unique).subList(0, size).toArray(new String[0]);
+
+            Pattern[] compiled = new Pattern[keywords.length];
+            for (int k = 0; k < keywords.length; k++) {
+                compiled[k] = Pattern.compile("\\b" + Pattern.quote(keywords[k]) + "\\b", Pattern.CASE_INSENSITIVE);
+            }
+            KeywordMatcher matcher = new KeywordMatcher(keywords);
+            String[] set = keywords;
+
+            long legacyCount = 0;
+            long automatonCount = 0;
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                legacyCount = miscasedPerKeyword(programLines, set, null);
+                automatonCount = miscasedAutomaton(programLines, matcher);
+            }
+            if (legacyCount != automatonCount) {
+                throw new IllegalStateException("Matchers disagree: " + legacyCount + " vs " + automatonCount);
+            }
+            long legacyNanos = time(() -> miscasedPerKeyword(programLines, set, null));
+            long compiledNanos = time(() -> miscasedPerKeyword(programLines, set, compiled));
+            long automatonNanos = time(() -> miscasedAutomaton(programLines, matcher));
+            System.out.printf("  %-9d %11.2f ms %11.2f ms %11.2f ms  (%.0fx, %d miscased)%n", size,
+                legacyNanos / 1e6, compiledNanos / 1e6, automatonNanos / 1e6,
+                (double) compiledNanos / automatonNanos, automatonCount);
+        }
+    }
+
+    // compiled == null compiles each pattern per line, like the old
+    // checkKeywordCase did
+    private static long miscasedPerKeyword(String[] lines, String[] keywords, Pattern[] compiled) {
+        long count = 0;
+        for (String line : lines) {
+            for (int k = 0; k < keywords.length; k++) {
+                Pattern pattern = compiled != null ? compiled[k]
+                    : Pattern.compile("\\b" + Pattern.quote(keywords[k]) + "\\b", Pattern.CASE_INSENSITIVE);
+                Matcher m = pattern.matcher(line);
+                while (m.find()) {
+                    if (!m.group().equals(keywords[k])) count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static long miscasedAutomaton(String[] lines, KeywordMatcher matcher) {
+        long[] count = new long[1];
+        KeywordMatcher.Listener listener = (keyword, start, end, exactCase) -> {
+            if (!exactCase) count[0]++;
+        };
+        for (String line : lines) {
+            matcher.scan(line, 0, line.length(), listener);
+        }
+        return count[0];
+    }
+
+    // ===== PARSER =====
+
+    // Parse time per token at growing program sizes, clean and with the
+    // sessions benchmark's mutations; recursive descent with one token of
+    // lookahead should stay flat, error recovery included
+    private static void benchParse(int lines) {
+        System.out.printf("Parser: ns per token%n");
+        System.out.printf("  %-8s %10s %10s %10s %12s%n", "lines", "tokens", "clean", "broken", "nodes/token");
+        for (int size = Math.max(1, lines / 8); size <= lines; size *= 2) {
+            TokenStream clean = Lexer.tokenize(generateProgram(size));
+            TokenStream broken = Lexer.tokenize(mutateProgram(generateProgram(size), size));
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                Parser.parse(clean);
+                Parser.parse(broken);
+            }
+            long cleanNanos = time(() -> Parser.parse(clean).size());
+            long brokenNanos = time(() -> Parser.parse(broken).size());
+            System.out.printf("  %-8d %10d %10.1f %10.1f %12.2f  (%d problems)%n", size, clean.size(),
+                (double) cleanNanos / clean.size(), (double) brokenNanos / broken.size(),
+                (double) Parser.parse(clean).size() / clean.size(), Parser.parse(broken).problems().size());
+        }
+    }
+
+    // Edit latency of IncrementalParser (relex and reparse) against a full
+    // parse, for the same typing model as benchRelex. Plain typing only
+    // touches the statements at the cursor; braces, quotes and comment
+    // openers can change the structure of the rest of the file, and their
+    // worst case is a full parse, so they are measured separately. The
+    // comment alphabet keeps opening and closing comments and strings,
+    // often one that runs to the end of the file. Before the timing, each
+    // alphabet is typed into a small document with many seeds and every
+    // edit's tree is checked against a full parse; edits at the end of the
+    // file, rare in a big one, are common there.
+    private static void benchReparse(int edits) {
+        System.out.printf("Incremental reparse: %d random edits per document%n", edits);
+        String[][] alphabets = {{"typing", "abcxyz019 ;=+-*()<>\n"}, {"structural", "abcxyz019 ;=+(){}\n/*\"'"},
+            {"comments", "\"/*x\n"}};
+        for (String[] alphabet : alphabets) {
+            System.out.printf("  %s (%s)%n", alphabet[0], alphabet[1].replace("\n", "\\n"));
+            checkReparse(alphabet[1], edits, generateProgram(10), 100);
+            // Braces and parentheses typed around the parser's nesting limit
+            checkReparse(alphabet[1], edits / 4, generateNestedProgram(126), 4);
+            for (int lines : new int[]{1000, 10000, 50000}) {
+                IncrementalParser parser = new IncrementalParser();
+                parser.insert(0, generateProgram(lines));
+                Random random = new Random(42);
+                long[] latencies = new long[edits];
+                int cursor = 0;
+                int full = 0;
+                long reparsedNodes = 0;
+                for (int e = 0; e < edits; e++) {
+                    if (e % 20 == 0) {
+                        cursor = random.nextInt(parser.text().length());
+                    }
+                    long start = System.nanoTime();
+                    IncrementalParser.Change change;
+                    if (random.nextInt(4) == 0 && cursor > 0) {
+                        change = parser.remove(--cursor, 1);
+                    } else {
+                        String typed = String.valueOf(alphabet[1].charAt(random.nextInt(alphabet[1].length())));
+                        change = parser.insert(cursor++, typed);
+                    }
+                    latencies[e] = System.nanoTime() - start;
+                    if (change.full) full++;
+                    reparsedNodes += change.nodeCount();
+                }
+
+                TokenStream finalTokens = Lexer.tokenize(parser.text().toString());
+                if (!describeTree(Parser.parse(finalTokens)).equals(describeTree(parser.ast()))) {
+                    throw new IllegalStateException("reparsed tree differs from a full parse");
+                }
+                long fullNanos = time(() -> Parser.parse(finalTokens).size());
+
+                Arrays.sort(latencies);
+                System.out.printf("    %6d lines: median %7.1f us  p99 %8.1f us  | full parse %9.1f us"
+                        + "  (%d full, %.0f nodes per edit)%n",
+                    lines, latencies[edits / 2] / 1e3, latencies[edits * 99 / 100] / 1e3, fullNanos / 1e3,
+                    full, (double) reparsedNodes / edits);
+            }
+        }
+    }
+
+    private static void checkReparse(String alphabet, int edits, String document, int seeds) {
+        for (int seed = 0; seed < seeds; seed++) {
+            IncrementalParser parser = new IncrementalParser();
+            parser.insert(0, document);
+            Random random = new Random(seed);
+            int cursor = 0;
+            for (int e = 0; e < edits; e++) {
+                if (e % 20 == 0) {
+                    cursor = random.nextInt(parser.text().length() + 1);
+                }
+                if (random.nextInt(4) == 0 && cursor > 0) {
+                    parser.remove(--cursor, 1);
+                } else {
+                    parser.insert(cursor++, String.valueOf(alphabet.charAt(random.nextInt(alphabet.length()))));
+                }
+                String expected = describeTree(Parser.parse(Lexer.tokenize(parser.text().toString())));
+                if (!expected.equals(describeTree(parser.ast()))) {
+                    throw new IllegalStateException("reparsed tree differs from a full parse after edit " + e
+                        + " with seed " + seed);
+                }
+            }
+        }
+    }
+
+    // Everything the accessors say about a tree: the structure with every
+    // node's kind, token and span, statements() and problems()
+    static String describeTree(Ast ast) {
+        StringBuilder sb = new StringBuilder();
+        int[] stack = {ast.root()};
+        int[] depths = {0};
+        int top = 1;
+        while (top > 0) {
+            int node = stack[--top];
+            int depth = depths[top];
+            sb.append(depth).append(' ').append(ast.kind(node)).append(' ').append(ast.token(node)).append(' ')
+                .append(ast.firstToken(node)).append(' ').append(ast.lastToken(node)).append('\n');
+            int children = ast.childCount(node);
+            if (top + children > stack.length) {
+                stack = Arrays.copyOf(stack, (top + children) * 2);
+                depths = Arrays.copyOf(depths, stack.length);
+            }
+            // Pushed last to first, so they come off in order
+            int k = top + children;
+            for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                stack[--k] = child;
+                depths[k] = depth + 1;
+            }
+            top += children;
+        }
+        for (int i = 0; i < ast.statementCount(); i++) {
+            int statement = ast.statement(i);
+            sb.append(ast.kind(statement)).append(" statement ").append(ast.firstToken(statement)).append(' ')
+                .append(ast.lastToken(statement)).append('\n');
+        }
+        for (Diagnostic d : ast.problems()) {
+            sb.append(d.line).append(':').append(d.column).append('+').append(d.length).append(' ')
+                .append(d.code).append(' ').append(d.message).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // ===== ALLOCATION =====
+
+    // Bytes allocated per source line. The line walk itself should be
+    // allocation-free; each rule is then measured on its own, against an
+    // analysis with every rule switched off (preprocessing, lexing,
+    // parsing and the line loop). Diagnostics go to a sink that drops
+    // them, but building them is counted.
+    private static void benchAllocation(int lines) {
+        String program = generateProgram(lines);
+        String code = PreprocessedSource.of(program).code();
+        int lineCount = program.split("\n", -1).length;
+        DiagnosticSink discard = diagnostic -> { };
+        Pattern lineComment = Pattern.compile("//.*$");
+        System.out.printf("Allocation: %d lines, bytes per line%n", lineCount);
+
+        Task splitAndTrim = () -> {
+            long n = 0;
+            for (String raw : code.split("\\n")) {
+                String text = raw.contains("//") ? lineComment.matcher(raw).replaceAll("") : raw;
+                n += text.trim().length();
+            }
+            return n;
+        };
+        Task cursorWalk = () -> {
+            long n = 0;
+            LineCursor cursor = new LineCursor(code);
+            while (cursor.next()) {
+                n += cursor.textEnd() - cursor.textStart();
+            }
+            return n;
+        };
+        System.out.printf("  %-24s %10.1f%n", "split + trim (old loop)", allocatedBytes(splitAndTrim) / (double) lineCount);
+        System.out.printf("  %-24s %10.1f%n", "LineCursor walk", allocatedBytes(cursorWalk) / (double) lineCount);
+
+        List<String> ids = SyntaxAnalyzer.defaultRules().ids();
+        long baseline = allocatedBytes(() -> analyzeWith(program, ids, null, discard));
+        long all = allocatedBytes(() -> analyzeWith(program, ids, "*", discard));
+        System.out.printf("  %-24s %10.1f%n", "analysis, no rules", baseline / (double) lineCount);
+        for (String id : ids) {
+            long bytes = allocatedBytes(() -> analyzeWith(program, ids, id, discard));
+            System.out.printf("  %-24s %10.1f%n", "+ " + id, (bytes - baseline) / (double) lineCount);
+        }
+        System.out.printf("  %-24s %10.1f  (%.1f in the rules)%n", "analysis, all rules",
+            all / (double) lineCount, (all - baseline) / (double) lineCount);
+    }
+
+    // ===== SCOPES =====
+
+    // Blocks nested depth deep, each declaring a variable and reading the
+    // ones declared around it. Indentation stays fixed so the source grows
+    // linearly with depth.
+    static String generateNestedProgram(int depth) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("int main() {\n");
+        for (int level = 0; level < depth; level++) {
+            sb.append("    int v").append(level).append(" = ").append(level).append(";\n");
+            sb.append("    if (v").append(level).append(" >= 0) {\n");
+        }
+        for (int level = depth - 1; level >= 0; level--) {
+            sb.append("        v").append(level).append(" = v").append(level).append(" + 1;\n");
+            sb.append("    }\n");
+        }
+        sb.append("    return 0;\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // Cost of a scope level: the symbol table on its own (push, declare,
+    // look up every visible name's innermost binding, pop) and the whole
+    // analysis of nested blocks, per level. Both should stay flat as depth
+    // grows.
+    private static void benchScopes(int maxDepth) {
+        System.out.printf("Scoped symbol table, bytes and ns per nesting level%n");
+        SymbolPool pool = new SymbolPool();
+        SymbolTable table = new SymbolTable();
+        int intType = SymbolPool.seeded("int");
+        DiagnosticSink discard = diagnostic -> { };
+        for (int depth = Math.max(1, maxDepth / 100); depth <= maxDepth; depth *= 10) {
+            int levels = depth;
+            int[] names = new int[levels];
+            for (int level = 0; level < levels; level++) {
+                names[level] = pool.intern("v" + (level % 8)); // shadowing every 8 levels
+            }
+            Task nest = () -> {
+                table.clear(pool);
+                long found = 0;
+                for (int level = 0; level < levels; level++) {
+                    table.pushScope("block", level);
+                    table.declare(names[level], intType, true, level);
+                    found += table.lookup(names[level / 2]) >= 0 ? 1 : 0;
+                }
+                for (int level = 0; level < levels; level++) {
+                    table.popScope();
+                }
+                return found;
+            };
+            // Past the parser's nesting limit the rest would be skipped
+            int analyzed = Math.min(levels, 120);
+            String program = generateNestedProgram(analyzed);
+            Task analyze = () -> {
+                new SyntaxAnalyzer().analyze(program, discard);
+                return 1;
+            };
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                sink += nest.run() + analyze.run();
+            }
+            System.out.printf("  depth %-6d table %7.1f B %7.1f ns   analysis %9.1f B %9.1f ns%n", levels,
+                allocatedBytes(nest) / (double) levels, time(nest) / (double) levels,
+                allocatedBytes(analyze) / (double) analyzed, time(analyze) / (double) analyzed);
+        }
+    }
+
+    // ===== SYMBOLS =====
+
+    // What interning saves: the pool's counts for a generated program, and
+    // resolving every word token to its declaration by id against the old
+    // way, a String per token looked up in a HashMap
+    private static void benchSymbols(int lines) {
+        String program = generateProgram(lines);
+        TokenStream tokens = Lexer.tokenize(program);
+        SymbolPool pool = tokens.pool();
+        System.out.printf("Symbol pool: %d lines, %d tokens%n", program.split("\n", -1).length, tokens.size());
+        System.out.printf("  %d distinct names for %d occurrences, ~%d KB saved by interning%n",
+            pool.distinct(), pool.occurrences(), pool.bytesSaved() / 1024);
+
+        // Declare every word once in a flat scope, as both tables
+        SymbolTable table = new SymbolTable();
+        table.clear(pool);
+        Map<String, Integer> byName = new HashMap<>();
+        int type = SymbolPool.seeded("int");
+        for (int i = 0; i < tokens.size(); i++) {
+            int id = tokens.symbol(i);
+            if (id >= 0 && table.lookup(id) < 0) {
+                byName.put(tokens.textString(i), table.declare(id, type, true, tokens.line(i)));
+            }
+        }
+
+        Task byId = () -> {
+            long found = 0;
+            for (int i = 0; i < tokens.size(); i++) {
+                int id = tokens.symbol(i);
+                if (id >= 0) found += table.lookup(id);
+            }
+            return found;
+        };
+        Task byString = () -> {
+            long found = 0;
+            for (int i = 0; i < tokens.size(); i++) {
+                if (tokens.symbol(i) >= 0) found += byName.get(tokens.textString(i));
+            }
+            return found;
+        };
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += byId.run() + byString.run();
+        }
+        long idNanos = time(byId);
+        long stringNanos = time(byString);
+        System.out.printf("  %-24s %8.2f ms  %10.1f B/token%n", "lookup by String", stringNanos / 1e6,
+            allocatedBytes(byString) / (double) tokens.size());
+        System.out.printf("  %-24s %8.2f ms  %10.1f B/token%n", "lookup by pool id", idNanos / 1e6,
+            allocatedBytes(byId) / (double) tokens.size());
+        System.out.printf("Speedup: %.1fx%n", (double) stringNanos / idNanos);
+    }
+
+    // ===== DATAFLOW =====
+
+    // Building the control-flow graph of one large function and solving
+    // definite assignment and liveness on it, at growing sizes. Each
+    // segment adds an if/else, a while with a break and a for loop over a
+    // few of the function's variables, about ten blocks; time per block
+    // should stay flat as the function grows.
+    private static void benchFlow(int maxSegments) {
+        System.out.printf("Dataflow on one function, per basic block%n");
+        for (int segments = Math.max(1, maxSegments / 100); segments <= maxSegments; segments *= 10) {
+            String program = generateFlowProgram(segments, 64);
+            Ast ast = Parser.parse(Lexer.tokenize(program));
+            int function = ast.firstChild(ast.root());
+            ControlFlowGraph graph = ControlFlowGraph.build(ast, function);
+            int blocks = graph.blockCount();
+            Task build = () -> ControlFlowGraph.build(ast, function).blockCount();
+            Task assigned = () -> new Dataflow(graph).assignedIn().length;
+            Task live = () -> new Dataflow(graph).liveOut().length;
+            Task check = () -> {
+                long[] count = new long[1];
+                new Dataflow(graph).check(ast.tokens().pool(), diagnostic -> count[0]++);
+                return count[0];
+            };
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                sink += build.run() + assigned.run() + live.run() + check.run();
+            }
+            System.out.printf("  %7d blocks %7d edges %4d vars   build %6.1f ns   assigned %6.1f ns   live %6.1f ns   checks %6.1f ns%n",
+                blocks, graph.edgeCount(), graph.variableCount(),
+                time(build) / (double) blocks, time(assigned) / (double) blocks,
+                time(live) / (double) blocks, time(check) / (double) blocks);
+        }
+    }
+
+    // One function declaring variables v0..v(variables - 1) and a loop
+    // counter k up front, then segments of branching code reading and writing them
+    static String generateFlowProgram(int segments, int variables) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("int main() {\n");
+        for (int v = 0; v < variables; v++) {
+            sb.append("    int v").append(v).append(v % 3 == 0 ? ";\n" : " = " + v + ";\n");
+        }
+        sb.append("    int k;\n");
+        for (int i = 0; i < segments; i++) {
+            int a = i % variables;
+            int b = (i * 7 + 3) % variables;
+            int c = (i * 13 + 5) % variables;
+            sb.append("    if (v").append(b).append(" > ").append(i).append(") {\n");
+            sb.append("        v").append(a).append(" = v").append(b).append(" + 1;\n");
+            sb.append("    } else {\n");
+            sb.append("        v").append(c).append(" = ").append(i).append(";\n");
+            sb.append("    }\n");
+            sb.append("    while (v").append(a).append(" < v").append(c).append(") {\n");
+            sb.append("        v").append(a).append("++;\n");
+            sb.append("        if (v").append(a).append(" == ").append(i).append(") break;\n");
+            sb.append("    }\n");
+            sb.append("    for (k = 0; k < v").append(b).append("; k++) {\n");
+            sb.append("        v").append(c).append(" += k;\n");
+            sb.append("    }\n");
+        }
+        sb.append("    return v0;\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // ===== EXECUTION =====
+
+    // Running small numeric kernels three ways: walking their trees in the
+    // reference Interpreter, on the register machine, and compiled to JVM
+    // bytecode. All three must print the same thing; the compiled run
+    // includes defining its class each time. Every kernel, and a hello
+    // world that prints string literals, must pass the analyzer without an
+    // ERROR first, as Run in the GUI requires.
+    private static void benchRun(int scale) {
+        String[][] kernels = {
+            {"nested int loops", generateLoopProgram(scale)},
+            {"double series", generateSeriesProgram(scale * scale)},
+            {"recursive fib", generateFibProgram(20 + scale / 100)},
+        };
+        String hello = generateHelloProgram();
+        requireRunnable("hello world", hello);
+        Interpreter greeter = Interpreter.create(Parser.parse(Lexer.tokenize(hello)), new DiagnosticCollector());
+        String greeting = runToString(greeter::run);
+        if (!greeting.equals("Hello, World!\nsum of squares: 14\n")) {
+            throw new IllegalStateException("hello world printed " + greeting);
+        }
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        System.out.printf("Running generated programs (scale %d)%n", scale);
+        for (String[] kernel : kernels) {
+            requireRunnable(kernel[0], kernel[1]);
+            Ast ast = Parser.parse(Lexer.tokenize(kernel[1]));
+            DiagnosticCollector problems = new DiagnosticCollector();
+            CompiledProgram compiled = BytecodeCompiler.compile(ast, problems);
+            RegisterProgram machine = RegisterCompiler.compile(ast, problems);
+            Interpreter interpreter = Interpreter.create(ast, problems);
+            if (compiled == null || machine == null || interpreter == null) {
+                throw new IllegalStateException(kernel[0] + " doesn't compile: " + problems.toText());
+            }
+            String expected = runToString(interpreter::run);
+            if (!runToString(compiled::run).equals(expected) || !runToString(machine::run).equals(expected)) {
+                throw new IllegalStateException(kernel[0] + ": the engines' output differs");
+            }
+            Task runCompiled = () -> compiled.run(discard);
+            Task runMachine = () -> machine.run(discard);
+            Task runInterpreted = () -> interpreter.run(discard);
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                sink += runCompiled.run() + runMachine.run() + runInterpreted.run();
+            }
+            long interpretedNanos = time(runInterpreted);
+            long machineNanos = time(runMachine);
+            long compiledNanos = time(runCompiled);
+            System.out.printf("  %-18s interpreted %9.2f ms   register VM %8.2f ms (%6.1fx, %5.0f M instr/s)   JVM bytecode %8.2f ms (%6.1fx)%n",
+                kernel[0], interpretedNanos / 1e6,
+                machineNanos / 1e6, (double) interpretedNanos / machineNanos, machine.instructionsPerSecond() / 1e6,
+                compiledNanos / 1e6, (double) interpretedNanos / compiledNanos);
+        }
+    }
+
+    // ===== SSA =====
+
+    // Lowering generated programs to SSA and running SsaOptimizer's passes
+    // on them: what each pass costs and how much IR it leaves, and how many
+    // IR instructions the program runs before and after. The optimized IR
+    // must print what the Interpreter prints, and every pass must leave
+    // valid SSA.
+    private static void benchSsa(int functions) {
+        String[][] programs = {
+            {"optimizer kernels", generateOptimizerProgram(functions)},
+            {"nested int loops", generateLoopProgram(60)},
+            {"double series", generateSeriesProgram(3000)},
+            {"recursive fib", generateFibProgram(18)},
+        };
+        for (String[] program : programs) {
+            Ast ast = Parser.parse(Lexer.tokenize(program[1]));
+            DiagnosticCollector problems = new DiagnosticCollector();
+            Interpreter interpreter = Interpreter.create(ast, problems);
+            if (interpreter == null) {
+                throw new IllegalStateException(program[0] + " doesn't compile: " + problems.toText());
+            }
+            String expected = runToString(interpreter::run);
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                sink += new SsaOptimizer().run(SsaBuilder.build(ast, problems)).totalNanos();
+            }
+            SsaFunction[] ir = SsaBuilder.build(ast, problems);
+            SsaEvaluator plain = new SsaEvaluator(ir);
+            String unoptimized = runToString(plain::run);
+            SsaOptimizer.Report report = new SsaOptimizer(SsaOptimizer.DEFAULT_PIPELINE, true).run(ir);
+            SsaEvaluator optimized = new SsaEvaluator(ir);
+            if (!unoptimized.equals(expected) || !runToString(optimized::run).equals(expected)) {
+                throw new IllegalStateException(program[0] + ": the SSA output differs from the Interpreter's");
+            }
+            System.out.printf("%s: %d functions, %d IR instructions run before optimizing, %d after (%.1fx fewer)%n",
+                program[0], ir.length, plain.steps(), optimized.steps(), (double) plain.steps() / optimized.steps());
+            System.out.print(report);
+        }
+    }
+
+    // ===== X86-64 =====
+
+    // Compiling generated programs to x86-64 assembly: the time each
+    // function takes through instruction selection, register allocation
+    // and the peephole pass, and how many intervals were spilled. Where gcc
+    // is on the PATH each program is also assembled and run, and must print
+    // what the Interpreter prints and exit with the same code. The checked
+    // assembly is what the GUI's Compile produces: the program has to pass
+    // the analyzer first and is translated by ScannerGUI.translate.
+    private static void benchX86(int functions) {
+        String[][] programs = {
+            {"optimizer kernels", generateOptimizerProgram(functions)},
+            {"nested int loops", generateLoopProgram(60)},
+            {"double series", generateSeriesProgram(3000)},
+            {"recursive fib", generateFibProgram(18)},
+            {"register pressure", generatePressureProgram(24)},
+            {"hello world", generateHelloProgram()},
+        };
+        for (String[] program : programs) {
+            requireRunnable(program[0], program[1]);
+            Ast ast = Parser.parse(Lexer.tokenize(program[1]));
+            DiagnosticCollector problems = new DiagnosticCollector();
+            Interpreter interpreter = Interpreter.create(ast, problems);
+            X86Compiler.Assembly assembly = ScannerGUI.translate(program[1], problems);
+            if (interpreter == null || assembly == null) {
+                throw new IllegalStateException(program[0] + " doesn't compile: " + problems.toText());
+            }
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                sink += X86Compiler.compile(ast, problems).totalNanos();
+            }
+            long nanos = time(() -> X86Compiler.compile(ast, problems).totalNanos());
+            System.out.printf("%s: %d functions, compiled in %.2f ms, %d intervals spilled, %s%n",
+                program[0], assembly.functions.length, nanos / 1e6, assembly.spills(),
+                checkAssembly(assembly, interpreter));
+            System.out.print(assembly.report());
+        }
+    }
+
+    // Assembles and runs the program with gcc, comparing it against the
+    // Interpreter: "matches the Interpreter", or why it couldn't be checked
+    private static String checkAssembly(X86Compiler.Assembly assembly, Interpreter interpreter) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true);
+        int expectedCode = interpreter.run(out) & 0xFF;
+        String expected = bytes.toString();
+        try {
+            File directory = java.nio.file.Files.createTempDirectory("wpp-x86").toFile();
+            File source = new File(directory, "program.s");
+            File binary = new File(directory, "program");
+            java.nio.file.Files.writeString(source.toPath(), assembly.text());
+            Process gcc = new ProcessBuilder("gcc", "-o", binary.getPath(), source.getPath(), "-lm")
+                .redirectErrorStream(true).start();
+            String gccOutput = new String(gcc.getInputStream().readAllBytes());
+            if (gcc.waitFor() != 0) throw new IllegalStateException("gcc rejects the assembly:\n" + gccOutput);
+            Process run = new ProcessBuilder(binary.getPath()).start();
+            String actual = new String(run.getInputStream().readAllBytes(), "ISO-8859-1");
+            int code = run.waitFor();
+            source.delete();
+            binary.delete();
+            directory.delete();
+            if (!actual.equals(expected) || code != expectedCode) {
+                throw new IllegalStateException("the native program differs from the Interpreter: printed\n"
+                    + actual + "exit " + code + ", expected\n" + expected + "exit " + expectedCode);
+            }
+            return "matches the Interpreter";
+        } catch (IOException e) {
+            return "not run (" + e.getMessage() + ")";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "not run";
+        }
+    }
+
+    // More ints and doubles live at once than there are registers, some of
+    // them across calls, swapped around a loop
+    static String generatePressureProgram(int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("double scale(double x) {\n");
+        sb.append("    return x * 0.5 + 1;\n");
+        sb.append("}\n");
+        sb.append("int main() {\n");
+        for (int v = 0; v < n; v++) {
+            sb.append("    int i").append(v).append(" = ").append(v + 1).append(";\n");
+            sb.append("    double d").append(v).append(" = ").append(v).append(".25;\n");
+        }
+        sb.append("    for (int k = 0; k < 100; k++) {\n");
+        for (int v = 0; v < n; v++) {
+            int next = (v + 1) % n;
+            sb.append("        i").append(v).append(" = (i").append(v).append(" * 31 + i").append(next)
+                .append(") % 1000003;\n");
+            sb.append("        d").append(v).append(" = d").append(v).append(" * 0.75 + d").append(next).append(";\n");
+        }
+        sb.append("        int t = i0; i0 = i1; i1 = t;\n");
+        sb.append("        d0 = scale(d0);\n");
+        sb.append("    }\n");
+        sb.append("    long long isum = 0;\n");
+        sb.append("    double dsum = 0;\n");
+        for (int v = 0; v < n; v++) {
+            sb.append("    isum += i").append(v).append(";\n");
+            sb.append("    dsum += d").append(v).append(";\n");
+        }
+        sb.append("    cout << isum << \" \" << dsum << endl;\n");
+        sb.append("    return isum % 256;\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // Functions full of what the passes look for: constants to fold, a
+    // branch on one, copies, a subexpression computed twice, and loop
+    // invariants
+    static String generateOptimizerProgram(int functions) {
+        StringBuilder sb = new StringBuilder();
+        for (int f = 0; f < functions; f++) {
+            sb.append("int kernel").append(f).append("(int n) {\n");
+            sb.append("    int scale = ").append(f % 5 + 2).append(";\n");
+            sb.append("    int limit = scale * 4;\n");
+            sb.append("    bool debug = false;\n");
+            sb.append("    int total = 0;\n");
+            sb.append("    for (int i = 0; i < n; i++) {\n");
+            sb.append("        int base = scale * limit + n;\n");
+            sb.append("        int a = i * scale + base;\n");
+            sb.append("        int b = i * scale + base;\n");
+            sb.append("        int c = a;\n");
+            sb.append("        if (debug) total -= c * 1000;\n");
+            sb.append("        total += a + b + c % ").append(f % 7 + 3).append(";\n");
+            sb.append("        if (limit > 100) total = 0;\n");
+            sb.append("    }\n");
+            sb.append("    return total;\n");
+            sb.append("}\n");
+        }
+        sb.append("int main() {\n");
+        sb.append("    long long sum = 0;\n");
+        for (int f = 0; f < functions; f++) {
+            sb.append("    sum += kernel").append(f).append("(").append(20 + f % 30).append(");\n");
+        }
+        sb.append("    cout << sum << endl;\n");
+        sb.append("    return 0;\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    interface Engine {
+        int run(PrintStream out);
+    }
+
+    // The GUI's Run and Compile refuse a program the analyzer reports an
+    // ERROR in
+    private static void requireRunnable(String label, String program) {
+        DiagnosticCollector problems = new DiagnosticCollector();
+        new SyntaxAnalyzer().analyze(program, problems);
+        if (problems.count(Diagnostic.Severity.ERROR) > 0) {
+            throw new IllegalStateException(label + " doesn't pass the analyzer:\n" + problems.toText());
+        }
+    }
+
+    private static String runToString(Engine engine) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        engine.run(new PrintStream(bytes, true));
+        return bytes.toString();
+    }
+
+    // What a first program looks like: a header, a function with a
+    // parameter, and string literals with words and a colon in them
+    static String generateHelloProgram() {
+        return "#include <iostream>\n"
+            + "using namespace std;\n"
+            + "\n"
+            + "int square(int x) {\n"
+            + "    return x * x;\n"
+            + "}\n"
+            + "\n"
+            + "int main() {\n"
+            + "    int total = 0;\n"
+            + "    for (int i = 1; i <= 3; i++) {\n"
+            + "        total = total + square(i);\n"
+            + "    }\n"
+            + "    cout << \"Hello, World!\" << endl;\n"
+            + "    cout << \"sum of squares: \" << total << endl;\n"
+            + "    return 0;\n"
+            + "}\n";
+    }
+
+    // Triple-nested int loops with a branch and integer arithmetic
+    static String generateLoopProgram(int n) {
+        return "int main() {\n"
+            + "    int total = 0;\n"
+            + "    for (int i = 0; i < " + n + "; i++) {\n"
+            + "        for (int j = 0; j < " + n + "; j++) {\n"
+            + "            int k = 0;\n"
+            + "            while (k < 8) {\n"
+            + "                if ((i ^ j) % 3 == 0) total += i * j - k;\n"
+            + "                else total -= (j >> 1) + k;\n"
+            + "                k++;\n"
+            + "            }\n"
+            + "        }\n"
+            + "    }\n"
+            + "    cout << total << endl;\n"
+            + "    return 0;\n"
+            + "}\n";
+    }
+
+    // A long double sum calling a small function per term
+    static String generateSeriesProgram(int terms) {
+        return "double term(int k) {\n"
+            + "    double sign = k % 2 == 0 ? 1.0 : -1.0;\n"
+            + "    return sign / (2 * k + 1);\n"
+            + "}\n"
+            + "int main() {\n"
+            + "    double pi = 0;\n"
+            + "    for (int k = 0; k < " + terms + "; k++) {\n"
+            + "        pi += 4 * term(k);\n"
+            + "    }\n"
+            + "    cout << pi << endl;\n"
+            + "    return 0;\n"
+            + "}\n";
+    }
+
+    // Naive doubly recursive Fibonacci: call overhead above all
+    static String generateFibProgram(int n) {
+        return "long long fib(int n) {\n"
+            + "    if (n < 2) return n;\n"
+            + "    return fib(n - 1) + fib(n - 2);\n"
+            + "}\n"
+            + "int main() {\n"
+            + "    cout << fib(" + n + ") << endl;\n"
+            + "    return 0;\n"
+            + "}\n";
+    }
+
+    // Analyzes with only the rule called enabled switched on ("*" for all,
+    // null for none)
+    private static long analyzeWith(String program, List<String> ids, String enabled, DiagnosticSink sink) {
+        RuleRegistry rules = SyntaxAnalyzer.defaultRules();
+        for (String id : ids) {
+            rules.setEnabled(id, "*".equals(enabled) || id.equals(enabled));
+        }
+        new SyntaxAnalyzer(rules).analyze(program, sink);
+        return 1;
+    }
+
+    // Bytes the current thread allocates in one run of task, after warmup
+    static long allocatedBytes(Task task) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int round = 0; round < WARMUP_ROUNDS * 4; round++) {
+            sink += task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            sink += task.run();
+            best = Math.min(best, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        return best;
+    }
+
+    // Everything one analysis run produces, as text
+    private static String analyzeSession(String source) {
+        PreprocessedSource preprocessed = PreprocessedSource.of(source);
+        SyntaxAnalyzer analyzer = new SyntaxAnalyzer();
+        DiagnosticCollector diagnostics = new DiagnosticCollector();
+        analyzer.analyze(preprocessed, diagnostics);
+        return analyzer.symbolTableText() + diagnostics.toText();
+    }
+
+    // Breaks a generated program in a few seed-dependent ways so the
+    // sessions have real diagnostics (and state) to disagree on
+    static String mutateProgram(String program, long seed) {
+        Random random = new Random(seed);
+        String[] lines = program.split("\n", -1);
+        for (int i = 1; i < lines.length - 1; i++) {
+            switch (random.nextInt(12)) {
+                case 0:
+                    lines[i] = lines[i].replace(";", "");
+                    break;
+                case 1:
+                    lines[i] = lines[i].replace("int ", "Int ");
+                    break;
+                case 2:
+                    lines[i] = lines[i].replace(" = ", " = @");
+                    break;
+                case 3:
+                    lines[i] = "    undeclared" + i + " += " + i + ";";
+                    break;
+                default:
+                    break;
+            }
+        }
+        return String.join("\n", lines);
+    }
+
+    static void verifySameTokens(TokenStream actual, TokenStream expected) {
+        boolean same = actual.size() == expected.size()
+            && actual.unterminatedComment() == expected.unterminatedComment();
+        for (int i = 0; same && i < actual.size(); i++) {
+            same = actual.kind(i) == expected.kind(i) && actual.start(i) == expected.start(i)
+                && actual.end(i) == expected.end(i) && actual.line(i) == expected.line(i)
+                && actual.column(i) == expected.column(i) && actual.literal(i) == expected.literal(i);
+        }
+        if (!same) {
+            throw new IllegalStateException("Incremental token stream diverged from a full relex");
+        }
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // ===== HELPERS =====
+
+    interface Task {
+        long run();
+    }
+
+    static volatile long sink;
+
+    // Returns the best of MEASURED_ROUNDS runs, in nanoseconds
+    static long time(Task task) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            sink += task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    static void report(String label, long nanos, long tokens, long chars) {
+        double seconds = nanos / 1e9;
+        System.out.printf("  %-24s %8.2f ms  %10.0f tokens/s  %7.1f Mchars/s%n",
+            label, nanos / 1e6, tokens / seconds, chars / 1e6 / seconds);
+    }
+}
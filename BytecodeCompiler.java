@@ -0,0 +1,1754 @@
+import java.util.*;
+
+// Compiles a checked W++ program to JVM bytecode, for Run.
+//
+// The whole program becomes one class, generated in memory: every
+// function with a body a static method, every global a static field whose
+// initializer runs in the class initializer. Locals live in JVM locals
+// and values on the operand stack with their C++ width (int, short, char
+// and bool as ints, long and long long as longs, float, double, string as
+// java.lang.String), so a loop over ints compiles to the same bytecode
+// javac would produce and the JIT takes it from there. CompiledProgram
+// loads the class and runs main().
+//
+// The accepted subset is what the analyzer checks: scalar variables and
+// strings, arithmetic, comparisons and logic, if/else, while, do and for
+// with break and continue, functions over those types, cout << output and
+// a few <cmath> functions. Anything else (arrays, pointers, switch, cin,
+// classes) is reported as a "run-unsupported" error on its line instead of
+// being compiled wrong. Expressions are typed first with ValueType's
+// tables, so every conversion C++ does implicitly is emitted explicitly.
+//
+// Every loop head and function entry calls ProgramRuntime.poll(), so a
+// program that never ends can still be stopped.
+public final class BytecodeCompiler {
+    static final String CLASS_NAME = "WppProgram";
+    private static final String RUNTIME = "ProgramRuntime";
+    private static final String STRING = "Ljava/lang/String;";
+
+    private static final int SWITCH = SymbolPool.seeded("switch");
+    private static final int UNSIGNED = SymbolPool.seeded("unsigned");
+    private static final int SIGNED = SymbolPool.seeded("signed");
+    private static final int SIZE_T = SymbolPool.seeded("size_t");
+    private static final int TRUE = SymbolPool.seeded("true");
+    private static final int MAIN = SymbolPool.seeded("main");
+    private static final int VOID = SymbolPool.seeded("void");
+
+    private final Ast ast;
+    private final TokenStream tokens;
+    private final SymbolPool pool;
+    private final ClassFileWriter writer = new ClassFileWriter(CLASS_NAME);
+    private final int coutSymbol;
+    private final int cinSymbol;
+    private final int endlSymbol;
+
+    // Functions with a body, by FUNCTION node; returnTypes[f] is null for void
+    private int[] functionNodes = new int[8];
+    private ValueType[] returnTypes = new ValueType[8];
+    private ValueType[][] parameterTypes = new ValueType[8][];
+    private String[] descriptors = new String[8];
+    // Variables [functionVariables[f], functionVariableEnds[f]) are f's
+    private int[] functionVariables = new int[8];
+    private int[] functionVariableEnds = new int[8];
+    private int functionCount;
+
+    // Variables in scope while compiling: slot is the JVM local, -1 for a
+    // global (a static field named like the variable). visible[name id]
+    // is the innermost variable by that name; undo restores shadowed ones.
+    private int[] variableNames = new int[16];
+    private ValueType[] variableTypes = new ValueType[16];
+    private int[] variableSlots = new int[16];
+    // const variables can't be assigned; the ones whose initializer
+    // folded are compile-time constants, and reading one loads its value
+    private boolean[] readOnly = new boolean[16];
+    private boolean[] constants = new boolean[16];
+    private long[] constantValues = new long[16];
+    private int variableCount;
+    private final int[] visible;
+    private int[] undo = new int[32];
+    private int undoCount;
+
+    // Expression types, by node, filled in on demand
+    private final ValueType[] types;
+    // Constant expressions, folded as they are compiled
+    private final ConstantFolder folder;
+    // What the compiler resolved, by node, for the Interpreter: the
+    // variable a NAME, DECLARATOR or PARAM stands for and the function a
+    // CALL calls, -1 for none
+    private final int[] nodeVariables;
+    private final int[] callTargets;
+    private byte[] classFile;
+
+    private ClassFileWriter.Code code;
+    private int function;
+    private ClassFileWriter.Label breakTarget;
+    private ClassFileWriter.Label continueTarget;
+
+    private BytecodeCompiler(Ast ast) {
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.pool = tokens.pool();
+        this.visible = new int[pool.size()];
+        Arrays.fill(visible, -1);
+        this.types = new ValueType[ast.size()];
+        this.nodeVariables = new int[ast.size()];
+        this.callTargets = new int[ast.size()];
+        Arrays.fill(nodeVariables, -1);
+        Arrays.fill(callTargets, -1);
+        this.coutSymbol = pool.find("cout");
+        this.cinSymbol = pool.find("cin");
+        this.endlSymbol = pool.find("endl");
+        this.folder = new ConstantFolder(ast, new ConstantFolder.Names() {
+            @Override
+            public ValueType constantType(int node) {
+                int variable = constantVariable(node);
+                return variable >= 0 ? variableTypes[variable] : null;
+            }
+
+            @Override
+            public long constantValue(int node) {
+                return constantValues[constantVariable(node)];
+            }
+        });
+    }
+
+    // Compiles the tree, or reports why it can't be run to sink and
+    // returns null. The tree should be free of errors already: the
+    // compiler checks what it needs, not everything the analyzer does.
+    public static CompiledProgram compile(Ast ast, DiagnosticSink sink) {
+        BytecodeCompiler compiler = checked(ast, sink);
+        return compiler != null ? new CompiledProgram(CLASS_NAME, compiler.classFile) : null;
+    }
+
+    // The compiler after a successful compile, with its resolution of the
+    // tree, or null after reporting to sink
+    static BytecodeCompiler checked(Ast ast, DiagnosticSink sink) {
+        BytecodeCompiler compiler = new BytecodeCompiler(ast);
+        try {
+            compiler.classFile = compiler.program();
+            return compiler;
+        } catch (Unsupported e) {
+            sink.report(Diagnostic.error("run-unsupported", e.line, e.getMessage()));
+        } catch (IllegalStateException e) {
+            // The class file format's own limits: a huge method or pool
+            sink.report(Diagnostic.error("run-unsupported", 0, "Program is too large to run: " + e.getMessage() + "."));
+        }
+        return null;
+    }
+
+    // Why a construct can't be compiled, and where
+    private static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int line;
+
+        Unsupported(int line, String message) {
+            super(message, null, false, false);
+            this.line = line;
+        }
+    }
+
+    private Unsupported unsupported(int node, String message) {
+        return new Unsupported(ast.line(node), message);
+    }
+
+    // ===== PROGRAM =====
+
+    private byte[] program() {
+        int root = ast.root();
+        int main = -1;
+        for (int child = ast.firstChild(root); child >= 0; child = ast.nextSibling(child)) {
+            if (ast.kind(child) == Ast.Kind.FUNCTION && body(child) >= 0) {
+                addFunction(child);
+                if (ast.symbol(child) == MAIN) main = functionCount - 1;
+            }
+        }
+        if (main < 0) throw new Unsupported(0, "No main() function to run.");
+        if (parameterTypes[main].length > 0) {
+            throw unsupported(functionNodes[main], "main() must take no parameters to be run.");
+        }
+
+        ClassFileWriter.Code init = writer.method(ClassFileWriter.ACC_STATIC, "<clinit>", "()V");
+        for (int child = ast.firstChild(root); child >= 0; child = ast.nextSibling(child)) {
+            switch (ast.kind(child)) {
+                case DECLARATION:
+                    code = init;
+                    code.line(ast.line(child));
+                    declaration(child, true);
+                    break;
+                case FUNCTION: {
+                    int f = functionIndex(child);
+                    if (f >= 0) compileFunction(f);
+                    break;
+                }
+                case EMPTY:
+                    break; // using namespace std; and the like
+                default:
+                    throw unsupported(child, "Only declarations and functions can be run at the top level.");
+            }
+        }
+        init.op(ClassFileWriter.Opcodes.RETURN, 0);
+        init.finish();
+        return writer.toByteArray();
+    }
+
+    private int body(int functionNode) {
+        for (int child = ast.firstChild(functionNode); child >= 0; child = ast.nextSibling(child)) {
+            if (ast.kind(child) == Ast.Kind.BLOCK) return child;
+        }
+        return -1;
+    }
+
+    private void addFunction(int node) {
+        if (functionCount == functionNodes.length) {
+            int grown = functionCount * 2;
+            functionNodes = Arrays.copyOf(functionNodes, grown);
+            returnTypes = Arrays.copyOf(returnTypes, grown);
+            parameterTypes = Arrays.copyOf(parameterTypes, grown);
+            descriptors = Arrays.copyOf(descriptors, grown);
+            functionVariables = Arrays.copyOf(functionVariables, grown);
+            functionVariableEnds = Arrays.copyOf(functionVariableEnds, grown);
+        }
+        int type = ast.firstChild(node);
+        ValueType returnType = Parser.typeSymbol(ast, type) == VOID ? null : declaredType(type);
+        List<ValueType> parameters = new ArrayList<>();
+        StringBuilder descriptor = new StringBuilder("(");
+        for (int child = ast.nextSibling(type); child >= 0; child = ast.nextSibling(child)) {
+            if (ast.kind(child) != Ast.Kind.PARAM) continue;
+            // "int f(void)"
+            if (ast.token(child) < 0 && Parser.typeSymbol(ast, ast.firstChild(child)) == VOID) continue;
+            ValueType parameter = declaredType(ast.firstChild(child));
+            parameters.add(parameter);
+            descriptor.append(descriptor(parameter));
+        }
+        descriptor.append(')').append(returnType == null ? "V" : descriptor(returnType));
+        functionNodes[functionCount] = node;
+        returnTypes[functionCount] = returnType;
+        parameterTypes[functionCount] = parameters.toArray(new ValueType[0]);
+        descriptors[functionCount] = descriptor.toString();
+        functionCount++;
+    }
+
+    private int functionIndex(int node) {
+        for (int f = 0; f < functionCount; f++) {
+            if (functionNodes[f] == node) return f;
+        }
+        return -1;
+    }
+
+    // Functions become methods named after them with a '$', so none can
+    // collide with a method every class inherits
+    static String methodName(String function) {
+        return function + "$";
+    }
+
+    private void compileFunction(int f) {
+        int node = functionNodes[f];
+        function = f;
+        code = writer.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC,
+            methodName(pool.spelling(ast.symbol(node))), descriptors[f]);
+        functionVariables[f] = variableCount;
+        int mark = undoCount;
+        int slot = 0;
+        int k = 0;
+        for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+            if (ast.kind(child) != Ast.Kind.PARAM || k == parameterTypes[f].length) continue;
+            if (ast.token(child) < 0 && parameterTypes[f].length == 0) continue;
+            ValueType type = parameterTypes[f][k++];
+            if (ast.token(child) >= 0) nodeVariables[child] = declare(ast.symbol(child), type, slot);
+            slot += ClassFileWriter.slots(descriptor(type).charAt(0));
+        }
+        code.line(ast.line(node));
+        code.invokeStatic(RUNTIME, "poll", "()V");
+        block(body(node));
+        if (code.isReachable()) {
+            // Falling off the end: main returns 0, anything else its zero value
+            code.line(ast.endLine(node));
+            ValueType returnType = returnTypes[f];
+            if (returnType == null) {
+                code.op(ClassFileWriter.Opcodes.RETURN, 0);
+            } else {
+                pushZero(returnType);
+                code.op(returnOpcode(returnType), -slots(returnType));
+            }
+        }
+        popScope(mark);
+        functionVariableEnds[f] = variableCount;
+        code.finish();
+    }
+
+    // ===== TYPES =====
+
+    // The ValueType a TYPE node declares; "unsigned" alone is unsigned
+    // int, "signed" int, "size_t" an unsigned long taken as long
+    ValueType declaredType(int type) {
+        int symbol = Parser.typeSymbol(ast, type);
+        ValueType value = ValueType.of(symbol);
+        if (value != null) return value;
+        if (symbol == UNSIGNED) return ValueType.UNSIGNED_INT;
+        if (symbol == SIGNED) return ValueType.INT;
+        if (symbol == SIZE_T) return ValueType.LONG;
+        String name = Parser.typeName(ast, type);
+        switch (name) {
+            case "long int":
+            case "long long int":
+            case "unsigned long":
+            case "unsigned long long":
+                return ValueType.LONG_LONG;
+            case "short int":
+            case "unsigned short":
+                return ValueType.SHORT;
+            case "signed int":
+                return ValueType.INT;
+            default:
+                throw unsupported(type, "Type '" + name + "' is not supported by Run.");
+        }
+    }
+
+    // Descriptor of a value of the type: I J F D or the String class
+    static String descriptor(ValueType type) {
+        switch (type) {
+            case LONG:
+            case LONG_LONG:
+                return "J";
+            case FLOAT:
+                return "F";
+            case DOUBLE:
+                return "D";
+            case STRING:
+                return STRING;
+            default:
+                return "I";
+        }
+    }
+
+    private static char kind(ValueType type) {
+        return descriptor(type).charAt(0);
+    }
+
+    private static int slots(ValueType type) {
+        return ClassFileWriter.slots(kind(type));
+    }
+
+    // Offset of the type's instruction from the int one (IADD, LADD, ...)
+    private static int offset(ValueType type) {
+        switch (kind(type)) {
+            case 'J':
+                return 1;
+            case 'F':
+                return 2;
+            case 'D':
+                return 3;
+            case 'L':
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    private static int returnOpcode(ValueType type) {
+        return ClassFileWriter.Opcodes.IRETURN + offset(type);
+    }
+
+    // Type of the value the expression at node leaves on the stack, null
+    // for a call to a void function
+    private ValueType typeOf(int node) {
+        ValueType type = types[node];
+        if (type == null) {
+            type = computeType(node);
+            types[node] = type;
+        }
+        return type == ValueType.UNKNOWN ? null : type;
+    }
+
+    // Like typeOf, for a value that is used
+    private ValueType valueType(int node) {
+        ValueType type = typeOf(node);
+        if (type == null) throw unsupported(node, "A void function has no value to use.");
+        return type;
+    }
+
+    // UNKNOWN stands for void in the cache
+    private ValueType computeType(int node) {
+        switch (ast.kind(node)) {
+            case LITERAL:
+                return literalType(node);
+            case NAME:
+                return variableTypes[variable(node)];
+            case ASSIGN:
+                return variableTypes[variable(ast.firstChild(node))];
+            case UNARY: {
+                String op = ast.tokenText(node);
+                ValueType operand = valueType(ast.firstChild(node));
+                switch (op) {
+                    case "++":
+                    case "--":
+                        arithmeticOperand(ast.firstChild(node), operand);
+                        return operand;
+                    case "!":
+                        return ValueType.BOOL;
+                    case "-":
+                    case "+":
+                        arithmeticOperand(ast.firstChild(node), operand);
+                        return ValueType.promote(operand, ValueType.INT);
+                    case "~":
+                        integralOperand(ast.firstChild(node), operand);
+                        return ValueType.promote(operand, ValueType.INT);
+                    default:
+                        throw unsupported(node, "Pointers are not supported by Run.");
+                }
+            }
+            case POSTFIX: {
+                ValueType operand = valueType(ast.firstChild(node));
+                arithmeticOperand(ast.firstChild(node), operand);
+                return operand;
+            }
+            case BINARY:
+                return binaryType(node);
+            case CONDITIONAL: {
+                ValueType then = valueType(ast.child(node, 1));
+                ValueType otherwise = valueType(ast.child(node, 2));
+                if (then == otherwise) return then;
+                if (then.isArithmetic() && otherwise.isArithmetic()) return ValueType.promote(then, otherwise);
+                throw unsupported(node, "The two results of ?: have different types.");
+            }
+            case CALL: {
+                ValueType type = callType(node);
+                return type == null ? ValueType.UNKNOWN : type;
+            }
+            case INDEX:
+                throw unsupported(node, "Arrays are not supported by Run.");
+            default:
+                throw unsupported(node, "'" + ast.text(node) + "' is not supported by Run.");
+        }
+    }
+
+    @SuppressWarnings("fallthrough")
+    private ValueType binaryType(int node) {
+        String op = ast.tokenText(node);
+        int left = ast.firstChild(node);
+        int right = ast.child(node, 1);
+        if (op.equals(",")) {
+            typeOf(left);
+            return typeOf(right) == null ? ValueType.UNKNOWN : typeOf(right);
+        }
+        if ((op.equals("<<") || op.equals(">>")) && isStream(left)) {
+            throw unsupported(node, op.equals("<<")
+                ? "Output with cout must be a statement of its own."
+                : "Input (cin) is not supported by Run.");
+        }
+        ValueType l = valueType(left);
+        ValueType r = valueType(right);
+        switch (op) {
+            case "&&":
+            case "||":
+                condition(left, l);
+                condition(right, r);
+                return ValueType.BOOL;
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+            case "==":
+            case "!=":
+                if (!(l.isArithmetic() && r.isArithmetic()) && !(l == ValueType.STRING && r == ValueType.STRING)) {
+                    throw unsupported(node, "Can't compare " + l.spelling() + " with " + r.spelling() + ".");
+                }
+                return ValueType.BOOL;
+            case "+":
+                if (l == ValueType.STRING || r == ValueType.STRING) {
+                    if (isText(l) && isText(r)) return ValueType.STRING;
+                    throw unsupported(node, "Only strings and chars can be added to a string.");
+                }
+                // fall through
+            case "-":
+            case "*":
+            case "/":
+                arithmeticOperand(left, l);
+                arithmeticOperand(right, r);
+                return ValueType.promote(l, r);
+            case "%":
+            case "&":
+            case "|":
+            case "^":
+                integralOperand(left, l);
+                integralOperand(right, r);
+                return ValueType.promote(l, r);
+            case "<<":
+            case ">>":
+                integralOperand(left, l);
+                integralOperand(right, r);
+                return ValueType.promote(l, ValueType.INT);
+            default:
+                throw unsupported(node, "Operator '" + op + "' is not supported by Run.");
+        }
+    }
+
+    private static boolean isText(ValueType type) {
+        return type == ValueType.STRING || type == ValueType.CHAR;
+    }
+
+    private void arithmeticOperand(int node, ValueType type) {
+        if (!type.isArithmetic()) throw unsupported(node, "A " + type.spelling() + " is not a number.");
+    }
+
+    private void integralOperand(int node, ValueType type) {
+        if (!type.isIntegral()) throw unsupported(node, "A " + type.spelling() + " is not an integer.");
+    }
+
+    private void condition(int node, ValueType type) {
+        if (type == ValueType.STRING) throw unsupported(node, "A string can't be used as a condition.");
+    }
+
+    private ValueType literalType(int node) {
+        int token = ast.token(node);
+        ValueType type = tokens.literal(token);
+        if (type == null || ast.firstToken(node) != ast.lastToken(node)) {
+            throw unsupported(node, "'" + ast.text(node) + "' is not a valid literal.");
+        }
+        if (type == ValueType.INT) {
+            long value = integerValue(node);
+            if (value != (int) value) return ValueType.LONG_LONG;
+        }
+        return type;
+    }
+
+    // ===== LITERALS (shared with the Interpreter) =====
+
+    long integerValue(int node) {
+        try {
+            return parseInteger(ast.tokenText(node));
+        } catch (NumberFormatException e) {
+            throw unsupported(node, "Integer literal " + ast.tokenText(node) + " is too large.");
+        }
+    }
+
+    double realValue(int node) {
+        return parseReal(ast.tokenText(node));
+    }
+
+    int charValue(int node) {
+        return parseChar(ast.tokenText(node));
+    }
+
+    // Literal text to value, for ConstantFolder too. An integer literal
+    // may be decimal, octal or hex with u and l suffixes; one that doesn't
+    // fit a long throws NumberFormatException.
+    static long parseInteger(String text) {
+        return parseInteger(text, 0, text.length());
+    }
+
+    // The literal in source[start, end), read in place
+    static long parseInteger(CharSequence source, int start, int end) {
+        while (end > start && "uUlL".indexOf(source.charAt(end - 1)) >= 0) end--;
+        if (end - start > 2 && source.charAt(start) == '0' && (source.charAt(start + 1) | 0x20) == 'x') {
+            return Long.parseUnsignedLong(source, start + 2, end, 16);
+        }
+        if (end - start > 1 && source.charAt(start) == '0') return Long.parseLong(source, start + 1, end, 8);
+        return Long.parseLong(source, start, end, 10);
+    }
+
+    static double parseReal(String text) {
+        char last = text.charAt(text.length() - 1);
+        if ("fFlL".indexOf(last) >= 0) text = text.substring(0, text.length() - 1);
+        return Double.parseDouble(text);
+    }
+
+    // A char literal's value, as a signed byte like a C++ char
+    static int parseChar(String text) {
+        text = unescape(text);
+        return text.isEmpty() ? 0 : (byte) text.charAt(0);
+    }
+
+    String stringValue(int node) {
+        return unescape(ast.tokenText(node));
+    }
+
+    // The text between a literal's quotes with its escapes resolved
+    private static String unescape(String literal) {
+        StringBuilder sb = new StringBuilder(literal.length());
+        for (int i = 1; i < literal.length() - 1; i++) {
+            char c = literal.charAt(i);
+            if (c != '\\' || i + 1 == literal.length() - 1) {
+                sb.append(c);
+                continue;
+            }
+            char escaped = literal.charAt(++i);
+            switch (escaped) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case '0':
+                    sb.append('\0');
+                    break;
+                case 'a':
+                    sb.append('\007');
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'v':
+                    sb.append('\013');
+                    break;
+                default:
+                    sb.append(escaped); // \\ \' \" \?
+            }
+        }
+        return sb.toString();
+    }
+
+    // ===== VARIABLES AND SCOPES =====
+
+    private int declare(int name, ValueType type, int slot) {
+        if (variableCount == variableNames.length) {
+            int grown = variableCount * 2;
+            variableNames = Arrays.copyOf(variableNames, grown);
+            variableTypes = Arrays.copyOf(variableTypes, grown);
+            variableSlots = Arrays.copyOf(variableSlots, grown);
+            readOnly = Arrays.copyOf(readOnly, grown);
+            constants = Arrays.copyOf(constants, grown);
+            constantValues = Arrays.copyOf(constantValues, grown);
+        }
+        int variable = variableCount++;
+        variableNames[variable] = name;
+        variableTypes[variable] = type;
+        variableSlots[variable] = slot;
+        readOnly[variable] = false;
+        constants[variable] = false;
+        if (undoCount + 2 > undo.length) undo = Arrays.copyOf(undo, undo.length * 2);
+        undo[undoCount++] = name;
+        undo[undoCount++] = visible[name];
+        visible[name] = variable;
+        return variable;
+    }
+
+    private void popScope(int mark) {
+        while (undoCount > mark) {
+            int previous = undo[--undoCount];
+            int name = undo[--undoCount];
+            visible[name] = previous;
+        }
+    }
+
+    // The variable a NAME node refers to
+    private int variable(int node) {
+        if (ast.kind(node) != Ast.Kind.NAME) {
+            throw unsupported(node, "Only variables can be assigned to when running.");
+        }
+        int symbol = ast.symbol(node);
+        if (symbol == coutSymbol || symbol == cinSymbol || symbol == endlSymbol) {
+            throw unsupported(node, "'" + ast.text(node) + "' can only be used in a cout statement.");
+        }
+        int variable = symbol >= 0 && symbol < visible.length && ast.firstToken(node) == ast.lastToken(node)
+            ? visible[symbol] : -1;
+        if (variable < 0) throw unsupported(node, "'" + ast.text(node) + "' is not a declared variable.");
+        nodeVariables[node] = variable;
+        return variable;
+    }
+
+    // The variable an assignment or increment changes
+    private int writable(int node) {
+        int variable = variable(node);
+        if (readOnly[variable]) throw unsupported(node, "'" + ast.text(node) + "' is const and can't be changed.");
+        return variable;
+    }
+
+    // The compile-time constant a NAME node refers to, or -1
+    private int constantVariable(int node) {
+        int symbol = ast.symbol(node);
+        if (symbol < 0 || symbol >= visible.length || ast.firstToken(node) != ast.lastToken(node)) return -1;
+        int variable = visible[symbol];
+        return variable >= 0 && constants[variable] ? variable : -1;
+    }
+
+    private void load(int variable) {
+        ValueType type = variableTypes[variable];
+        if (variableSlots[variable] < 0) {
+            code.getStatic(CLASS_NAME, pool.spelling(variableNames[variable]), descriptor(type));
+        } else {
+            code.load(kind(type), variableSlots[variable]);
+        }
+    }
+
+    private void store(int variable) {
+        ValueType type = variableTypes[variable];
+        if (variableSlots[variable] < 0) {
+            code.putStatic(CLASS_NAME, pool.spelling(variableNames[variable]), descriptor(type));
+        } else {
+            code.store(kind(type), variableSlots[variable]);
+        }
+    }
+
+    private void dup(ValueType type) {
+        code.op(slots(type) == 2 ? ClassFileWriter.Opcodes.DUP2 : ClassFileWriter.Opcodes.DUP, slots(type));
+    }
+
+    private void pop(ValueType type) {
+        if (type == null) return;
+        code.op(slots(type) == 2 ? ClassFileWriter.Opcodes.POP2 : ClassFileWriter.Opcodes.POP, -slots(type));
+    }
+
+    // ===== STATEMENTS =====
+
+    private void statement(int node) {
+        code.line(ast.line(node));
+        switch (ast.kind(node)) {
+            case BLOCK:
+                block(node);
+                break;
+            case DECLARATION:
+                declaration(node, false);
+                break;
+            case IF:
+                ifStatement(node);
+                break;
+            case WHILE:
+                whileStatement(node);
+                break;
+            case DO:
+                doStatement(node);
+                break;
+            case FOR:
+                forStatement(node);
+                break;
+            case RETURN:
+                returnStatement(node);
+                break;
+            case BREAK:
+            case CONTINUE: {
+                ClassFileWriter.Label target = ast.kind(node) == Ast.Kind.BREAK ? breakTarget : continueTarget;
+                if (target == null) throw unsupported(node, "'" + ast.tokenText(node) + "' outside of a loop.");
+                code.jump(ClassFileWriter.Opcodes.GOTO, target);
+                break;
+            }
+            case EXPRESSION:
+                effect(ast.firstChild(node));
+                break;
+            case EMPTY:
+                break;
+            case FUNCTION:
+                throw unsupported(node, "Functions can't be defined inside functions.");
+            default:
+                throw unsupported(node, "'" + ast.text(node) + "' is not supported by Run.");
+        }
+    }
+
+    private void block(int node) {
+        int mark = undoCount;
+        for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+            statement(child);
+        }
+        popScope(mark);
+    }
+
+    // Locals start with the initializer or their zero value; globals are
+    // static fields set in the class initializer
+    private void declaration(int node, boolean global) {
+        int type = ast.firstChild(node);
+        ValueType declared = declaredType(type);
+        for (int declarator = ast.nextSibling(type); declarator >= 0; declarator = ast.nextSibling(declarator)) {
+            int name = ast.firstChild(declarator);
+            int value = ast.child(declarator, 1);
+            int nameEnd = ast.lastToken(name);
+            if (nameEnd + 1 < tokens.size() && tokens.textEquals(nameEnd + 1, "[")) {
+                throw unsupported(declarator, "Arrays are not supported by Run.");
+            }
+            if (ast.kind(name) != Ast.Kind.NAME || ast.firstToken(name) != nameEnd || ast.symbol(name) < 0) {
+                throw unsupported(declarator, "'" + ast.text(name) + "' is not a valid variable name.");
+            }
+            if (value >= 0) {
+                expression(value, declared);
+            } else {
+                pushZero(declared);
+            }
+            int variable;
+            if (global) {
+                String field = pool.spelling(ast.symbol(name));
+                writer.field(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, field, descriptor(declared));
+                variable = declare(ast.symbol(name), declared, -1);
+            } else {
+                variable = declare(ast.symbol(name), declared, code.newLocal(kind(declared)));
+            }
+            nodeVariables[declarator] = variable;
+            store(variable);
+            if (ConstantFolder.isConstQualified(ast, type)) {
+                readOnly[variable] = true;
+                if (value >= 0 && declared.isArithmetic() && isConstant(value)) {
+                    constants[variable] = true;
+                    constantValues[variable] = ConstantFolder.convert(constantValue(value), types[value], declared);
+                }
+            }
+        }
+    }
+
+    // A value as ConstantFolder represents it
+    private void pushConstant(ValueType type, long value) {
+        switch (kind(type)) {
+            case 'J':
+                code.pushLong(value);
+                break;
+            case 'F':
+                code.pushFloat((float) Double.longBitsToDouble(value));
+                break;
+            case 'D':
+                code.pushDouble(Double.longBitsToDouble(value));
+                break;
+            default:
+                code.pushInt((int) value);
+        }
+    }
+
+    private void pushZero(ValueType type) {
+        switch (kind(type)) {
+            case 'J':
+                code.pushLong(0);
+                break;
+            case 'F':
+                code.pushFloat(0);
+                break;
+            case 'D':
+                code.pushDouble(0);
+                break;
+            case 'L':
+                code.pushString("");
+                break;
+            default:
+                code.pushInt(0);
+        }
+    }
+
+    private void ifStatement(int node) {
+        ClassFileWriter.Label otherwise = new ClassFileWriter.Label();
+        jump(ast.firstChild(node), otherwise, false);
+        statement(ast.child(node, 1));
+        int elseNode = ast.child(node, 2);
+        if (elseNode >= 0) {
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+            code.jump(ClassFileWriter.Opcodes.GOTO, end);
+            code.bind(otherwise);
+            statement(ast.firstChild(elseNode));
+            code.bind(end);
+        } else {
+            code.bind(otherwise);
+        }
+    }
+
+    private void whileStatement(int node) {
+        ClassFileWriter.Label head = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.bind(head);
+        code.invokeStatic(RUNTIME, "poll", "()V");
+        jump(ast.firstChild(node), end, false);
+        loopBody(ast.child(node, 1), end, head);
+        code.jump(ClassFileWriter.Opcodes.GOTO, head);
+        code.bind(end);
+    }
+
+    private void doStatement(int node) {
+        ClassFileWriter.Label head = new ClassFileWriter.Label();
+        ClassFileWriter.Label test = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.bind(head);
+        code.invokeStatic(RUNTIME, "poll", "()V");
+        loopBody(ast.firstChild(node), end, test);
+        code.bind(test);
+        code.line(ast.line(ast.child(node, 1)));
+        jump(ast.child(node, 1), head, true);
+        code.bind(end);
+    }
+
+    private void forStatement(int node) {
+        int mark = undoCount;
+        int init = ast.firstChild(node);
+        int condition = ast.nextSibling(init);
+        int update = ast.nextSibling(condition);
+        if (ast.kind(init) == Ast.Kind.DECLARATION) {
+            declaration(init, false);
+        } else if (ast.kind(init) != Ast.Kind.EMPTY) {
+            effect(init);
+        }
+        ClassFileWriter.Label head = new ClassFileWriter.Label();
+        ClassFileWriter.Label next = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.bind(head);
+        code.invokeStatic(RUNTIME, "poll", "()V");
+        if (ast.kind(condition) != Ast.Kind.EMPTY) jump(condition, end, false);
+        loopBody(ast.nextSibling(update), end, next);
+        code.bind(next);
+        if (ast.kind(update) != Ast.Kind.EMPTY) effect(update);
+        code.jump(ClassFileWriter.Opcodes.GOTO, head);
+        code.bind(end);
+        popScope(mark);
+    }
+
+    private void loopBody(int body, ClassFileWriter.Label exit, ClassFileWriter.Label next) {
+        ClassFileWriter.Label outerBreak = breakTarget;
+        ClassFileWriter.Label outerContinue = continueTarget;
+        breakTarget = exit;
+        continueTarget = next;
+        statement(body);
+        breakTarget = outerBreak;
+        continueTarget = outerContinue;
+    }
+
+    private void returnStatement(int node) {
+        ValueType returnType = returnTypes[function];
+        int value = ast.firstChild(node);
+        if (returnType == null) {
+            if (value >= 0) throw unsupported(node, "A void function can't return a value.");
+            code.op(ClassFileWriter.Opcodes.RETURN, 0);
+            return;
+        }
+        if (value < 0) throw unsupported(node, "This function must return a value.");
+        expression(value, returnType);
+        code.op(returnOpcode(returnType), -slots(returnType));
+    }
+
+    // An expression whose value isn't used
+    private void effect(int node) {
+        switch (ast.kind(node)) {
+            case ASSIGN:
+                assign(node, false);
+                return;
+            case UNARY:
+            case POSTFIX: {
+                String op = ast.tokenText(node);
+                if (op.equals("++") || op.equals("--")) {
+                    increment(node, ast.kind(node) == Ast.Kind.UNARY, false);
+                    return;
+                }
+                break;
+            }
+            case BINARY: {
+                String op = ast.tokenText(node);
+                if (op.equals(",")) {
+                    effect(ast.firstChild(node));
+                    effect(ast.child(node, 1));
+                    return;
+                }
+                if (isOutputStatement(node)) {
+                    output(node);
+                    return;
+                }
+                break;
+            }
+            case CALL:
+                if (ast.symbol(ast.firstChild(node)) == SWITCH) {
+                    throw unsupported(node, "switch statements are not supported by Run.");
+                }
+                break;
+            default:
+                break;
+        }
+        ValueType type = typeOf(node);
+        expression(node);
+        pop(type);
+    }
+
+    // ===== OUTPUT =====
+
+    // The stream an output or input chain starts from: cout << a << b
+    private boolean isStream(int node) {
+        while (ast.kind(node) == Ast.Kind.BINARY && (ast.tokenIs(node, "<<") || ast.tokenIs(node, ">>"))) {
+            node = ast.firstChild(node);
+        }
+        return ast.kind(node) == Ast.Kind.NAME && (ast.symbol(node) == coutSymbol || ast.symbol(node) == cinSymbol);
+    }
+
+    private boolean isOutput(int node) {
+        while (ast.kind(node) == Ast.Kind.BINARY) node = ast.firstChild(node);
+        return ast.symbol(node) == coutSymbol;
+    }
+
+    // cout << a << b as a whole
+    boolean isOutputStatement(int node) {
+        return ast.kind(node) == Ast.Kind.BINARY && ast.tokenIs(node, "<<") && isStream(ast.firstChild(node)) && isOutput(node);
+    }
+
+    private void output(int node) {
+        int operands = 0;
+        for (int n = node; ast.kind(n) == Ast.Kind.BINARY; n = ast.firstChild(n)) operands++;
+        int[] values = new int[operands];
+        int n = node;
+        for (int k = operands - 1; k >= 0; k--) {
+            if (!ast.tokenIs(n, "<<")) throw unsupported(n, "Input (cin) is not supported by Run.");
+            values[k] = ast.child(n, 1);
+            n = ast.firstChild(n);
+        }
+        for (int value : values) {
+            if (ast.kind(value) == Ast.Kind.NAME && ast.symbol(value) == endlSymbol) {
+                code.invokeStatic(RUNTIME, "endl", "()V");
+                continue;
+            }
+            ValueType type = valueType(value);
+            expression(value);
+            switch (type) {
+                case UNSIGNED_INT:
+                    code.invokeStatic(RUNTIME, "printUnsigned", "(I)V");
+                    break;
+                case CHAR:
+                    code.invokeStatic(RUNTIME, "printChar", "(I)V");
+                    break;
+                default:
+                    code.invokeStatic(RUNTIME, "print", "(" + descriptor(type) + ")V");
+            }
+        }
+    }
+
+    // ===== EXPRESSIONS =====
+
+    // Leaves the value converted to target
+    private void expression(int node, ValueType target) {
+        ValueType type = valueType(node);
+        if (!target.accepts(type) && !(type.isArithmetic() && target.isArithmetic())) {
+            throw unsupported(node, "Can't convert " + type.spelling() + " to " + target.spelling() + ".");
+        }
+        expression(node);
+        convert(type, target);
+    }
+
+    // Leaves the value with typeOf(node); a constant expression is
+    // loaded as its folded value
+    private void expression(int node) {
+        if (folder.isConstant(node) && folder.type(node) == typeOf(node)) {
+            pushConstant(typeOf(node), folder.value(node));
+            return;
+        }
+        switch (ast.kind(node)) {
+            case LITERAL:
+                literal(node);
+                return;
+            case NAME:
+                load(variable(node));
+                return;
+            case ASSIGN:
+                assign(node, true);
+                return;
+            case UNARY:
+                unary(node);
+                return;
+            case POSTFIX:
+                increment(node, false, true);
+                return;
+            case BINARY:
+                binary(node);
+                return;
+            case CONDITIONAL: {
+                ValueType type = typeOf(node);
+                ClassFileWriter.Label otherwise = new ClassFileWriter.Label();
+                ClassFileWriter.Label end = new ClassFileWriter.Label();
+                jump(ast.firstChild(node), otherwise, false);
+                expression(ast.child(node, 1), type);
+                code.jump(ClassFileWriter.Opcodes.GOTO, end);
+                code.bind(otherwise);
+                expression(ast.child(node, 2), type);
+                code.bind(end);
+                return;
+            }
+            case CALL:
+                call(node);
+                return;
+            default:
+                typeOf(node); // reports it
+                throw unsupported(node, "'" + ast.text(node) + "' is not supported by Run.");
+        }
+    }
+
+    private void literal(int node) {
+        ValueType type = typeOf(node);
+        switch (type) {
+            case INT:
+            case UNSIGNED_INT:
+                code.pushInt((int) integerValue(node));
+                break;
+            case LONG:
+            case LONG_LONG:
+                code.pushLong(integerValue(node));
+                break;
+            case FLOAT:
+                code.pushFloat((float) realValue(node));
+                break;
+            case DOUBLE:
+                code.pushDouble(realValue(node));
+                break;
+            case CHAR:
+                code.pushInt(charValue(node));
+                break;
+            case BOOL:
+                code.pushInt(ast.symbol(node) == TRUE ? 1 : 0);
+                break;
+            default:
+                code.pushString(stringValue(node));
+        }
+    }
+
+    private void unary(int node) {
+        String op = ast.tokenText(node);
+        int operand = ast.firstChild(node);
+        ValueType type = typeOf(node);
+        switch (op) {
+            case "++":
+            case "--":
+                increment(node, true, true);
+                return;
+            case "!":
+                booleanValue(node);
+                return;
+            case "-":
+                expression(operand, type);
+                code.op(ClassFileWriter.Opcodes.INEG + offset(type), 0);
+                return;
+            case "+":
+                expression(operand, type);
+                return;
+            default: // ~
+                expression(operand, type);
+                if (kind(type) == 'J') {
+                    code.pushLong(-1);
+                    code.op(ClassFileWriter.Opcodes.IXOR + 1, -2);
+                } else {
+                    code.pushInt(-1);
+                    code.op(ClassFileWriter.Opcodes.IXOR, -1);
+                }
+        }
+    }
+
+    private void binary(int node) {
+        String op = ast.tokenText(node);
+        int left = ast.firstChild(node);
+        int right = ast.child(node, 1);
+        ValueType type = typeOf(node);
+        switch (op) {
+            case ",":
+                effect(left);
+                expression(right);
+                return;
+            case "&&":
+            case "||":
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+            case "==":
+            case "!=":
+                booleanValue(node);
+                return;
+            default:
+        }
+        if (type == ValueType.STRING) {
+            text(left);
+            text(right);
+            code.invokeStatic(RUNTIME, "concat", "(" + STRING + STRING + ")" + STRING);
+            return;
+        }
+        expression(left, type);
+        boolean shift = op.equals("<<") || op.equals(">>");
+        expression(right, shift ? ValueType.INT : type);
+        arithmetic(op, type);
+    }
+
+    // A string or char operand of +, as a string
+    private void text(int node) {
+        expression(node);
+        if (typeOf(node) == ValueType.CHAR) {
+            code.invokeStatic(RUNTIME, "charToString", "(I)" + STRING);
+        }
+    }
+
+    // Combines the two values on the stack (the right one an int for a
+    // shift) with op in type
+    private void arithmetic(String op, ValueType type) {
+        int offset = offset(type);
+        int wide = offset == 1 || offset == 3 ? 2 : 1;
+        boolean unsigned = type == ValueType.UNSIGNED_INT;
+        switch (op) {
+            case "+":
+                code.op(ClassFileWriter.Opcodes.IADD + offset, -wide);
+                break;
+            case "-":
+                code.op(ClassFileWriter.Opcodes.ISUB + offset, -wide);
+                break;
+            case "*":
+                code.op(ClassFileWriter.Opcodes.IMUL + offset, -wide);
+                break;
+            case "/":
+                if (unsigned) {
+                    code.invokeStatic("java/lang/Integer", "divideUnsigned", "(II)I");
+                } else {
+                    code.op(ClassFileWriter.Opcodes.IDIV + offset, -wide);
+                }
+                break;
+            case "%":
+                if (unsigned) {
+                    code.invokeStatic("java/lang/Integer", "remainderUnsigned", "(II)I");
+                } else {
+                    code.op(ClassFileWriter.Opcodes.IREM + offset, -wide);
+                }
+                break;
+            case "&":
+                code.op(ClassFileWriter.Opcodes.IAND + offset, -wide);
+                break;
+            case "|":
+                code.op(ClassFileWriter.Opcodes.IOR + offset, -wide);
+                break;
+            case "^":
+                code.op(ClassFileWriter.Opcodes.IXOR + offset, -wide);
+                break;
+            case "<<":
+                code.op(ClassFileWriter.Opcodes.ISHL + offset, -1);
+                break;
+            default: // >>
+                code.op((unsigned ? ClassFileWriter.Opcodes.IUSHR : ClassFileWriter.Opcodes.ISHR) + offset, -1);
+        }
+    }
+
+    // x = v and x op= v, leaving x's new value when want
+    private void assign(int node, boolean want) {
+        int target = ast.firstChild(node);
+        int value = ast.child(node, 1);
+        int variable = writable(target);
+        ValueType type = variableTypes[variable];
+        String op = assignmentOperator(node);
+        if (op.equals("=")) {
+            expression(value, type);
+        } else {
+            String arithmetic = op.substring(0, op.length() - 1);
+            ValueType right = valueType(value);
+            if (type == ValueType.STRING) {
+                if (!arithmetic.equals("+") || !isText(right)) {
+                    throw unsupported(node, "Only += with a string or char works on a string.");
+                }
+                load(variable);
+                text(value);
+                code.invokeStatic(RUNTIME, "concat", "(" + STRING + STRING + ")" + STRING);
+            } else {
+                boolean shift = arithmetic.equals("<<") || arithmetic.equals(">>");
+                boolean integral = shift || "%&|^".contains(arithmetic);
+                if (integral && !(type.isIntegral() && right.isIntegral())) {
+                    throw unsupported(node, "'" + op + "' needs integer operands.");
+                }
+                arithmeticOperand(value, right);
+                ValueType common = shift ? ValueType.promote(type, ValueType.INT) : ValueType.promote(type, right);
+                if (!want && variableSlots[variable] >= 0 && type == ValueType.INT && right == ValueType.INT
+                        && (arithmetic.equals("+") || arithmetic.equals("-")) && ast.kind(value) == Ast.Kind.LITERAL) {
+                    long constant = integerValue(value);
+                    if (constant == (short) constant) {
+                        code.increment(variableSlots[variable], (int) (arithmetic.equals("+") ? constant : -constant));
+                        return;
+                    }
+                }
+                load(variable);
+                convert(type, common);
+                expression(value, shift ? ValueType.INT : common);
+                arithmetic(arithmetic, common);
+                convert(common, type);
+            }
+        }
+        if (want) dup(type);
+        store(variable);
+    }
+
+    // ++x, --x, x++, x--; postfix leaves the old value when want
+    private void increment(int node, boolean prefix, boolean want) {
+        int variable = writable(ast.firstChild(node));
+        ValueType type = variableTypes[variable];
+        arithmeticOperand(node, type);
+        boolean up = ast.tokenIs(node, "++");
+        int slot = variableSlots[variable];
+        if (slot >= 0 && type == ValueType.INT) {
+            if (want && !prefix) load(variable);
+            code.increment(slot, up ? 1 : -1);
+            if (want && prefix) load(variable);
+            return;
+        }
+        ValueType common = ValueType.promote(type, ValueType.INT);
+        load(variable);
+        if (want && !prefix) dup(type);
+        switch (kind(common)) {
+            case 'J':
+                code.pushLong(1);
+                break;
+            case 'F':
+                code.pushFloat(1);
+                break;
+            case 'D':
+                code.pushDouble(1);
+                break;
+            default:
+                code.pushInt(1);
+        }
+        arithmetic(up ? "+" : "-", common);
+        convert(common, type);
+        if (want && prefix) dup(type);
+        store(variable);
+    }
+
+    // ===== CALLS =====
+
+    private ValueType callType(int node) {
+        int callee = ast.firstChild(node);
+        if (ast.kind(callee) == Ast.Kind.MEMBER) {
+            ValueType object = valueType(ast.firstChild(callee));
+            String member = ast.tokenText(callee);
+            if (object == ValueType.STRING && (member.equals("length") || member.equals("size"))
+                    && ast.childCount(node) == 1) {
+                return ValueType.INT;
+            }
+            throw unsupported(node, "'" + ast.text(callee) + "' is not supported by Run.");
+        }
+        if (ast.kind(callee) != Ast.Kind.NAME) throw unsupported(node, "Only named functions can be called.");
+        if (ast.symbol(callee) == SWITCH) throw unsupported(node, "switch statements are not supported by Run.");
+        ValueType cast = cast(node);
+        if (cast != null) {
+            ValueType operand = valueType(ast.child(node, 1));
+            if (!cast.accepts(operand) && !(cast.isArithmetic() && operand.isArithmetic())) {
+                throw unsupported(node, "Can't convert " + operand.spelling() + " to " + cast.spelling() + ".");
+            }
+            return cast;
+        }
+        int f = resolveFunction(node);
+        if (f >= 0) return returnTypes[f];
+        String builtin = builtin(node);
+        if (builtin == null) {
+            throw unsupported(node, "Function '" + ast.text(callee) + "' is not defined in this program.");
+        }
+        return ValueType.valueOf(builtin.substring(builtin.lastIndexOf(')') + 1));
+    }
+
+    // The type of a function-style cast, "double(x)", or null. The parser
+    // takes "(char)(x)" for one as well.
+    private ValueType cast(int node) {
+        int callee = ast.firstChild(node);
+        if (ast.childCount(node) != 2 || ast.firstToken(callee) != ast.lastToken(callee)) return null;
+        return ValueType.of(ast.symbol(callee));
+    }
+
+    // The function with the call's name and number of arguments; among
+    // overloads, the first whose parameter types match exactly
+    private int resolveFunction(int node) {
+        int name = ast.symbol(ast.firstChild(node));
+        int arguments = ast.childCount(node) - 1;
+        int found = -1;
+        for (int f = 0; f < functionCount; f++) {
+            if (ast.symbol(functionNodes[f]) != name || parameterTypes[f].length != arguments) continue;
+            boolean exact = true;
+            int k = 0;
+            for (int arg = ast.child(node, 1); arg >= 0; arg = ast.nextSibling(arg)) {
+                exact &= typeOf(arg) == parameterTypes[f][k++];
+            }
+            if (exact) return f;
+            if (found < 0) found = f;
+        }
+        return found;
+    }
+
+    // The <cmath> and <cstdlib> functions Run knows, as "name(PARAMS)RESULT"
+    // in ValueType names, or null
+    String builtin(int node) {
+        String name = pool.spelling(ast.symbol(ast.firstChild(node)));
+        int arguments = ast.childCount(node) - 1;
+        switch (name) {
+            case "sqrt":
+            case "sin":
+            case "cos":
+            case "tan":
+            case "exp":
+            case "log":
+            case "log10":
+            case "floor":
+            case "ceil":
+            case "fabs":
+                return arguments == 1 ? name + "(DOUBLE)DOUBLE" : null;
+            case "pow":
+                return arguments == 2 ? name + "(DOUBLE,DOUBLE)DOUBLE" : null;
+            case "abs":
+            case "min":
+            case "max": {
+                if (arguments != (name.equals("abs") ? 1 : 2)) return null;
+                ValueType type = valueType(ast.child(node, 1));
+                if (arguments == 2) type = ValueType.promote(type, valueType(ast.child(node, 2)));
+                if (!type.isArithmetic()) return null;
+                type = ValueType.promote(type, ValueType.INT);
+                if (type == ValueType.UNSIGNED_INT) type = ValueType.LONG_LONG;
+                if (type == ValueType.LONG) type = ValueType.LONG_LONG;
+                return name + "(" + type + (arguments == 2 ? "," + type : "") + ")" + type;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private void call(int node) {
+        int callee = ast.firstChild(node);
+        typeOf(node);
+        if (ast.kind(callee) == Ast.Kind.MEMBER) {
+            expression(ast.firstChild(callee));
+            code.invokeVirtual("java/lang/String", "length", "()I");
+            return;
+        }
+        ValueType cast = cast(node);
+        if (cast != null) {
+            expression(ast.child(node, 1), cast);
+            return;
+        }
+        int f = resolveFunction(node);
+        if (f >= 0) {
+            callTargets[node] = f;
+            int k = 0;
+            for (int arg = ast.child(node, 1); arg >= 0; arg = ast.nextSibling(arg)) {
+                expression(arg, parameterTypes[f][k++]);
+            }
+            code.invokeStatic(CLASS_NAME, methodName(pool.spelling(ast.symbol(functionNodes[f]))), descriptors[f]);
+            return;
+        }
+        String builtin = builtin(node);
+        String name = builtin.substring(0, builtin.indexOf('('));
+        String[] parameters = builtin.substring(builtin.indexOf('(') + 1, builtin.indexOf(')')).split(",");
+        ValueType result = ValueType.valueOf(builtin.substring(builtin.indexOf(')') + 1));
+        StringBuilder descriptor = new StringBuilder("(");
+        int k = 0;
+        for (int arg = ast.child(node, 1); arg >= 0; arg = ast.nextSibling(arg)) {
+            ValueType parameter = ValueType.valueOf(parameters[k++]);
+            expression(arg, parameter);
+            descriptor.append(descriptor(parameter));
+        }
+        descriptor.append(')').append(descriptor(result));
+        code.invokeStatic("java/lang/Math", name.equals("fabs") ? "abs" : name, descriptor.toString());
+    }
+
+    // ===== CONDITIONS =====
+
+    // Jumps to target when the condition at node is when, falls through
+    // otherwise. && and || short-circuit, comparisons branch directly.
+    private void jump(int node, ClassFileWriter.Label target, boolean when) {
+        switch (ast.kind(node)) {
+            case EMPTY:
+                throw unsupported(node, "Missing condition.");
+            case LITERAL:
+                if (typeOf(node) == ValueType.BOOL) {
+                    if ((ast.symbol(node) == TRUE) == when) code.jump(ClassFileWriter.Opcodes.GOTO, target);
+                    return;
+                }
+                break;
+            case UNARY:
+                if (ast.tokenIs(node, "!")) {
+                    condition(ast.firstChild(node), valueType(ast.firstChild(node)));
+                    jump(ast.firstChild(node), target, !when);
+                    return;
+                }
+                break;
+            case BINARY: {
+                String op = ast.tokenText(node);
+                int left = ast.firstChild(node);
+                int right = ast.child(node, 1);
+                typeOf(node);
+                if (op.equals("&&") || op.equals("||")) {
+                    // a && b jumps on false as soon as a is; a || b on true
+                    boolean shortCircuit = op.equals("||");
+                    if (when == shortCircuit) {
+                        jump(left, target, when);
+                        jump(right, target, when);
+                    } else {
+                        ClassFileWriter.Label skip = new ClassFileWriter.Label();
+                        jump(left, skip, shortCircuit);
+                        jump(right, target, when);
+                        code.bind(skip);
+                    }
+                    return;
+                }
+                int condition = comparison(op);
+                if (condition >= 0) {
+                    compare(left, right, condition, target, when);
+                    return;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        ValueType type = valueType(node);
+        condition(node, type);
+        expression(node);
+        compareWithZero(type);
+        code.jump(when ? ClassFileWriter.Opcodes.IFNE : ClassFileWriter.Opcodes.IFEQ, target);
+    }
+
+    // IFEQ-relative condition code of a comparison operator, -1 for others.
+    // Flipping the low bit negates it: EQ/NE, LT/GE, GT/LE.
+    private static int comparison(String op) {
+        switch (op) {
+            case "==":
+                return 0;
+            case "!=":
+                return 1;
+            case "<":
+                return 2;
+            case ">=":
+                return 3;
+            case ">":
+                return 4;
+            case "<=":
+                return 5;
+            default:
+                return -1;
+        }
+    }
+
+    private void compare(int left, int right, int condition, ClassFileWriter.Label target, boolean when) {
+        ValueType l = valueType(left);
+        ValueType r = valueType(right);
+        int branch = when ? condition : condition ^ 1;
+        if (l == ValueType.STRING) {
+            expression(left);
+            expression(right);
+            if (condition <= 1) {
+                code.invokeVirtual("java/lang/String", "equals", "(Ljava/lang/Object;)Z");
+                code.jump(branch == 0 ? ClassFileWriter.Opcodes.IFNE : ClassFileWriter.Opcodes.IFEQ, target);
+            } else {
+                code.invokeVirtual("java/lang/String", "compareTo", "(" + STRING + ")I");
+                code.jump(ClassFileWriter.Opcodes.IFEQ + branch, target);
+            }
+            return;
+        }
+        ValueType common = ValueType.promote(l, r);
+        expression(left, common);
+        expression(right, common);
+        switch (kind(common)) {
+            case 'J':
+                code.op(ClassFileWriter.Opcodes.LCMP, -3);
+                break;
+            case 'F':
+                // NaN compares false: make it the result < and <= reject
+                code.op(condition == 2 || condition == 5 ? ClassFileWriter.Opcodes.FCMPG : ClassFileWriter.Opcodes.FCMPL, -1);
+                break;
+            case 'D':
+                code.op(condition == 2 || condition == 5 ? ClassFileWriter.Opcodes.DCMPG : ClassFileWriter.Opcodes.DCMPL, -3);
+                break;
+            default:
+                if (common == ValueType.UNSIGNED_INT) {
+                    code.invokeStatic("java/lang/Integer", "compareUnsigned", "(II)I");
+                    break;
+                }
+                code.jump(ClassFileWriter.Opcodes.IF_ICMPEQ + branch, target);
+                return;
+        }
+        code.jump(ClassFileWriter.Opcodes.IFEQ + branch, target);
+    }
+
+    // Turns a number on the stack into an int that is 0 exactly when the
+    // number is
+    private void compareWithZero(ValueType type) {
+        switch (kind(type)) {
+            case 'J':
+                code.pushLong(0);
+                code.op(ClassFileWriter.Opcodes.LCMP, -3);
+                break;
+            case 'F':
+                code.pushFloat(0);
+                code.op(ClassFileWriter.Opcodes.FCMPL, -1);
+                break;
+            case 'D':
+                code.pushDouble(0);
+                code.op(ClassFileWriter.Opcodes.DCMPL, -3);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // A condition as a bool value, 1 or 0
+    private void booleanValue(int node) {
+        ClassFileWriter.Label no = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        jump(node, no, false);
+        code.pushInt(1);
+        code.jump(ClassFileWriter.Opcodes.GOTO, end);
+        code.bind(no);
+        code.pushInt(0);
+        code.bind(end);
+    }
+
+    // ===== CONVERSIONS =====
+
+    // Converts the value on the stack from one type to another the way a
+    // C++ assignment or promotion does
+    private void convert(ValueType from, ValueType to) {
+        if (from == to) return;
+        if (to == ValueType.STRING) {
+            code.invokeStatic(RUNTIME, "charToString", "(I)" + STRING);
+            return;
+        }
+        if (to == ValueType.BOOL) {
+            compareWithZero(from);
+            ClassFileWriter.Label zero = new ClassFileWriter.Label();
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+            code.jump(ClassFileWriter.Opcodes.IFEQ, zero);
+            code.pushInt(1);
+            code.jump(ClassFileWriter.Opcodes.GOTO, end);
+            code.bind(zero);
+            code.pushInt(0);
+            code.bind(end);
+            return;
+        }
+        char source = kind(from);
+        char target = kind(to);
+        if (to == ValueType.UNSIGNED_INT && (source == 'F' || source == 'D')) {
+            // Through long, so values past INT_MAX survive
+            code.op(source == 'F' ? ClassFileWriter.Opcodes.F2L : ClassFileWriter.Opcodes.D2L, source == 'F' ? 1 : 0);
+            code.op(ClassFileWriter.Opcodes.L2I, -1);
+            return;
+        }
+        if (from == ValueType.UNSIGNED_INT && target != 'I') {
+            code.invokeStatic("java/lang/Integer", "toUnsignedLong", "(I)J");
+            source = 'J';
+        }
+        if (source != target) {
+            code.op(conversion(source, target), slotCount(target) - slotCount(source));
+        }
+        if (to == ValueType.SHORT) code.op(ClassFileWriter.Opcodes.I2S, 0);
+        if (to == ValueType.CHAR) code.op(ClassFileWriter.Opcodes.I2B, 0);
+    }
+
+    private static int slotCount(char kind) {
+        return ClassFileWriter.slots(kind);
+    }
+
+    private static int conversion(char source, char target) {
+        String pair = "" + source + target;
+        switch (pair) {
+            case "IJ":
+                return ClassFileWriter.Opcodes.I2L;
+            case "IF":
+                return ClassFileWriter.Opcodes.I2F;
+            case "ID":
+                return ClassFileWriter.Opcodes.I2D;
+            case "JI":
+                return ClassFileWriter.Opcodes.L2I;
+            case "JF":
+                return ClassFileWriter.Opcodes.L2F;
+            case "JD":
+                return ClassFileWriter.Opcodes.L2D;
+            case "FI":
+                return ClassFileWriter.Opcodes.F2I;
+            case "FJ":
+                return ClassFileWriter.Opcodes.F2L;
+            case "FD":
+                return ClassFileWriter.Opcodes.F2D;
+            case "DI":
+                return ClassFileWriter.Opcodes.D2I;
+            case "DJ":
+                return ClassFileWriter.Opcodes.D2L;
+            default:
+                return ClassFileWriter.Opcodes.D2F;
+        }
+    }
+
+    // ===== RESOLUTION (for the Interpreter, RegisterCompiler and SsaBuilder) =====
+
+    Ast ast() {
+        return ast;
+    }
+
+    // Type of an expression the compiler visited, null for a void call
+    ValueType type(int node) {
+        ValueType type = types[node];
+        return type == ValueType.UNKNOWN ? null : type;
+    }
+
+    int variableOf(int node) {
+        return nodeVariables[node];
+    }
+
+    // The expression was folded to a compile-time constant of its own type
+    // while compiling; the engines use constantValue(node) instead of
+    // evaluating it
+    boolean isConstant(int node) {
+        return folder.folded(node) && folder.type(node) == types[node];
+    }
+
+    // Integers as the Interpreter keeps them, float and double as raw
+    // double bits
+    long constantValue(int node) {
+        return folder.value(node);
+    }
+
+    int callTarget(int node) {
+        return callTargets[node];
+    }
+
+    boolean isCast(int node) {
+        return cast(node) != null;
+    }
+
+    int variableCount() {
+        return variableCount;
+    }
+
+    ValueType variableType(int variable) {
+        return variableTypes[variable];
+    }
+
+    boolean isGlobal(int variable) {
+        return variableSlots[variable] < 0;
+    }
+
+    int functionCount() {
+        return functionCount;
+    }
+
+    int functionNode(int f) {
+        return functionNodes[f];
+    }
+
+    // The operator of an ASSIGN node: "=", "+=" and so on
+    String assignmentOperator(int node) {
+        return ast.tokenText(node);
+    }
+
+    String functionName(int f) {
+        return pool.spelling(ast.symbol(functionNodes[f]));
+    }
+
+    int functionBody(int f) {
+        return body(functionNodes[f]);
+    }
+
+    ValueType returnType(int f) {
+        return returnTypes[f];
+    }
+
+    ValueType parameterType(int f, int k) {
+        return parameterTypes[f][k];
+    }
+
+    int parameterCount(int f) {
+        return parameterTypes[f].length;
+    }
+
+    int functionVariables(int f) {
+        return functionVariables[f];
+    }
+
+    int functionVariableEnd(int f) {
+        return functionVariableEnds[f];
+    }
+
+    int mainFunction() {
+        for (int f = 0; f < functionCount; f++) {
+            if (ast.symbol(functionNodes[f]) == MAIN) return f;
+        }
+        return -1;
+    }
+
+    boolean isEndl(int node) {
+        return ast.kind(node) == Ast.Kind.NAME && ast.symbol(node) == endlSymbol;
+    }
+}
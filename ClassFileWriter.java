@@ -0,0 +1,629 @@
+import java.io.*;
+import java.util.*;
+
+// Just enough of the JVM class file format to hold one compiled program:
+// a constant pool, static fields, and static methods whose bytecode is
+// assembled by Code.
+//
+// Classes are written as version 49 (Java 5). From version 50 on every
+// method with branches needs a StackMapTable, which means tracking the
+// type of every local and stack slot at every jump target; a version 49
+// class is checked by the JVM's type-inferencing verifier instead, which
+// works those out itself. The JIT treats both the same.
+//
+// Constants are interned by kind and value, so a name or literal used a
+// thousand times takes one pool entry.
+final class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final String name;
+    private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(constants);
+    private final Map<String, Integer> interned = new HashMap<>();
+    private int constantCount = 1;
+    private final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+    private int fieldCount;
+    private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private int methodCount;
+
+    // name is the internal form, "a/b/C"
+    ClassFileWriter(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int thisClass = classRef(name);
+            int superClass = classRef("java/lang/Object");
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(constantCount);
+            constants.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(fieldCount);
+            fields.writeTo(out);
+            out.writeShort(methodCount);
+            methods.writeTo(out);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    void field(int access, String fieldName, String descriptor) {
+        DataOutputStream out = new DataOutputStream(fields);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(fieldName));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fieldCount++;
+    }
+
+    // A method whose body is assembled into the returned Code; it is added
+    // to the class by Code.finish()
+    Code method(int access, String methodName, String descriptor) {
+        return new Code(access, methodName, descriptor);
+    }
+
+    // ===== CONSTANT POOL =====
+
+    int utf8(String value) {
+        Integer index = interned.get("U" + value);
+        if (index != null) return index;
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+        } catch (IOException e) {
+            // writeUTF refuses more than 65535 bytes
+            throw new IllegalStateException("constant too long");
+        }
+        return add("U" + value, 1);
+    }
+
+    int classRef(String internalName) {
+        return reference("C" + internalName, 7, utf8(internalName));
+    }
+
+    int string(String value) {
+        return reference("S" + value, 8, utf8(value));
+    }
+
+    int integer(int value) {
+        Integer index = interned.get("I" + value);
+        if (index != null) return index;
+        write(3, value);
+        return add("I" + value, 1);
+    }
+
+    int floatConstant(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        Integer index = interned.get("F" + bits);
+        if (index != null) return index;
+        write(4, bits);
+        return add("F" + bits, 1);
+    }
+
+    int longConstant(long value) {
+        Integer index = interned.get("J" + value);
+        if (index != null) return index;
+        write(5, value);
+        return add("J" + value, 2);
+    }
+
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = interned.get("D" + bits);
+        if (index != null) return index;
+        write(6, bits);
+        return add("D" + bits, 2);
+    }
+
+    int fieldRef(String owner, String fieldName, String descriptor) {
+        return member(9, owner, fieldName, descriptor);
+    }
+
+    int methodRef(String owner, String methodName, String descriptor) {
+        return member(10, owner, methodName, descriptor);
+    }
+
+    private int member(int tag, String owner, String memberName, String descriptor) {
+        String key = tag + owner + '.' + memberName + descriptor;
+        Integer index = interned.get(key);
+        if (index != null) return index;
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(memberName, descriptor);
+        write(tag, ownerIndex, nameAndType);
+        return add(key, 1);
+    }
+
+    private int nameAndType(String memberName, String descriptor) {
+        String key = "N" + memberName + ' ' + descriptor;
+        Integer index = interned.get(key);
+        if (index != null) return index;
+        int nameIndex = utf8(memberName);
+        int descriptorIndex = utf8(descriptor);
+        write(12, nameIndex, descriptorIndex);
+        return add(key, 1);
+    }
+
+    private int reference(String key, int tag, int target) {
+        Integer index = interned.get(key);
+        if (index != null) return index;
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(target);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return add(key, 1);
+    }
+
+    private void write(int tag, int value) {
+        try {
+            pool.writeByte(tag);
+            pool.writeInt(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(int tag, long value) {
+        try {
+            pool.writeByte(tag);
+            pool.writeLong(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(int tag, int first, int second) {
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(first);
+            pool.writeShort(second);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Longs and doubles take two pool slots
+    private int add(String key, int slots) {
+        int index = constantCount;
+        constantCount += slots;
+        if (constantCount > 0xFFFF) throw new IllegalStateException("too many constants");
+        interned.put(key, index);
+        return index;
+    }
+
+    // Size in stack slots of the value a descriptor character names
+    static int slots(char descriptor) {
+        switch (descriptor) {
+            case 'V':
+                return 0;
+            case 'J':
+            case 'D':
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    // ===== CODE =====
+
+    // A branch target. Jumps to a label that isn't bound yet are patched
+    // when the method is finished; the label remembers the stack depth
+    // its jumps leave, which becomes the depth where it is bound.
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private int[] fixups = new int[4];
+        private int fixupCount;
+    }
+
+    // One method body. Every emitting call keeps the operand stack depth,
+    // so max_stack comes out of assembly; locals are handed out by
+    // newLocal(). After goto, return or athrow the code is unreachable
+    // until a label that something jumps to is bound.
+    final class Code {
+        private final int access;
+        private final String methodName;
+        private final String descriptor;
+        private byte[] code = new byte[256];
+        private int length;
+        private int stack;
+        private int maxStack;
+        private int locals;
+        private boolean reachable = true;
+        private final List<Label> labels = new ArrayList<>();
+        private int[] lines = new int[32];
+        private int lineCount;
+
+        private Code(int access, String methodName, String descriptor) {
+            this.access = access;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+            // Parameters take the first locals
+            for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+                char c = descriptor.charAt(i);
+                locals += slots(c);
+                if (c == 'L') i = descriptor.indexOf(';', i);
+            }
+        }
+
+        boolean isReachable() {
+            return reachable;
+        }
+
+        int newLocal(char type) {
+            int slot = locals;
+            locals += slots(type);
+            return slot;
+        }
+
+        // Maps the code from here on to a source line, for stack traces
+        void line(int line) {
+            if (line <= 0) return;
+            if (lineCount > 0 && lines[2 * lineCount - 2] == length) {
+                lineCount--; // nothing was emitted for the previous line
+            }
+            if (lineCount > 0 && lines[2 * lineCount - 1] == line) return;
+            if (2 * lineCount == lines.length) lines = Arrays.copyOf(lines, lines.length * 2);
+            lines[2 * lineCount] = length;
+            lines[2 * lineCount + 1] = line;
+            lineCount++;
+        }
+
+        // An instruction without operands that changes the stack by delta
+        void op(int opcode, int delta) {
+            emit(opcode);
+            adjust(delta);
+            if (opcode == Opcodes.GOTO || opcode == Opcodes.ATHROW || (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN)) {
+                unreachable();
+            }
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                emit(Opcodes.ICONST_0 + value);
+            } else if (value == (byte) value) {
+                emit(Opcodes.BIPUSH);
+                emit(value);
+            } else if (value == (short) value) {
+                emit(Opcodes.SIPUSH);
+                emit16(value);
+            } else {
+                ldc(integer(value));
+            }
+            adjust(1);
+        }
+
+        void pushLong(long value) {
+            if (value == 0 || value == 1) {
+                emit(Opcodes.LCONST_0 + (int) value);
+            } else {
+                emit(Opcodes.LDC2_W);
+                emit16(longConstant(value));
+            }
+            adjust(2);
+        }
+
+        void pushFloat(float value) {
+            if (Float.floatToRawIntBits(value) == 0 || value == 1f || value == 2f) {
+                emit(Opcodes.FCONST_0 + (int) value);
+            } else {
+                ldc(floatConstant(value));
+            }
+            adjust(1);
+        }
+
+        void pushDouble(double value) {
+            if (Double.doubleToRawLongBits(value) == 0 || value == 1d) {
+                emit(Opcodes.DCONST_0 + (int) value);
+            } else {
+                emit(Opcodes.LDC2_W);
+                emit16(doubleConstant(value));
+            }
+            adjust(2);
+        }
+
+        void pushString(String value) {
+            ldc(string(value));
+            adjust(1);
+        }
+
+        private void ldc(int index) {
+            if (index < 256) {
+                emit(Opcodes.LDC);
+                emit(index);
+            } else {
+                emit(Opcodes.LDC_W);
+                emit16(index);
+            }
+        }
+
+        // type is a descriptor character: I J F D, or L for a reference
+        void load(char type, int slot) {
+            local(Opcodes.ILOAD + kind(type), slot);
+            adjust(slots(type));
+        }
+
+        void store(char type, int slot) {
+            local(Opcodes.ISTORE + kind(type), slot);
+            adjust(-slots(type));
+        }
+
+        void increment(int slot, int delta) {
+            if (slot < 256 && delta == (byte) delta) {
+                emit(Opcodes.IINC);
+                emit(slot);
+                emit(delta);
+            } else {
+                emit(Opcodes.WIDE);
+                emit(Opcodes.IINC);
+                emit16(slot);
+                emit16(delta);
+            }
+        }
+
+        private void local(int opcode, int slot) {
+            if (slot < 256) {
+                emit(opcode);
+                emit(slot);
+            } else {
+                emit(Opcodes.WIDE);
+                emit(opcode);
+                emit16(slot);
+            }
+        }
+
+        private int kind(char type) {
+            switch (type) {
+                case 'J':
+                    return 1;
+                case 'F':
+                    return 2;
+                case 'D':
+                    return 3;
+                case 'L':
+                    return 4;
+                default:
+                    return 0;
+            }
+        }
+
+        void getStatic(String owner, String fieldName, String fieldDescriptor) {
+            emit(Opcodes.GETSTATIC);
+            emit16(fieldRef(owner, fieldName, fieldDescriptor));
+            adjust(slots(fieldDescriptor.charAt(0)));
+        }
+
+        void putStatic(String owner, String fieldName, String fieldDescriptor) {
+            emit(Opcodes.PUTSTATIC);
+            emit16(fieldRef(owner, fieldName, fieldDescriptor));
+            adjust(-slots(fieldDescriptor.charAt(0)));
+        }
+
+        void invokeStatic(String owner, String name, String methodDescriptor) {
+            invoke(Opcodes.INVOKESTATIC, owner, name, methodDescriptor, 0);
+        }
+
+        void invokeVirtual(String owner, String name, String methodDescriptor) {
+            invoke(Opcodes.INVOKEVIRTUAL, owner, name, methodDescriptor, 1);
+        }
+
+        private void invoke(int opcode, String owner, String name, String methodDescriptor, int receiver) {
+            emit(opcode);
+            emit16(methodRef(owner, name, methodDescriptor));
+            int delta = -receiver;
+            int close = methodDescriptor.indexOf(')');
+            for (int i = 1; i < close; i++) {
+                char c = methodDescriptor.charAt(i);
+                delta -= slots(c);
+                if (c == 'L') i = methodDescriptor.indexOf(';', i);
+            }
+            adjust(delta + slots(methodDescriptor.charAt(close + 1)));
+        }
+
+        // A conditional branch or goto; conditional ones pop their operands
+        void jump(int opcode, Label target) {
+            int pops;
+            if (opcode == Opcodes.GOTO) {
+                pops = 0;
+            } else if (opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ACMPNE) {
+                pops = 2;
+            } else {
+                pops = 1;
+            }
+            adjust(-pops);
+            if (target.stack < 0) target.stack = stack;
+            if (target.position < 0) {
+                if (2 * target.fixupCount == target.fixups.length) {
+                    target.fixups = Arrays.copyOf(target.fixups, target.fixups.length * 2);
+                }
+                target.fixups[2 * target.fixupCount] = length;
+                target.fixups[2 * target.fixupCount + 1] = length + 1;
+                target.fixupCount++;
+                if (target.fixupCount == 1) labels.add(target);
+                emit(opcode);
+                emit16(0);
+            } else {
+                int offset = target.position - length;
+                emit(opcode);
+                emit16(offset);
+            }
+            if (opcode == Opcodes.GOTO) unreachable();
+        }
+
+        void bind(Label label) {
+            label.position = length;
+            if (label.stack >= 0) {
+                stack = label.stack;
+                reachable = true;
+            } else if (reachable) {
+                label.stack = stack;
+            }
+        }
+
+        private void unreachable() {
+            reachable = false;
+            stack = 0;
+        }
+
+        // Adds the method to the class
+        void finish() {
+            for (Label label : labels) {
+                for (int k = 0; k < label.fixupCount; k++) {
+                    int offset = label.position - label.fixups[2 * k];
+                    if (label.position < 0 || offset != (short) offset) {
+                        throw new IllegalStateException("method too large");
+                    }
+                    code[label.fixups[2 * k + 1]] = (byte) (offset >> 8);
+                    code[label.fixups[2 * k + 1] + 1] = (byte) offset;
+                }
+            }
+            if (length > 0xFFFF) throw new IllegalStateException("method too large");
+
+            DataOutputStream out = new DataOutputStream(methods);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(methodName));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                int lineTable = lineCount > 0 ? 8 + 4 * lineCount : 0;
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + length + lineTable);
+                out.writeShort(maxStack);
+                out.writeShort(locals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(0); // exception table
+                if (lineCount > 0) {
+                    out.writeShort(1);
+                    out.writeShort(utf8("LineNumberTable"));
+                    out.writeInt(2 + 4 * lineCount);
+                    out.writeShort(lineCount);
+                    for (int k = 0; k < lineCount; k++) {
+                        out.writeShort(lines[2 * k]);
+                        out.writeShort(lines[2 * k + 1]);
+                    }
+                } else {
+                    out.writeShort(0);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            methodCount++;
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack) maxStack = stack;
+            if (stack < 0) stack = 0; // only in unreachable code
+        }
+
+        private void emit(int b) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) b;
+        }
+
+        private void emit16(int value) {
+            emit(value >> 8);
+            emit(value);
+        }
+    }
+
+    // The opcodes the compiler uses, by their JVM specification names
+    static final class Opcodes {
+        static final int ICONST_0 = 0x03;
+        static final int LCONST_0 = 0x09;
+        static final int FCONST_0 = 0x0b;
+        static final int DCONST_0 = 0x0e;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC = 0x12;
+        static final int LDC_W = 0x13;
+        static final int LDC2_W = 0x14;
+        static final int ILOAD = 0x15;
+        static final int ISTORE = 0x36;
+        static final int POP = 0x57;
+        static final int POP2 = 0x58;
+        static final int DUP = 0x59;
+        static final int DUP2 = 0x5c;
+        static final int IADD = 0x60;
+        static final int ISUB = 0x64;
+        static final int IMUL = 0x68;
+        static final int IDIV = 0x6c;
+        static final int IREM = 0x70;
+        static final int INEG = 0x74;
+        static final int ISHL = 0x78;
+        static final int ISHR = 0x7a;
+        static final int IUSHR = 0x7c;
+        static final int IAND = 0x7e;
+        static final int IOR = 0x80;
+        static final int IXOR = 0x82;
+        static final int IINC = 0x84;
+        static final int I2L = 0x85;
+        static final int I2F = 0x86;
+        static final int I2D = 0x87;
+        static final int L2I = 0x88;
+        static final int L2F = 0x89;
+        static final int L2D = 0x8a;
+        static final int F2I = 0x8b;
+        static final int F2L = 0x8c;
+        static final int F2D = 0x8d;
+        static final int D2I = 0x8e;
+        static final int D2L = 0x8f;
+        static final int D2F = 0x90;
+        static final int I2B = 0x91;
+        static final int I2S = 0x93;
+        static final int LCMP = 0x94;
+        static final int FCMPL = 0x95;
+        static final int FCMPG = 0x96;
+        static final int DCMPL = 0x97;
+        static final int DCMPG = 0x98;
+        static final int IFEQ = 0x99;
+        static final int IFNE = 0x9a;
+        static final int IFLT = 0x9b;
+        static final int IFGE = 0x9c;
+        static final int IFGT = 0x9d;
+        static final int IFLE = 0x9e;
+        static final int IF_ICMPEQ = 0x9f;
+        static final int IF_ICMPNE = 0xa0;
+        static final int IF_ICMPLT = 0xa1;
+        static final int IF_ICMPGE = 0xa2;
+        static final int IF_ICMPGT = 0xa3;
+        static final int IF_ICMPLE = 0xa4;
+        static final int IF_ACMPNE = 0xa6;
+        static final int GOTO = 0xa7;
+        static final int IRETURN = 0xac;
+        static final int RETURN = 0xb1;
+        static final int GETSTATIC = 0xb2;
+        static final int PUTSTATIC = 0xb3;
+        static final int INVOKEVIRTUAL = 0xb6;
+        static final int INVOKESTATIC = 0xb8;
+        static final int ATHROW = 0xbf;
+        static final int WIDE = 0xc4;
+
+        private Opcodes() {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+// A program BytecodeCompiler turned into a class file, ready to run.
+//
+// Every run() defines the class afresh in a loader of its own, so globals
+// start from their initializers each time and a finished program's class
+// can be unloaded with its loader. The program runs on the calling
+// thread; interrupting that thread stops it at the next loop head or
+// call (see ProgramRuntime.poll).
+public final class CompiledProgram {
+    private final String className;
+    private final byte[] classFile;
+
+    CompiledProgram(String className, byte[] classFile) {
+        this.className = className;
+        this.classFile = classFile;
+    }
+
+    public byte[] classFile() {
+        return classFile.clone();
+    }
+
+    // Runs main() with cout going to out; returns main's result, 0 for a
+    // void main. An error inside the program (division by zero, runaway
+    // recursion, a stop request) comes out as a ProgramException.
+    public int run(PrintStream out) {
+        PrintStream previous = ProgramRuntime.redirect(out);
+        try {
+            Class<?> program = new Loader().define(className, classFile);
+            Method main = program.getMethod(BytecodeCompiler.methodName("main"));
+            Object result = main.invoke(null);
+            return result instanceof Integer ? (Integer) result : 0;
+        } catch (InvocationTargetException e) {
+            throw failure(e.getCause());
+        } catch (ExceptionInInitializerError e) {
+            // A global's initializer failed
+            throw failure(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Compiled program can't be started", e);
+        } finally {
+            out.flush();
+            ProgramRuntime.redirect(previous);
+        }
+    }
+
+    private ProgramRuntime.ProgramException failure(Throwable cause) {
+        String message;
+        if (cause instanceof ProgramRuntime.Halted) {
+            message = "program stopped";
+        } else if (cause instanceof ArithmeticException) {
+            message = "division by zero";
+        } else if (cause instanceof StackOverflowError) {
+            message = "stack overflow (recursion too deep)";
+        } else if (cause instanceof OutOfMemoryError) {
+            message = "out of memory";
+        } else if (cause instanceof Error) {
+            throw (Error) cause; // a VerifyError is the compiler's bug, not the program's
+        } else {
+            message = String.valueOf(cause);
+        }
+        // The innermost frame in the program knows the source line
+        int line = 0;
+        for (StackTraceElement frame : cause.getStackTrace()) {
+            if (frame.getClassName().equals(className) && frame.getLineNumber() > 0) {
+                line = frame.getLineNumber();
+                break;
+            }
+        }
+        return new ProgramRuntime.ProgramException(message, line);
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(CompiledProgram.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+import java.util.*;
+
+// Compile-time evaluation of constant expressions over the tree. Literals,
+// const variables with a constant initializer, and the arithmetic,
+// bitwise, comparison, logical, conditional and cast operators applied to
+// them all fold.
+//
+// Values are kept the way the engines keep them: integers as the
+// Interpreter does (sign-extended longs, an unsigned int as the int with
+// the same bits), float and double as raw double bits like SsaEvaluator.
+// Operands get the usual promotions (char, short and bool compute as int,
+// the wider operand decides) and then go through the Interpreter's own
+// arithmetic, so a folded value is exactly what Run would compute.
+//
+// Each node is folded once. Its result stays in parallel arrays by node id,
+// so the analyzer's checks and the compilers can ask about the same node
+// any number of times. Folding also notes what C++ leaves undefined in a
+// constant: signed overflow, division by zero and shift counts out of
+// range, each at the first node it happens at. A division by zero makes
+// the expression non-constant, since it fails when it runs. The other two
+// keep the value the engines compute.
+final class ConstantFolder {
+    // Why a constant is suspect; problem() is 0 when it isn't
+    static final int OVERFLOW = 1;
+    static final int DIVISION_BY_ZERO = 2;
+    static final int SHIFT_RANGE = 3;
+
+    // The constants names stand for: a NAME node's type when it names a
+    // compile-time constant, null otherwise, and then its value
+    interface Names {
+        ValueType constantType(int node);
+
+        long constantValue(int node);
+    }
+
+    private static final byte UNVISITED = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte VARIABLE = 2;
+
+    private static final int CONST = SymbolPool.seeded("const");
+    private static final int CONSTEXPR = SymbolPool.seeded("constexpr");
+    private static final int TRUE = SymbolPool.seeded("true");
+
+    private final Ast ast;
+    private final TokenStream tokens;
+    private final Names names;
+    private final byte[] states;
+    private final ValueType[] types;
+    private final long[] values;
+    // The first problem among the operands a node evaluates, and the node
+    // it happened at; 0 and -1 for none
+    private final byte[] problems;
+    private final int[] problemNodes;
+    private int evaluations;
+    private int reuses;
+
+    ConstantFolder(Ast ast, Names names) {
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.names = names;
+        states = new byte[ast.size()];
+        types = new ValueType[ast.size()];
+        values = new long[ast.size()];
+        problems = new byte[ast.size()];
+        problemNodes = new int[ast.size()];
+    }
+
+    // The expression at node is a compile-time constant. Folds it, and what
+    // it is made of, the first time it is asked about.
+    boolean isConstant(int node) {
+        if (states[node] != UNVISITED) {
+            reuses++;
+            return states[node] == CONSTANT;
+        }
+        evaluations++;
+        problemNodes[node] = -1;
+        states[node] = evaluate(node) ? CONSTANT : VARIABLE;
+        return states[node] == CONSTANT;
+    }
+
+    // Folded to a constant already. Never folds anything itself, for
+    // callers whose names only resolve while they walk the tree.
+    boolean folded(int node) {
+        return states[node] == CONSTANT;
+    }
+
+    // Type and value of a constant node
+    ValueType type(int node) {
+        return types[node];
+    }
+
+    long value(int node) {
+        return values[node];
+    }
+
+    // The first problem met folding node (constant or not), 0 for none,
+    // and the node it happened at
+    int problem(int node) {
+        return problems[node];
+    }
+
+    int problemNode(int node) {
+        return problemNodes[node];
+    }
+
+    // Nodes folded, and questions answered from what was folded before
+    int evaluations() {
+        return evaluations;
+    }
+
+    int reuses() {
+        return reuses;
+    }
+
+    // The value as the source would write it ("42", "4294967295", "2.5",
+    // "true")
+    static String format(ValueType type, long value) {
+        switch (type) {
+            case BOOL:
+                return value != 0 ? "true" : "false";
+            case UNSIGNED_INT:
+                return Integer.toUnsignedString((int) value);
+            case FLOAT:
+            case DOUBLE:
+                return ProgramRuntime.format(real(value));
+            default:
+                return Long.toString(value);
+        }
+    }
+
+    // A declaration's TYPE says const or constexpr
+    static boolean isConstQualified(Ast ast, int type) {
+        TokenStream tokens = ast.tokens();
+        for (int i = ast.firstToken(type); i <= ast.lastToken(type); i++) {
+            int symbol = tokens.symbol(i);
+            if (symbol == CONST || symbol == CONSTEXPR) return true;
+        }
+        return false;
+    }
+
+    // A value of type from as a value of type to, converted like every
+    // engine converts it
+    static long convert(long value, ValueType from, ValueType to) {
+        boolean fromReal = Interpreter.category(from) == 'D';
+        if (Interpreter.category(to) == 'D') {
+            return bits(fromReal ? Interpreter.round(real(value), to) : Interpreter.toReal(value, from, to));
+        }
+        return fromReal ? Interpreter.fromReal(real(value), to) : Interpreter.convert(value, from, to);
+    }
+
+    // ===== EVALUATION =====
+
+    private boolean evaluate(int node) {
+        switch (ast.kind(node)) {
+            case LITERAL:
+                return literal(node);
+            case NAME: {
+                ValueType type = names.constantType(node);
+                return type != null && set(node, type, names.constantValue(node));
+            }
+            case UNARY:
+                return unary(node);
+            case BINARY:
+                return binary(node);
+            case CONDITIONAL:
+                return conditional(node);
+            case CALL:
+                return cast(node);
+            default:
+                return false;
+        }
+    }
+
+    // Types as BytecodeCompiler gives them: an int literal too large for
+    // an int is a long long
+    private boolean literal(int node) {
+        int token = ast.token(node);
+        ValueType type = tokens.literal(token);
+        if (type == null || type == ValueType.STRING || ast.firstToken(node) != ast.lastToken(node)) return false;
+        try {
+            switch (type) {
+                case CHAR:
+                    return set(node, type, BytecodeCompiler.parseChar(ast.tokenText(node)));
+                case BOOL:
+                    return set(node, type, ast.symbol(node) == TRUE ? 1 : 0);
+                case FLOAT:
+                case DOUBLE:
+                    return set(node, type, bits(Interpreter.round(BytecodeCompiler.parseReal(ast.tokenText(node)), type)));
+                default: {
+                    long value = BytecodeCompiler.parseInteger(tokens.source(), tokens.start(token), tokens.end(token));
+                    if (type == ValueType.INT && value != (int) value) type = ValueType.LONG_LONG;
+                    return set(node, type, Interpreter.narrow(type, value));
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private boolean unary(int node) {
+        String op = ast.tokenText(node);
+        int operand = ast.firstChild(node);
+        // ++ and -- change a variable; * and & are pointers
+        if (op.length() != 1 || "!+-~".indexOf(op.charAt(0)) < 0) return false;
+        if (!arithmeticOperand(node, operand)) return false;
+        ValueType from = types[operand];
+        if (op.equals("!")) return set(node, ValueType.BOOL, truth(operand) ? 0 : 1);
+        if (op.equals("~") && !from.isIntegral()) return false;
+        ValueType type = ValueType.promote(from, ValueType.INT);
+        long value = convert(values[operand], from, type);
+        switch (op) {
+            case "+":
+                return set(node, type, value);
+            case "~":
+                return set(node, type, Interpreter.narrow(type, ~value));
+            default: // -
+                if (Interpreter.category(type) == 'D') return set(node, type, bits(-real(value)));
+                if (overflows("-", 0, value, type)) problem(node, OVERFLOW);
+                return set(node, type, Interpreter.narrow(type, -value));
+        }
+    }
+
+    private boolean binary(int node) {
+        String op = ast.tokenText(node);
+        int left = ast.firstChild(node);
+        int right = ast.child(node, 1);
+        if (op.equals("&&") || op.equals("||")) {
+            // The right side isn't evaluated when the left decides
+            if (!arithmeticOperand(node, left)) return false;
+            boolean decided = truth(left);
+            if (decided == op.equals("||")) return set(node, ValueType.BOOL, decided ? 1 : 0);
+            return arithmeticOperand(node, right) && set(node, ValueType.BOOL, truth(right) ? 1 : 0);
+        }
+        // Both sides are folded, so a problem on the right is found even
+        // when the left isn't constant
+        boolean constant = arithmeticOperand(node, left);
+        constant &= arithmeticOperand(node, right);
+        if (!constant) return false;
+        ValueType l = types[left];
+        ValueType r = types[right];
+        int comparison = Arrays.asList(SsaFunction.COMPARISONS).indexOf(op);
+        if (comparison >= 0) {
+            ValueType common = ValueType.promote(l, r);
+            long a = convert(values[left], l, common);
+            long b = convert(values[right], r, common);
+            boolean holds;
+            if (Interpreter.category(common) == 'D') {
+                holds = SsaEvaluator.compareReals(comparison, real(a), real(b));
+            } else {
+                int order = common == ValueType.UNSIGNED_INT ? Integer.compareUnsigned((int) a, (int) b) : Long.compare(a, b);
+                holds = SsaEvaluator.holds(comparison, order);
+            }
+            return set(node, ValueType.BOOL, holds ? 1 : 0);
+        }
+        switch (op) {
+            case "+":
+            case "-":
+            case "*":
+            case "/": {
+                ValueType type = ValueType.promote(l, r);
+                long a = convert(values[left], l, type);
+                long b = convert(values[right], r, type);
+                if (Interpreter.category(type) == 'D') {
+                    return set(node, type, bits(Interpreter.arithmetic(op, real(a), real(b), type)));
+                }
+                return integer(node, op, type, a, b);
+            }
+            case "%":
+            case "&":
+            case "|":
+            case "^": {
+                if (!l.isIntegral() || !r.isIntegral()) return false;
+                ValueType type = ValueType.promote(l, r);
+                return integer(node, op, type, convert(values[left], l, type), convert(values[right], r, type));
+            }
+            case "<<":
+            case ">>": {
+                if (!l.isIntegral() || !r.isIntegral()) return false;
+                ValueType type = ValueType.promote(l, ValueType.INT);
+                long count = convert(values[right], r, ValueType.INT);
+                int width = type == ValueType.LONG || type == ValueType.LONG_LONG ? 64 : 32;
+                if (count < 0 || count >= width) problem(node, SHIFT_RANGE);
+                return set(node, type, Interpreter.arithmetic(op, convert(values[left], l, type), count, type));
+            }
+            default: // the comma operator, and what isn't arithmetic
+                return false;
+        }
+    }
+
+    private boolean integer(int node, String op, ValueType type, long a, long b) {
+        if ((op.equals("/") || op.equals("%")) && b == 0) {
+            problem(node, DIVISION_BY_ZERO);
+            return false;
+        }
+        if (overflows(op, a, b, type)) problem(node, OVERFLOW);
+        return set(node, type, Interpreter.arithmetic(op, a, b, type));
+    }
+
+    // a op b leaves the range of the signed type it is computed in;
+    // unsigned arithmetic wraps by definition
+    private static boolean overflows(String op, long a, long b, ValueType type) {
+        if (type == ValueType.UNSIGNED_INT) return false;
+        try {
+            long exact;
+            switch (op) {
+                case "+":
+                    exact = Math.addExact(a, b);
+                    break;
+                case "-":
+                    exact = Math.subtractExact(a, b);
+                    break;
+                case "*":
+                    exact = Math.multiplyExact(a, b);
+                    break;
+                case "/":
+                    if (a == Long.MIN_VALUE && b == -1) return true;
+                    exact = a / b;
+                    break;
+                default:
+                    return false;
+            }
+            return type == ValueType.INT && exact != (int) exact;
+        } catch (ArithmeticException e) {
+            return true;
+        }
+    }
+
+    // Only the branch taken counts: its problems, not the other one's. The
+    // other branch still has to be constant for the result to have a type.
+    private boolean conditional(int node) {
+        int condition = ast.firstChild(node);
+        int then = ast.child(node, 1);
+        int otherwise = ast.child(node, 2);
+        if (!arithmeticOperand(node, condition)) return false;
+        int taken = truth(condition) ? then : otherwise;
+        boolean constant = arithmeticOperand(node, taken);
+        if (!constant || !isConstant(taken == then ? otherwise : then)) return false;
+        ValueType a = types[then];
+        ValueType b = types[otherwise];
+        ValueType type = a == b ? a : ValueType.promote(a, b);
+        if (type == ValueType.ERROR) return false;
+        return set(node, type, convert(values[taken], types[taken], type));
+    }
+
+    // A function-style cast, "double(x)", recognized like BytecodeCompiler
+    // does
+    private boolean cast(int node) {
+        int callee = ast.firstChild(node);
+        if (ast.childCount(node) != 2 || ast.firstToken(callee) != ast.lastToken(callee)) return false;
+        ValueType type = ValueType.of(ast.symbol(callee));
+        if (type == null || !type.isArithmetic()) return false;
+        int operand = ast.child(node, 1);
+        if (!arithmeticOperand(node, operand)) return false;
+        return set(node, type, convert(values[operand], types[operand], type));
+    }
+
+    // Folds an operand of node, passing its problem up; true when it is an
+    // arithmetic constant
+    private boolean arithmeticOperand(int node, int operand) {
+        boolean constant = isConstant(operand);
+        if (problems[node] == 0 && problems[operand] != 0) {
+            problems[node] = problems[operand];
+            problemNodes[node] = problemNodes[operand];
+        }
+        return constant && types[operand].isArithmetic();
+    }
+
+    private boolean truth(int node) {
+        return Interpreter.category(types[node]) == 'D' ? real(values[node]) != 0 : values[node] != 0;
+    }
+
+    private void problem(int node, int problem) {
+        if (problems[node] != 0) return;
+        problems[node] = (byte) problem;
+        problemNodes[node] = node;
+    }
+
+    private boolean set(int node, ValueType type, long value) {
+        types[node] = type;
+        values[node] = value;
+        return true;
+    }
+
+    private static long bits(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    private static double real(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+}
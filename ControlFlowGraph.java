@@ -0,0 +1,627 @@
+import java.util.*;
+
+// Control-flow graph of one function body, built from the Parser's tree
+// for the dataflow checks (see Dataflow).
+//
+// A basic block is a straight run of variable events: a USE reads a
+// variable, a DEF writes it, an INIT is a declaration's constant or
+// default initialization, and a SET is an access the analysis can't see
+// through ("&x", "cin >> x", "f(x)" where f may take a reference), which
+// may read and may write. Like TokenStream and Ast, blocks, events and
+// edges are numbered and kept in parallel int arrays: block b's events are
+// [eventStart(b), eventEnd(b)), and successors and predecessors are stored
+// compressed, one array each.
+//
+// Variables are the function's parameters and the locals it declares,
+// resolved with their block scopes, so a shadowing declaration is a
+// variable of its own. Names that don't resolve to one (globals, functions)
+// produce no events.
+//
+// The graph is built in one walk of the tree. Every new block becomes the
+// current one and is never returned to, so events are appended in block
+// order; jumps to blocks that don't exist yet (break, continue, return)
+// are patched when their target is created. Short-circuit operators and
+// ?: are treated as evaluating every operand.
+public final class ControlFlowGraph {
+    public static final int USE = 0;
+    public static final int DEF = 1;
+    public static final int INIT = 2;
+    public static final int SET = 3;
+
+    public static final int ENTRY = 0;
+
+    private final Ast ast;
+    private final TokenStream tokens;
+    private final int function;
+
+    private int[] blockEvents = new int[16];
+    private int blockCount;
+    private int exit;
+
+    // Event e is kind (low 2 bits) and variable, at a tree node
+    private int[] events = new int[64];
+    private int[] eventNodes = new int[64];
+    private int eventCount;
+
+    private int[] edgeFrom = new int[32];
+    private int[] edgeTo = new int[32];
+    private int edgeCount;
+    private int[] successorStart;
+    private int[] successors;
+    private int[] predecessorStart;
+    private int[] predecessors;
+
+    private int[] variableNames = new int[16];
+    private int[] variableNodes = new int[16];
+    private boolean[] parameters = new boolean[16];
+    private int variableCount;
+
+    // Build state. visible[name id] is the innermost variable by that name,
+    // -1 for none; undo holds (name, previous) pairs to restore on leaving
+    // a scope.
+    private int[] visible;
+    private int[] undo = new int[32];
+    private int undoCount;
+    private int current;
+    private Jumps breaks;
+    private Jumps continues;
+    private final Jumps returns = new Jumps();
+    private final int cinSymbol;
+    private final int defaultSymbol;
+
+    // Blocks whose last edge goes to a target that isn't built yet
+    private static final class Jumps {
+        int[] from = new int[4];
+        int size;
+
+        void add(int block) {
+            if (size == from.length) from = Arrays.copyOf(from, size * 2);
+            from[size++] = block;
+        }
+    }
+
+    private static final boolean[] SCALAR_TYPES = SymbolPool.wordSet("int", "float", "double", "char", "bool",
+            "long", "short", "unsigned", "signed", "size_t", "long long", "unsigned int");
+    private static final int SWITCH = SymbolPool.seeded("switch");
+    private static final int CASE = SymbolPool.seeded("case");
+    private static final int TRUE = SymbolPool.seeded("true");
+
+    private ControlFlowGraph(Ast ast, int function) {
+        this.ast = ast;
+        this.tokens = ast.tokens();
+        this.function = function;
+        SymbolPool pool = tokens.pool();
+        visible = new int[pool.size()];
+        Arrays.fill(visible, -1);
+        cinSymbol = pool.find("cin");
+        defaultSymbol = pool.find("default");
+    }
+
+    // The graph of a FUNCTION node's body; a prototype gets an entry
+    // block straight into the exit
+    public static ControlFlowGraph build(Ast ast, int function) {
+        ControlFlowGraph graph = new ControlFlowGraph(ast, function);
+        graph.buildBody();
+        return graph;
+    }
+
+    private void buildBody() {
+        current = newBlock();
+        int body = -1;
+        for (int child = ast.firstChild(function); child >= 0; child = ast.nextSibling(child)) {
+            if (ast.kind(child) == Ast.Kind.PARAM && ast.token(child) >= 0) {
+                event(INIT, declare(ast.symbol(child), child, true), child);
+            } else if (ast.kind(child) == Ast.Kind.BLOCK) {
+                body = child;
+            }
+        }
+        if (body >= 0) statement(body);
+        int last = current;
+        exit = newBlock();
+        edge(last, exit);
+        for (int k = 0; k < returns.size; k++) edge(returns.from[k], exit);
+        blockEvents[blockCount] = eventCount;
+        link();
+    }
+
+    // ===== STATEMENTS =====
+
+    private void statement(int node) {
+        switch (ast.kind(node)) {
+            case BLOCK:
+                block(node);
+                break;
+            case DECLARATION:
+                declaration(node);
+                break;
+            case IF:
+                ifStatement(node);
+                break;
+            case WHILE:
+                whileStatement(node);
+                break;
+            case DO:
+                doStatement(node);
+                break;
+            case FOR:
+                forStatement(node);
+                break;
+            case RETURN:
+                if (ast.firstChild(node) >= 0) expression(ast.firstChild(node));
+                returns.add(current);
+                current = newBlock(); // unreachable until something jumps here
+                break;
+            case BREAK:
+            case CONTINUE: {
+                Jumps target = ast.kind(node) == Ast.Kind.BREAK ? breaks : continues;
+                if (target != null) {
+                    target.add(current);
+                    current = newBlock();
+                }
+                break;
+            }
+            case EXPRESSION:
+                expression(ast.firstChild(node));
+                break;
+            default:
+                for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                    expression(child);
+                }
+        }
+    }
+
+    private void block(int node) {
+        int mark = undoCount;
+        for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+            if (isSwitchHead(child) && ast.nextSibling(child) >= 0 && ast.kind(ast.nextSibling(child)) == Ast.Kind.BLOCK) {
+                int call = ast.firstChild(child);
+                for (int value = ast.nextSibling(ast.firstChild(call)); value >= 0; value = ast.nextSibling(value)) {
+                    expression(value);
+                }
+                child = ast.nextSibling(child);
+                switchBody(child);
+            } else {
+                statement(child);
+            }
+        }
+        popScope(mark);
+    }
+
+    // The Parser doesn't model switch: "switch (x)" comes out as a call
+    // statement followed by the body block, whose "case ...:" labels are
+    // statements of their own. Every label is a jump target from the head,
+    // and without a default label the head can skip the body.
+    private boolean isSwitchHead(int node) {
+        if (ast.kind(node) != Ast.Kind.EXPRESSION) return false;
+        int call = ast.firstChild(node);
+        return ast.kind(call) == Ast.Kind.CALL && ast.symbol(ast.firstChild(call)) == SWITCH;
+    }
+
+    private void switchBody(int body) {
+        int head = current;
+        Jumps outerBreaks = breaks;
+        breaks = new Jumps();
+        boolean hasDefault = false;
+        current = newBlock();
+        edge(head, current);
+        int mark = undoCount;
+        for (int child = ast.firstChild(body); child >= 0; child = ast.nextSibling(child)) {
+            int label = ast.kind(child) == Ast.Kind.EXPRESSION ? ast.symbol(ast.firstChild(child)) : -1;
+            if (label >= 0 && (label == CASE || label == defaultSymbol)) {
+                hasDefault |= label == defaultSymbol;
+                int fallthrough = current;
+                current = newBlock();
+                edge(fallthrough, current);
+                edge(head, current);
+            } else {
+                statement(child);
+            }
+        }
+        popScope(mark);
+        int last = current;
+        current = newBlock();
+        edge(last, current);
+        if (!hasDefault) edge(head, current);
+        patch(breaks, current);
+        breaks = outerBreaks;
+    }
+
+    private void declaration(int node) {
+        int type = ast.firstChild(node);
+        boolean scalar = SymbolPool.in(SCALAR_TYPES, Parser.typeSymbol(ast, type));
+        for (int declarator = ast.nextSibling(type); declarator >= 0; declarator = ast.nextSibling(declarator)) {
+            int name = ast.firstChild(declarator);
+            int value = ast.child(declarator, 1);
+            int nameEnd = ast.lastToken(name);
+            boolean array = nameEnd + 1 < tokens.size() && tokens.textEquals(nameEnd + 1, "[");
+            if (ast.firstToken(name) != nameEnd || ast.symbol(name) < 0) {
+                // "9x" is not a name; still evaluate its initializer
+                if (value >= 0) expression(value);
+                continue;
+            }
+            // In scope from its own declarator on, so "int x = x;" reads it
+            int variable = declare(ast.symbol(name), declarator, false);
+            if (value >= 0) {
+                expression(value);
+                event(isConstant(value) ? INIT : DEF, variable, declarator);
+            } else if (!scalar || array) {
+                // Strings, arrays and objects are usable once declared
+                event(INIT, variable, declarator);
+            }
+        }
+    }
+
+    private boolean isConstant(int node) {
+        while (ast.kind(node) == Ast.Kind.UNARY) node = ast.firstChild(node);
+        // An initializer the parser already reported as missing counts too
+        return ast.kind(node) == Ast.Kind.LITERAL || (ast.kind(node) == Ast.Kind.ERROR && ast.token(node) < 0);
+    }
+
+    private void ifStatement(int node) {
+        expression(ast.firstChild(node));
+        int head = current;
+        current = newBlock();
+        edge(head, current);
+        statement(ast.child(node, 1));
+        int thenEnd = current;
+        int elseNode = ast.child(node, 2);
+        int elseEnd = head;
+        if (elseNode >= 0) {
+            current = newBlock();
+            edge(head, current);
+            statement(ast.firstChild(elseNode));
+            elseEnd = current;
+        }
+        current = newBlock();
+        edge(thenEnd, current);
+        edge(elseEnd, current);
+    }
+
+    private void whileStatement(int node) {
+        int condition = ast.firstChild(node);
+        int header = enter();
+        expression(condition);
+        Jumps outerBreaks = breaks;
+        Jumps outerContinues = continues;
+        breaks = new Jumps();
+        continues = new Jumps();
+        current = newBlock();
+        edge(header, current);
+        statement(ast.child(node, 1));
+        edge(current, header);
+        patch(continues, header);
+        leaveLoop(header, condition, outerBreaks, outerContinues);
+    }
+
+    private void doStatement(int node) {
+        int body = enter();
+        Jumps outerBreaks = breaks;
+        Jumps outerContinues = continues;
+        breaks = new Jumps();
+        continues = new Jumps();
+        statement(ast.firstChild(node));
+        int condition = ast.child(node, 1);
+        int test = enter();
+        patch(continues, test);
+        expression(condition);
+        edge(test, body);
+        leaveLoop(test, condition, outerBreaks, outerContinues);
+    }
+
+    private void forStatement(int node) {
+        int mark = undoCount;
+        int init = ast.firstChild(node);
+        int condition = ast.nextSibling(init);
+        int update = ast.nextSibling(condition);
+        if (ast.kind(init) == Ast.Kind.DECLARATION) {
+            declaration(init);
+        } else {
+            expression(init);
+        }
+        int header = enter();
+        expression(condition);
+        Jumps outerBreaks = breaks;
+        Jumps outerContinues = continues;
+        breaks = new Jumps();
+        continues = new Jumps();
+        current = newBlock();
+        edge(header, current);
+        statement(ast.nextSibling(update));
+        enter();
+        patch(continues, current);
+        expression(update);
+        edge(current, header);
+        leaveLoop(header, condition, outerBreaks, outerContinues);
+        popScope(mark);
+    }
+
+    // Starts a new block that the current one falls into; returns it
+    private int enter() {
+        int from = current;
+        current = newBlock();
+        edge(from, current);
+        return current;
+    }
+
+    // The block after a loop whose condition is tested in test: reached
+    // from test unless the condition is always true, and from every break
+    private void leaveLoop(int test, int condition, Jumps outerBreaks, Jumps outerContinues) {
+        current = newBlock();
+        if (!isAlwaysTrue(condition)) edge(test, current);
+        patch(breaks, current);
+        breaks = outerBreaks;
+        continues = outerContinues;
+    }
+
+    // for (;;), while (true), while (1)
+    private boolean isAlwaysTrue(int condition) {
+        switch (ast.kind(condition)) {
+            case EMPTY:
+                return true;
+            case LITERAL: {
+                int token = ast.token(condition);
+                if (ast.symbol(condition) == TRUE) return true;
+                return tokens.kind(token) == TokenKind.NUMBER && !tokens.textEquals(token, "0");
+            }
+            default:
+                return false;
+        }
+    }
+
+    private void patch(Jumps jumps, int target) {
+        for (int k = 0; k < jumps.size; k++) edge(jumps.from[k], target);
+    }
+
+    // ===== EXPRESSIONS =====
+
+    private void expression(int node) {
+        if (node < 0) return;
+        switch (ast.kind(node)) {
+            case NAME: {
+                int variable = resolve(node);
+                if (variable >= 0) event(USE, variable, node);
+                return;
+            }
+            case ASSIGN: {
+                int left = ast.firstChild(node);
+                int variable = resolve(left);
+                if (variable < 0) {
+                    expression(left);
+                    expression(ast.child(node, 1));
+                    return;
+                }
+                int op = ast.token(node);
+                // "x += 1" reads x first; "x = 1" does not
+                if (tokens.kind(op) != TokenKind.ASSIGNMENT_OPERATOR) event(USE, variable, left);
+                expression(ast.child(node, 1));
+                event(DEF, variable, node);
+                return;
+            }
+            case UNARY:
+            case POSTFIX: {
+                int operand = ast.firstChild(node);
+                int variable = resolve(operand);
+                int op = ast.token(node);
+                if (variable >= 0 && tokens.length(op) == 2) { // ++ --
+                    event(USE, variable, operand);
+                    event(DEF, variable, node);
+                } else if (variable >= 0 && tokens.textEquals(op, "&")) {
+                    event(SET, variable, operand);
+                } else {
+                    expression(operand);
+                }
+                return;
+            }
+            case BINARY: {
+                int left = ast.firstChild(node);
+                int right = ast.child(node, 1);
+                expression(left);
+                int variable = resolve(right);
+                if (variable >= 0 && tokens.textEquals(ast.token(node), ">>") && readsInput(left)) {
+                    event(SET, variable, right);
+                } else {
+                    expression(right);
+                }
+                return;
+            }
+            case CALL: {
+                int callee = ast.firstChild(node);
+                if (ast.kind(callee) != Ast.Kind.NAME) expression(callee);
+                for (int arg = ast.nextSibling(callee); arg >= 0; arg = ast.nextSibling(arg)) {
+                    // A plain name may be passed by reference and filled in
+                    int variable = resolve(arg);
+                    if (variable >= 0) {
+                        event(SET, variable, arg);
+                    } else {
+                        expression(arg);
+                    }
+                }
+                return;
+            }
+            default:
+                for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                    expression(child);
+                }
+        }
+    }
+
+    // cin >> a >> b
+    private boolean readsInput(int node) {
+        while (ast.kind(node) == Ast.Kind.BINARY && tokens.textEquals(ast.token(node), ">>")) {
+            node = ast.firstChild(node);
+        }
+        return ast.kind(node) == Ast.Kind.NAME && cinSymbol >= 0 && ast.symbol(node) == cinSymbol;
+    }
+
+    // ===== VARIABLES AND SCOPES =====
+
+    // The variable a plain NAME node refers to, or -1
+    private int resolve(int node) {
+        if (ast.kind(node) != Ast.Kind.NAME || ast.firstToken(node) != ast.lastToken(node)) return -1;
+        int name = ast.symbol(node);
+        return name >= 0 && name < visible.length ? visible[name] : -1;
+    }
+
+    private int declare(int name, int node, boolean parameter) {
+        if (variableCount == variableNames.length) {
+            int grown = variableCount * 2;
+            variableNames = Arrays.copyOf(variableNames, grown);
+            variableNodes = Arrays.copyOf(variableNodes, grown);
+            parameters = Arrays.copyOf(parameters, grown);
+        }
+        int variable = variableCount++;
+        variableNames[variable] = name;
+        variableNodes[variable] = node;
+        parameters[variable] = parameter;
+        if (name >= 0 && name < visible.length) {
+            if (undoCount + 2 > undo.length) undo = Arrays.copyOf(undo, undo.length * 2);
+            undo[undoCount++] = name;
+            undo[undoCount++] = visible[name];
+            visible[name] = variable;
+        }
+        return variable;
+    }
+
+    private void popScope(int mark) {
+        while (undoCount > mark) {
+            int previous = undo[--undoCount];
+            int name = undo[--undoCount];
+            visible[name] = previous;
+        }
+    }
+
+    // ===== BLOCKS, EVENTS AND EDGES =====
+
+    private int newBlock() {
+        if (blockCount + 1 >= blockEvents.length) blockEvents = Arrays.copyOf(blockEvents, blockEvents.length * 2);
+        blockEvents[blockCount] = eventCount;
+        return blockCount++;
+    }
+
+    private void event(int kind, int variable, int node) {
+        if (eventCount == events.length) {
+            events = Arrays.copyOf(events, eventCount * 2);
+            eventNodes = Arrays.copyOf(eventNodes, eventCount * 2);
+        }
+        events[eventCount] = variable << 2 | kind;
+        eventNodes[eventCount] = node;
+        eventCount++;
+    }
+
+    private void edge(int from, int to) {
+        if (edgeCount == edgeFrom.length) {
+            edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+            edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+        }
+        edgeFrom[edgeCount] = from;
+        edgeTo[edgeCount] = to;
+        edgeCount++;
+    }
+
+    // Sorts the edge list into successor and predecessor arrays
+    private void link() {
+        successorStart = new int[blockCount + 1];
+        predecessorStart = new int[blockCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            successorStart[edgeFrom[e] + 1]++;
+            predecessorStart[edgeTo[e] + 1]++;
+        }
+        for (int b = 0; b < blockCount; b++) {
+            successorStart[b + 1] += successorStart[b];
+            predecessorStart[b + 1] += predecessorStart[b];
+        }
+        successors = new int[edgeCount];
+        predecessors = new int[edgeCount];
+        int[] nextSuccessor = Arrays.copyOf(successorStart, blockCount);
+        int[] nextPredecessor = Arrays.copyOf(predecessorStart, blockCount);
+        for (int e = 0; e < edgeCount; e++) {
+            successors[nextSuccessor[edgeFrom[e]]++] = edgeTo[e];
+            predecessors[nextPredecessor[edgeTo[e]]++] = edgeFrom[e];
+        }
+    }
+
+    // ===== ACCESSORS =====
+
+    public Ast ast() {
+        return ast;
+    }
+
+    public int function() {
+        return function;
+    }
+
+    public int blockCount() {
+        return blockCount;
+    }
+
+    public int exit() {
+        return exit;
+    }
+
+    public int eventStart(int block) {
+        return blockEvents[block];
+    }
+
+    public int eventEnd(int block) {
+        return blockEvents[block + 1];
+    }
+
+    public int eventKind(int event) {
+        return events[event] & 3;
+    }
+
+    public int eventVariable(int event) {
+        return events[event] >>> 2;
+    }
+
+    // The tree node the event happens at, for its line
+    public int eventNode(int event) {
+        return eventNodes[event];
+    }
+
+    public int successorStart(int block) {
+        return successorStart[block];
+    }
+
+    public int successorEnd(int block) {
+        return successorStart[block + 1];
+    }
+
+    public int successor(int k) {
+        return successors[k];
+    }
+
+    public int predecessorStart(int block) {
+        return predecessorStart[block];
+    }
+
+    public int predecessorEnd(int block) {
+        return predecessorStart[block + 1];
+    }
+
+    public int predecessor(int k) {
+        return predecessors[k];
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    public int variableCount() {
+        return variableCount;
+    }
+
+    // SymbolPool id of the variable's name
+    public int variableName(int variable) {
+        return variableNames[variable];
+    }
+
+    // The DECLARATOR or PARAM node that declares it
+    public int variableNode(int variable) {
+        return variableNodes[variable];
+    }
+
+    public boolean isParameter(int variable) {
+        return parameters[variable];
+    }
+}
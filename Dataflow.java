@@ -0,0 +1,280 @@
+import java.util.*;
+
+// Worklist dataflow over one function's ControlFlowGraph, and the checks
+// built on it: uses of variables that may not be initialized yet, stores
+// nobody reads, and variables that are never read at all.
+//
+// Both analyses are gen/kill problems on sets of variables, one bit per
+// variable. A block's set is a run of words longs in a flat long[], so a
+// whole analysis is a few arrays whatever the size of the function. Those
+// arrays are blocks * words longs, which grows with the square of a
+// function's size, so the two analyses share one set of them: a result is
+// only good until the next analysis on the same Dataflow, and check() is
+// done with the assigned sets before it asks for liveness.
+//
+//   definite assignment  forward,  meet = intersection, gen = writes
+//   liveness             backward, meet = union, gen = reads not preceded
+//                        by a write in the block, kill = writes
+//
+// solve() starts from a worklist of the reachable blocks in reverse
+// postorder (postorder going backward), so a loop-free function settles in
+// one sweep; a block whose result changes puts the blocks that depend on it
+// back on the list. Unreachable blocks take no part: the code after a
+// return neither gets reports nor weakens what the join below it knows.
+public final class Dataflow {
+    private final ControlFlowGraph graph;
+    private final int blocks;
+    private final int variables;
+    private final int words;
+    // Reachable blocks in reverse postorder, and a flag per block
+    private final int[] order;
+    private final boolean[] reachable;
+    // Working sets, allocated by the first analysis and cleared by the next
+    private long[] gen;
+    private long[] kill;
+    private long[] before;
+    private long[] after;
+
+    public Dataflow(ControlFlowGraph graph) {
+        this.graph = graph;
+        this.blocks = graph.blockCount();
+        this.variables = graph.variableCount();
+        this.words = (variables + 63) >>> 6;
+        this.reachable = new boolean[blocks];
+        this.order = reversePostorder();
+    }
+
+    // Reachable blocks from the entry, in reverse postorder, by an explicit
+    // stack so deep nesting can't overflow the Java one
+    private int[] reversePostorder() {
+        int[] postorder = new int[blocks];
+        int count = 0;
+        int[] stack = new int[blocks];
+        int[] next = new int[blocks];
+        int depth = 0;
+        stack[depth++] = ControlFlowGraph.ENTRY;
+        reachable[ControlFlowGraph.ENTRY] = true;
+        next[ControlFlowGraph.ENTRY] = graph.successorStart(ControlFlowGraph.ENTRY);
+        while (depth > 0) {
+            int block = stack[depth - 1];
+            if (next[block] < graph.successorEnd(block)) {
+                int successor = graph.successor(next[block]++);
+                if (!reachable[successor]) {
+                    reachable[successor] = true;
+                    next[successor] = graph.successorStart(successor);
+                    stack[depth++] = successor;
+                }
+            } else {
+                postorder[count++] = block;
+                depth--;
+            }
+        }
+        int[] order = new int[count];
+        for (int k = 0; k < count; k++) {
+            order[k] = postorder[count - 1 - k];
+        }
+        return order;
+    }
+
+    // ===== ANALYSES =====
+
+    // Definite assignment at the start of each block: bit v of block b is
+    // set when v is written on every path from the entry to b
+    public long[] assignedIn() {
+        clearSets();
+        for (int block = 0; block < blocks; block++) {
+            for (int e = graph.eventStart(block); e < graph.eventEnd(block); e++) {
+                if (graph.eventKind(e) != ControlFlowGraph.USE) add(gen, block, graph.eventVariable(e));
+            }
+        }
+        return solve(true);
+    }
+
+    // Liveness at the end of each block: bit v of block b is set when some
+    // path from the end of b reads v before writing it
+    public long[] liveOut() {
+        clearSets();
+        for (int block = 0; block < blocks; block++) {
+            for (int e = graph.eventStart(block); e < graph.eventEnd(block); e++) {
+                int variable = graph.eventVariable(e);
+                switch (graph.eventKind(e)) {
+                    case ControlFlowGraph.USE:
+                    case ControlFlowGraph.SET:
+                        if (!contains(kill, block, variable)) add(gen, block, variable);
+                        break;
+                    default:
+                        add(kill, block, variable);
+                }
+            }
+        }
+        return solve(false);
+    }
+
+    private void clearSets() {
+        if (gen == null) {
+            gen = new long[blocks * words];
+            kill = new long[blocks * words];
+            before = new long[blocks * words];
+            after = new long[blocks * words];
+        } else {
+            Arrays.fill(gen, 0L);
+            Arrays.fill(kill, 0L);
+        }
+    }
+
+    // Iterates after[b] = gen[b] | (before[b] & ~kill[b]) to a fixpoint,
+    // where before[b] meets the after sets of b's predecessors (forward, by
+    // intersection) or successors (backward, by union). Returns the before
+    // sets: a block's IN going forward, its OUT going backward. The entry
+    // (forward) and the exit (backward) start from the empty set.
+    private long[] solve(boolean forward) {
+        Arrays.fill(before, 0L);
+        Arrays.fill(after, forward ? -1L : 0L); // intersection starts from the top
+        int boundary = forward ? ControlFlowGraph.ENTRY : graph.exit();
+
+        int[] queue = new int[blocks];
+        boolean[] queued = new boolean[blocks];
+        int head = 0;
+        int size = 0;
+        for (int k = 0; k < order.length; k++) {
+            int block = order[forward ? k : order.length - 1 - k];
+            queue[size++] = block;
+            queued[block] = true;
+        }
+
+        long[] scratch = new long[words];
+        while (size > 0) {
+            int block = queue[head];
+            head = head + 1 == blocks ? 0 : head + 1;
+            size--;
+            queued[block] = false;
+
+            // Meet over the neighbours the set flows in from
+            int base = block * words;
+            boolean first = true;
+            int start = forward ? graph.predecessorStart(block) : graph.successorStart(block);
+            int end = forward ? graph.predecessorEnd(block) : graph.successorEnd(block);
+            Arrays.fill(scratch, 0L);
+            if (block != boundary) {
+                for (int k = start; k < end; k++) {
+                    int neighbour = forward ? graph.predecessor(k) : graph.successor(k);
+                    if (!reachable[neighbour]) continue;
+                    int from = neighbour * words;
+                    for (int w = 0; w < words; w++) {
+                        scratch[w] = first ? after[from + w] : forward ? scratch[w] & after[from + w] : scratch[w] | after[from + w];
+                    }
+                    first = false;
+                }
+            }
+            System.arraycopy(scratch, 0, before, base, words);
+
+            boolean changed = false;
+            for (int w = 0; w < words; w++) {
+                long value = gen[base + w] | (scratch[w] & ~kill[base + w]);
+                if (value != after[base + w]) {
+                    after[base + w] = value;
+                    changed = true;
+                }
+            }
+            if (!changed) continue;
+
+            int dependentStart = forward ? graph.successorStart(block) : graph.predecessorStart(block);
+            int dependentEnd = forward ? graph.successorEnd(block) : graph.predecessorEnd(block);
+            for (int k = dependentStart; k < dependentEnd; k++) {
+                int dependent = forward ? graph.successor(k) : graph.predecessor(k);
+                if (!reachable[dependent] || queued[dependent]) continue;
+                queue[(head + size) % blocks] = dependent;
+                size++;
+                queued[dependent] = true;
+            }
+        }
+        return before;
+    }
+
+    // ===== CHECKS =====
+
+    // Reports, for the function, every variable read where it may not have
+    // been written yet (once per variable), every write that no path reads
+    // afterwards, and every local that is never read
+    public void check(SymbolPool pool, DiagnosticSink sink) {
+        Ast ast = graph.ast();
+        boolean[] read = new boolean[variables];
+        boolean[] written = new boolean[variables];
+        for (int e = 0; e < graph.eventEnd(blocks - 1); e++) {
+            int kind = graph.eventKind(e);
+            int variable = graph.eventVariable(e);
+            if (kind == ControlFlowGraph.USE || kind == ControlFlowGraph.SET) read[variable] = true;
+            // Written after its declaration, not just initialized by it
+            if (kind == ControlFlowGraph.DEF && graph.eventNode(e) != graph.variableNode(variable)) written[variable] = true;
+        }
+
+        long[] assigned = assignedIn();
+        boolean[] reported = new boolean[variables];
+        long[] current = new long[words];
+        for (int block : order) {
+            System.arraycopy(assigned, block * words, current, 0, words);
+            for (int e = graph.eventStart(block); e < graph.eventEnd(block); e++) {
+                int variable = graph.eventVariable(e);
+                if (graph.eventKind(e) != ControlFlowGraph.USE) {
+                    current[variable >>> 6] |= 1L << variable;
+                } else if ((current[variable >>> 6] & 1L << variable) == 0 && !reported[variable]) {
+                    reported[variable] = true;
+                    sink.report(at(Diagnostic.Severity.ERROR, "uninitialized-variable", graph.eventNode(e),
+                        "Variable '" + name(pool, variable) + "' may be used before it is initialized."));
+                }
+            }
+        }
+
+        long[] live = liveOut();
+        for (int block : order) {
+            System.arraycopy(live, block * words, current, 0, words);
+            for (int e = graph.eventEnd(block) - 1; e >= graph.eventStart(block); e--) {
+                int variable = graph.eventVariable(e);
+                long bit = 1L << variable;
+                switch (graph.eventKind(e)) {
+                    case ControlFlowGraph.DEF:
+                        if ((current[variable >>> 6] & bit) == 0 && read[variable]) {
+                            sink.report(at(Diagnostic.Severity.WARNING, "dead-store", graph.eventNode(e),
+                                "Value assigned to '" + name(pool, variable) + "' is never read."));
+                        }
+                        current[variable >>> 6] &= ~bit;
+                        break;
+                    case ControlFlowGraph.INIT:
+                        current[variable >>> 6] &= ~bit;
+                        break;
+                    default:
+                        current[variable >>> 6] |= bit;
+                }
+            }
+        }
+
+        for (int variable = 0; variable < variables; variable++) {
+            if (read[variable] || graph.isParameter(variable)) continue;
+            sink.report(at(Diagnostic.Severity.WARNING, "unused-variable", graph.variableNode(variable), written[variable]
+                ? "Variable '" + name(pool, variable) + "' is assigned but never used."
+                : "Variable '" + name(pool, variable) + "' is declared but never used."));
+        }
+    }
+
+    // Points at the variable's name: a parameter's main token, or the first
+    // token of a declarator, a use or an assignment
+    private Diagnostic at(Diagnostic.Severity severity, String code, int node, String message) {
+        Ast ast = graph.ast();
+        TokenStream tokens = ast.tokens();
+        int token = ast.kind(node) == Ast.Kind.PARAM ? ast.token(node) : ast.firstToken(node);
+        if (token < 0 || token >= tokens.size()) return new Diagnostic(severity, code, ast.line(node), 0, 0, message);
+        return new Diagnostic(severity, code, tokens.line(token), tokens.column(token), tokens.length(token), message);
+    }
+
+    private String name(SymbolPool pool, int variable) {
+        return pool.spelling(graph.variableName(variable));
+    }
+
+    private void add(long[] sets, int block, int variable) {
+        sets[block * words + (variable >>> 6)] |= 1L << variable;
+    }
+
+    private boolean contains(long[] sets, int block, int variable) {
+        return (sets[block * words + (variable >>> 6)] & 1L << variable) != 0;
+    }
+}
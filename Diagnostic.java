@@ -0,0 +1,40 @@
+// One problem reported by the analyzer.
+//
+// line and column are 1-based; 0 means the diagnostic is not tied to a
+// line (e.g. "No main() function found") or the check doesn't know the
+// column. length is the number of characters the problem spans, 0 if
+// unknown. code is a short stable id for the check that produced it, so
+// sinks and tools can filter without parsing the message.
+public final class Diagnostic {
+    public enum Severity { ERROR, WARNING, INFO }
+
+    public final Severity severity;
+    public final String code;
+    public final int line;
+    public final int column;
+    public final int length;
+    public final String message;
+
+    public Diagnostic(Severity severity, String code, int line, int column, int length, String message) {
+        this.severity = severity;
+        this.code = code;
+        this.line = line;
+        this.column = column;
+        this.length = length;
+        this.message = message;
+    }
+
+    public static Diagnostic error(String code, int line, String message) {
+        return new Diagnostic(Severity.ERROR, code, line, 0, 0, message);
+    }
+
+    public static Diagnostic warning(String code, int line, String message) {
+        return new Diagnostic(Severity.WARNING, code, line, 0, 0, message);
+    }
+
+    // The line as it appears in the Error Console
+    @Override
+    public String toString() {
+        return line > 0 ? "Line " + line + ": " + message : message;
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.*;
+
+// Keeps every diagnostic in memory, in report order
+public class DiagnosticCollector implements DiagnosticSink {
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        diagnostics.add(diagnostic);
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+    public boolean isEmpty() {
+        return diagnostics.isEmpty();
+    }
+
+    public int count(Diagnostic.Severity severity) {
+        int count = 0;
+        for (Diagnostic d : diagnostics) {
+            if (d.severity == severity) count++;
+        }
+        return count;
+    }
+
+    // Error Console text: one diagnostic per line
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        for (Diagnostic d : diagnostics) {
+            sb.append(d).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.*;
+
+// Keeps only the most recent 'capacity' diagnostics. Memory stays bounded
+// however noisy the input is, which is what you want for huge generated
+// files or long benchmark runs; total() still counts everything reported.
+public class DiagnosticRingBuffer implements DiagnosticSink {
+    private final Diagnostic[] ring;
+    private long total;
+
+    public DiagnosticRingBuffer(int capacity) {
+        ring = new Diagnostic[Math.max(1, capacity)];
+    }
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        ring[(int) (total % ring.length)] = diagnostic;
+        total++;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public long dropped() {
+        return Math.max(0, total - ring.length);
+    }
+
+    // Retained diagnostics, oldest first
+    public List<Diagnostic> diagnostics() {
+        int size = (int) Math.min(total, ring.length);
+        List<Diagnostic> list = new ArrayList<>(size);
+        for (long i = total - size; i < total; i++) {
+            list.add(ring[(int) (i % ring.length)]);
+        }
+        return list;
+    }
+
+    public void clear() {
+        Arrays.fill(ring, null);
+        total = 0;
+    }
+}
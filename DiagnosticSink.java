@@ -0,0 +1,9 @@
+// Where the analyzer reports problems. The analyzer only ever calls
+// report(); whoever runs it decides what happens to the diagnostics and
+// calls flush() once the analysis is over.
+public interface DiagnosticSink {
+    void report(Diagnostic diagnostic);
+
+    default void flush() {
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.*;
+
+// Editable character buffer with a movable gap at the edit position, the
+// same layout Swing's GapContent uses. Insertions and removals near the last
+// edit only move the characters between the two positions, so typing costs
+// O(1) amortised no matter how large the document is. It is a CharSequence,
+// so the Lexer can scan it directly.
+public final class GapBuffer implements CharSequence {
+    private char[] buffer;
+    private int gapStart;
+    private int gapEnd;
+
+    public GapBuffer() {
+        this(256);
+    }
+
+    public GapBuffer(int capacity) {
+        buffer = new char[Math.max(16, capacity)];
+        gapStart = 0;
+        gapEnd = buffer.length;
+    }
+
+    @Override
+    public int length() {
+        return buffer.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    public char charAt(int index) {
+        return index < gapStart ? buffer[index] : buffer[index + (gapEnd - gapStart)];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new TokenStream.Slice(this, start, end);
+    }
+
+    public void insert(int offset, CharSequence text) {
+        int count = text.length();
+        moveGap(offset);
+        if (gapEnd - gapStart < count) {
+            grow(count);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer[gapStart++] = text.charAt(i);
+        }
+    }
+
+    public void remove(int offset, int count) {
+        moveGap(offset);
+        gapEnd += count;
+    }
+
+    private void moveGap(int offset) {
+        if (offset < gapStart) {
+            int count = gapStart - offset;
+            System.arraycopy(buffer, offset, buffer, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (offset > gapStart) {
+            int count = offset - gapStart;
+            System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void grow(int needed) {
+        int tail = buffer.length - gapEnd;
+        int capacity = Math.max(buffer.length * 2, length() + needed + 16);
+        char[] grown = Arrays.copyOf(buffer, capacity);
+        System.arraycopy(buffer, gapEnd, grown, capacity - tail, tail);
+        buffer = grown;
+        gapEnd = capacity - tail;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length());
+        sb.append(buffer, 0, gapStart);
+        sb.append(buffer, gapEnd, buffer.length - gapEnd);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,139 @@
+// Keeps a TokenStream in sync with an editor document, relexing only the
+// tokens an edit can have changed.
+//
+// The Lexer is back in its START state after every token, so scanning can
+// restart at the end of the last token that the edit cannot have affected.
+// From there new tokens are produced until one of them starts exactly where
+// an old token (shifted by the edit) started, past the edited region: from
+// that point on the text is unchanged and the lexer is in the same state, so
+// every remaining old token is still valid and is just moved by the edit's
+// offset and line deltas. Comments are covered by the same rule; typing "/*"
+// keeps relexing (and producing no tokens) until the comment closes or the
+// document ends, and removing it later brings the hidden tokens back.
+public class IncrementalLexer {
+    private final GapBuffer text = new GapBuffer();
+    private final TokenStream tokens = new TokenStream(text, 256);
+    private int damageStart;
+    private int damageEnd;
+    private int damageFirstToken;
+    private int damageRemovedTokens;
+    private int damageAddedTokens;
+
+    public TokenStream tokens() {
+        return tokens;
+    }
+
+    public CharSequence text() {
+        return text;
+    }
+
+    public void insert(int offset, CharSequence inserted) {
+        int first = prepare(offset);
+        int length = inserted.length();
+        text.insert(offset, inserted);
+        tokens.shiftTail(length, countNewlines(inserted, 0, length));
+        relex(first, offset + length, length);
+    }
+
+    public void remove(int offset, int length) {
+        int first = prepare(offset);
+        int removedLines = countNewlines(text, offset, offset + length);
+        text.remove(offset, length);
+        tokens.shiftTail(-length, -removedLines);
+        relex(first, offset, -length);
+    }
+
+    // Character range [start, end) of the current text that the last edit
+    // relexed; tokens outside it are unchanged apart from being shifted
+    public int damageStart() {
+        return damageStart;
+    }
+
+    public int damageEnd() {
+        return damageEnd;
+    }
+
+    // The same in tokens: old tokens [first, first + removed) were replaced
+    // by new tokens [first, first + added)
+    public int damageFirstToken() {
+        return damageFirstToken;
+    }
+
+    public int damageRemovedTokens() {
+        return damageRemovedTokens;
+    }
+
+    public int damageAddedTokens() {
+        return damageAddedTokens;
+    }
+
+    // Opens the token gap in front of the first token the edit at offset
+    // can have changed, so the tokens behind the gap move with the text.
+    // A token was decided by its own characters plus up to MAX_LOOKAHEAD
+    // characters after it, so it is only safe if all of those lie before
+    // the edit.
+    private int prepare(int offset) {
+        int first = tokens.firstEndingAtOrAfter(offset - Lexer.MAX_LOOKAHEAD + 1);
+        tokens.moveGap(first);
+        return first;
+    }
+
+    // Lexes from the end of the token before 'first' until a new token
+    // lands on the start of a surviving old token beyond editEnd (both in
+    // post-edit coordinates), dropping the old tokens it scans past
+    private void relex(int first, int editEnd, int delta) {
+        int pos = 0;
+        int line = 1;
+        int lineStart = 0;
+        if (first > 0) {
+            int previous = first - 1;
+            pos = tokens.end(previous);
+            line = tokens.line(previous);
+            lineStart = tokens.start(previous) - tokens.column(previous) + 1;
+        }
+
+        Lexer.Cursor cursor = new Lexer.Cursor(text, pos, line, lineStart);
+        boolean resynced = false;
+        int removed = 0;
+        int added = 0;
+        while (cursor.next()) {
+            while (tokens.hasTail() && tokens.tailStart() < cursor.start) {
+                tokens.dropTail();
+                removed++;
+            }
+            if (cursor.start >= editEnd && tokens.hasTail() && tokens.tailStart() == cursor.start) {
+                resynced = true;
+                break;
+            }
+            tokens.add(cursor.kind, cursor.start, cursor.end, cursor.line, cursor.column, cursor.literal);
+            added++;
+        }
+
+        damageStart = pos;
+        if (resynced) {
+            tokens.shiftTailColumns(cursor.line, cursor.column - tokens.tailColumn());
+            if (tokens.unterminatedComment() >= 0) {
+                tokens.setUnterminatedComment(tokens.unterminatedComment() + delta);
+            }
+            damageEnd = cursor.start;
+        } else {
+            while (tokens.hasTail()) {
+                tokens.dropTail();
+                removed++;
+            }
+            tokens.setUnterminatedComment(cursor.unterminatedComment);
+            damageEnd = text.length();
+        }
+        damageFirstToken = first;
+        damageRemovedTokens = removed;
+        damageAddedTokens = added;
+    }
+
+    private static int countNewlines(CharSequence s, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+}
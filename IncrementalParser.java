@@ -0,0 +1,111 @@
+// Keeps an Ast in sync with an editor document, next to the
+// IncrementalLexer that keeps its tokens in sync.
+//
+// Every edit is relexed first; the tokens it replaced then go to
+// Parser.reparse, which reparses only the statements around them inside
+// the innermost block that contains the edit and keeps the rest of the
+// tree, shifting it when the edit changed the number of tokens. So the
+// cost of an edit depends on the size of that block and of the statements
+// touched, not on the size of the file. What changed is returned as a
+// Change, for a consumer that wants to redo its work for those nodes only:
+// TreeCache uses it to rerun dataflow just for the functions an edit
+// touched. Node ids stay valid across edits, except after a Change that is
+// full.
+public class IncrementalParser {
+    // Which part of the tree an edit replaced: the children of container
+    // between two unchanged ones (or its ends). The new children and
+    // everything under them are the node ids [firstNode, endNode); the
+    // nodes they replaced are no longer reachable. Tokens are in the
+    // current stream.
+    public static final class Change {
+        public final int container;
+        public final int firstNode;
+        public final int endNode;
+        public final int removedChildren;
+        public final int firstToken;
+        public final int lastToken;
+        // The whole program was reparsed
+        public final boolean full;
+        private final Ast ast;
+
+        Change(Ast ast, int container, int firstNode, int endNode, int removedChildren,
+               int firstToken, int lastToken, boolean full) {
+            this.ast = ast;
+            this.container = container;
+            this.firstNode = firstNode;
+            this.endNode = endNode;
+            this.removedChildren = removedChildren;
+            this.firstToken = firstToken;
+            this.lastToken = lastToken;
+            this.full = full;
+        }
+
+        public int nodeCount() {
+            return endNode - firstNode;
+        }
+
+        public boolean contains(int node) {
+            return node >= firstNode && node < endNode;
+        }
+
+        // The new top-level nodes, in order: the container's children that
+        // the edit replaced
+        public int[] nodes() {
+            int count = 0;
+            for (int child = ast.firstChild(container); child >= 0; child = ast.nextSibling(child)) {
+                if (contains(child)) count++;
+            }
+            int[] nodes = new int[count];
+            int k = 0;
+            for (int child = ast.firstChild(container); child >= 0; child = ast.nextSibling(child)) {
+                if (contains(child)) nodes[k++] = child;
+            }
+            return nodes;
+        }
+
+        @Override
+        public String toString() {
+            return (full ? "whole program" : ast.kind(container) + " at token " + ast.firstToken(container))
+                + ": " + nodeCount() + " new nodes for " + removedChildren + " statements, tokens "
+                + firstToken + ".." + lastToken;
+        }
+    }
+
+    private final IncrementalLexer lexer = new IncrementalLexer();
+    private Ast ast = Parser.parse(lexer.tokens());
+
+    public Ast ast() {
+        return ast;
+    }
+
+    public TokenStream tokens() {
+        return lexer.tokens();
+    }
+
+    public CharSequence text() {
+        return lexer.text();
+    }
+
+    public Change insert(int offset, CharSequence inserted) {
+        lexer.insert(offset, inserted);
+        return reparse();
+    }
+
+    public Change remove(int offset, int length) {
+        lexer.remove(offset, length);
+        return reparse();
+    }
+
+    // Replaced nodes stay in the tree's arrays; once they outnumber the
+    // live ones, the next edit parses the whole text into a fresh tree,
+    // which keeps the extra memory and the amortized cost bounded. So does
+    // an edit that Parser.reparse found would reshape too much of the tree.
+    private Change reparse() {
+        Change change = Parser.reparse(ast, lexer.damageFirstToken(), lexer.damageRemovedTokens(),
+            lexer.damageAddedTokens());
+        if (change != null && 2 * ast.deadNodes() <= ast.size()) return change;
+        int removed = ast.childCount(ast.root());
+        ast = Parser.parse(lexer.tokens());
+        return new Change(ast, ast.root(), 0, ast.size(), removed, 0, lexer.tokens().size() - 1, true);
+    }
+}
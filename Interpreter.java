@@ -0,0 +1,878 @@
+import java.io.PrintStream;
+
+// Reference tree-walking interpreter for the programs BytecodeCompiler
+// accepts, for checking and benchmarking the compiler against.
+//
+// It shares the compiler's front end (the same variables, expression
+// types and called functions, so a program means the same thing to both)
+// and only executes differently: it walks the tree on every evaluation.
+// Values are kept without boxing. Every integer type is held in a long
+// cut to its C++ width after each operation, float and double in a double
+// (a float rounded to float after each operation), strings as Strings; a
+// call's locals are three arrays indexed by variable, literals are decoded
+// once up front.
+public final class Interpreter {
+    // How a statement ended
+    private static final int NORMAL = 0;
+    private static final int BREAK = 1;
+    private static final int CONTINUE = 2;
+    private static final int RETURN = 3;
+
+    private final BytecodeCompiler program;
+    private final Ast ast;
+    private final long[] literalLongs;
+    private final double[] literalDoubles;
+    private final String[] literalStrings;
+    // Expressions the compiler folded; their values are in literalLongs
+    // and literalDoubles like a literal's
+    private final boolean[] constants;
+
+    // Globals by variable; the running call's locals by variable - base
+    private long[] globalLongs;
+    private double[] globalDoubles;
+    private String[] globalStrings;
+    private long[] longs;
+    private double[] doubles;
+    private String[] strings;
+    private int base;
+    private int function;
+
+    // The value of the last return
+    private long returnedLong;
+    private double returnedDouble;
+    private String returnedString;
+
+    private int line;
+
+    private Interpreter(BytecodeCompiler program) {
+        this.program = program;
+        this.ast = program.ast();
+        literalLongs = new long[ast.size()];
+        literalDoubles = new double[ast.size()];
+        literalStrings = new String[ast.size()];
+        constants = new boolean[ast.size()];
+        for (int node = 0; node < ast.size(); node++) {
+            if (program.isConstant(node)) {
+                constants[node] = true;
+                long value = program.constantValue(node);
+                literalLongs[node] = value;
+                literalDoubles[node] = Double.longBitsToDouble(value);
+                continue;
+            }
+            ValueType type = ast.kind(node) == Ast.Kind.LITERAL ? program.type(node) : null;
+            if (type == null) continue;
+            switch (type) {
+                case CHAR:
+                    literalLongs[node] = program.charValue(node);
+                    break;
+                case BOOL:
+                    literalLongs[node] = ast.tokenIs(node, "true") ? 1 : 0;
+                    break;
+                case FLOAT:
+                    literalDoubles[node] = (float) program.realValue(node);
+                    break;
+                case DOUBLE:
+                    literalDoubles[node] = program.realValue(node);
+                    break;
+                case STRING:
+                    literalStrings[node] = program.stringValue(node);
+                    break;
+                default:
+                    literalLongs[node] = narrow(type, program.integerValue(node));
+            }
+        }
+    }
+
+    // An interpreter for the tree, or null after reporting to sink why
+    // the program can't be run
+    public static Interpreter create(Ast ast, DiagnosticSink sink) {
+        BytecodeCompiler program = BytecodeCompiler.checked(ast, sink);
+        return program != null ? new Interpreter(program) : null;
+    }
+
+    // Runs main() like CompiledProgram.run
+    public int run(PrintStream out) {
+        PrintStream previous = ProgramRuntime.redirect(out);
+        try {
+            int variables = program.variableCount();
+            globalLongs = new long[variables];
+            globalDoubles = new double[variables];
+            globalStrings = new String[variables];
+            for (int child = ast.firstChild(ast.root()); child >= 0; child = ast.nextSibling(child)) {
+                if (ast.kind(child) == Ast.Kind.DECLARATION) declaration(child);
+            }
+            int main = program.mainFunction();
+            call(main, -1);
+            return program.returnType(main) != null ? (int) returnedLong : 0;
+        } catch (ProgramRuntime.Halted e) {
+            throw new ProgramRuntime.ProgramException("program stopped", line);
+        } catch (ArithmeticException e) {
+            throw new ProgramRuntime.ProgramException("division by zero", line);
+        } catch (StackOverflowError e) {
+            throw new ProgramRuntime.ProgramException("stack overflow (recursion too deep)", line);
+        } finally {
+            out.flush();
+            ProgramRuntime.redirect(previous);
+        }
+    }
+
+    // ===== STATEMENTS =====
+
+    private int statement(int node) {
+        line = ast.line(node);
+        switch (ast.kind(node)) {
+            case BLOCK:
+                for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                    int result = statement(child);
+                    if (result != NORMAL) return result;
+                }
+                return NORMAL;
+            case DECLARATION:
+                declaration(node);
+                return NORMAL;
+            case IF: {
+                if (test(ast.firstChild(node))) return statement(ast.child(node, 1));
+                int otherwise = ast.child(node, 2);
+                return otherwise >= 0 ? statement(ast.firstChild(otherwise)) : NORMAL;
+            }
+            case WHILE:
+                while (true) {
+                    ProgramRuntime.poll();
+                    if (!test(ast.firstChild(node))) return NORMAL;
+                    int result = statement(ast.child(node, 1));
+                    if (result == BREAK) return NORMAL;
+                    if (result == RETURN) return RETURN;
+                }
+            case DO:
+                while (true) {
+                    ProgramRuntime.poll();
+                    int result = statement(ast.firstChild(node));
+                    if (result == BREAK) return NORMAL;
+                    if (result == RETURN) return RETURN;
+                    if (!test(ast.child(node, 1))) return NORMAL;
+                }
+            case FOR: {
+                int init = ast.firstChild(node);
+                int condition = ast.nextSibling(init);
+                int update = ast.nextSibling(condition);
+                int body = ast.nextSibling(update);
+                if (ast.kind(init) == Ast.Kind.DECLARATION) {
+                    declaration(init);
+                } else if (ast.kind(init) != Ast.Kind.EMPTY) {
+                    effect(init);
+                }
+                while (true) {
+                    ProgramRuntime.poll();
+                    if (ast.kind(condition) != Ast.Kind.EMPTY && !test(condition)) return NORMAL;
+                    int result = statement(body);
+                    if (result == BREAK) return NORMAL;
+                    if (result == RETURN) return RETURN;
+                    if (ast.kind(update) != Ast.Kind.EMPTY) effect(update);
+                }
+            }
+            case RETURN: {
+                int value = ast.firstChild(node);
+                ValueType type = program.returnType(function);
+                if (value < 0) return RETURN;
+                switch (category(type)) {
+                    case 'I':
+                        returnedLong = integral(value, type);
+                        break;
+                    case 'D':
+                        returnedDouble = real(value, type);
+                        break;
+                    default:
+                        returnedString = text(value);
+                }
+                return RETURN;
+            }
+            case BREAK:
+                return BREAK;
+            case CONTINUE:
+                return CONTINUE;
+            case EXPRESSION:
+                effect(ast.firstChild(node));
+                return NORMAL;
+            default:
+                return NORMAL;
+        }
+    }
+
+    private void declaration(int node) {
+        int type = ast.firstChild(node);
+        for (int declarator = ast.nextSibling(type); declarator >= 0; declarator = ast.nextSibling(declarator)) {
+            int variable = program.variableOf(declarator);
+            ValueType declared = program.variableType(variable);
+            int value = ast.child(declarator, 1);
+            switch (category(declared)) {
+                case 'I':
+                    setLong(variable, value >= 0 ? integral(value, declared) : 0);
+                    break;
+                case 'D':
+                    setDouble(variable, value >= 0 ? real(value, declared) : 0);
+                    break;
+                default:
+                    setString(variable, value >= 0 ? text(value) : "");
+            }
+        }
+    }
+
+    // An expression whose value isn't used
+    private void effect(int node) {
+        if (program.isOutputStatement(node)) {
+            output(node);
+            return;
+        }
+        ValueType type;
+        switch (ast.kind(node)) {
+            case BINARY:
+                if (ast.tokenIs(node, ",")) {
+                    effect(ast.firstChild(node));
+                    effect(ast.child(node, 1));
+                    return;
+                }
+                type = program.type(node);
+                break;
+            case ASSIGN:
+            case UNARY:
+            case POSTFIX:
+                type = ast.kind(node) == Ast.Kind.UNARY && !isIncrement(node)
+                    ? program.type(node) : variableType(ast.firstChild(node));
+                break;
+            default:
+                type = program.type(node);
+        }
+        if (type == null) {
+            call(program.callTarget(node), node); // a void function
+            return;
+        }
+        switch (category(type)) {
+            case 'I':
+                evaluateLong(node, type);
+                break;
+            case 'D':
+                evaluateDouble(node, type);
+                break;
+            default:
+                evaluateString(node);
+        }
+    }
+
+    private void output(int node) {
+        if (!ast.tokenIs(node, "<<") || ast.kind(node) != Ast.Kind.BINARY) return; // cout itself
+        output(ast.firstChild(node));
+        int value = ast.child(node, 1);
+        if (program.isEndl(value)) {
+            ProgramRuntime.endl();
+            return;
+        }
+        ValueType type = program.type(value);
+        switch (type) {
+            case UNSIGNED_INT:
+                ProgramRuntime.printUnsigned((int) evaluateLong(value, type));
+                break;
+            case CHAR:
+                ProgramRuntime.printChar((int) evaluateLong(value, type));
+                break;
+            case LONG:
+            case LONG_LONG:
+                ProgramRuntime.print(evaluateLong(value, type));
+                break;
+            case FLOAT:
+                ProgramRuntime.print((float) evaluateDouble(value, type));
+                break;
+            case DOUBLE:
+                ProgramRuntime.print(evaluateDouble(value, type));
+                break;
+            case STRING:
+                ProgramRuntime.print(evaluateString(value));
+                break;
+            default:
+                ProgramRuntime.print((int) evaluateLong(value, type));
+        }
+    }
+
+    // ===== CALLS =====
+
+    // Calls function f with the arguments of the CALL node (none for -1);
+    // the result is left in the returned fields
+    private void call(int f, int node) {
+        ProgramRuntime.poll();
+        int first = program.functionVariables(f);
+        int count = program.functionVariableEnd(f) - first;
+        long[] calleeLongs = new long[count];
+        double[] calleeDoubles = new double[count];
+        String[] calleeStrings = new String[count];
+        if (node >= 0) {
+            int k = 0;
+            int arg = ast.child(node, 1);
+            for (int param = ast.firstChild(program.functionNode(f)); arg >= 0; param = ast.nextSibling(param)) {
+                if (ast.kind(param) != Ast.Kind.PARAM) continue;
+                ValueType type = program.parameterType(f, k++);
+                int variable = program.variableOf(param);
+                int slot = variable - first;
+                switch (category(type)) {
+                    case 'I': {
+                        long value = integral(arg, type);
+                        if (variable >= 0) calleeLongs[slot] = value;
+                        break;
+                    }
+                    case 'D': {
+                        double value = real(arg, type);
+                        if (variable >= 0) calleeDoubles[slot] = value;
+                        break;
+                    }
+                    default: {
+                        String value = text(arg);
+                        if (variable >= 0) calleeStrings[slot] = value;
+                    }
+                }
+                arg = ast.nextSibling(arg);
+            }
+        }
+
+        long[] callerLongs = longs;
+        double[] callerDoubles = doubles;
+        String[] callerStrings = strings;
+        int callerBase = base;
+        int caller = function;
+        int callerLine = line;
+        longs = calleeLongs;
+        doubles = calleeDoubles;
+        strings = calleeStrings;
+        base = first;
+        function = f;
+        if (statement(program.functionBody(f)) != RETURN) {
+            // Fell off the end: the zero value, like the compiled code
+            returnedLong = 0;
+            returnedDouble = 0;
+            returnedString = "";
+        }
+        longs = callerLongs;
+        doubles = callerDoubles;
+        strings = callerStrings;
+        base = callerBase;
+        function = caller;
+        line = callerLine;
+    }
+
+    private static double math(String name, double value) {
+        switch (name) {
+            case "sqrt":
+                return Math.sqrt(value);
+            case "sin":
+                return Math.sin(value);
+            case "cos":
+                return Math.cos(value);
+            case "tan":
+                return Math.tan(value);
+            case "exp":
+                return Math.exp(value);
+            case "log":
+                return Math.log(value);
+            case "log10":
+                return Math.log10(value);
+            case "floor":
+                return Math.floor(value);
+            case "ceil":
+                return Math.ceil(value);
+            default: // fabs
+                return Math.abs(value);
+        }
+    }
+
+    // ===== EXPRESSIONS =====
+
+    // The value of an integer or bool expression of the given type
+    private long evaluateLong(int node, ValueType type) {
+        if (constants[node]) return literalLongs[node];
+        switch (ast.kind(node)) {
+            case LITERAL:
+                return literalLongs[node];
+            case NAME:
+                return getLong(program.variableOf(node));
+            case ASSIGN:
+                return assignLong(node);
+            case UNARY: {
+                int operand = ast.firstChild(node);
+                switch (ast.tokenText(node)) {
+                    case "++":
+                    case "--":
+                        return incrementLong(node, true);
+                    case "!":
+                        return test(operand) ? 0 : 1;
+                    case "-":
+                        return narrow(type, -integral(operand, type));
+                    case "+":
+                        return integral(operand, type);
+                    default: // ~
+                        return narrow(type, ~integral(operand, type));
+                }
+            }
+            case POSTFIX:
+                return incrementLong(node, false);
+            case BINARY: {
+                String op = ast.tokenText(node);
+                int left = ast.firstChild(node);
+                int right = ast.child(node, 1);
+                if (op.equals(",")) {
+                    effect(left);
+                    return evaluateLong(right, type);
+                }
+                if (type == ValueType.BOOL && comparison(op)) return test(node) ? 1 : 0;
+                boolean shift = op.equals("<<") || op.equals(">>");
+                return arithmetic(op, integral(left, type), integral(right, shift ? ValueType.INT : type), type);
+            }
+            case CONDITIONAL:
+                return test(ast.firstChild(node)) ? integral(ast.child(node, 1), type) : integral(ast.child(node, 2), type);
+            default: { // CALL
+                int callee = ast.firstChild(node);
+                if (ast.kind(callee) == Ast.Kind.MEMBER) return evaluateString(ast.firstChild(callee)).length();
+                if (program.isCast(node)) return integral(ast.child(node, 1), type);
+                int f = program.callTarget(node);
+                if (f >= 0) {
+                    call(f, node);
+                    return returnedLong;
+                }
+                String name = ast.tokenText(callee);
+                long a = integral(ast.child(node, 1), type);
+                switch (name) {
+                    case "abs":
+                        return type == ValueType.INT ? Math.abs((int) a) : Math.abs(a);
+                    case "min":
+                        return Math.min(a, integral(ast.child(node, 2), type));
+                    default:
+                        return Math.max(a, integral(ast.child(node, 2), type));
+                }
+            }
+        }
+    }
+
+    // The value of a float or double expression
+    private double evaluateDouble(int node, ValueType type) {
+        if (constants[node]) return literalDoubles[node];
+        switch (ast.kind(node)) {
+            case LITERAL:
+                return literalDoubles[node];
+            case NAME:
+                return getDouble(program.variableOf(node));
+            case ASSIGN:
+                return assignDouble(node);
+            case UNARY: {
+                int operand = ast.firstChild(node);
+                switch (ast.tokenText(node)) {
+                    case "++":
+                    case "--":
+                        return incrementDouble(node, true);
+                    case "-":
+                        return -real(operand, type);
+                    default: // +
+                        return real(operand, type);
+                }
+            }
+            case POSTFIX:
+                return incrementDouble(node, false);
+            case BINARY: {
+                String op = ast.tokenText(node);
+                int left = ast.firstChild(node);
+                int right = ast.child(node, 1);
+                if (op.equals(",")) {
+                    effect(left);
+                    return evaluateDouble(right, type);
+                }
+                return arithmetic(op, real(left, type), real(right, type), type);
+            }
+            case CONDITIONAL:
+                return test(ast.firstChild(node)) ? real(ast.child(node, 1), type) : real(ast.child(node, 2), type);
+            default: { // CALL
+                if (program.isCast(node)) return real(ast.child(node, 1), type);
+                int f = program.callTarget(node);
+                if (f >= 0) {
+                    call(f, node);
+                    return returnedDouble;
+                }
+                String name = ast.tokenText(ast.firstChild(node));
+                double a = real(ast.child(node, 1), type);
+                switch (name) {
+                    case "pow":
+                        return Math.pow(a, real(ast.child(node, 2), type));
+                    case "abs":
+                        return Math.abs(a);
+                    case "min":
+                        return Math.min(a, real(ast.child(node, 2), type));
+                    case "max":
+                        return Math.max(a, real(ast.child(node, 2), type));
+                    default:
+                        return math(name, a);
+                }
+            }
+        }
+    }
+
+    private String evaluateString(int node) {
+        switch (ast.kind(node)) {
+            case LITERAL:
+                return literalStrings[node];
+            case NAME:
+                return getString(program.variableOf(node));
+            case ASSIGN: {
+                int variable = program.variableOf(ast.firstChild(node));
+                String value = ast.tokenIs(node, "=") ? text(ast.child(node, 1))
+                    : ProgramRuntime.concat(getString(variable), text(ast.child(node, 1)));
+                setString(variable, value);
+                return value;
+            }
+            case BINARY:
+                if (ast.tokenIs(node, ",")) {
+                    effect(ast.firstChild(node));
+                    return evaluateString(ast.child(node, 1));
+                }
+                return ProgramRuntime.concat(text(ast.firstChild(node)), text(ast.child(node, 1)));
+            case CONDITIONAL:
+                return test(ast.firstChild(node)) ? text(ast.child(node, 1)) : text(ast.child(node, 2));
+            default: { // CALL
+                if (program.isCast(node)) return text(ast.child(node, 1));
+                call(program.callTarget(node), node);
+                return returnedString;
+            }
+        }
+    }
+
+    // A string or char as a string
+    private String text(int node) {
+        ValueType type = program.type(node);
+        return type == ValueType.CHAR ? ProgramRuntime.charToString((int) evaluateLong(node, type)) : evaluateString(node);
+    }
+
+    private static boolean comparison(String op) {
+        switch (op) {
+            case "&&":
+            case "||":
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+            case "==":
+            case "!=":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // a op b in the integer type, the right operand an int for a shift
+    static long arithmetic(String op, long a, long b, ValueType type) {
+        boolean unsigned = type == ValueType.UNSIGNED_INT;
+        boolean wide = type == ValueType.LONG || type == ValueType.LONG_LONG;
+        switch (op) {
+            case "+":
+                return narrow(type, a + b);
+            case "-":
+                return narrow(type, a - b);
+            case "*":
+                return narrow(type, a * b);
+            case "/":
+                return unsigned ? Integer.divideUnsigned((int) a, (int) b) : narrow(type, a / b);
+            case "%":
+                return unsigned ? Integer.remainderUnsigned((int) a, (int) b) : narrow(type, a % b);
+            case "&":
+                return a & b;
+            case "|":
+                return a | b;
+            case "^":
+                return a ^ b;
+            case "<<":
+                return wide ? a << b : (int) a << (int) b;
+            default: // >>
+                if (wide) return a >> b;
+                return unsigned ? (int) a >>> (int) b : (int) a >> (int) b;
+        }
+    }
+
+    static double arithmetic(String op, double a, double b, ValueType type) {
+        double result;
+        switch (op) {
+            case "+":
+                result = a + b;
+                break;
+            case "-":
+                result = a - b;
+                break;
+            case "*":
+                result = a * b;
+                break;
+            default: // /
+                result = a / b;
+        }
+        return type == ValueType.FLOAT ? (float) result : result;
+    }
+
+    private long assignLong(int node) {
+        int variable = program.variableOf(ast.firstChild(node));
+        ValueType type = program.variableType(variable);
+        int value = ast.child(node, 1);
+        String op = program.assignmentOperator(node);
+        long result;
+        if (op.equals("=")) {
+            result = integral(value, type);
+        } else {
+            String arithmetic = op.substring(0, op.length() - 1);
+            ValueType right = program.type(value);
+            boolean shift = arithmetic.equals("<<") || arithmetic.equals(">>");
+            ValueType common = shift ? ValueType.promote(type, ValueType.INT) : ValueType.promote(type, right);
+            if (category(common) == 'D') {
+                double a = toReal(getLong(variable), type, common);
+                result = fromReal(arithmetic(arithmetic, a, real(value, common), common), type);
+            } else {
+                long a = convert(getLong(variable), type, common);
+                long b = integral(value, shift ? ValueType.INT : common);
+                result = convert(arithmetic(arithmetic, a, b, common), common, type);
+            }
+        }
+        setLong(variable, result);
+        return result;
+    }
+
+    private double assignDouble(int node) {
+        int variable = program.variableOf(ast.firstChild(node));
+        ValueType type = program.variableType(variable);
+        int value = ast.child(node, 1);
+        String op = program.assignmentOperator(node);
+        double result;
+        if (op.equals("=")) {
+            result = real(value, type);
+        } else {
+            ValueType common = ValueType.promote(type, program.type(value));
+            double a = round(getDouble(variable), common);
+            result = round(arithmetic(op.substring(0, op.length() - 1), a, real(value, common), common), type);
+        }
+        setDouble(variable, result);
+        return result;
+    }
+
+    // ++ and --; returns the new value for prefix, the old one for postfix
+    private long incrementLong(int node, boolean prefix) {
+        int variable = program.variableOf(ast.firstChild(node));
+        ValueType type = program.variableType(variable);
+        ValueType common = ValueType.promote(type, ValueType.INT);
+        long old = getLong(variable);
+        long updated = convert(arithmetic(isUp(node) ? "+" : "-", convert(old, type, common), 1, common), common, type);
+        setLong(variable, updated);
+        return prefix ? updated : old;
+    }
+
+    private double incrementDouble(int node, boolean prefix) {
+        int variable = program.variableOf(ast.firstChild(node));
+        ValueType type = program.variableType(variable);
+        double old = getDouble(variable);
+        double updated = round(isUp(node) ? old + 1 : old - 1, type);
+        setDouble(variable, updated);
+        return prefix ? updated : old;
+    }
+
+    private boolean isUp(int node) {
+        return ast.tokenIs(node, "++");
+    }
+
+    private boolean isIncrement(int node) {
+        return ast.tokenIs(node, "++") || ast.tokenIs(node, "--");
+    }
+
+    private ValueType variableType(int name) {
+        return program.variableType(program.variableOf(name));
+    }
+
+    // ===== CONDITIONS =====
+
+    private boolean test(int node) {
+        switch (ast.kind(node)) {
+            case UNARY:
+                if (ast.tokenIs(node, "!")) return !test(ast.firstChild(node));
+                break;
+            case BINARY: {
+                String op = ast.tokenText(node);
+                int left = ast.firstChild(node);
+                int right = ast.child(node, 1);
+                switch (op) {
+                    case "&&":
+                        return test(left) && test(right);
+                    case "||":
+                        return test(left) || test(right);
+                    case "<":
+                    case "<=":
+                    case ">":
+                    case ">=":
+                    case "==":
+                    case "!=":
+                        return compare(op, left, right);
+                    default:
+                        break;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        ValueType type = program.type(node);
+        return category(type) == 'I' ? evaluateLong(node, type) != 0 : evaluateDouble(node, type) != 0;
+    }
+
+    private boolean compare(String op, int left, int right) {
+        ValueType l = program.type(left);
+        ValueType r = program.type(right);
+        int order;
+        if (l == ValueType.STRING) {
+            String a = evaluateString(left);
+            String b = evaluateString(right);
+            order = op.equals("==") || op.equals("!=") ? (a.equals(b) ? 0 : 1) : a.compareTo(b);
+        } else {
+            ValueType common = ValueType.promote(l, r);
+            if (category(common) == 'D') {
+                double a = real(left, common);
+                double b = real(right, common);
+                switch (op) {
+                    case "<":
+                        return a < b;
+                    case "<=":
+                        return a <= b;
+                    case ">":
+                        return a > b;
+                    case ">=":
+                        return a >= b;
+                    case "==":
+                        return a == b;
+                    default:
+                        return a != b;
+                }
+            }
+            long a = integral(left, common);
+            long b = integral(right, common);
+            order = common == ValueType.UNSIGNED_INT ? Integer.compareUnsigned((int) a, (int) b) : Long.compare(a, b);
+        }
+        switch (op) {
+            case "<":
+                return order < 0;
+            case "<=":
+                return order <= 0;
+            case ">":
+                return order > 0;
+            case ">=":
+                return order >= 0;
+            case "==":
+                return order == 0;
+            default:
+                return order != 0;
+        }
+    }
+
+    // ===== VARIABLES =====
+
+    private long getLong(int variable) {
+        return program.isGlobal(variable) ? globalLongs[variable] : longs[variable - base];
+    }
+
+    private double getDouble(int variable) {
+        return program.isGlobal(variable) ? globalDoubles[variable] : doubles[variable - base];
+    }
+
+    private String getString(int variable) {
+        return program.isGlobal(variable) ? globalStrings[variable] : strings[variable - base];
+    }
+
+    private void setLong(int variable, long value) {
+        if (program.isGlobal(variable)) {
+            globalLongs[variable] = value;
+        } else {
+            longs[variable - base] = value;
+        }
+    }
+
+    private void setDouble(int variable, double value) {
+        if (program.isGlobal(variable)) {
+            globalDoubles[variable] = value;
+        } else {
+            doubles[variable - base] = value;
+        }
+    }
+
+    private void setString(int variable, String value) {
+        if (program.isGlobal(variable)) {
+            globalStrings[variable] = value;
+        } else {
+            strings[variable - base] = value;
+        }
+    }
+
+    // ===== CONVERSIONS =====
+
+    // 'I' for the integer types and bool, 'D' for float and double, 'L'
+    // for string
+    static char category(ValueType type) {
+        if (type == ValueType.STRING) return 'L';
+        return type == ValueType.FLOAT || type == ValueType.DOUBLE ? 'D' : 'I';
+    }
+
+    // A value cut to the width of an integer type; an unsigned int is
+    // kept as the int with the same bits
+    static long narrow(ValueType type, long value) {
+        switch (type) {
+            case INT:
+            case UNSIGNED_INT:
+                return (int) value;
+            case SHORT:
+                return (short) value;
+            case CHAR:
+                return (byte) value;
+            case BOOL:
+                return value != 0 ? 1 : 0;
+            default:
+                return value;
+        }
+    }
+
+    // The unsigned reading of an unsigned int, anything else as is
+    static long widen(ValueType type, long value) {
+        return type == ValueType.UNSIGNED_INT ? value & 0xFFFFFFFFL : value;
+    }
+
+    static long convert(long value, ValueType from, ValueType to) {
+        return to == ValueType.BOOL ? (value != 0 ? 1 : 0) : narrow(to, widen(from, value));
+    }
+
+    static double toReal(long value, ValueType from, ValueType to) {
+        long wide = widen(from, value);
+        return to == ValueType.FLOAT ? (float) wide : (double) wide;
+    }
+
+    static long fromReal(double value, ValueType to) {
+        switch (to) {
+            case BOOL:
+                return value != 0 ? 1 : 0;
+            case LONG:
+            case LONG_LONG:
+                return (long) value;
+            case UNSIGNED_INT:
+                return (int) (long) value;
+            default:
+                return narrow(to, (int) value);
+        }
+    }
+
+    static double round(double value, ValueType to) {
+        return to == ValueType.FLOAT ? (float) value : value;
+    }
+
+    // The value of node converted to the integer type target
+    private long integral(int node, ValueType target) {
+        ValueType type = program.type(node);
+        return category(type) == 'I' ? convert(evaluateLong(node, type), type, target)
+            : fromReal(evaluateDouble(node, type), target);
+    }
+
+    // The value of node converted to float or double
+    private double real(int node, ValueType target) {
+        ValueType type = program.type(node);
+        return category(type) == 'I' ? toReal(evaluateLong(node, type), type, target)
+            : round(evaluateDouble(node, type), target);
+    }
+}
@@ -0,0 +1,184 @@
+import java.util.*;
+
+// Case-folded Aho-Corasick automaton over a fixed keyword set.
+//
+// scan() finds every whole-word occurrence of every keyword in one left to
+// right pass, whatever the letter case, and says whether the occurrence
+// is spelled exactly like the keyword. The cost is linear in the text and
+// independent of how many keywords there are, unlike running one pattern
+// per keyword. Words are runs of ASCII letters, digits and '_', the same
+// as \w in a regex; an occurrence only counts when it is not preceded or
+// followed by another word character.
+//
+// find() is the single-word variant for callers that already have a token
+// (the highlighter and the token-based symbol pass): one walk down the trie.
+//
+// Instances are immutable once built and safe to share between threads.
+public final class KeywordMatcher {
+    // Folded alphabet: a-z (either case), 0-9, '_'
+    private static final int ALPHABET = 37;
+    private static final int NO_CLASS = -1;
+    private static final byte[] CLASS_OF = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            CLASS_OF[c] = NO_CLASS;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASS_OF[c] = (byte) (c - 'a');
+            CLASS_OF[Character.toUpperCase(c)] = (byte) (c - 'a');
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CLASS_OF[c] = (byte) (26 + c - '0');
+        }
+        CLASS_OF['_'] = 36;
+    }
+
+    public interface Listener {
+        void onMatch(int keyword, int start, int end, boolean exactCase);
+    }
+
+    private final String[] keywords;
+    // Full DFA: next[state * ALPHABET + class], failure transitions folded in
+    private final int[] next;
+    // Keyword that ends in this state, or -1
+    private final int[] output;
+    // Nearest state along the failure chain that has an output, or -1
+    private final int[] outputLink;
+    // Transitions of the plain trie (before failure links), for find()
+    private final int[] trie;
+
+    public KeywordMatcher(String... keywords) {
+        this.keywords = keywords.clone();
+
+        int capacity = 1;
+        for (String keyword : keywords) {
+            capacity += keyword.length();
+        }
+        trie = new int[capacity * ALPHABET];
+        Arrays.fill(trie, -1);
+        int[] depthOutput = new int[capacity];
+        Arrays.fill(depthOutput, -1);
+        int states = 1;
+
+        for (int k = 0; k < keywords.length; k++) {
+            String keyword = keywords[k];
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                int c = classOf(keyword.charAt(i));
+                if (c == NO_CLASS) {
+                    throw new IllegalArgumentException("Keyword must be a word: " + keyword);
+                }
+                int slot = state * ALPHABET + c;
+                if (trie[slot] < 0) {
+                    trie[slot] = states++;
+                }
+                state = trie[slot];
+            }
+            if (depthOutput[state] < 0) {
+                depthOutput[state] = k;
+            }
+        }
+
+        next = new int[states * ALPHABET];
+        output = Arrays.copyOf(depthOutput, states);
+        outputLink = new int[states];
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+
+        // Breadth-first: every state's failure target is shallower, so its
+        // transitions are already final when we copy them
+        outputLink[0] = -1;
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = trie[c];
+            if (child > 0) {
+                next[c] = child;
+                failure[child] = 0;
+                outputLink[child] = -1;
+                queue[tail++] = child;
+            } else {
+                next[c] = 0;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = trie[state * ALPHABET + c];
+                if (child > 0) {
+                    int f = next[failure[state] * ALPHABET + c];
+                    failure[child] = f;
+                    outputLink[child] = output[f] >= 0 ? f : outputLink[f];
+                    next[state * ALPHABET + c] = child;
+                    queue[tail++] = child;
+                } else {
+                    next[state * ALPHABET + c] = next[failure[state] * ALPHABET + c];
+                }
+            }
+        }
+    }
+
+    private static int classOf(char c) {
+        return c < 128 ? CLASS_OF[c] : NO_CLASS;
+    }
+
+    public int size() {
+        return keywords.length;
+    }
+
+    public String keyword(int index) {
+        return keywords[index];
+    }
+
+    // Reports every whole-word keyword occurrence in text[from, to), in
+    // order of position
+    public void scan(CharSequence text, int from, int to, Listener listener) {
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            int c = classOf(text.charAt(i));
+            if (c == NO_CLASS) {
+                state = 0;
+                continue;
+            }
+            state = next[state * ALPHABET + c];
+            int end = i + 1;
+            if (end < to && classOf(text.charAt(end)) != NO_CLASS) {
+                continue; // the word goes on, nothing can end here
+            }
+            for (int s = output[state] >= 0 ? state : outputLink[state]; s >= 0; s = outputLink[s]) {
+                int k = output[s];
+                int start = end - keywords[k].length();
+                if (start == from || classOf(text.charAt(start - 1)) == NO_CLASS) {
+                    listener.onMatch(k, start, end, regionMatches(keywords[k], text, start));
+                }
+            }
+            state = 0;
+        }
+    }
+
+    // Index of the keyword that text[start, end) spells, ignoring case, or -1
+    public int find(CharSequence text, int start, int end) {
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            int c = classOf(text.charAt(i));
+            if (c == NO_CLASS) return -1;
+            state = trie[state * ALPHABET + c];
+            if (state < 0) return -1;
+        }
+        return output[state];
+    }
+
+    // Like find(), but only for an exact-case spelling
+    public int findExact(CharSequence text, int start, int end) {
+        int k = find(text, start, end);
+        return k >= 0 && regionMatches(keywords[k], text, start) ? k : -1;
+    }
+
+    private static boolean regionMatches(String keyword, CharSequence text, int start) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (text.charAt(start + i) != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+}
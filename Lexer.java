@@ -0,0 +1,452 @@
+import java.util.*;
+
+// Single-pass, table-driven lexer for the W++ subset.
+//
+// Every character is mapped to a character class, and the scanner walks a
+// DFA transition table (state x class) doing maximal munch: it remembers the
+// last accepting state it passed through and emits that token once the DFA
+// dies. The accepting state already tells us the token kind, and for a
+// literal its ValueType, so nothing is re-classified afterwards. Whitespace
+// and comments are accepted as SKIP and never reach the caller. Tokens are
+// written straight into a TokenStream.
+public class Lexer {
+    // ===== CHARACTER CLASSES =====
+    private static final int C_OTHER = 0;
+    private static final int C_LETTER = 1;    // a-z A-Z _
+    private static final int C_DIGIT = 2;
+    private static final int C_SPACE = 3;     // space, tab, \r, \f
+    private static final int C_NEWLINE = 4;
+    private static final int C_DQUOTE = 5;
+    private static final int C_SQUOTE = 6;
+    private static final int C_BACKSLASH = 7;
+    private static final int C_DOT = 8;
+    private static final int C_SLASH = 9;
+    private static final int C_STAR = 10;
+    private static final int C_PLUS = 11;
+    private static final int C_MINUS = 12;
+    private static final int C_PERCENT = 13;
+    private static final int C_LT = 14;
+    private static final int C_GT = 15;
+    private static final int C_EQ = 16;
+    private static final int C_BANG = 17;
+    private static final int C_AMP = 18;
+    private static final int C_PIPE = 19;
+    private static final int C_SEP = 20;      // { } ( ) ; ,
+    // Letters that can end a number: 1e5, 2.5f, 10L, 7u
+    private static final int C_E = 21;        // e E
+    private static final int C_F = 22;        // f F
+    private static final int C_L = 23;        // l L
+    private static final int C_U = 24;        // u U
+    private static final int C_CARET = 25;
+    private static final int CLASS_COUNT = 26;
+
+    // ===== DFA STATES =====
+    private static final int DEAD = 0;
+    private static final int START = 1;
+    private static final int IDENT = 2;
+    private static final int INT = 3;
+    private static final int INT_DOT = 4;
+    private static final int FRAC = 5;
+    private static final int SPACE = 6;
+    private static final int SLASH = 7;
+    private static final int LINE_COMMENT = 8;
+    private static final int BLOCK = 9;
+    private static final int BLOCK_STAR = 10;
+    private static final int BLOCK_END = 11;
+    private static final int STR = 12;
+    private static final int STR_ESC = 13;
+    private static final int STR_END = 14;
+    private static final int CHR_OPEN = 15;
+    private static final int CHR_ESC = 16;
+    private static final int CHR_BODY = 17;
+    private static final int CHR_END = 18;
+    private static final int PLUS = 19;
+    private static final int MINUS = 20;
+    private static final int STAR = 21;
+    private static final int PERCENT = 22;
+    private static final int LT = 23;
+    private static final int GT = 24;
+    private static final int EQ = 25;
+    private static final int BANG = 26;
+    private static final int AMP = 27;
+    private static final int PIPE = 28;
+    private static final int REL2 = 29;       // == != <= >=
+    private static final int LOG2 = 30;       // && ||
+    private static final int OP2 = 31;        // ++ -- += -= *= /= %= &= |= ^= -> <<= >>=
+    private static final int SHIFT = 32;      // << >>
+    private static final int SEP = 33;
+    private static final int OTHER = 34;
+    private static final int INT_L = 35;      // 10L
+    private static final int INT_LL = 36;     // 10LL
+    private static final int INT_U = 37;      // 10u
+    private static final int EXP = 38;        // 1e, 2.5E
+    private static final int EXP_SIGN = 39;   // 1e-
+    private static final int EXP_DIGITS = 40; // 1e5
+    private static final int FLOAT_F = 41;    // 2.5f, 1e5f
+    private static final int CARET = 42;
+    private static final int STATE_COUNT = 43;
+
+    // How many characters past a token's end the DFA may have read before
+    // settling on it: "1e+" is only known not to start "1e+5" once the
+    // character after the sign has been seen
+    static final int MAX_LOOKAHEAD = 3;
+
+    // Accept codes: a TokenKind ordinal, or one of these
+    private static final int NONE = -1;
+    private static final int SKIP = -2;
+
+    private static final byte[] CHAR_CLASS = new byte[128];
+    private static final int[] NEXT = new int[STATE_COUNT * CLASS_COUNT];
+    private static final int[] ACCEPT = new int[STATE_COUNT];
+    // ValueType ordinal of the literal an accepting state ends, or -1
+    private static final byte[] LITERAL = new byte[STATE_COUNT];
+
+    // Keywords the token table reports with their own category, bucketed
+    // by first character so a lookup only compares a handful of candidates
+    private static final String[][] KEYWORDS_BY_FIRST = new String[128][];
+    private static final TokenKind[][] KEYWORD_KINDS_BY_FIRST = new TokenKind[128][];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) CHAR_CLASS[c] = C_LETTER;
+        for (char c = 'A'; c <= 'Z'; c++) CHAR_CLASS[c] = C_LETTER;
+        CHAR_CLASS['_'] = C_LETTER;
+        for (char c = '0'; c <= '9'; c++) CHAR_CLASS[c] = C_DIGIT;
+        CHAR_CLASS[' '] = C_SPACE;
+        CHAR_CLASS['\t'] = C_SPACE;
+        CHAR_CLASS['\r'] = C_SPACE;
+        CHAR_CLASS['\f'] = C_SPACE;
+        CHAR_CLASS['\n'] = C_NEWLINE;
+        CHAR_CLASS['"'] = C_DQUOTE;
+        CHAR_CLASS['\''] = C_SQUOTE;
+        CHAR_CLASS['\\'] = C_BACKSLASH;
+        CHAR_CLASS['.'] = C_DOT;
+        CHAR_CLASS['/'] = C_SLASH;
+        CHAR_CLASS['*'] = C_STAR;
+        CHAR_CLASS['+'] = C_PLUS;
+        CHAR_CLASS['-'] = C_MINUS;
+        CHAR_CLASS['%'] = C_PERCENT;
+        CHAR_CLASS['<'] = C_LT;
+        CHAR_CLASS['>'] = C_GT;
+        CHAR_CLASS['='] = C_EQ;
+        CHAR_CLASS['!'] = C_BANG;
+        CHAR_CLASS['&'] = C_AMP;
+        CHAR_CLASS['|'] = C_PIPE;
+        CHAR_CLASS['^'] = C_CARET;
+        for (char c : "{}();,".toCharArray()) CHAR_CLASS[c] = C_SEP;
+        CHAR_CLASS['e'] = CHAR_CLASS['E'] = C_E;
+        CHAR_CLASS['f'] = CHAR_CLASS['F'] = C_F;
+        CHAR_CLASS['l'] = CHAR_CLASS['L'] = C_L;
+        CHAR_CLASS['u'] = CHAR_CLASS['U'] = C_U;
+
+        Arrays.fill(ACCEPT, NONE);
+        Arrays.fill(LITERAL, (byte) -1);
+
+        // START fans out on the first character; anything unrecognised
+        // becomes a one-character UNKNOWN token
+        fill(START, OTHER);
+        for (int letter : new int[] {C_LETTER, C_E, C_F, C_L, C_U}) {
+            edge(START, letter, IDENT);
+            edge(IDENT, letter, IDENT);
+        }
+        edge(START, C_DIGIT, INT);
+        edge(START, C_SPACE, SPACE);
+        edge(START, C_NEWLINE, SPACE);
+        edge(START, C_SLASH, SLASH);
+        edge(START, C_DQUOTE, STR);
+        edge(START, C_SQUOTE, CHR_OPEN);
+        edge(START, C_PLUS, PLUS);
+        edge(START, C_MINUS, MINUS);
+        edge(START, C_STAR, STAR);
+        edge(START, C_PERCENT, PERCENT);
+        edge(START, C_LT, LT);
+        edge(START, C_GT, GT);
+        edge(START, C_EQ, EQ);
+        edge(START, C_BANG, BANG);
+        edge(START, C_AMP, AMP);
+        edge(START, C_PIPE, PIPE);
+        edge(START, C_CARET, CARET);
+        edge(START, C_SEP, SEP);
+
+        // Identifiers, [a-zA-Z_][a-zA-Z0-9_]*, and numbers,
+        // \d+(\.\d+)?([eE][+-]?\d+)? with an integer suffix (u, l, ll) or
+        // a float one (f, only after a fraction or exponent)
+        edge(IDENT, C_DIGIT, IDENT);
+        edge(INT, C_DIGIT, INT);
+        edge(INT, C_DOT, INT_DOT);
+        edge(INT, C_E, EXP);
+        edge(INT, C_L, INT_L);
+        edge(INT, C_U, INT_U);
+        edge(INT_L, C_L, INT_LL);
+        edge(INT_DOT, C_DIGIT, FRAC);
+        edge(FRAC, C_DIGIT, FRAC);
+        edge(FRAC, C_E, EXP);
+        edge(FRAC, C_F, FLOAT_F);
+        edge(EXP, C_PLUS, EXP_SIGN);
+        edge(EXP, C_MINUS, EXP_SIGN);
+        edge(EXP, C_DIGIT, EXP_DIGITS);
+        edge(EXP_SIGN, C_DIGIT, EXP_DIGITS);
+        edge(EXP_DIGITS, C_DIGIT, EXP_DIGITS);
+        edge(EXP_DIGITS, C_F, FLOAT_F);
+
+        edge(SPACE, C_SPACE, SPACE);
+        edge(SPACE, C_NEWLINE, SPACE);
+
+        // Comments
+        edge(SLASH, C_SLASH, LINE_COMMENT);
+        edge(SLASH, C_STAR, BLOCK);
+        edge(SLASH, C_EQ, OP2);
+        fill(LINE_COMMENT, LINE_COMMENT);
+        edge(LINE_COMMENT, C_NEWLINE, DEAD);
+        fill(BLOCK, BLOCK);
+        edge(BLOCK, C_STAR, BLOCK_STAR);
+        fill(BLOCK_STAR, BLOCK);
+        edge(BLOCK_STAR, C_STAR, BLOCK_STAR);
+        edge(BLOCK_STAR, C_SLASH, BLOCK_END);
+
+        // String and char literals stop at the end of the line. An
+        // unterminated one is accepted as UNKNOWN so scanning stays linear.
+        fill(STR, STR);
+        edge(STR, C_BACKSLASH, STR_ESC);
+        edge(STR, C_DQUOTE, STR_END);
+        edge(STR, C_NEWLINE, DEAD);
+        fill(STR_ESC, STR);
+        edge(STR_ESC, C_NEWLINE, DEAD);
+        fill(CHR_OPEN, CHR_BODY);
+        edge(CHR_OPEN, C_BACKSLASH, CHR_ESC);
+        edge(CHR_OPEN, C_SQUOTE, DEAD);
+        edge(CHR_OPEN, C_NEWLINE, DEAD);
+        fill(CHR_ESC, CHR_BODY);
+        edge(CHR_ESC, C_NEWLINE, DEAD);
+        edge(CHR_BODY, C_SQUOTE, CHR_END);
+
+        // Operators, longest match first
+        edge(PLUS, C_PLUS, OP2);
+        edge(PLUS, C_EQ, OP2);
+        edge(MINUS, C_MINUS, OP2);
+        edge(MINUS, C_EQ, OP2);
+        edge(MINUS, C_GT, OP2);
+        edge(STAR, C_EQ, OP2);
+        edge(PERCENT, C_EQ, OP2);
+        edge(LT, C_EQ, REL2);
+        edge(LT, C_LT, SHIFT);
+        edge(GT, C_EQ, REL2);
+        edge(GT, C_GT, SHIFT);
+        edge(SHIFT, C_EQ, OP2);
+        edge(EQ, C_EQ, REL2);
+        edge(BANG, C_EQ, REL2);
+        edge(AMP, C_AMP, LOG2);
+        edge(AMP, C_EQ, OP2);
+        edge(PIPE, C_PIPE, LOG2);
+        edge(PIPE, C_EQ, OP2);
+        edge(CARET, C_EQ, OP2);
+
+        accept(IDENT, TokenKind.IDENTIFIER);
+        literal(INT, TokenKind.NUMBER, ValueType.INT);
+        literal(INT_L, TokenKind.NUMBER, ValueType.LONG);
+        literal(INT_LL, TokenKind.NUMBER, ValueType.LONG_LONG);
+        literal(INT_U, TokenKind.NUMBER, ValueType.UNSIGNED_INT);
+        literal(FRAC, TokenKind.NUMBER, ValueType.DOUBLE);
+        literal(EXP_DIGITS, TokenKind.NUMBER, ValueType.DOUBLE);
+        literal(FLOAT_F, TokenKind.NUMBER, ValueType.FLOAT);
+        ACCEPT[SPACE] = SKIP;
+        accept(SLASH, TokenKind.ARITHMETIC_OPERATOR);
+        ACCEPT[LINE_COMMENT] = SKIP;
+        ACCEPT[BLOCK] = SKIP;          // unterminated comment runs to end of input
+        ACCEPT[BLOCK_STAR] = SKIP;
+        ACCEPT[BLOCK_END] = SKIP;
+        accept(STR, TokenKind.UNKNOWN);
+        accept(STR_ESC, TokenKind.UNKNOWN);
+        literal(STR_END, TokenKind.STRING_LITERAL, ValueType.STRING);
+        accept(CHR_OPEN, TokenKind.UNKNOWN);
+        accept(CHR_ESC, TokenKind.UNKNOWN);
+        accept(CHR_BODY, TokenKind.UNKNOWN);
+        literal(CHR_END, TokenKind.CHAR_LITERAL, ValueType.CHAR);
+        accept(PLUS, TokenKind.ARITHMETIC_OPERATOR);
+        accept(MINUS, TokenKind.ARITHMETIC_OPERATOR);
+        accept(STAR, TokenKind.ARITHMETIC_OPERATOR);
+        accept(PERCENT, TokenKind.ARITHMETIC_OPERATOR);
+        accept(LT, TokenKind.RELATIONAL_OPERATOR);
+        accept(GT, TokenKind.RELATIONAL_OPERATOR);
+        accept(EQ, TokenKind.ASSIGNMENT_OPERATOR);
+        accept(BANG, TokenKind.OPERATOR);
+        accept(AMP, TokenKind.OPERATOR);
+        accept(PIPE, TokenKind.OPERATOR);
+        accept(CARET, TokenKind.OPERATOR);
+        accept(REL2, TokenKind.RELATIONAL_OPERATOR);
+        accept(LOG2, TokenKind.LOGICAL_OPERATOR);
+        accept(OP2, TokenKind.OPERATOR);
+        accept(SHIFT, TokenKind.OPERATOR);
+        accept(SEP, TokenKind.SEPARATOR);
+        accept(OTHER, TokenKind.UNKNOWN);
+
+        keyword(TokenKind.DECLARATION, "int", "float", "double", "char", "string", "void");
+        keyword(TokenKind.CONDITIONAL, "if", "else");
+        keyword(TokenKind.LOOP, "for", "while", "do");
+        keyword(TokenKind.CONTROL, "break", "continue", "return");
+    }
+
+    private static void edge(int from, int charClass, int to) {
+        NEXT[from * CLASS_COUNT + charClass] = to;
+    }
+
+    private static void fill(int from, int to) {
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            NEXT[from * CLASS_COUNT + c] = to;
+        }
+    }
+
+    private static void accept(int state, TokenKind kind) {
+        ACCEPT[state] = kind.ordinal();
+    }
+
+    private static void literal(int state, TokenKind kind, ValueType type) {
+        accept(state, kind);
+        LITERAL[state] = (byte) type.ordinal();
+    }
+
+    private static void keyword(TokenKind kind, String... words) {
+        for (String word : words) {
+            char first = word.charAt(0);
+            String[] bucket = KEYWORDS_BY_FIRST[first];
+            TokenKind[] kinds = KEYWORD_KINDS_BY_FIRST[first];
+            int size = bucket == null ? 0 : bucket.length;
+            bucket = bucket == null ? new String[1] : Arrays.copyOf(bucket, size + 1);
+            kinds = kinds == null ? new TokenKind[1] : Arrays.copyOf(kinds, size + 1);
+            bucket[size] = word;
+            kinds[size] = kind;
+            KEYWORDS_BY_FIRST[first] = bucket;
+            KEYWORD_KINDS_BY_FIRST[first] = kinds;
+        }
+    }
+
+    // Upgrades an identifier to its keyword category, if it is one
+    static TokenKind classifyWord(CharSequence src, int start, int end) {
+        String[] bucket = KEYWORDS_BY_FIRST[src.charAt(start) & 0x7f];
+        if (bucket != null) {
+            int length = end - start;
+            for (int k = 0; k < bucket.length; k++) {
+                String word = bucket[k];
+                if (word.length() != length) continue;
+                int i = 1;
+                while (i < length && word.charAt(i) == src.charAt(start + i)) i++;
+                if (i == length) {
+                    return KEYWORD_KINDS_BY_FIRST[src.charAt(start) & 0x7f][k];
+                }
+            }
+        }
+        return TokenKind.IDENTIFIER;
+    }
+
+    // true and false are literals too, of type bool
+    private static boolean isBoolean(CharSequence src, int start, int end) {
+        String word = end - start == 4 ? "true" : end - start == 5 ? "false" : null;
+        if (word == null) return false;
+        for (int k = 0; k < word.length(); k++) {
+            if (src.charAt(start + k) != word.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    public static TokenStream tokenize(CharSequence src) {
+        TokenStream tokens = new TokenStream(src);
+        Cursor cursor = new Cursor(src);
+        while (cursor.next()) {
+            tokens.add(cursor.kind, cursor.start, cursor.end, cursor.line, cursor.column, cursor.literal);
+        }
+        tokens.setUnterminatedComment(cursor.unterminatedComment);
+        return tokens;
+    }
+
+    // Resumable scanning position over a source buffer. next() skips
+    // whitespace and comments and stops on the following token. The DFA is
+    // always back in START between tokens, even after a multi-line comment,
+    // so a cursor can be started at any token boundary; IncrementalLexer
+    // relies on that to resume scanning in the middle of a document.
+    public static final class Cursor {
+        private final CharSequence src;
+        private final int length;
+        private int pos;
+        private int currentLine;
+        private int lineStart;
+
+        // The token found by the last successful next(); literal is the
+        // ValueType ordinal of a literal token (true and false included),
+        // -1 for any other
+        public TokenKind kind;
+        public byte literal;
+        public int start;
+        public int end;
+        public int line;
+        public int column;
+
+        // Offset of a /* comment that runs to the end of input, or -1
+        public int unterminatedComment = -1;
+
+        public Cursor(CharSequence src) {
+            this(src, 0, 1, 0);
+        }
+
+        public Cursor(CharSequence src, int pos, int line, int lineStart) {
+            this.src = src;
+            this.length = src.length();
+            this.pos = pos;
+            this.currentLine = line;
+            this.lineStart = lineStart;
+        }
+
+        public boolean next() {
+            while (pos < length) {
+                int state = START;
+                int i = pos;
+                int accepted = NONE;
+                int acceptedState = DEAD;
+                int acceptedEnd = pos + 1;
+
+                while (i < length) {
+                    char c = src.charAt(i);
+                    state = NEXT[state * CLASS_COUNT + (c < 128 ? CHAR_CLASS[c] : C_OTHER)];
+                    if (state == DEAD) break;
+                    i++;
+                    int code = ACCEPT[state];
+                    if (code != NONE) {
+                        accepted = code;
+                        acceptedState = state;
+                        acceptedEnd = i;
+                    }
+                }
+
+                int tokenStart = pos;
+                pos = acceptedEnd;
+                if (accepted == SKIP) {
+                    if ((acceptedState == BLOCK || acceptedState == BLOCK_STAR) && acceptedEnd == length) {
+                        unterminatedComment = tokenStart;
+                    }
+                    // Only whitespace and comments can contain newlines
+                    for (int k = tokenStart; k < acceptedEnd; k++) {
+                        if (src.charAt(k) == '\n') {
+                            currentLine++;
+                            lineStart = k + 1;
+                        }
+                    }
+                    continue;
+                }
+
+                TokenKind tokenKind = accepted == NONE ? TokenKind.UNKNOWN : TokenKind.of(accepted);
+                literal = LITERAL[acceptedState];
+                if (tokenKind == TokenKind.IDENTIFIER) {
+                    tokenKind = classifyWord(src, tokenStart, acceptedEnd);
+                    if (isBoolean(src, tokenStart, acceptedEnd)) {
+                        literal = (byte) ValueType.BOOL.ordinal();
+                    }
+                }
+                kind = tokenKind;
+                start = tokenStart;
+                end = acceptedEnd;
+                line = currentLine;
+                column = tokenStart - lineStart + 1;
+                return true;
+            }
+            return false;
+        }
+    }
+}
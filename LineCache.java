@@ -0,0 +1,335 @@
+import java.util.*;
+
+// Results of the line-local rules, kept from one analysis run to the next
+// so re-analysing a document after an edit only re-checks the lines that
+// changed.
+//
+// A rule registered with a Memo other than NONE reads nothing but the
+// line's text and, for TEXT_AND_SYMBOLS, the types the symbol table gives
+// the names on it. What it did to a line is recorded once: the
+// diagnostics it reported (replayed with the line's current number, so a
+// line that only moved still hits), whether it stopped the rules after
+// it, and which of the line's names it marked initialized. An entry is
+// keyed by the rule, the line's scope, its raw text and, when the rule
+// reads symbols, the line's symbol signature: the type of every name on
+// the line as it is visible right now, null for an undeclared one. Text
+// and signature are compared in full on a hit; the 64-bit hash only picks
+// the chain.
+//
+// The line's hash and signature are computed once and shared by all the
+// rules that run on it. The signature is only recomputed when the symbol
+// table's version moved, i.e. a rule before this one declared something.
+//
+// Once the cache holds more than MAX_ENTRIES, the entries the last run did
+// not use are dropped, so old versions of edited lines don't pile up. A
+// cache serves one session at a time; AnalysisScheduler keeps one for its
+// worker thread.
+public final class LineCache {
+    private static final int MAX_ENTRIES = 1 << 18;
+    private static final int[] NO_POSITIONS = new int[0];
+    private static final Diagnostic[] NO_DIAGNOSTICS = new Diagnostic[0];
+
+    private static final class Entry {
+        final String rule;
+        final RuleRegistry.Scope scope;
+        final String text;
+        final String[] types; // signature; null for a TEXT rule
+        Diagnostic[] diagnostics = NO_DIAGNOSTICS;
+        int[] initialized = NO_POSITIONS; // positions in the signature
+        boolean skipRemaining;
+        int lastRun;
+        Entry next;
+
+        Entry(String rule, RuleRegistry.Scope scope, String text, String[] types) {
+            this.rule = rule;
+            this.scope = scope;
+            this.text = text;
+            this.types = types;
+        }
+    }
+
+    // Open-addressed table from key hash to the chain of entries with that
+    // hash; keys[i] is meaningful where chains[i] != null
+    private long[] keys = new long[1024];
+    private Entry[] chains = new Entry[1024];
+    private int chainCount;
+    private int size;
+    private int run;
+
+    // The line being checked: which one, its hash, its text once an entry
+    // needed it, and its signature as of symbol table version
+    // signatureVersion
+    private LineInfo line;
+    private int lineNumber = -1;
+    private long textHash;
+    private String text;
+    private String[] signature = new String[16];
+    private int[] signatureSymbols = new int[16];
+    private int signatureLength;
+    private long signatureHash;
+    private long signatureVersion = -1;
+
+    // What the rule running on a miss does, to be stored in its entry
+    private final List<Diagnostic> reported = new ArrayList<>();
+    private int[] marked = new int[8];
+    private int markedCount;
+    private boolean recording;
+    private boolean recordingReadsSymbols;
+    private boolean unrecordable;
+
+    private long hits;
+    private long misses;
+    private long runHits;
+    private long runMisses;
+
+    // Called by SyntaxAnalyzer around its line loop
+    void beginRun() {
+        run++;
+        runHits = 0;
+        runMisses = 0;
+        line = null;
+        lineNumber = -1;
+    }
+
+    void endRun() {
+        line = null;
+        if (size <= MAX_ENTRIES) return;
+        long[] oldKeys = keys;
+        Entry[] oldChains = chains;
+        keys = new long[oldKeys.length];
+        chains = new Entry[oldChains.length];
+        chainCount = 0;
+        size = 0;
+        for (int i = 0; i < oldChains.length; i++) {
+            Entry kept = null;
+            for (Entry e = oldChains[i], next; e != null; e = next) {
+                next = e.next;
+                if (e.lastRun == run) {
+                    e.next = kept;
+                    kept = e;
+                    size++;
+                }
+            }
+            if (kept != null) put(oldKeys[i], kept);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(chains, null);
+        chainCount = 0;
+        size = 0;
+    }
+
+    // Runs rule on line through the cache: replays a stored result when
+    // the line, its scope and (if the rule reads them) the types of its
+    // names are the same as when it was stored, runs the rule otherwise
+    void run(SyntaxAnalyzer session, RuleRegistry.Rule rule, LineInfo info, DiagnosticSink sink) {
+        if (info != line || info.number() != lineNumber) {
+            line = info;
+            lineNumber = info.number();
+            textHash = hash(info.raw());
+            text = null;
+            signatureVersion = -1;
+        }
+        SymbolTable symbols = session.symbols();
+        boolean readsSymbols = rule.memo == RuleRegistry.Memo.TEXT_AND_SYMBOLS;
+        if (readsSymbols && signatureVersion != symbols.version()) {
+            sign(symbols, info.text());
+            signatureVersion = symbols.version();
+        }
+
+        long key = textHash * 31 + rule.id.hashCode();
+        key = key * 31 + info.scope().ordinal();
+        if (readsSymbols) key = key * 0x9E3779B97F4A7C15L + signatureHash;
+        int slot = slot(key);
+        Entry first = chains[slot];
+        for (Entry e = first; e != null; e = e.next) {
+            if (matches(e, rule.id, info, readsSymbols)) {
+                e.lastRun = run;
+                replay(e, symbols, info, sink);
+                hits++;
+                runHits++;
+                return;
+            }
+        }
+
+        misses++;
+        runMisses++;
+        reported.clear();
+        markedCount = 0;
+        unrecordable = false;
+        recording = true;
+        recordingReadsSymbols = readsSymbols;
+        try {
+            rule.check.run(session, info, diagnostic -> {
+                reported.add(diagnostic);
+                sink.report(diagnostic);
+            });
+        } finally {
+            recording = false;
+        }
+        if (unrecordable) return;
+        if (text == null) text = info.raw().toString();
+        Entry entry = new Entry(rule.id, info.scope(), text,
+            readsSymbols ? Arrays.copyOf(signature, signatureLength) : null);
+        if (!reported.isEmpty()) entry.diagnostics = reported.toArray(NO_DIAGNOSTICS);
+        if (markedCount > 0) entry.initialized = Arrays.copyOf(marked, markedCount);
+        entry.skipRemaining = info.skipRemaining;
+        entry.lastRun = run;
+        entry.next = first;
+        size++;
+        if (first != null) {
+            chains[slot] = entry;
+        } else {
+            put(key, entry);
+        }
+    }
+
+    // Where key's chain is, or the free slot it would go in
+    private int slot(long key) {
+        int mask = chains.length - 1;
+        int i = (int) mix(key) & mask;
+        while (chains[i] != null && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    // Adds a chain for a key that has none, growing the table at half full
+    private void put(long key, Entry chain) {
+        if (2 * (chainCount + 1) > chains.length) {
+            long[] oldKeys = keys;
+            Entry[] oldChains = chains;
+            keys = new long[oldKeys.length * 2];
+            chains = new Entry[oldChains.length * 2];
+            for (int i = 0; i < oldChains.length; i++) {
+                if (oldChains[i] != null) {
+                    int at = slot(oldKeys[i]);
+                    keys[at] = oldKeys[i];
+                    chains[at] = oldChains[i];
+                }
+            }
+        }
+        int at = slot(key);
+        keys[at] = key;
+        chains[at] = chain;
+        chainCount++;
+    }
+
+    // Spreads every bit of the key over the low ones the table uses
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    // Called by the session when a cached rule marks a symbol initialized.
+    // It is remembered as a position in the signature, which replay finds
+    // the symbol at again; a symbol that is not in it can't be replayed,
+    // so the rule's result is not stored then.
+    void markedInitialized(int symbol) {
+        if (!recording) return;
+        int k = 0;
+        while (k < signatureLength && signatureSymbols[k] != symbol) k++;
+        if (k == signatureLength || !recordingReadsSymbols) {
+            unrecordable = true;
+            return;
+        }
+        if (markedCount == marked.length) marked = Arrays.copyOf(marked, markedCount * 2);
+        marked[markedCount++] = k;
+    }
+
+    private boolean matches(Entry e, String rule, LineInfo info, boolean readsSymbols) {
+        if (e.scope != info.scope() || !e.rule.equals(rule) || !info.raw().equals(e.text)) return false;
+        if (!readsSymbols) return true;
+        if (e.types == null || e.types.length != signatureLength) return false;
+        for (int k = 0; k < signatureLength; k++) {
+            if (!Objects.equals(e.types[k], signature[k])) return false;
+        }
+        return true;
+    }
+
+    private void replay(Entry e, SymbolTable symbols, LineInfo info, DiagnosticSink sink) {
+        for (Diagnostic d : e.diagnostics) {
+            sink.report(new Diagnostic(d.severity, d.code, info.number(), d.column, d.length, d.message));
+        }
+        for (int k : e.initialized) {
+            symbols.setInitialized(signatureSymbols[k]);
+        }
+        if (e.skipRemaining) info.skipRemaining();
+    }
+
+    // The type of every name in text, in order, as the symbol table sees it
+    // now. A word starting with digits is looked up without them, since an
+    // unanchored name pattern would match its tail.
+    private void sign(SymbolTable symbols, LineCursor.View text) {
+        signatureLength = 0;
+        signatureHash = 0;
+        int i = 0;
+        while (i < text.length()) {
+            if (!isWordChar(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && isWordChar(text.charAt(i))) i++;
+            int nameStart = start;
+            while (nameStart < i && text.charAt(nameStart) <= '9') nameStart++;
+            if (nameStart == i) continue;
+            addType(symbols, symbols.lookup(text, nameStart, i));
+        }
+    }
+
+    private void addType(SymbolTable symbols, int symbol) {
+        if (signatureLength == signature.length) {
+            signature = Arrays.copyOf(signature, signatureLength * 2);
+            signatureSymbols = Arrays.copyOf(signatureSymbols, signatureLength * 2);
+        }
+        String type = symbol >= 0 ? symbols.type(symbol) : null;
+        signatureSymbols[signatureLength] = symbol;
+        signature[signatureLength++] = type;
+        signatureHash = signatureHash * 31 + (type == null ? 0 : type.hashCode() + 1);
+    }
+
+    // The ASCII word characters the rules' name patterns match
+    private static boolean isWordChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    // FNV-1a over the characters
+    private static long hash(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // ===== STATISTICS =====
+
+    // Rule checks answered from the cache and run for real, over the last
+    // run and over the cache's lifetime
+    public long runHits() {
+        return runHits;
+    }
+
+    public long runMisses() {
+        return runMisses;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Share of the last run's cached checks that were hits, 0..1
+    public double runHitRate() {
+        long total = runHits + runMisses;
+        return total == 0 ? 0 : (double) runHits / total;
+    }
+}
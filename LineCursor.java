@@ -0,0 +1,185 @@
+// Walks the lines of a source buffer without copying them.
+//
+// After each next() the cursor describes one line by offsets into the
+// buffer: its full bounds (without the newline) and its trimmed bounds.
+// raw() and text() are CharSequence views over those bounds; the same two
+// View objects are reused for every line, so walking a file allocates
+// nothing. Run over PreprocessedSource.code(), where comments are already
+// blanked, the trimmed bounds are also the comment-free bounds.
+//
+// A view is only valid until the next call to next(). Anything that has
+// to outlive the line takes toString().
+public final class LineCursor {
+    private final CharSequence source;
+    private final int limit;
+    private int next;
+    private int number;
+    private final View raw = new View();
+    private final View text = new View();
+
+    public LineCursor(CharSequence source) {
+        this(source, 0, source.length());
+    }
+
+    // Lines of source[from, to); from should be the start of a line
+    public LineCursor(CharSequence source, int from, int to) {
+        this.source = source;
+        this.limit = to;
+        this.next = from;
+    }
+
+    // Moves to the next line; false when there are no more
+    public boolean next() {
+        if (next > limit) return false;
+        int start = next;
+        int end = start;
+        while (end < limit && source.charAt(end) != '\n') end++;
+        next = end + 1;
+        number++;
+        raw.set(source, start, end);
+
+        int textStart = start;
+        int textEnd = end;
+        while (textStart < textEnd && source.charAt(textStart) <= ' ') textStart++;
+        while (textEnd > textStart && source.charAt(textEnd - 1) <= ' ') textEnd--;
+        text.set(source, textStart, textEnd);
+        return true;
+    }
+
+    // 1-based, counted from the line the cursor started on
+    public int number() {
+        return number;
+    }
+
+    public int start() {
+        return raw.start;
+    }
+
+    public int end() {
+        return raw.end;
+    }
+
+    public int textStart() {
+        return text.start;
+    }
+
+    public int textEnd() {
+        return text.end;
+    }
+
+    public boolean isBlank() {
+        return text.start == text.end;
+    }
+
+    // The whole line, leading and trailing whitespace included
+    public View raw() {
+        return raw;
+    }
+
+    // The line without leading and trailing whitespace
+    public View text() {
+        return text;
+    }
+
+    // A movable window onto a CharSequence. It also hashes and compares
+    // like the String it spells, so it can be used as a probe key to look
+    // a name up in a HashMap<String, ...> without copying it out first.
+    public static final class View implements CharSequence {
+        private CharSequence source = "";
+        private int start;
+        private int end;
+
+        public View set(CharSequence source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        // Offset of the view in its source
+        public int start() {
+            return start;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return source.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new View().set(source, start + from, start + to);
+        }
+
+        public int indexOf(char c) {
+            for (int i = start; i < end; i++) {
+                if (source.charAt(i) == c) return i - start;
+            }
+            return -1;
+        }
+
+        public int indexOf(String s) {
+            return indexOf(s, 0);
+        }
+
+        public int indexOf(String s, int from) {
+            int last = end - s.length();
+            for (int i = start + from; i <= last; i++) {
+                if (regionMatches(i, s)) return i - start;
+            }
+            return -1;
+        }
+
+        public boolean contains(char c) {
+            return indexOf(c) >= 0;
+        }
+
+        public boolean contains(String s) {
+            return indexOf(s, 0) >= 0;
+        }
+
+        public boolean startsWith(String s) {
+            return s.length() <= end - start && regionMatches(start, s);
+        }
+
+        private boolean regionMatches(int at, String s) {
+            for (int k = 0; k < s.length(); k++) {
+                if (source.charAt(at + k) != s.charAt(k)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + source.charAt(i);
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CharSequence)) return false;
+            CharSequence other = (CharSequence) o;
+            if (other.length() != end - start) return false;
+            for (int k = 0; k < other.length(); k++) {
+                if (other.charAt(k) != source.charAt(start + k)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            if (source instanceof String) {
+                return ((String) source).substring(start, end);
+            }
+            return new StringBuilder(end - start).append(source, start, end).toString();
+        }
+    }
+}
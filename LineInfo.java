@@ -0,0 +1,141 @@
+// One source line as the rule engine sees it, classified once so each
+// rule can decide from a few field reads whether it has anything to
+// check. The same instance is reused for every line of a file, and its
+// text is a view into the source buffer rather than a copy (see
+// LineCursor), so classifying a line allocates nothing.
+//
+// Tree-based rules don't look at the text at all: they get the syntax
+// tree and the range of its statements that start on this line. Lines
+// inside a function body (scope FUNCTION_BODY) also know which function
+// they belong to.
+public final class LineInfo {
+    public enum Kind {
+        EMPTY,
+        PREPROCESSOR, // #include, #define, ...
+        DECLARATION,  // starts with a type keyword: int x = 1;
+        CONDITIONAL,  // if / else
+        LOOP,         // for / while / do
+        BLOCK,        // only braces, e.g. "}" or "{"
+        STATEMENT     // anything else
+    }
+
+    private static final KeywordMatcher TYPE_WORDS = new KeywordMatcher(
+        "int", "float", "double", "char", "bool", "long", "short", "unsigned", "signed", "string", "void", "auto");
+    private static final KeywordMatcher CONDITIONAL_WORDS = new KeywordMatcher("if", "else");
+    private static final KeywordMatcher LOOP_WORDS = new KeywordMatcher("for", "while", "do");
+
+    RuleRegistry.Scope scope;
+    LineCursor.View raw;  // the line as written, comments blanked out
+    LineCursor.View text; // raw, trimmed
+    int number;           // 1-based line in the file
+    Kind kind;
+    int leadingWordEnd;   // length of the identifier the line starts with
+    boolean skipRemaining;
+    Ast ast;
+    int firstStatement; // statements [firstStatement, statementEnd) of ast
+    int statementEnd;
+    int function;       // enclosing FUNCTION node of ast, or -1
+    boolean header;     // has part of a function header on it
+
+    void reset(RuleRegistry.Scope scope, LineCursor cursor, int number) {
+        this.scope = scope;
+        this.raw = cursor.raw();
+        this.text = cursor.text();
+        this.number = number;
+        this.skipRemaining = false;
+
+        int end = 0;
+        while (end < text.length() && isWordChar(text.charAt(end), end == 0)) end++;
+        leadingWordEnd = end;
+        kind = classify();
+    }
+
+    private Kind classify() {
+        if (text.length() == 0) return Kind.EMPTY;
+        char first = text.charAt(0);
+        if (first == '#') return Kind.PREPROCESSOR;
+        if (CONDITIONAL_WORDS.findExact(text, 0, leadingWordEnd) >= 0) return Kind.CONDITIONAL;
+        if (LOOP_WORDS.findExact(text, 0, leadingWordEnd) >= 0) return Kind.LOOP;
+        if (TYPE_WORDS.findExact(text, 0, leadingWordEnd) >= 0) return Kind.DECLARATION;
+        if (first == '{' || first == '}') {
+            boolean onlyBraces = true;
+            for (int i = 0; i < text.length() && onlyBraces; i++) {
+                char c = text.charAt(i);
+                onlyBraces = c == '{' || c == '}' || Character.isWhitespace(c);
+            }
+            if (onlyBraces) return Kind.BLOCK;
+        }
+        return Kind.STATEMENT;
+    }
+
+    private static boolean isWordChar(char c, boolean first) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (!first && c >= '0' && c <= '9');
+    }
+
+    public RuleRegistry.Scope scope() {
+        return scope;
+    }
+
+    // Views into the source, valid while the rule runs; toString() to keep
+    public LineCursor.View raw() {
+        return raw;
+    }
+
+    public LineCursor.View text() {
+        return text;
+    }
+
+    public int number() {
+        return number;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    // Whether the line starts with an identifier or keyword
+    public boolean hasLeadingWord() {
+        return leadingWordEnd > 0;
+    }
+
+    public Ast ast() {
+        return ast;
+    }
+
+    // FUNCTION node whose body this line is in, or -1 at top level
+    public int function() {
+        return function;
+    }
+
+    // Whether the line has part of a function header on it: its return
+    // type, name or parameters, up to the body's '{'
+    public boolean isFunctionHeader() {
+        return header;
+    }
+
+    public int statementCount() {
+        return statementEnd - firstStatement;
+    }
+
+    // k-th statement node starting on this line
+    public int statement(int k) {
+        return ast.statement(firstStatement + k);
+    }
+
+    // Whether the trimmed text contains any of the given characters
+    public boolean containsAny(String chars) {
+        for (int i = 0; i < text.length(); i++) {
+            if (chars.indexOf(text.charAt(i)) >= 0) return true;
+        }
+        return false;
+    }
+
+    public boolean contains(char c) {
+        return text.contains(c);
+    }
+
+    // Stops the rules after the current one from running on this line
+    public void skipRemaining() {
+        skipRemaining = true;
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.*;
+
+// Linear-scan register allocation (Poletto and Sarkar) for X86Compiler.
+//
+// Every virtual register has a single live interval [start, end] over
+// instruction positions, without holes, and a class: general purpose or
+// SSE. Intervals are visited in order of start. The ones still live sit in
+// an active list sorted by end, and an interval that ends before the next
+// one starts gives its register back. When no register of the class is
+// free, the cheapest interval to keep in memory is spilled for its whole
+// life: the current one, or an active one whose register the current one
+// could use. Cheapest means the lowest spill weight, the interval's spill
+// cost (its definitions and uses, each counted 10^loop depth) divided by
+// its length, so a long interval that is rarely used goes first and a
+// short one inside a loop stays in a register.
+//
+// An interval live across a call may only take a register the callee
+// preserves. System V preserves no SSE register, so a double live across
+// a call is always spilled. Spill slots are reused once their interval
+// has ended.
+//
+// A free register is picked by hint first: the register an argument or
+// parameter moves to or from, or the register of the interval a move
+// copies from when that interval ends at the move. Either way the move
+// becomes a move of a register to itself, which the peephole pass drops.
+final class LinearScan {
+    // Locations: a register number, or a spill slot encoded as -(slot + 1);
+    // Integer.MIN_VALUE until the interval is allocated
+    final int[] locations;
+    // Spill slots the frame needs
+    int slots;
+    // Intervals that were spilled
+    int spills;
+    // Bit r is set when register r was handed out
+    long usedRegisters;
+
+    private final int[] starts;
+    private final int[] ends;
+    private final double[] costs;
+    private final boolean[] crossesCall;
+    private final int[] classes;
+    private final int[][] volatileRegisters;
+    private final int[][] preservedRegisters;
+    // Preferred register of each interval, or the interval whose register
+    // is preferred; -1 for none
+    private final int[] hints;
+    private final int[] hintIntervals;
+
+    // starts[v] < 0 for a virtual register that is never used. The
+    // register lists are by class, in the order they are preferred.
+    LinearScan(int[] starts, int[] ends, double[] costs, boolean[] crossesCall, int[] classes,
+               int[][] volatileRegisters, int[][] preservedRegisters, int[] hints, int[] hintIntervals) {
+        this.starts = starts;
+        this.ends = ends;
+        this.costs = costs;
+        this.crossesCall = crossesCall;
+        this.classes = classes;
+        this.volatileRegisters = volatileRegisters;
+        this.preservedRegisters = preservedRegisters;
+        this.hints = hints;
+        this.hintIntervals = hintIntervals;
+        locations = new int[starts.length];
+        Arrays.fill(locations, Integer.MIN_VALUE);
+    }
+
+    LinearScan run() {
+        Integer[] order = new Integer[starts.length];
+        int count = 0;
+        for (int v = 0; v < starts.length; v++) {
+            if (starts[v] >= 0) order[count++] = v;
+        }
+        Arrays.sort(order, 0, count, (a, b) -> starts[a] != starts[b] ? Integer.compare(starts[a], starts[b])
+            : Integer.compare(ends[a], ends[b]));
+
+        boolean[] free = new boolean[64];
+        for (int[][] pool : new int[][][] {volatileRegisters, preservedRegisters}) {
+            for (int[] registers : pool) {
+                for (int r : registers) free[r] = true;
+            }
+        }
+        List<Integer> active = new ArrayList<>();
+        List<Integer> spilled = new ArrayList<>();
+        Deque<Integer> freeSlots = new ArrayDeque<>();
+
+        for (int k = 0; k < count; k++) {
+            int v = order[k];
+            // Expire what ended before v starts
+            while (!active.isEmpty() && ends[active.get(0)] < starts[v]) {
+                free[locations[active.remove(0)]] = true;
+            }
+            for (Iterator<Integer> it = spilled.iterator(); it.hasNext(); ) {
+                int u = it.next();
+                if (ends[u] < starts[v]) {
+                    freeSlots.push(-locations[u] - 1);
+                    it.remove();
+                }
+            }
+
+            int register = pick(v, free);
+            if (register >= 0) {
+                assign(v, register, free, active);
+                continue;
+            }
+            // Nothing free: spill whichever of v and the active intervals
+            // holding a register v may use weighs least
+            int victim = -1;
+            for (int u : active) {
+                if (classes[u] != classes[v] || !allowed(v, locations[u])) continue;
+                if (victim < 0 || weight(u) < weight(victim)) victim = u;
+            }
+            if (victim >= 0 && weight(victim) < weight(v)) {
+                register = locations[victim];
+                active.remove((Integer) victim);
+                spill(victim, spilled, freeSlots);
+                assign(v, register, free, active);
+            } else {
+                spill(v, spilled, freeSlots);
+            }
+        }
+        return this;
+    }
+
+    private double weight(int v) {
+        return costs[v] / (ends[v] - starts[v] + 1);
+    }
+
+    private boolean allowed(int v, int register) {
+        for (int r : preservedRegisters[classes[v]]) {
+            if (r == register) return true;
+        }
+        return !crossesCall[v];
+    }
+
+    // A free register for v: its hint, then a volatile one, unless v is
+    // live across a call, since a preserved one costs a save and a restore
+    private int pick(int v, boolean[] free) {
+        int hint = hints[v];
+        if (hint < 0 && hintIntervals[v] >= 0) hint = locations[hintIntervals[v]];
+        if (hint >= 0 && free[hint] && allowed(v, hint)) return hint;
+        if (!crossesCall[v]) {
+            for (int r : volatileRegisters[classes[v]]) {
+                if (free[r]) return r;
+            }
+        }
+        for (int r : preservedRegisters[classes[v]]) {
+            if (free[r]) return r;
+        }
+        return -1;
+    }
+
+    private void assign(int v, int register, boolean[] free, List<Integer> active) {
+        locations[v] = register;
+        free[register] = false;
+        usedRegisters |= 1L << register;
+        int at = 0;
+        while (at < active.size() && ends[active.get(at)] <= ends[v]) at++;
+        active.add(at, v);
+    }
+
+    private void spill(int v, List<Integer> spilled, Deque<Integer> freeSlots) {
+        int slot = freeSlots.isEmpty() ? slots++ : freeSlots.pop();
+        locations[v] = -slot - 1;
+        spilled.add(v);
+        spills++;
+    }
+}
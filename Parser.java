@@ -0,0 +1,1089 @@
+import java.util.*;
+
+// Recursive-descent parser for the W++ / C++ subset the analyzer accepts:
+// functions, declarations, blocks, if/else, for/while/do, return, break,
+// continue and expressions with the usual C++ precedence.
+//
+// It reads the Lexer's TokenStream directly, in one left to right pass
+// with a single token of lookahead (two to tell "Type name" from an
+// expression), and writes the tree straight into an Ast. Statements can
+// span any number of lines; nothing looks at line breaks except the
+// missing-semicolon check, which needs to know whether the next token is
+// still on the same line.
+//
+// Syntax errors are recorded on the Ast rather than thrown. After one, the
+// rest of the statement is skipped quietly (up to a ';', a brace or the
+// end of the line), so one typo gives one error. Characters the lexer
+// could not classify (@, $, unterminated literals, ...) are never parse
+// errors: the line rules already report those, so the parser just skips
+// to the end of the statement.
+public final class Parser {
+    // Words are tested by their SymbolPool ids: a word set is a flag per
+    // seeded id and a keyword is a constant
+    private static final boolean[] TYPE_WORDS = SymbolPool.wordSet("int", "float", "double", "char", "bool",
+            "long", "short", "unsigned", "signed", "string", "void", "auto", "size_t");
+    private static final boolean[] QUALIFIERS = SymbolPool.wordSet("const", "static", "constexpr", "volatile",
+            "extern", "inline", "register");
+    // Definitions we don't model; they are skipped as a whole
+    private static final boolean[] SKIPPED = SymbolPool.wordSet("struct", "class", "enum", "union", "namespace",
+            "typedef", "template", "using");
+    private static final int IF = SymbolPool.seeded("if");
+    private static final int ELSE = SymbolPool.seeded("else");
+    private static final int WHILE = SymbolPool.seeded("while");
+    private static final int DO = SymbolPool.seeded("do");
+    private static final int FOR = SymbolPool.seeded("for");
+    private static final int RETURN = SymbolPool.seeded("return");
+    private static final int BREAK = SymbolPool.seeded("break");
+    private static final int CONTINUE = SymbolPool.seeded("continue");
+    private static final int VOID = SymbolPool.seeded("void");
+    private static final int TRUE = SymbolPool.seeded("true");
+    private static final int FALSE = SymbolPool.seeded("false");
+    private static final int STD = SymbolPool.seeded("std");
+    private static final int MAIN = SymbolPool.seeded("main");
+
+    // Tokens a reparse may parse or replace before it gives up for a full
+    // parse, whatever the size of the file
+    private static final int REPARSE_BUDGET = 4096;
+    // How deep statements and expressions may nest before the rest of the
+    // construct is skipped: a parenthesis costs four levels, a block one.
+    // Keeps the recursive descent well inside a thread's default stack.
+    private static final int MAX_NESTING = 256;
+
+    private final TokenStream tokens;
+    // End of input: the size of the stream, except during a reparse
+    // attempt, which sees its budget run out as the end
+    private int count;
+    private final Ast ast;
+    private int pos;
+    // An error was reported in the current statement; stay quiet until it ends
+    private boolean panic;
+    // Where the statement being parsed started; problems are filed under it
+    private int anchor;
+    // Tokens a reparse may still parse or replace before a full parse is
+    // the cheaper way; negative once it ran out
+    private int budget;
+    // Open statement() and expression level calls; a reparse starts from
+    // its container's depth in the tree, which is never less
+    private int nesting;
+    // Something nested past MAX_NESTING was skipped, in this parse and in
+    // the current top-level statement, which reports it only once
+    private boolean skippedNested;
+    private boolean reportedNesting;
+
+    private Parser(TokenStream tokens) {
+        this.tokens = tokens;
+        this.count = tokens.size();
+        this.ast = new Ast(tokens);
+    }
+
+    // For a reparse of ast after its token stream changed
+    private Parser(Ast ast) {
+        this.tokens = ast.tokens();
+        this.count = tokens.size();
+        this.ast = ast;
+    }
+
+    public static Ast parse(TokenStream tokens) {
+        Parser parser = new Parser(tokens);
+        parser.program();
+        return parser.ast;
+    }
+
+    // "unsigned int", "long long", "string": the type's words without
+    // qualifiers or a std:: prefix
+    public static String typeName(Ast ast, int type) {
+        TokenStream tokens = ast.tokens();
+        StringBuilder name = new StringBuilder();
+        for (int i = ast.firstToken(type); i <= ast.lastToken(type); i++) {
+            int symbol = tokens.symbol(i);
+            if (SymbolPool.in(QUALIFIERS, symbol) || symbol == STD || tokens.textEquals(i, ":")) continue;
+            if (!tokens.textEquals(i, "*") && !tokens.textEquals(i, "&") && name.length() > 0) {
+                name.append(' ');
+            }
+            name.append(tokens.source(), tokens.start(i), tokens.end(i));
+        }
+        return name.toString();
+    }
+
+    // typeName as an id in the tree's SymbolPool. A plain one-word type is
+    // its token's id, so only multi-word types build a String.
+    public static int typeSymbol(Ast ast, int type) {
+        TokenStream tokens = ast.tokens();
+        int first = ast.firstToken(type);
+        int symbol = first == ast.lastToken(type) ? tokens.symbol(first) : -1;
+        if (symbol >= 0 && !SymbolPool.in(QUALIFIERS, symbol) && symbol != STD) {
+            return symbol;
+        }
+        return tokens.pool().intern(typeName(ast, type));
+    }
+
+    // ===== INCREMENTAL REPARSE =====
+
+    // Brings ast up to date after its token stream was edited: old tokens
+    // [lo, lo + removed) were replaced by new tokens [lo, lo + added), the
+    // tokens after them are unchanged apart from their index and line.
+    //
+    // Only statements are reparsed, and only inside one container: the
+    // innermost block (or the program) that contains the edit with a token
+    // to spare on each side. A statement is reparsed if it starts at or
+    // after the edit, or ends so close before it that parsing it looked at
+    // an edited token (the parser peeks at most two tokens past a statement
+    // and one before it). Parsing starts after the last statement that is
+    // safe and goes on until it reaches, past the edit, a place where an
+    // old statement of the container started, with the token before it
+    // unchanged: from there the old parse would go the same way, so the
+    // old statements are kept. When the new statements run past the
+    // container's closing brace instead (a brace was typed or deleted),
+    // the attempt is thrown away and the next enclosing block is tried,
+    // the program last, which always works.
+    //
+    // The attempts share a budget of REPARSE_BUDGET tokens: each spends
+    // what it parsed, and sees the end of input where the budget runs out.
+    // When the edit relexed more tokens than that, or an attempt reaches
+    // that end or would replace more old tokens, the reparse gives up and
+    // returns null, leaving the tree as it was. An edit that reshapes that
+    // much of the file (an unclosed comment, a brace that reparents the
+    // statements after it) is cheaper to follow with one full parse, and
+    // with a budget that doesn't grow with the file, finding that out
+    // costs a small part of one.
+    //
+    // Code nested past MAX_NESTING makes the reparse give up the same way:
+    // where a full parse starts skipping depends on all of the nesting,
+    // not just on the region.
+    //
+    // The result is the same tree a full parse would build, in the sense
+    // of the accessors: the same structure, spans, statements() and
+    // problems(), with the replaced nodes left unreachable in the arrays.
+    static IncrementalParser.Change reparse(Ast ast, int lo, int removed, int added) {
+        ast.makeIncremental();
+        Parser parser = new Parser(ast);
+        int delta = added - removed;
+        int oldCount = parser.count - delta;
+        int hiOld = lo + removed; // first old token after the edit
+        int sizeMark = ast.size();
+        int statementsMark = ast.statementsMark();
+        int problemsMark = ast.problemsMark();
+
+        int last = lastStatementBefore(ast, lo - 1);
+        int container = enclosingBlock(ast, last >= 0 ? ast.statement(last) : -1, lo, hiOld, oldCount);
+        parser.budget = REPARSE_BUDGET;
+        if (removed > parser.budget || added > parser.budget) return null;
+        while (true) {
+            IncrementalParser.Change change = parser.reparseIn(container, lo, hiOld, delta, oldCount,
+                sizeMark, statementsMark, problemsMark);
+            if (change != null) return change;
+            ast.truncate(sizeMark, statementsMark, problemsMark);
+            if (parser.budget < 0) return null;
+            container = enclosingBlock(ast, ast.parent(container), lo, hiOld, oldCount);
+        }
+    }
+
+    private IncrementalParser.Change reparseIn(int container, int lo, int hiOld, int delta, int oldCount,
+                                               int sizeMark, int statementsMark, int problemsMark) {
+        boolean topLevel = container == ast.root();
+        int stop = stop(ast, container, oldCount);
+        int before = safeChild(ast, container, lo);
+        int regionStart = before >= 0 ? ast.lastToken(before) + 1 : topLevel ? 0 : ast.firstToken(container) + 1;
+
+        // Old children of the container not yet passed by the new parse;
+        // next is the first, and boundary the token its statement() call
+        // started at
+        int next = before >= 0 ? ast.nextSibling(before) : ast.firstChild(container);
+        int boundary = regionStart;
+        int[] children = new int[8];
+        int childCount = 0;
+        int size = tokens.size();
+        count = Math.min(size, regionStart + budget);
+        pos = regionStart;
+        nesting = 0;
+        for (int node = container; node != ast.root(); node = ast.parent(node)) nesting++;
+        while (true) {
+            while (next >= 0 && (boundary <= hiOld || boundary + delta < pos)) {
+                boundary = ast.lastToken(next) + 1;
+                next = ast.nextSibling(next);
+            }
+            // Closer than the parser peeks to where the budget ends, the
+            // last statement may already have been cut short
+            if (count < size && pos + 2 >= count || boundary - regionStart > budget) {
+                count = size;
+                budget = -1;
+                return null;
+            }
+            if (next >= 0 && boundary > hiOld && boundary + delta == pos) break;
+            if (pos >= count || !topLevel && is("}")) {
+                if (pos != stop + delta) return failed(regionStart);
+                boundary = stop;
+                break;
+            }
+            if (pos > stop + delta) return failed(regionStart);
+            if (is("}")) {
+                unmatchedBrace();
+                continue;
+            }
+            if (childCount == children.length) children = Arrays.copyOf(children, childCount * 2);
+            children[childCount++] = statement(topLevel);
+            // Where the full parse starts to skip depends on more than the
+            // region; let it find out
+            if (skippedNested) {
+                count = size;
+                budget = -1;
+                return null;
+            }
+        }
+        count = size;
+
+        // Swap the region [regionStart, boundary) of the old tree for the
+        // new statements, then move everything after the edit. A region
+        // that reaches the end of input also owns what the old parse put
+        // there: the empty statements and problems at token oldCount.
+        int regionEnd = boundary >= oldCount ? oldCount : boundary - 1;
+        int from = ast.statementAtOrAfter(regionStart, statementsMark);
+        int to = ast.statementAtOrAfter(regionEnd + 1, statementsMark);
+        ast.replaceStatements(from, to, statementsMark);
+        ast.replaceProblems(regionStart, regionEnd, problemsMark, hiOld, delta);
+        int removedChildren = 0;
+        for (int child = before >= 0 ? ast.nextSibling(before) : ast.firstChild(container); child != next;
+                child = ast.nextSibling(child)) {
+            ast.kill(child);
+            removedChildren++;
+        }
+        ast.shiftTokens(hiOld, delta, sizeMark, container);
+        if (ast.firstToken(ast.root()) != 0) ast.setFirstToken(ast.root(), 0);
+        if (ast.lastToken(ast.root()) != count - 1) ast.finish(ast.root(), count - 1);
+        ast.replaceChildren(container, before, next, children, childCount);
+        return new IncrementalParser.Change(ast, container, sizeMark, ast.size(), removedChildren,
+            regionStart, pos - 1, topLevel && before < 0 && next < 0);
+    }
+
+    // An attempt that ran past its container: what it parsed is spent
+    private IncrementalParser.Change failed(int regionStart) {
+        count = tokens.size();
+        budget -= pos - regionStart;
+        return null;
+    }
+
+    // Index of the last statement starting before token, or -1
+    private static int lastStatementBefore(Ast ast, int token) {
+        return ast.statementAtOrAfter(token, ast.statementsMark()) - 1;
+    }
+
+    // The innermost block at or above node that holds the edit with an
+    // unchanged token on each side; the program when there is none
+    private static int enclosingBlock(Ast ast, int node, int lo, int hiOld, int oldCount) {
+        for (; node >= 0 && node != ast.root(); node = ast.parent(node)) {
+            if (ast.kind(node) == Ast.Kind.BLOCK && ast.firstToken(node) < lo - 1
+                    && stop(ast, node, oldCount) > hiOld) {
+                return node;
+            }
+        }
+        return ast.root();
+    }
+
+    // Where the container's statement loop ended: its closing brace, or
+    // the end of input for the program and an unterminated block
+    private static int stop(Ast ast, int container, int count) {
+        if (container == ast.root()) return count;
+        int last = ast.lastToken(container);
+        int lastChild = ast.lastChild(container);
+        boolean closed = last > ast.firstToken(container) && (lastChild < 0 || ast.lastToken(lastChild) < last);
+        return closed ? last : count;
+    }
+
+    // The last child of container that parses the same after the edit at
+    // lo: it ends at least two tokens before the one before the edit, so
+    // nothing it read changed. -1 when there is none.
+    private static int safeChild(Ast ast, int container, int lo) {
+        int child = childHolding(ast, container, lastStatementBefore(ast, lo - 3));
+        if (child < 0 || ast.lastToken(child) + 2 < lo - 1) return child;
+        return childHolding(ast, container, lastStatementBefore(ast, ast.firstToken(child)));
+    }
+
+    // The child of container that the statement at index statement is or
+    // is inside, or -1
+    private static int childHolding(Ast ast, int container, int statement) {
+        if (statement < 0) return -1;
+        int node = ast.statement(statement);
+        while (node >= 0 && ast.parent(node) != container) {
+            node = ast.parent(node);
+        }
+        return node;
+    }
+
+    // ===== STATEMENTS =====
+
+    private void program() {
+        int root = ast.add(Ast.Kind.PROGRAM, -1, 0);
+        while (pos < count) {
+            if (is("}")) {
+                unmatchedBrace();
+                continue;
+            }
+            ast.addChild(root, statement(true));
+        }
+        ast.finish(root, count - 1);
+    }
+
+    private void unmatchedBrace() {
+        anchor = pos;
+        report("unmatched-brace", pos, "Error - Unmatched closing brace '}'.");
+        pos++;
+    }
+
+    private int statement(boolean topLevel) {
+        int outerAnchor = anchor;
+        anchor = pos;
+        if (nesting == 0) reportedNesting = false;
+        int node = ++nesting > MAX_NESTING ? nestedStatement() : statementAt(topLevel);
+        nesting--;
+        anchor = outerAnchor;
+        return node;
+    }
+
+    private int statementAt(boolean topLevel) {
+        panic = false;
+        skipDirectives();
+        // Parse what follows a stray 'else' so the rest of the program
+        // still lines up; a loop, so a run of them doesn't nest
+        while (isSymbol(ELSE)) {
+            report("else-without-if", pos, "Error - 'else' without matching 'if'.");
+            pos++;
+            anchor = pos;
+            panic = false;
+            skipDirectives();
+        }
+        if (pos >= count) {
+            return ast.add(Ast.Kind.EMPTY, -1, pos);
+        }
+        int start = pos;
+        int node;
+        if (is("{")) {
+            node = block();
+        } else if (is(";")) {
+            node = ast.addStatement(Ast.Kind.EMPTY, -1, pos);
+            ast.finish(node, pos++);
+        } else if (isSymbol(IF)) {
+            node = ifStatement();
+        } else if (isSymbol(WHILE)) {
+            node = whileStatement();
+        } else if (isSymbol(DO)) {
+            node = doStatement();
+        } else if (isSymbol(FOR)) {
+            node = forStatement();
+        } else if (isSymbol(RETURN)) {
+            node = ast.addStatement(Ast.Kind.RETURN, pos, pos);
+            pos++;
+            if (!is(";") && !endsStatement()) {
+                ast.addChild(node, expression());
+            }
+            endStatement(node);
+        } else if (isSymbol(BREAK) || isSymbol(CONTINUE)) {
+            node = ast.addStatement(isSymbol(BREAK) ? Ast.Kind.BREAK : Ast.Kind.CONTINUE, pos, pos);
+            pos++;
+            endStatement(node);
+        } else if (isOneOf(SKIPPED, pos)) {
+            node = ast.addStatement(Ast.Kind.EMPTY, pos, pos);
+            skipDefinition();
+            ast.finish(node, pos - 1);
+        } else if (isTypeStart()) {
+            node = declarationOrFunction(topLevel);
+        } else {
+            node = ast.addStatement(Ast.Kind.EXPRESSION, -1, pos);
+            ast.addChild(node, expression());
+            endStatement(node);
+        }
+        if (pos == start) {
+            pos++; // always make progress, whatever the input
+            ast.finish(node, start);
+        }
+        return node;
+    }
+
+    // A statement nested past MAX_NESTING: reported, and skipped up to its
+    // ';' or the end of its block without recursing
+    private int nestedStatement() {
+        int start = pos;
+        int node = ast.addStatement(Ast.Kind.EMPTY, pos, pos);
+        reportNesting();
+        skipNested();
+        accept(";");
+        if (pos == start) pos++; // progress, as in statementAt
+        ast.finish(node, pos - 1);
+        return node;
+    }
+
+    private void reportNesting() {
+        if (!reportedNesting) report("nesting-depth", pos, "Error - Code nested too deeply to analyze.");
+        reportedNesting = true;
+        panic = true;
+        skippedNested = true;
+    }
+
+    // Skips the construct at pos, brackets balanced, up to a ';' or ','
+    // or a closing bracket it didn't open; a block it opened is skipped
+    // to its '}'
+    private void skipNested() {
+        int depth = 0;
+        while (pos < count) {
+            char c = tokens.length(pos) == 1 ? tokens.charAt(pos, 0) : 0;
+            if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == ']' || c == '}') {
+                if (depth == 0) return;
+                if (--depth == 0 && c == '}') {
+                    pos++;
+                    return;
+                }
+            } else if (depth == 0 && (c == ';' || c == ',')) {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    // Preprocessor lines are not part of the grammar: skip every token on a
+    // line that starts with '#'
+    private void skipDirectives() {
+        while (pos < count && is("#") && (pos == 0 || tokens.line(pos - 1) != tokens.line(pos))) {
+            int line = tokens.line(pos);
+            while (pos < count && tokens.line(pos) == line) pos++;
+        }
+    }
+
+    private int block() {
+        int node = ast.addStatement(Ast.Kind.BLOCK, pos, pos);
+        pos++;
+        while (pos < count && !is("}")) {
+            ast.addChild(node, statement(false));
+        }
+        // A block left open at the end of input is reported by the main()
+        // brace check, not here
+        if (is("}")) pos++;
+        ast.finish(node, pos - 1);
+        return node;
+    }
+
+    private int ifStatement() {
+        int node = ast.addStatement(Ast.Kind.IF, pos, pos);
+        int ifToken = pos++;
+        int condition;
+        if (accept("(")) {
+            condition = is(")") ? ast.add(Ast.Kind.EMPTY, -1, pos) : expression();
+            expect(")", "after the if condition");
+        } else {
+            report("if-parentheses", ifToken, "Syntax error - 'if' missing parentheses.");
+            panic = true;
+            condition = endsStatement() || isSymbol(ELSE) ? ast.add(Ast.Kind.EMPTY, -1, pos) : expression();
+        }
+        ast.addChild(node, condition);
+        ast.addChild(node, isSymbol(ELSE) || is("}") || pos >= count
+            ? ast.add(Ast.Kind.EMPTY, -1, pos) : statement(false));
+        if (isSymbol(ELSE)) {
+            int elseNode = ast.add(Ast.Kind.ELSE, pos, pos);
+            pos++;
+            ast.addChild(elseNode, statement(false));
+            ast.finish(elseNode, pos - 1);
+            ast.addChild(node, elseNode);
+        }
+        ast.finish(node, pos - 1);
+        return node;
+    }
+
+    private int whileStatement() {
+        int node = ast.addStatement(Ast.Kind.WHILE, pos, pos);
+        pos++;
+        ast.addChild(node, parenthesizedCondition("while"));
+        ast.addChild(node, statement(false));
+        ast.finish(node, pos - 1);
+        return node;
+    }
+
+    private int doStatement() {
+        int node = ast.addStatement(Ast.Kind.DO, pos, pos);
+        pos++;
+        ast.addChild(node, statement(false));
+        panic = false;
+        if (expect("while", "after the do body")) {
+            ast.addChild(node, parenthesizedCondition("while"));
+        } else {
+            ast.addChild(node, ast.add(Ast.Kind.EMPTY, -1, pos));
+        }
+        endStatement(node);
+        return node;
+    }
+
+    private int parenthesizedCondition(String keyword) {
+        if (!expect("(", "after '" + keyword + "'")) {
+            return endsStatement() ? ast.add(Ast.Kind.EMPTY, -1, pos) : expression();
+        }
+        int condition = is(")") ? ast.add(Ast.Kind.EMPTY, -1, pos) : expression();
+        expect(")", "after the " + keyword + " condition");
+        return condition;
+    }
+
+    private int forStatement() {
+        int node = ast.addStatement(Ast.Kind.FOR, pos, pos);
+        pos++;
+        expect("(", "after 'for'");
+
+        int init;
+        boolean rangeFor = false;
+        if (is(";")) {
+            init = ast.add(Ast.Kind.EMPTY, -1, pos);
+        } else if (isTypeStart()) {
+            init = ast.addStatement(Ast.Kind.DECLARATION, -1, pos);
+            ast.addChild(init, type());
+            declarators(init, true);
+            ast.finish(init, pos - 1);
+            rangeFor = is(":");
+        } else {
+            init = ast.addStatement(Ast.Kind.EXPRESSION, -1, pos);
+            ast.addChild(init, expression());
+            ast.finish(init, pos - 1);
+        }
+        ast.addChild(node, init);
+
+        if (rangeFor) {
+            // for (int x : values): the range goes in the condition slot
+            pos++;
+            ast.addChild(node, expression());
+            ast.addChild(node, ast.add(Ast.Kind.EMPTY, -1, pos));
+        } else {
+            expect(";", "after the for initializer");
+            ast.addChild(node, is(";") ? ast.add(Ast.Kind.EMPTY, -1, pos) : expression());
+            expect(";", "after the for condition");
+            ast.addChild(node, is(")") ? ast.add(Ast.Kind.EMPTY, -1, pos) : expression());
+        }
+        expect(")", "after the for header");
+        ast.addChild(node, statement(false));
+        ast.finish(node, pos - 1);
+        return node;
+    }
+
+    // "int x = 1, y;" or "int main() { ... }"
+    private int declarationOrFunction(boolean topLevel) {
+        int first = pos;
+        int type = type();
+        if (isWord(pos) && pos + 1 < count && is(pos + 1, "(") && (topLevel || looksLikeParameters(pos + 2))) {
+            return function(first, type);
+        }
+        int node = ast.addStatement(Ast.Kind.DECLARATION, -1, first);
+        ast.addChild(node, type);
+        if (is(";")) {
+            report("missing-name", first, "Error - Declaration of '" + typeName(ast, type) + "' without variable name.");
+        } else {
+            declarators(node, false);
+        }
+        endStatement(node);
+        return node;
+    }
+
+    // Inside a function, "int x(5);" is a declaration; "int f();" and
+    // "int f(int a)" are not
+    private boolean looksLikeParameters(int i) {
+        return i < count && (is(i, ")") || isTypeWord(i) || isOneOf(QUALIFIERS, i) || isSymbol(i, STD));
+    }
+
+    private void declarators(int declaration, boolean forInit) {
+        do {
+            // "int a, int b": the repeated type is reported by the
+            // multiple-types rule, so just step over it
+            while (pos < count && isTypeWord(pos) && pos + 1 < count && isWord(pos + 1)) pos++;
+            if (!isNameStart(pos)) {
+                if (!endsStatement() && !is(";")) expected("a variable name");
+                return;
+            }
+            int declarator = ast.add(Ast.Kind.DECLARATOR, -1, pos);
+            // The name is every word or number glued together, so "9x"
+            // stays one (invalid) name instead of a number and a name
+            int name = ast.add(Ast.Kind.NAME, pos, pos);
+            pos++;
+            while (pos < count && isWordOrNumber(pos) && tokens.start(pos) == tokens.end(pos - 1)) pos++;
+            ast.finish(name, pos - 1);
+            ast.addChild(declarator, name);
+            while (accept("[")) {
+                if (!is("]")) expression();
+                expect("]", "after the array size");
+            }
+            if (is("=")) {
+                int equals = pos++;
+                ast.addChild(declarator, initializer(equals));
+            } else if (is("(") && !forInit) {
+                // int x(5);
+                pos++;
+                ast.addChild(declarator, is(")") ? ast.add(Ast.Kind.EMPTY, -1, pos) : expression());
+                expect(")", "after the initializer");
+            }
+            ast.finish(declarator, pos - 1);
+            ast.addChild(declaration, declarator);
+        } while (accept(","));
+    }
+
+    private int initializer(int equals) {
+        if (is(";") || is(",") || is(")") || endsStatement()) {
+            report("empty-initializer", equals, "Syntax error - empty initialization or assignment (missing right-hand side).");
+            return ast.add(Ast.Kind.ERROR, -1, pos);
+        }
+        return assignment();
+    }
+
+    private int function(int first, int type) {
+        int node = ast.addStatement(Ast.Kind.FUNCTION, pos, first);
+        ast.addChild(node, type);
+        int nameToken = pos;
+        pos += 2; // name and '('
+        if (isSymbol(VOID) && pos + 1 < count && is(pos + 1, ")")) pos++;
+        while (pos < count && !is(")") && !is("{") && !is(";")) {
+            int param = ast.add(Ast.Kind.PARAM, -1, pos);
+            ast.addChild(param, type());
+            if (isWord(pos) && !isTypeWord(pos)) {
+                ast.setToken(param, pos++);
+            }
+            while (accept("[")) {
+                while (pos < count && !is("]") && !is(")")) pos++;
+                accept("]");
+            }
+            ast.finish(param, pos - 1);
+            ast.addChild(node, param);
+            if (!accept(",")) break;
+        }
+        expect(")", "after the parameter list");
+        if (is("{")) {
+            ast.addChild(node, block());
+        } else if (!accept(";") && tokens.symbol(nameToken) != MAIN) {
+            // main() gets its own, more specific brace messages
+            report("function-open-brace", nameToken,
+                "Error - Missing opening brace '{' for function '" + tokens.textString(nameToken) + "'.");
+        }
+        ast.finish(node, pos - 1);
+        return node;
+    }
+
+    private int type() {
+        int node = ast.add(Ast.Kind.TYPE, -1, pos);
+        boolean sawType = false;
+        while (pos < count) {
+            if (isSymbol(STD) && pos + 2 < count && is(pos + 1, ":") && is(pos + 2, ":")) {
+                pos += 3;
+                continue;
+            }
+            if (isOneOf(QUALIFIERS, pos)) {
+                pos++;
+            } else if (isTypeWord(pos)) {
+                sawType = true;
+                pos++;
+            } else if (!sawType && tokens.kind(pos) == TokenKind.IDENTIFIER) {
+                // A type we don't know ("Int", "vector"): one word
+                sawType = true;
+                pos++;
+                break;
+            } else {
+                break;
+            }
+        }
+        while (is("*") || is("&")) pos++;
+        ast.finish(node, pos - 1);
+        return node;
+    }
+
+    // Skips a struct/class/enum/namespace/using/... up to its ';' or the
+    // end of its body
+    private void skipDefinition() {
+        int depth = 0;
+        while (pos < count) {
+            if (is("{")) {
+                depth++;
+            } else if (is("}")) {
+                if (depth == 0) return;
+                depth--;
+                if (depth == 0) {
+                    pos++;
+                    accept(";");
+                    return;
+                }
+            } else if (is(";") && depth == 0) {
+                pos++;
+                return;
+            }
+            pos++;
+        }
+    }
+
+    // Every statement that can end with ';' comes through here
+    private void endStatement(int node) {
+        if (accept(";")) {
+            ast.finish(node, pos - 1);
+            return;
+        }
+        int last = pos - 1;
+        if (!panic && pos < count && !is("}") && last >= 0 && tokens.line(pos) == tokens.line(last)) {
+            if (tokens.kind(pos) != TokenKind.UNKNOWN) {
+                report("unexpected-token", pos, "Syntax error - unexpected '" + text(pos) + "'.");
+            }
+            panic = true;
+        }
+        if (panic) {
+            recover(last);
+            ast.finish(node, pos - 1);
+            return;
+        }
+        // The statement just stops: the next token is on a later line, or
+        // closes the block
+        report("missing-semicolon", Math.max(last, 0), "Error - Missing semicolon.");
+        ast.finish(node, last);
+    }
+
+    // Skips the rest of a broken statement: up to and including a ';' on
+    // the same line, stopping before braces and the next line
+    private void recover(int from) {
+        int line = from >= 0 && from < count ? tokens.line(from) : 0;
+        while (pos < count && tokens.line(pos) == line && !is("{") && !is("}")) {
+            if (is(";")) {
+                pos++;
+                return;
+            }
+            pos++;
+        }
+    }
+
+    // ===== EXPRESSIONS =====
+
+    // expression (',' expression)*
+    private int expression() {
+        int left = assignment();
+        while (is(",")) {
+            int op = pos++;
+            int node = ast.add(Ast.Kind.BINARY, op, ast.firstToken(left));
+            ast.addChild(node, left);
+            ast.addChild(node, assignment());
+            ast.finish(node, pos - 1);
+            left = node;
+        }
+        return left;
+    }
+
+    private int assignment() {
+        int node = ++nesting > MAX_NESTING ? nestedExpression() : assignmentAt();
+        nesting--;
+        return node;
+    }
+
+    private int assignmentAt() {
+        int left = conditional();
+        if (!isAssignmentOperator(pos)) return left;
+        int op = pos++;
+        int node = ast.add(Ast.Kind.ASSIGN, op, ast.firstToken(left));
+        ast.addChild(node, left);
+        ast.addChild(node, initializer(op));
+        ast.finish(node, pos - 1);
+        return node;
+    }
+
+    private boolean isAssignmentOperator(int i) {
+        if (i >= count) return false;
+        if (tokens.kind(i) == TokenKind.ASSIGNMENT_OPERATOR) return true;
+        // += -= *= /= %= &= |= ^= <<= >>=
+        return tokens.kind(i) == TokenKind.OPERATOR && tokens.length(i) >= 2
+            && tokens.charAt(i, tokens.length(i) - 1) == '=' && tokens.charAt(i, 0) != '=' && tokens.charAt(i, 0) != '!';
+    }
+
+    private int conditional() {
+        int node = ++nesting > MAX_NESTING ? nestedExpression() : conditionalAt();
+        nesting--;
+        return node;
+    }
+
+    private int conditionalAt() {
+        int condition = binary(1);
+        if (!is("?")) return condition;
+        pos++;
+        int node = ast.add(Ast.Kind.CONDITIONAL, -1, ast.firstToken(condition));
+        ast.addChild(node, condition);
+        ast.addChild(node, expression());
+        expect(":", "in the ?: expression");
+        ast.addChild(node, conditional());
+        ast.finish(node, pos - 1);
+        return node;
+    }
+
+    // Precedence climbing over the binary operators
+    private int binary(int minPrecedence) {
+        int left = unary();
+        while (true) {
+            int precedence = binaryPrecedence(pos);
+            if (precedence < minPrecedence) return left;
+            int op = pos++;
+            int node = ast.add(Ast.Kind.BINARY, op, ast.firstToken(left));
+            ast.addChild(node, left);
+            if (is(";") || is(")") || is(",") || endsStatement()) {
+                report("dangling-operator", op, "Incomplete expression with dangling operator '" + text(op) + "'.");
+                ast.addChild(node, ast.add(Ast.Kind.ERROR, -1, pos));
+            } else {
+                ast.addChild(node, binary(precedence + 1));
+            }
+            ast.finish(node, pos - 1);
+            left = node;
+        }
+    }
+
+    private int binaryPrecedence(int i) {
+        if (i >= count) return -1;
+        char c = tokens.charAt(i, 0);
+        switch (tokens.kind(i)) {
+            case LOGICAL_OPERATOR:
+                return c == '|' ? 1 : 2;
+            case RELATIONAL_OPERATOR:
+                return c == '=' || c == '!' ? 6 : 7;
+            case ARITHMETIC_OPERATOR:
+                return c == '+' || c == '-' ? 9 : 10;
+            case OPERATOR:
+                if (tokens.length(i) == 1) return c == '|' ? 3 : c == '^' ? 4 : c == '&' ? 5 : -1;
+                return tokens.length(i) == 2 && (c == '<' || c == '>') && tokens.charAt(i, 1) == c ? 8 : -1;
+            default:
+                return -1;
+        }
+    }
+
+    private int unary() {
+        int node = ++nesting > MAX_NESTING ? nestedExpression() : unaryAt();
+        nesting--;
+        return node;
+    }
+
+    // An expression nested past MAX_NESTING, skipped like nestedStatement
+    private int nestedExpression() {
+        int node = ast.add(Ast.Kind.ERROR, -1, pos);
+        reportNesting();
+        int start = pos;
+        skipNested();
+        if (pos > start) ast.finish(node, pos - 1);
+        return node;
+    }
+
+    private int unaryAt() {
+        if (isPrefixOperator(pos)) {
+            int op = pos++;
+            int node = ast.add(Ast.Kind.UNARY, op, op);
+            if (is(";") || is(")") || endsStatement()) {
+                // "++;" is reported by the operators rule
+                panic = true;
+                ast.addChild(node, ast.add(Ast.Kind.ERROR, -1, pos));
+            } else {
+                ast.addChild(node, unary());
+            }
+            ast.finish(node, pos - 1);
+            return node;
+        }
+        return postfix(primary());
+    }
+
+    // ! - + ~ ++ -- * &
+    private boolean isPrefixOperator(int i) {
+        if (i >= count) return false;
+        TokenKind kind = tokens.kind(i);
+        char c = tokens.charAt(i, 0);
+        if (tokens.length(i) == 1) {
+            return (kind == TokenKind.ARITHMETIC_OPERATOR && c != '/' && c != '%')
+                || (kind == TokenKind.OPERATOR && (c == '!' || c == '&'))
+                || (kind == TokenKind.UNKNOWN && c == '~');
+        }
+        return kind == TokenKind.OPERATOR && tokens.length(i) == 2 && (c == '+' || c == '-') && tokens.charAt(i, 1) == c;
+    }
+
+    private int postfix(int operand) {
+        while (pos < count) {
+            int node;
+            if (is("++") || is("--")) {
+                node = ast.add(Ast.Kind.POSTFIX, pos, ast.firstToken(operand));
+                pos++;
+                ast.addChild(node, operand);
+            } else if (is("(")) {
+                node = ast.add(Ast.Kind.CALL, pos, ast.firstToken(operand));
+                pos++;
+                ast.addChild(node, operand);
+                while (pos < count && !is(")") && !endsStatement()) {
+                    ast.addChild(node, assignment());
+                    if (!accept(",")) break;
+                }
+                expect(")", "after the call arguments");
+            } else if (is("[")) {
+                node = ast.add(Ast.Kind.INDEX, pos, ast.firstToken(operand));
+                pos++;
+                ast.addChild(node, operand);
+                ast.addChild(node, expression());
+                expect("]", "after the index");
+            } else if ((is(".") || is("->")) && pos + 1 < count && isWord(pos + 1)) {
+                node = ast.add(Ast.Kind.MEMBER, pos + 1, ast.firstToken(operand));
+                pos += 2;
+                ast.addChild(node, operand);
+            } else {
+                return operand;
+            }
+            ast.finish(node, pos - 1);
+            operand = node;
+        }
+        return operand;
+    }
+
+    private int primary() {
+        int node = ++nesting > MAX_NESTING ? nestedExpression() : primaryAt();
+        nesting--;
+        return node;
+    }
+
+    private int primaryAt() {
+        if (pos >= count) {
+            expected("an expression");
+            return ast.add(Ast.Kind.ERROR, -1, pos);
+        }
+        TokenKind kind = tokens.kind(pos);
+        if (kind == TokenKind.NUMBER) {
+            // A suffix the lexer doesn't take ("5f", "10abc") is glued on;
+            // such a literal spans more than one token
+            int node = ast.add(Ast.Kind.LITERAL, pos, pos);
+            pos++;
+            while (pos < count && isWordOrNumber(pos) && tokens.start(pos) == tokens.end(pos - 1)) pos++;
+            ast.finish(node, pos - 1);
+            return node;
+        }
+        if (kind == TokenKind.STRING_LITERAL || kind == TokenKind.CHAR_LITERAL || isSymbol(TRUE) || isSymbol(FALSE)) {
+            int node = ast.add(Ast.Kind.LITERAL, pos, pos);
+            ast.finish(node, pos++);
+            return node;
+        }
+        if (is("(")) {
+            pos++;
+            int inner = expression();
+            expect(")", "to close the parenthesis");
+            return inner;
+        }
+        if (isWord(pos)) {
+            int node = ast.add(Ast.Kind.NAME, pos, pos);
+            pos++;
+            // std::cout
+            while (is(":") && pos + 2 < count && is(pos + 1, ":") && isWord(pos + 2)) {
+                ast.setToken(node, pos + 2);
+                pos += 3;
+            }
+            ast.finish(node, pos - 1);
+            return node;
+        }
+        if (kind == TokenKind.UNKNOWN) {
+            // Stray characters are the line rules' business. "@1" keeps the
+            // operand it is glued to, so the rest of the statement still
+            // parses and the declaration check sees the whole bad value
+            int node = ast.add(Ast.Kind.ERROR, pos, pos);
+            pos++;
+            if (pos < count && tokens.start(pos) == tokens.end(pos - 1) && startsOperand(pos)) {
+                ast.addChild(node, postfix(primary()));
+            } else {
+                panic = true;
+            }
+            ast.finish(node, pos - 1);
+            return node;
+        }
+        expected("an expression");
+        return ast.add(Ast.Kind.ERROR, -1, pos);
+    }
+
+    // ===== TOKENS =====
+
+    private String text(int i) {
+        return tokens.textString(i);
+    }
+
+    private boolean is(String text) {
+        return pos < count && tokens.textEquals(pos, text);
+    }
+
+    private boolean is(int i, String text) {
+        return tokens.textEquals(i, text);
+    }
+
+    private boolean isSymbol(int symbol) {
+        return pos < count && tokens.symbol(pos) == symbol;
+    }
+
+    private boolean isSymbol(int i, int symbol) {
+        return tokens.symbol(i) == symbol;
+    }
+
+    private boolean accept(String text) {
+        if (is(text)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean expect(String text, String where) {
+        if (accept(text)) return true;
+        expected("'" + text + "' " + where);
+        return false;
+    }
+
+    private void expected(String what) {
+        if (panic) return;
+        if (pos < count && tokens.kind(pos) == TokenKind.UNKNOWN) {
+            panic = true;
+            return;
+        }
+        String found = pos < count ? "'" + text(pos) + "'" : "end of input";
+        report("syntax-error", Math.min(pos, count - 1), "Syntax error - expected " + what + ", found " + found + ".");
+        panic = true;
+    }
+
+    private void report(String code, int token, String message) {
+        Diagnostic problem = token >= 0 && token < count
+            ? new Diagnostic(Diagnostic.Severity.ERROR, code, tokens.line(token), tokens.column(token),
+                tokens.length(token), message)
+            : Diagnostic.error(code, 0, message);
+        ast.problem(problem, token, pos, anchor);
+    }
+
+    // Nothing more on this statement's line can belong to it: end of
+    // input or a closing brace
+    private boolean endsStatement() {
+        return pos >= count || is("}");
+    }
+
+    private boolean isWord(int i) {
+        if (i >= count) return false;
+        TokenKind kind = tokens.kind(i);
+        return kind == TokenKind.IDENTIFIER || kind == TokenKind.DECLARATION;
+    }
+
+    private boolean isWordOrNumber(int i) {
+        return isWord(i) || tokens.kind(i) == TokenKind.NUMBER;
+    }
+
+    private boolean isTypeWord(int i) {
+        return isOneOf(TYPE_WORDS, i);
+    }
+
+    private boolean isOneOf(boolean[] words, int i) {
+        return isWord(i) && SymbolPool.in(words, tokens.symbol(i));
+    }
+
+    private boolean startsOperand(int i) {
+        TokenKind kind = tokens.kind(i);
+        return kind == TokenKind.NUMBER || kind == TokenKind.STRING_LITERAL || kind == TokenKind.CHAR_LITERAL
+            || isWord(i) || is(i, "(");
+    }
+
+    // A name, or a number glued to one ("9x"), which the declaration check
+    // then rejects with a better message than a parse error
+    private boolean isNameStart(int i) {
+        return isWord(i) || (i + 1 < count && tokens.kind(i) == TokenKind.NUMBER && isWord(i + 1)
+            && tokens.start(i + 1) == tokens.end(i));
+    }
+
+    // A declaration starts with a type word or qualifier, std::string, or
+    // two words in a row ("Int x", "vector v")
+    private boolean isTypeStart() {
+        if (pos >= count) return false;
+        if (isTypeWord(pos) || isOneOf(QUALIFIERS, pos)) return true;
+        if (isSymbol(STD) && pos + 3 < count && is(pos + 1, ":") && is(pos + 2, ":") && isTypeWord(pos + 3)) return true;
+        return tokens.kind(pos) == TokenKind.IDENTIFIER && pos + 1 < count && tokens.kind(pos + 1) == TokenKind.IDENTIFIER
+            && tokens.line(pos) == tokens.line(pos + 1) && !isSymbol(TRUE) && !isSymbol(FALSE);
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.*;
+
+// The one comment pass of an analysis run. Every comment character is
+// replaced by a space and every newline is kept, so code() has exactly the
+// same length, offsets and line numbers as the original source: mapping a
+// position back to what the user wrote is the identity, and lineOf() /
+// lineStart() come from a line table built during the same scan.
+//
+// String and character literals are skipped as a unit, so "//" or "/*"
+// inside a literal is not taken for a comment. Nested and unterminated
+// block comments are collected as diagnostics; the analyzer reports them
+// and stops on an unterminated one.
+//
+// The lexer, the parser and every rule work on code(); tokens() lexes it
+// once and keeps the result, so nothing downstream scans the source for
+// comments again. Like a SyntaxAnalyzer, an instance belongs to one
+// analysis run and is not shared between threads.
+public final class PreprocessedSource {
+    private final String original;
+    private final String code;
+    private final int[] lineStarts;
+    private final int lineCount;
+    private final int unterminatedCommentLine;
+    private final List<Diagnostic> problems;
+    private TokenStream tokens;
+
+    private PreprocessedSource(String original, String code, int[] lineStarts, int lineCount,
+                               int unterminatedCommentLine, List<Diagnostic> problems) {
+        this.original = original;
+        this.code = code;
+        this.lineStarts = lineStarts;
+        this.lineCount = lineCount;
+        this.unterminatedCommentLine = unterminatedCommentLine;
+        this.problems = problems;
+    }
+
+    public static PreprocessedSource of(String source) {
+        int length = source.length();
+        char[] out = source.toCharArray();
+        int[] lineStarts = new int[64];
+        int lineCount = 1;
+        List<Diagnostic> problems = new ArrayList<>();
+        int unterminatedLine = 0;
+
+        int line = 1;
+        int i = 0;
+        while (i < length) {
+            char c = out[i];
+            char next = i + 1 < length ? out[i + 1] : '\0';
+            if (c == '\n') {
+                if (lineCount == lineStarts.length) lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                lineStarts[lineCount++] = i + 1;
+                line++;
+                i++;
+            } else if (c == '/' && next == '/') {
+                while (i < length && out[i] != '\n') out[i++] = ' ';
+            } else if (c == '/' && next == '*') {
+                int startLine = line;
+                out[i++] = ' ';
+                out[i++] = ' ';
+                boolean closed = false;
+                while (i < length) {
+                    char d = out[i];
+                    char after = i + 1 < length ? out[i + 1] : '\0';
+                    if (d == '*' && after == '/') {
+                        out[i++] = ' ';
+                        out[i++] = ' ';
+                        closed = true;
+                        break;
+                    }
+                    if (d == '/' && after == '*') {
+                        // The first */ still closes the comment, as in C++
+                        problems.add(Diagnostic.error("nested-comment", line, "Error - Nested comments are not allowed in C++"));
+                        out[i++] = ' ';
+                        out[i++] = ' ';
+                    } else if (d == '\n') {
+                        if (lineCount == lineStarts.length) lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                        lineStarts[lineCount++] = i + 1;
+                        line++;
+                        i++;
+                    } else {
+                        if (d != '\r') out[i] = ' ';
+                        i++;
+                    }
+                }
+                if (!closed) {
+                    unterminatedLine = startLine;
+                    problems.add(Diagnostic.error("unterminated-comment", 0,
+                        "Error: Unterminated multi-line comment starting at line " + startLine));
+                }
+            } else if (c == '"' || c == '\'') {
+                // A literal ends at its closing quote or, unterminated, at
+                // the end of the line
+                i++;
+                while (i < length && out[i] != c && out[i] != '\n') {
+                    i += out[i] == '\\' && i + 1 < length && out[i + 1] != '\n' ? 2 : 1;
+                }
+                if (i < length && out[i] == c) i++;
+            } else {
+                i++;
+            }
+        }
+        return new PreprocessedSource(source, new String(out), lineStarts, lineCount, unterminatedLine, problems);
+    }
+
+    // The source as written
+    public String original() {
+        return original;
+    }
+
+    // The source with every comment blanked out
+    public String code() {
+        return code;
+    }
+
+    // Tokens of code(), lexed on first use
+    public TokenStream tokens() {
+        if (tokens == null) {
+            tokens = Lexer.tokenize(code);
+        }
+        return tokens;
+    }
+
+    public int lineCount() {
+        return lineCount;
+    }
+
+    // Offset where the 1-based line starts
+    public int lineStart(int line) {
+        return lineStarts[line - 1];
+    }
+
+    // Offset just past the line's last character, before its newline
+    public int lineEnd(int line) {
+        return line < lineCount ? lineStarts[line] - 1 : code.length();
+    }
+
+    // 1-based line containing offset
+    public int lineOf(int offset) {
+        int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    public boolean hasUnterminatedComment() {
+        return unterminatedCommentLine > 0;
+    }
+
+    // Nested and unterminated comments, in source order
+    public List<Diagnostic> problems() {
+        return problems;
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.*;
+import java.util.Locale;
+
+// What compiled programs call into while they run: console output, the
+// cancellation check, and the conversions C++ does differently from Java.
+// The reference Interpreter uses the same methods, so both print alike.
+//
+// Output goes to the stream installed for the running thread, so several
+// programs can run at once (a Run in the GUI, a benchmark) without
+// sharing a System.out. A thread with none installed prints to System.out.
+public final class ProgramRuntime {
+    private static final ThreadLocal<PrintStream> OUT = new ThreadLocal<>();
+
+    private ProgramRuntime() {
+    }
+
+    // Installs out for the current thread; returns the previous stream
+    static PrintStream redirect(PrintStream out) {
+        PrintStream previous = OUT.get();
+        if (out == null) {
+            OUT.remove();
+        } else {
+            OUT.set(out);
+        }
+        return previous;
+    }
+
+    private static PrintStream out() {
+        PrintStream out = OUT.get();
+        return out != null ? out : System.out;
+    }
+
+    // ===== OUTPUT (cout <<) =====
+
+    public static void print(int value) {
+        out().print(value);
+    }
+
+    public static void print(long value) {
+        out().print(value);
+    }
+
+    public static void printUnsigned(int value) {
+        out().print(Integer.toUnsignedString(value));
+    }
+
+    public static void print(float value) {
+        out().print(format(value));
+    }
+
+    public static void print(double value) {
+        out().print(format(value));
+    }
+
+    // A C++ char is a byte; only its low 8 bits are printed
+    public static void printChar(int value) {
+        out().print((char) (value & 0xFF));
+    }
+
+    public static void print(String value) {
+        out().print(value);
+    }
+
+    public static void endl() {
+        PrintStream out = out();
+        out.print('\n');
+        out.flush();
+    }
+
+    // A double as cout prints it by default: six significant digits,
+    // without trailing zeros, "1e+06" past the range plain digits cover
+    public static String format(double value) {
+        if (Double.isNaN(value)) return "nan";
+        if (Double.isInfinite(value)) return value > 0 ? "inf" : "-inf";
+        if (value == 0) return 1 / value < 0 ? "-0" : "0";
+        String text = String.format(Locale.ROOT, "%.6g", value);
+        int exponent = text.indexOf('e');
+        String mantissa = exponent >= 0 ? text.substring(0, exponent) : text;
+        if (mantissa.indexOf('.') >= 0) {
+            int end = mantissa.length();
+            while (mantissa.charAt(end - 1) == '0') end--;
+            if (mantissa.charAt(end - 1) == '.') end--;
+            mantissa = mantissa.substring(0, end);
+        }
+        return exponent >= 0 ? mantissa + text.substring(exponent) : mantissa;
+    }
+
+    // ===== STRINGS =====
+
+    public static String concat(String left, String right) {
+        return left.concat(right);
+    }
+
+    public static String charToString(int value) {
+        return String.valueOf((char) (value & 0xFF));
+    }
+
+    // ===== CONTROL =====
+
+    // Called at every loop head and function entry. Interrupting the
+    // thread a program runs on is how Stop (or a timeout) ends it.
+    public static void poll() {
+        if (Thread.currentThread().isInterrupted()) throw new Halted();
+    }
+
+    // Thrown into a running program to stop it
+    static final class Halted extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Halted() {
+            super("Program stopped.", null, false, false);
+        }
+    }
+
+    // A program that ended with an error instead of returning from main:
+    // division by zero, runaway recursion, a stop request. line is the
+    // source line it happened on, 0 if unknown.
+    public static final class ProgramException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        public final int line;
+
+        ProgramException(String message, int line) {
+            super(message);
+            this.line = line;
+        }
+
+        public Diagnostic diagnostic() {
+            return Diagnostic.error("runtime-error", line, "Runtime error: " + getMessage());
+        }
+    }
+}
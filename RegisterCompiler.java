@@ -0,0 +1,1397 @@
+import java.util.*;
+
+// Lowers a checked W++ program to RegisterProgram code, for Run on the
+// register machine.
+//
+// It shares BytecodeCompiler's front end like the Interpreter does (the
+// same variables, expression types, called functions and accepted
+// subset) and mirrors the Interpreter's evaluation rules, so all three
+// engines print the same thing. What it adds is register allocation:
+// every local has a register of its own for the whole call, temporaries
+// are handed out above the locals like a stack and given back after each
+// statement, and an expression is computed into the register that wants
+// it (x = a + b is one add.i into x's register, not an add and a move).
+//
+// A few instruction patterns cover most of what loops do and get
+// instructions of their own: compare-and-branch, against a register or a
+// constant (i < n, i != 0), increment-local (i++, i += 2), add-constant
+// (i + 1). Loops are laid out with the test at the bottom, so each
+// iteration runs one conditional jump and no unconditional one.
+public final class RegisterCompiler {
+    private static final int NO_RESULT = 0xFFFFFF;
+
+    private final BytecodeCompiler program;
+    private final Ast ast;
+
+    private int[] code = new int[256];
+    private int size;
+    private int[] lineStarts = new int[64];
+    private int[] lineNumbers = new int[64];
+    private int lineCount;
+    private int line;
+
+    private final List<Long> longs = new ArrayList<>();
+    private final Map<Long, Integer> longIndex = new HashMap<>();
+    private final List<Double> doubles = new ArrayList<>();
+    private final Map<Long, Integer> doubleIndex = new HashMap<>(); // by raw bits
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+
+    // Register of every local in its function's frame
+    private final int[] registers;
+
+    // Jump targets: position, or -1 until bound; jumps waiting for one
+    private int[] labels = new int[16];
+    private int labelCount;
+    private int[] fixupPcs = new int[16];
+    private int[] fixupLabels = new int[16];
+    private int fixupCount;
+
+    // The function being compiled: its first free register after the
+    // locals, the next free temporary, and the most registers in use
+    private int function;
+    private int locals;
+    private int top;
+    private int frameSize;
+    private int breakLabel = -1;
+    private int continueLabel = -1;
+
+    private RegisterCompiler(BytecodeCompiler program) {
+        this.program = program;
+        this.ast = program.ast();
+        registers = new int[program.variableCount()];
+        Arrays.fill(registers, -1);
+    }
+
+    // The program as register machine code, or null after reporting to
+    // sink why it can't be run
+    public static RegisterProgram compile(Ast ast, DiagnosticSink sink) {
+        BytecodeCompiler program = BytecodeCompiler.checked(ast, sink);
+        if (program == null) return null;
+        try {
+            return new RegisterCompiler(program).program();
+        } catch (IllegalStateException e) {
+            sink.report(Diagnostic.error("run-unsupported", 0, "Program is too large to run: " + e.getMessage() + "."));
+            return null;
+        }
+    }
+
+    // ===== PROGRAM =====
+
+    private RegisterProgram program() {
+        int functions = program.functionCount();
+        int[] entries = new int[functions + 1];
+        int[] frameSizes = new int[functions + 1];
+
+        // The entry code, run as one more function: the globals'
+        // initializers, then main()
+        function = -1;
+        startFrame(0);
+        for (int child = ast.firstChild(ast.root()); child >= 0; child = ast.nextSibling(child)) {
+            if (ast.kind(child) == Ast.Kind.DECLARATION) {
+                line = ast.line(child);
+                declaration(child);
+                top = locals;
+            }
+        }
+        int main = program.mainFunction();
+        line = ast.line(program.functionNode(main));
+        int result = call(main, -1);
+        emit(RegisterProgram.HALT, program.returnType(main) != null ? result : NO_RESULT);
+        frameSizes[functions] = frameSize;
+
+        for (int f = 0; f < functions; f++) {
+            entries[f] = size;
+            compileFunction(f);
+            frameSizes[f] = frameSize;
+        }
+        entries[functions] = 0;
+
+        for (int i = 0; i < fixupCount; i++) {
+            int pc = fixupPcs[i];
+            code[pc] = (code[pc] & 0xFF) | operand(labels[fixupLabels[i]]) << 8;
+        }
+        long[] longConstants = new long[longs.size()];
+        for (int i = 0; i < longConstants.length; i++) {
+            longConstants[i] = longs.get(i);
+        }
+        double[] doubleConstants = new double[doubles.size()];
+        for (int i = 0; i < doubleConstants.length; i++) {
+            doubleConstants[i] = doubles.get(i);
+        }
+        return new RegisterProgram(Arrays.copyOf(code, size), longConstants, doubleConstants,
+            strings.toArray(new String[0]), entries, frameSizes, program.variableCount(),
+            Arrays.copyOf(lineStarts, lineCount), Arrays.copyOf(lineNumbers, lineCount));
+    }
+
+    // Parameters get registers 0..n-1, the function's other locals the
+    // ones after them
+    private void compileFunction(int f) {
+        function = f;
+        int node = program.functionNode(f);
+        int count = program.parameterCount(f);
+        int k = 0;
+        for (int param = ast.firstChild(node); param >= 0 && k < count; param = ast.nextSibling(param)) {
+            if (ast.kind(param) != Ast.Kind.PARAM) continue;
+            int variable = program.variableOf(param);
+            if (variable >= 0) registers[variable] = k;
+            k++;
+        }
+        int next = count;
+        for (int variable = program.functionVariables(f); variable < program.functionVariableEnd(f); variable++) {
+            if (registers[variable] < 0) registers[variable] = next++;
+        }
+        startFrame(next);
+
+        line = ast.line(node);
+        statement(program.functionBody(f));
+        // Falling off the end returns the zero value, like the other engines
+        line = ast.endLine(node);
+        ValueType type = program.returnType(f);
+        if (type == null) {
+            emit(RegisterProgram.RET, 0);
+            return;
+        }
+        int zero = temp();
+        switch (Interpreter.category(type)) {
+            case 'I':
+                constant(zero, 0);
+                emit(RegisterProgram.RET_L, zero);
+                break;
+            case 'D':
+                emit(RegisterProgram.CONST_D, zero, doubleConstant(0));
+                emit(RegisterProgram.RET_D, zero);
+                break;
+            default:
+                emit(RegisterProgram.CONST_S, zero, stringConstant(""));
+                emit(RegisterProgram.RET_S, zero);
+        }
+    }
+
+    private void startFrame(int localCount) {
+        locals = localCount;
+        top = localCount;
+        frameSize = Math.max(1, localCount);
+    }
+
+    // ===== EMITTING =====
+
+    private void emit(int op, int a) {
+        mark();
+        append(op | operand(a) << 8);
+    }
+
+    private void emit(int op, int a, int b) {
+        emit(op, a);
+        append(b);
+    }
+
+    private void emit(int op, int a, int b, int c) {
+        emit(op, a);
+        append(b);
+        append(c);
+    }
+
+    private void append(int word) {
+        if (size == code.length) code = Arrays.copyOf(code, size * 2);
+        code[size++] = word;
+    }
+
+    private static int operand(int value) {
+        if (value >>> 24 != 0) throw new IllegalStateException("more than 16M code words or registers");
+        return value;
+    }
+
+    // Starts a line table entry when the source line changes
+    private void mark() {
+        if (lineCount > 0 && lineNumbers[lineCount - 1] == line) return;
+        if (lineCount > 0 && lineStarts[lineCount - 1] == size) {
+            lineNumbers[lineCount - 1] = line;
+            return;
+        }
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, lineCount * 2);
+        }
+        lineStarts[lineCount] = size;
+        lineNumbers[lineCount] = line;
+        lineCount++;
+    }
+
+    private int newLabel() {
+        if (labelCount == labels.length) labels = Arrays.copyOf(labels, labelCount * 2);
+        labels[labelCount] = -1;
+        return labelCount++;
+    }
+
+    private void bind(int label) {
+        labels[label] = size;
+    }
+
+    // A jump to label, its target patched in once every label is bound
+    private void jump(int op, int label, int... operands) {
+        if (fixupCount == fixupPcs.length) {
+            fixupPcs = Arrays.copyOf(fixupPcs, fixupCount * 2);
+            fixupLabels = Arrays.copyOf(fixupLabels, fixupCount * 2);
+        }
+        fixupPcs[fixupCount] = size;
+        fixupLabels[fixupCount] = label;
+        fixupCount++;
+        emit(op, 0);
+        for (int word : operands) {
+            append(word);
+        }
+    }
+
+    // ===== REGISTERS =====
+
+    private int temp() {
+        int register = top++;
+        frameSize = Math.max(frameSize, top);
+        return register;
+    }
+
+    // Where a result goes: the register asked for, or a new temporary
+    private int target(int dest) {
+        return dest >= 0 ? dest : temp();
+    }
+
+    private int move(int op, int register, int dest) {
+        if (dest < 0 || dest == register) return register;
+        emit(op, dest, register);
+        return dest;
+    }
+
+    private void constant(int register, long value) {
+        if (value == (int) value) {
+            emit(RegisterProgram.CONST_I, register, (int) value);
+        } else {
+            emit(RegisterProgram.CONST_L, register, longConstant(value));
+        }
+    }
+
+    private int longConstant(long value) {
+        return longIndex.computeIfAbsent(value, v -> {
+            longs.add(v);
+            return longs.size() - 1;
+        });
+    }
+
+    private int doubleConstant(double value) {
+        return doubleIndex.computeIfAbsent(Double.doubleToRawLongBits(value), bits -> {
+            doubles.add(value);
+            return doubles.size() - 1;
+        });
+    }
+
+    private int stringConstant(String value) {
+        return stringIndex.computeIfAbsent(value, v -> {
+            strings.add(v);
+            return strings.size() - 1;
+        });
+    }
+
+    // ===== STATEMENTS =====
+
+    private void statement(int node) {
+        line = ast.line(node);
+        top = locals;
+        switch (ast.kind(node)) {
+            case BLOCK:
+                for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                    statement(child);
+                }
+                break;
+            case DECLARATION:
+                declaration(node);
+                break;
+            case IF: {
+                int otherwise = ast.child(node, 2);
+                int skip = newLabel();
+                condition(ast.firstChild(node), skip, false);
+                statement(ast.child(node, 1));
+                if (otherwise >= 0) {
+                    int end = newLabel();
+                    jump(RegisterProgram.JUMP, end);
+                    bind(skip);
+                    statement(ast.firstChild(otherwise));
+                    bind(end);
+                } else {
+                    bind(skip);
+                }
+                break;
+            }
+            case WHILE:
+                loop(ast.firstChild(node), -1, ast.child(node, 1), true);
+                break;
+            case DO:
+                loop(ast.child(node, 1), -1, ast.firstChild(node), false);
+                break;
+            case FOR: {
+                int init = ast.firstChild(node);
+                int condition = ast.nextSibling(init);
+                int update = ast.nextSibling(condition);
+                if (ast.kind(init) == Ast.Kind.DECLARATION) {
+                    declaration(init);
+                } else if (ast.kind(init) != Ast.Kind.EMPTY) {
+                    effect(init);
+                }
+                loop(ast.kind(condition) != Ast.Kind.EMPTY ? condition : -1,
+                    ast.kind(update) != Ast.Kind.EMPTY ? update : -1, ast.nextSibling(update), true);
+                break;
+            }
+            case RETURN:
+                returnStatement(node);
+                break;
+            case BREAK:
+                jump(RegisterProgram.JUMP, breakLabel);
+                break;
+            case CONTINUE:
+                jump(RegisterProgram.JUMP, continueLabel);
+                break;
+            case EXPRESSION:
+                effect(ast.firstChild(node));
+                break;
+            default:
+                break;
+        }
+        top = locals;
+    }
+
+    // body; update; if (condition) repeat, entered at the test unless it
+    // is a do loop. A missing condition is always true.
+    private void loop(int condition, int update, int body, boolean testFirst) {
+        int savedBreak = breakLabel;
+        int savedContinue = continueLabel;
+        int start = newLabel();
+        int test = newLabel();
+        breakLabel = newLabel();
+        continueLabel = update >= 0 ? newLabel() : test;
+        int headLine = line;
+        if (testFirst) jump(RegisterProgram.JUMP, update >= 0 || condition >= 0 ? test : start);
+        bind(start);
+        statement(body);
+        if (update >= 0) {
+            bind(continueLabel);
+            line = headLine;
+            effect(update);
+            top = locals;
+        }
+        bind(test);
+        line = headLine;
+        if (condition >= 0) {
+            condition(condition, start, true);
+        } else {
+            jump(RegisterProgram.JUMP, start);
+        }
+        top = locals;
+        bind(breakLabel);
+        breakLabel = savedBreak;
+        continueLabel = savedContinue;
+    }
+
+    private void declaration(int node) {
+        int type = ast.firstChild(node);
+        for (int declarator = ast.nextSibling(type); declarator >= 0; declarator = ast.nextSibling(declarator)) {
+            int variable = program.variableOf(declarator);
+            ValueType declared = program.variableType(variable);
+            int value = ast.child(declarator, 1);
+            boolean global = program.isGlobal(variable);
+            int register = global ? temp() : registers[variable];
+            if (value >= 0) {
+                value(value, declared, register);
+            } else {
+                zero(declared, register);
+            }
+            if (global) emit(put(declared), variable, register);
+            top = locals;
+        }
+    }
+
+    private void zero(ValueType type, int register) {
+        switch (Interpreter.category(type)) {
+            case 'I':
+                constant(register, 0);
+                break;
+            case 'D':
+                emit(RegisterProgram.CONST_D, register, doubleConstant(0));
+                break;
+            default:
+                emit(RegisterProgram.CONST_S, register, stringConstant(""));
+        }
+    }
+
+    private void returnStatement(int node) {
+        int value = ast.firstChild(node);
+        ValueType type = function >= 0 ? program.returnType(function) : null;
+        if (value < 0 || type == null) {
+            emit(RegisterProgram.RET, 0);
+            return;
+        }
+        switch (Interpreter.category(type)) {
+            case 'I':
+                emit(RegisterProgram.RET_L, integral(value, type, -1));
+                break;
+            case 'D':
+                emit(RegisterProgram.RET_D, real(value, type, -1));
+                break;
+            default:
+                emit(RegisterProgram.RET_S, text(value, -1));
+        }
+    }
+
+    // An expression whose value isn't used
+    private void effect(int node) {
+        if (program.isOutputStatement(node)) {
+            output(node);
+            return;
+        }
+        switch (ast.kind(node)) {
+            case BINARY:
+                if (ast.tokenIs(node, ",")) {
+                    effect(ast.firstChild(node));
+                    effect(ast.child(node, 1));
+                    return;
+                }
+                break;
+            case ASSIGN:
+                assign(node);
+                return;
+            case UNARY:
+            case POSTFIX:
+                if (isIncrement(node)) {
+                    increment(node, true, false);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        ValueType type = program.type(node);
+        if (type == null) {
+            call(program.callTarget(node), node); // a void function
+            return;
+        }
+        evaluate(node, type, -1);
+    }
+
+    private void output(int node) {
+        if (!ast.tokenIs(node, "<<") || ast.kind(node) != Ast.Kind.BINARY) return; // cout itself
+        output(ast.firstChild(node));
+        int value = ast.child(node, 1);
+        if (program.isEndl(value)) {
+            emit(RegisterProgram.ENDL, 0);
+            return;
+        }
+        ValueType type = program.type(value);
+        int op;
+        switch (type) {
+            case UNSIGNED_INT:
+                op = RegisterProgram.PRINT_U;
+                break;
+            case CHAR:
+                op = RegisterProgram.PRINT_C;
+                break;
+            case LONG:
+            case LONG_LONG:
+                op = RegisterProgram.PRINT_L;
+                break;
+            case FLOAT:
+                op = RegisterProgram.PRINT_F;
+                break;
+            case DOUBLE:
+                op = RegisterProgram.PRINT_D;
+                break;
+            case STRING:
+                op = RegisterProgram.PRINT_S;
+                break;
+            default:
+                op = RegisterProgram.PRINT_I;
+        }
+        int mark = top;
+        emit(op, evaluate(value, type, -1));
+        top = mark;
+    }
+
+    // ===== CALLS =====
+
+    // Calls function f with the arguments of the CALL node (none for -1).
+    // The arguments are evaluated into the registers that become the
+    // callee's parameters; the result comes back in the first of them.
+    private int call(int f, int node) {
+        int start = top;
+        int count = 0;
+        if (node >= 0) {
+            count = ast.childCount(node) - 1;
+        }
+        top = start + Math.max(1, count);
+        frameSize = Math.max(frameSize, top);
+        if (node >= 0) {
+            int k = 0;
+            for (int arg = ast.child(node, 1); arg >= 0; arg = ast.nextSibling(arg)) {
+                value(arg, program.parameterType(f, k), start + k);
+                k++;
+                top = start + Math.max(1, count);
+            }
+        }
+        emit(RegisterProgram.CALL, start, f);
+        top = start + 1;
+        return start;
+    }
+
+    // ===== EXPRESSIONS =====
+    //
+    // Every method here leaves the value in a register and returns it:
+    // dest when dest >= 0, otherwise a new temporary or, for a local read
+    // as is, the local's own register (which the caller must not write).
+
+    // The value of node converted to target
+    private int value(int node, ValueType target, int dest) {
+        switch (Interpreter.category(target)) {
+            case 'I':
+                return integral(node, target, dest);
+            case 'D':
+                return real(node, target, dest);
+            default:
+                return text(node, dest);
+        }
+    }
+
+    // The value of node in its own type
+    private int evaluate(int node, ValueType type, int dest) {
+        switch (Interpreter.category(type)) {
+            case 'I':
+                return evaluateLong(node, type, dest);
+            case 'D':
+                return evaluateDouble(node, type, dest);
+            default:
+                return evaluateString(node, dest);
+        }
+    }
+
+    private int evaluateLong(int node, ValueType type, int dest) {
+        if (program.isConstant(node)) {
+            int register = target(dest);
+            constant(register, program.constantValue(node));
+            return register;
+        }
+        switch (ast.kind(node)) {
+            case LITERAL: {
+                int register = target(dest);
+                constant(register, literalLong(node));
+                return register;
+            }
+            case NAME:
+                return read(program.variableOf(node), dest);
+            case ASSIGN:
+                return move(RegisterProgram.MOVE_L, assign(node), dest);
+            case UNARY: {
+                int operand = ast.firstChild(node);
+                switch (ast.tokenText(node)) {
+                    case "++":
+                    case "--":
+                        return move(RegisterProgram.MOVE_L, increment(node, true, true), dest);
+                    case "!":
+                        return materialize(node, dest);
+                    case "+":
+                        return integral(operand, type, dest);
+                    default: { // - ~
+                        int mark = top;
+                        int value = integral(operand, type, -1);
+                        top = mark;
+                        int register = target(dest);
+                        emit(ast.tokenIs(node, "-") ? RegisterProgram.NEG_L : RegisterProgram.NOT, register, value);
+                        narrow(type, register);
+                        return register;
+                    }
+                }
+            }
+            case POSTFIX:
+                return move(RegisterProgram.MOVE_L, increment(node, false, true), dest);
+            case BINARY: {
+                String op = ast.tokenText(node);
+                int left = ast.firstChild(node);
+                int right = ast.child(node, 1);
+                if (op.equals(",")) {
+                    effect(left);
+                    return evaluateLong(right, type, dest);
+                }
+                if (type == ValueType.BOOL && comparison(op)) return materialize(node, dest);
+                boolean shift = op.equals("<<") || op.equals(">>");
+                int mark = top;
+                if ((op.equals("+") || op.equals("-")) && isInt(type) && isLiteral(right)) {
+                    long k = Interpreter.convert(literalLong(right), program.type(right), type);
+                    if (op.equals("-")) k = -k;
+                    if (k == (int) k) {
+                        int a = integral(left, type, -1);
+                        top = mark;
+                        int register = target(dest);
+                        emit(RegisterProgram.ADDK_I, register, a, (int) k);
+                        return register;
+                    }
+                }
+                int a = integral(left, type, -1);
+                int b = integral(right, shift ? ValueType.INT : type, -1);
+                top = mark;
+                int register = target(dest);
+                arithmetic(op, type, register, a, b);
+                return register;
+            }
+            case CONDITIONAL: {
+                int mark = top;
+                int register = target(dest);
+                int otherwise = newLabel();
+                int end = newLabel();
+                condition(ast.firstChild(node), otherwise, false);
+                integral(ast.child(node, 1), type, register);
+                jump(RegisterProgram.JUMP, end);
+                bind(otherwise);
+                integral(ast.child(node, 2), type, register);
+                bind(end);
+                top = dest >= 0 ? mark : register + 1;
+                return register;
+            }
+            default: { // CALL
+                int callee = ast.firstChild(node);
+                int mark = top;
+                if (ast.kind(callee) == Ast.Kind.MEMBER) {
+                    int string = evaluateString(ast.firstChild(callee), -1);
+                    top = mark;
+                    int register = target(dest);
+                    emit(RegisterProgram.LENGTH, register, string);
+                    return register;
+                }
+                if (program.isCast(node)) return integral(ast.child(node, 1), type, dest);
+                int f = program.callTarget(node);
+                if (f >= 0) return move(RegisterProgram.MOVE_L, call(f, node), dest);
+                String name = ast.tokenText(callee);
+                int a = integral(ast.child(node, 1), type, -1);
+                if (name.equals("abs")) {
+                    top = mark;
+                    int register = target(dest);
+                    emit(type == ValueType.INT ? RegisterProgram.ABS_I : RegisterProgram.ABS_L, register, a);
+                    return register;
+                }
+                int b = integral(ast.child(node, 2), type, -1);
+                top = mark;
+                int register = target(dest);
+                emit(name.equals("min") ? RegisterProgram.MIN_L : RegisterProgram.MAX_L, register, a, b);
+                return register;
+            }
+        }
+    }
+
+    private int evaluateDouble(int node, ValueType type, int dest) {
+        if (program.isConstant(node)) {
+            int register = target(dest);
+            emit(RegisterProgram.CONST_D, register, doubleConstant(Double.longBitsToDouble(program.constantValue(node))));
+            return register;
+        }
+        switch (ast.kind(node)) {
+            case LITERAL: {
+                int register = target(dest);
+                double value = program.realValue(node);
+                emit(RegisterProgram.CONST_D, register,
+                    doubleConstant(program.type(node) == ValueType.FLOAT ? (float) value : value));
+                return register;
+            }
+            case NAME:
+                return read(program.variableOf(node), dest);
+            case ASSIGN:
+                return move(RegisterProgram.MOVE_D, assign(node), dest);
+            case UNARY: {
+                int operand = ast.firstChild(node);
+                switch (ast.tokenText(node)) {
+                    case "++":
+                    case "--":
+                        return move(RegisterProgram.MOVE_D, increment(node, true, true), dest);
+                    case "-": {
+                        int mark = top;
+                        int value = real(operand, type, -1);
+                        top = mark;
+                        int register = target(dest);
+                        emit(RegisterProgram.NEG_D, register, value);
+                        return register;
+                    }
+                    default: // +
+                        return real(operand, type, dest);
+                }
+            }
+            case POSTFIX:
+                return move(RegisterProgram.MOVE_D, increment(node, false, true), dest);
+            case BINARY: {
+                String op = ast.tokenText(node);
+                if (op.equals(",")) {
+                    effect(ast.firstChild(node));
+                    return evaluateDouble(ast.child(node, 1), type, dest);
+                }
+                int mark = top;
+                int a = real(ast.firstChild(node), type, -1);
+                int b = real(ast.child(node, 1), type, -1);
+                top = mark;
+                int register = target(dest);
+                arithmetic(op, type, register, a, b);
+                return register;
+            }
+            case CONDITIONAL: {
+                int mark = top;
+                int register = target(dest);
+                int otherwise = newLabel();
+                int end = newLabel();
+                condition(ast.firstChild(node), otherwise, false);
+                real(ast.child(node, 1), type, register);
+                jump(RegisterProgram.JUMP, end);
+                bind(otherwise);
+                real(ast.child(node, 2), type, register);
+                bind(end);
+                top = dest >= 0 ? mark : register + 1;
+                return register;
+            }
+            default: { // CALL
+                if (program.isCast(node)) return real(ast.child(node, 1), type, dest);
+                int f = program.callTarget(node);
+                if (f >= 0) return move(RegisterProgram.MOVE_D, call(f, node), dest);
+                String name = ast.tokenText(ast.firstChild(node));
+                int mark = top;
+                int a = real(ast.child(node, 1), type, -1);
+                int b = ast.childCount(node) > 2 ? real(ast.child(node, 2), type, -1) : -1;
+                top = mark;
+                int register = target(dest);
+                switch (name) {
+                    case "pow":
+                        emit(RegisterProgram.POW, register, a, b);
+                        break;
+                    case "abs":
+                        emit(RegisterProgram.ABS_D, register, a);
+                        break;
+                    case "min":
+                        emit(RegisterProgram.MIN_D, register, a, b);
+                        break;
+                    case "max":
+                        emit(RegisterProgram.MAX_D, register, a, b);
+                        break;
+                    default:
+                        emit(RegisterProgram.MATH, register, a,
+                            Arrays.asList(RegisterProgram.MATH_FUNCTIONS).indexOf(name));
+                }
+                return register;
+            }
+        }
+    }
+
+    private int evaluateString(int node, int dest) {
+        switch (ast.kind(node)) {
+            case LITERAL: {
+                int register = target(dest);
+                emit(RegisterProgram.CONST_S, register, stringConstant(program.stringValue(node)));
+                return register;
+            }
+            case NAME:
+                return read(program.variableOf(node), dest);
+            case ASSIGN:
+                return move(RegisterProgram.MOVE_S, assign(node), dest);
+            case BINARY: {
+                if (ast.tokenIs(node, ",")) {
+                    effect(ast.firstChild(node));
+                    return evaluateString(ast.child(node, 1), dest);
+                }
+                int mark = top;
+                int a = text(ast.firstChild(node), -1);
+                int b = text(ast.child(node, 1), -1);
+                top = mark;
+                int register = target(dest);
+                emit(RegisterProgram.CONCAT, register, a, b);
+                return register;
+            }
+            case CONDITIONAL: {
+                int mark = top;
+                int register = target(dest);
+                int otherwise = newLabel();
+                int end = newLabel();
+                condition(ast.firstChild(node), otherwise, false);
+                text(ast.child(node, 1), register);
+                jump(RegisterProgram.JUMP, end);
+                bind(otherwise);
+                text(ast.child(node, 2), register);
+                bind(end);
+                top = dest >= 0 ? mark : register + 1;
+                return register;
+            }
+            default: { // CALL
+                if (program.isCast(node)) return text(ast.child(node, 1), dest);
+                return move(RegisterProgram.MOVE_S, call(program.callTarget(node), node), dest);
+            }
+        }
+    }
+
+    // A string or char as a string
+    private int text(int node, int dest) {
+        ValueType type = program.type(node);
+        if (type != ValueType.CHAR) return evaluateString(node, dest);
+        int mark = top;
+        int value = evaluateLong(node, type, -1);
+        top = mark;
+        int register = target(dest);
+        emit(RegisterProgram.CHAR_STR, register, value);
+        return register;
+    }
+
+    // The value of node converted to the integer type target
+    private int integral(int node, ValueType target, int dest) {
+        ValueType type = program.type(node);
+        if (isLiteral(node) && Interpreter.category(type) == 'I') {
+            int register = target(dest);
+            constant(register, Interpreter.convert(literalLong(node), type, target));
+            return register;
+        }
+        if (Interpreter.category(type) == 'I') {
+            if (!needsConversion(type, target)) return evaluateLong(node, type, dest);
+            int mark = top;
+            int value = evaluateLong(node, type, -1);
+            top = mark;
+            return convert(value, type, target, dest);
+        }
+        int mark = top;
+        int value = evaluateDouble(node, type, -1);
+        top = mark;
+        return fromReal(value, target, dest);
+    }
+
+    // The value of node converted to float or double
+    private int real(int node, ValueType target, int dest) {
+        ValueType type = program.type(node);
+        int mark = top;
+        if (Interpreter.category(type) == 'I') {
+            if (isLiteral(node)) {
+                int register = target(dest);
+                emit(RegisterProgram.CONST_D, register,
+                    doubleConstant(Interpreter.toReal(literalLong(node), type, target)));
+                return register;
+            }
+            int value = evaluateLong(node, type, -1);
+            top = mark;
+            int register = target(dest);
+            if (type == ValueType.UNSIGNED_INT) {
+                emit(RegisterProgram.U2L, register, value);
+                value = register;
+            }
+            emit(target == ValueType.FLOAT ? RegisterProgram.L2F : RegisterProgram.L2D, register, value);
+            return register;
+        }
+        if (type == target || target == ValueType.DOUBLE) return evaluateDouble(node, type, dest);
+        int value = evaluateDouble(node, type, -1);
+        top = mark;
+        int register = target(dest);
+        emit(RegisterProgram.D2F, register, value);
+        return register;
+    }
+
+    private int read(int variable, int dest) {
+        ValueType type = program.variableType(variable);
+        if (program.isGlobal(variable)) {
+            int register = target(dest);
+            emit(get(type), register, variable);
+            return register;
+        }
+        return move(moveOp(type), registers[variable], dest);
+    }
+
+    // ===== ASSIGNMENT =====
+
+    // Stores the value of an assignment and returns the register holding
+    // it: the local's own, or a temporary that was stored to the global
+    private int assign(int node) {
+        int variable = program.variableOf(ast.firstChild(node));
+        ValueType type = program.variableType(variable);
+        int value = ast.child(node, 1);
+        String op = program.assignmentOperator(node);
+        boolean global = program.isGlobal(variable);
+        int register = global ? temp() : registers[variable];
+        int mark = top;
+        if (op.equals("=")) {
+            value(value, type, register);
+        } else {
+            if (global) emit(get(type), register, variable);
+            compound(op.substring(0, op.length() - 1), type, register, value);
+        }
+        top = mark;
+        if (global) emit(put(type), variable, register);
+        return register;
+    }
+
+    // register op= value, register holding a variable of the given type
+    private void compound(String op, ValueType type, int register, int value) {
+        ValueType right = program.type(value);
+        if (type == ValueType.STRING) {
+            emit(RegisterProgram.CONCAT, register, register, text(value, -1));
+            return;
+        }
+        boolean shift = op.equals("<<") || op.equals(">>");
+        ValueType common = shift ? ValueType.promote(type, ValueType.INT) : ValueType.promote(type, right);
+        if (Interpreter.category(common) == 'D') {
+            int a;
+            if (Interpreter.category(type) == 'I') {
+                a = temp();
+                if (type == ValueType.UNSIGNED_INT) {
+                    emit(RegisterProgram.U2L, a, register);
+                    emit(common == ValueType.FLOAT ? RegisterProgram.L2F : RegisterProgram.L2D, a, a);
+                } else {
+                    emit(common == ValueType.FLOAT ? RegisterProgram.L2F : RegisterProgram.L2D, a, register);
+                }
+            } else if (type != common && common == ValueType.FLOAT) {
+                a = temp();
+                emit(RegisterProgram.D2F, a, register);
+            } else {
+                a = register;
+            }
+            int b = real(value, common, -1);
+            if (Interpreter.category(type) == 'I') {
+                arithmetic(op, common, a, a, b);
+                fromReal(a, type, register);
+            } else {
+                arithmetic(op, common, register, a, b);
+                if (type == ValueType.FLOAT && common != ValueType.FLOAT) emit(RegisterProgram.D2F, register, register);
+            }
+            return;
+        }
+        // i += k and i -= k on an int or long local: one increment
+        if ((op.equals("+") || op.equals("-")) && type == common && isLiteral(value)) {
+            long k = Interpreter.convert(literalLong(value), right, common);
+            if (op.equals("-")) k = -k;
+            if (k == (int) k && (isInt(type) || isLong(type))) {
+                emit(isInt(type) ? RegisterProgram.INC_I : RegisterProgram.INC_L, register, (int) k);
+                return;
+            }
+        }
+        int a = convert(register, type, common, -1);
+        int b = integral(value, shift ? ValueType.INT : common, -1);
+        if (needsConversion(common, type)) {
+            int result = temp();
+            arithmetic(op, common, result, a, b);
+            convert(result, common, type, register);
+        } else {
+            arithmetic(op, common, register, a, b);
+        }
+    }
+
+    // ++ and --; returns the register with the new value for prefix, the
+    // old one for postfix (only copied when want)
+    private int increment(int node, boolean prefix, boolean want) {
+        int variable = program.variableOf(ast.firstChild(node));
+        ValueType type = program.variableType(variable);
+        boolean global = program.isGlobal(variable);
+        int register = global ? temp() : registers[variable];
+        if (global) emit(get(type), register, variable);
+        int old = register;
+        if (want && !prefix) {
+            old = temp();
+            emit(moveOp(type), old, register);
+        }
+        int delta = ast.tokenIs(node, "++") ? 1 : -1;
+        if (Interpreter.category(type) == 'D') {
+            int one = temp();
+            emit(RegisterProgram.CONST_D, one, doubleConstant(delta));
+            emit(RegisterProgram.ADD_D, register, register, one);
+            if (type == ValueType.FLOAT) emit(RegisterProgram.D2F, register, register);
+        } else {
+            ValueType common = ValueType.promote(type, ValueType.INT);
+            emit(isLong(common) ? RegisterProgram.INC_L : RegisterProgram.INC_I, register, delta);
+            if (needsConversion(common, type)) convert(register, common, type, register);
+        }
+        if (global) emit(put(type), variable, register);
+        return old;
+    }
+
+    private boolean isIncrement(int node) {
+        return ast.tokenIs(node, "++") || ast.tokenIs(node, "--");
+    }
+
+    // ===== OPERATORS =====
+
+    private static boolean comparison(String op) {
+        switch (op) {
+            case "&&":
+            case "||":
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+            case "==":
+            case "!=":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // register = a op b in type, the right operand an int for a shift
+    private void arithmetic(String op, ValueType type, int register, int a, int b) {
+        if (Interpreter.category(type) == 'D') {
+            int code;
+            switch (op) {
+                case "+":
+                    code = RegisterProgram.ADD_D;
+                    break;
+                case "-":
+                    code = RegisterProgram.SUB_D;
+                    break;
+                case "*":
+                    code = RegisterProgram.MUL_D;
+                    break;
+                default: // /
+                    code = RegisterProgram.DIV_D;
+            }
+            emit(code, register, a, b);
+            if (type == ValueType.FLOAT) emit(RegisterProgram.D2F, register, register);
+            return;
+        }
+        boolean wide = isLong(type);
+        boolean unsigned = type == ValueType.UNSIGNED_INT;
+        int code;
+        switch (op) {
+            case "+":
+                code = wide ? RegisterProgram.ADD_L : RegisterProgram.ADD_I;
+                break;
+            case "-":
+                code = wide ? RegisterProgram.SUB_L : RegisterProgram.SUB_I;
+                break;
+            case "*":
+                code = wide ? RegisterProgram.MUL_L : RegisterProgram.MUL_I;
+                break;
+            case "/":
+                code = wide ? RegisterProgram.DIV_L : unsigned ? RegisterProgram.DIV_U : RegisterProgram.DIV_I;
+                break;
+            case "%":
+                code = wide ? RegisterProgram.REM_L : unsigned ? RegisterProgram.REM_U : RegisterProgram.REM_I;
+                break;
+            case "&":
+                code = RegisterProgram.AND;
+                break;
+            case "|":
+                code = RegisterProgram.OR;
+                break;
+            case "^":
+                code = RegisterProgram.XOR;
+                break;
+            case "<<":
+                code = wide ? RegisterProgram.SHL_L : RegisterProgram.SHL_I;
+                break;
+            default: // >>
+                code = wide ? RegisterProgram.SHR_L : unsigned ? RegisterProgram.USHR_I : RegisterProgram.SHR_I;
+        }
+        emit(code, register, a, b);
+        // The 32-bit operations already cut to an int
+        if (!wide && !isInt(type) && "+-*/%".contains(op)) narrow(type, register);
+    }
+
+    // ===== CONDITIONS =====
+
+    // Jumps to label when node's truth equals when; falls through otherwise
+    private void condition(int node, int label, boolean when) {
+        int mark = top;
+        switch (ast.kind(node)) {
+            case LITERAL: {
+                ValueType type = program.type(node);
+                boolean truth = Interpreter.category(type) == 'I' ? literalLong(node) != 0 : program.realValue(node) != 0;
+                if (truth == when) jump(RegisterProgram.JUMP, label);
+                return;
+            }
+            case UNARY:
+                if (ast.tokenIs(node, "!")) {
+                    condition(ast.firstChild(node), label, !when);
+                    return;
+                }
+                break;
+            case BINARY: {
+                String op = ast.tokenText(node);
+                int left = ast.firstChild(node);
+                int right = ast.child(node, 1);
+                switch (op) {
+                    case "&&":
+                    case "||":
+                        if (op.equals("&&") == when) {
+                            // Both must hold (&& true) or both fail (|| false)
+                            int skip = newLabel();
+                            condition(left, skip, !when);
+                            condition(right, label, when);
+                            bind(skip);
+                        } else {
+                            condition(left, label, when);
+                            condition(right, label, when);
+                        }
+                        return;
+                    case "<":
+                    case "<=":
+                    case ">":
+                    case ">=":
+                    case "==":
+                    case "!=":
+                        compare(op, left, right, label, when);
+                        top = mark;
+                        return;
+                    default:
+                        break;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        ValueType type = program.type(node);
+        int value = evaluate(node, type, -1);
+        if (Interpreter.category(type) == 'D') {
+            int truth = temp();
+            emit(RegisterProgram.D2B, truth, value);
+            value = truth;
+        }
+        jump(when ? RegisterProgram.JNZ : RegisterProgram.JZ, label, value);
+        top = mark;
+    }
+
+    private void compare(String op, int left, int right, int label, boolean when) {
+        ValueType l = program.type(left);
+        ValueType r = program.type(right);
+        if (l == ValueType.STRING) {
+            int a = evaluateString(left, -1);
+            int b = evaluateString(right, -1);
+            int order = temp();
+            boolean equality = op.equals("==") || op.equals("!=");
+            emit(equality ? RegisterProgram.EQ_S : RegisterProgram.CMP_S, order, a, b);
+            jump(branch(when ? op : negate(op), true), label, order, 0);
+            return;
+        }
+        ValueType common = ValueType.promote(l, r);
+        if (Interpreter.category(common) == 'D') {
+            int a = real(left, common, -1);
+            int b = real(right, common, -1);
+            if (when) {
+                jump(branch(op, false) + RegisterProgram.JLT_D - RegisterProgram.JLT, label, a, b);
+            } else {
+                // Negating a comparison isn't its complement when NaN is involved
+                int skip = newLabel();
+                jump(branch(op, false) + RegisterProgram.JLT_D - RegisterProgram.JLT, skip, a, b);
+                jump(RegisterProgram.JUMP, label);
+                bind(skip);
+            }
+            return;
+        }
+        if (!when) op = negate(op);
+        if (common == ValueType.UNSIGNED_INT) {
+            int a = integral(left, common, -1);
+            int b = integral(right, common, -1);
+            int order = temp();
+            emit(RegisterProgram.CMP_U, order, a, b);
+            jump(branch(op, true), label, order, 0);
+            return;
+        }
+        if (isLiteral(left) && !isLiteral(right)) {
+            int swap = left;
+            left = right;
+            right = swap;
+            op = mirror(op);
+        }
+        if (isLiteral(right)) {
+            long k = Interpreter.convert(literalLong(right), program.type(right), common);
+            if (k == (int) k) {
+                jump(branch(op, true), label, integral(left, common, -1), (int) k);
+                return;
+            }
+        }
+        int a = integral(left, common, -1);
+        int b = integral(right, common, -1);
+        jump(branch(op, false), label, a, b);
+    }
+
+    // The integer compare-and-branch for op, against a constant or not
+    private static int branch(String op, boolean constant) {
+        int code;
+        switch (op) {
+            case "<":
+                code = RegisterProgram.JLT;
+                break;
+            case "<=":
+                code = RegisterProgram.JLE;
+                break;
+            case ">":
+                code = RegisterProgram.JGT;
+                break;
+            case ">=":
+                code = RegisterProgram.JGE;
+                break;
+            case "==":
+                code = RegisterProgram.JEQ;
+                break;
+            default:
+                code = RegisterProgram.JNE;
+        }
+        return constant ? code + RegisterProgram.JLT_K - RegisterProgram.JLT : code;
+    }
+
+    private static String negate(String op) {
+        switch (op) {
+            case "<":
+                return ">=";
+            case "<=":
+                return ">";
+            case ">":
+                return "<=";
+            case ">=":
+                return "<";
+            case "==":
+                return "!=";
+            default:
+                return "==";
+        }
+    }
+
+    // a op b as b op' a
+    private static String mirror(String op) {
+        switch (op) {
+            case "<":
+                return ">";
+            case "<=":
+                return ">=";
+            case ">":
+                return "<";
+            case ">=":
+                return "<=";
+            default:
+                return op;
+        }
+    }
+
+    // A condition's value as 0 or 1. The register is written only after
+    // the condition has read everything, so it may be one of its operands.
+    private int materialize(int node, int dest) {
+        int mark = top;
+        int yes = newLabel();
+        int end = newLabel();
+        condition(node, yes, true);
+        top = mark;
+        int register = target(dest);
+        constant(register, 0);
+        jump(RegisterProgram.JUMP, end);
+        bind(yes);
+        constant(register, 1);
+        bind(end);
+        return register;
+    }
+
+    // ===== CONVERSIONS =====
+
+    private static boolean isInt(ValueType type) {
+        return type == ValueType.INT || type == ValueType.UNSIGNED_INT;
+    }
+
+    private static boolean isLong(ValueType type) {
+        return type == ValueType.LONG || type == ValueType.LONG_LONG;
+    }
+
+    private boolean isLiteral(int node) {
+        return ast.kind(node) == Ast.Kind.LITERAL && Interpreter.category(program.type(node)) == 'I';
+    }
+
+    // An integer, char or bool literal's value in its own type
+    private long literalLong(int node) {
+        ValueType type = program.type(node);
+        switch (type) {
+            case CHAR:
+                return program.charValue(node);
+            case BOOL:
+                return ast.tokenIs(node, "true") ? 1 : 0;
+            default:
+                return Interpreter.narrow(type, program.integerValue(node));
+        }
+    }
+
+    // Whether a value of integer type from needs an instruction to become a to
+    private static boolean needsConversion(ValueType from, ValueType to) {
+        if (from == to) return false;
+        switch (to) {
+            case INT:
+            case UNSIGNED_INT:
+                return isLong(from);
+            case SHORT:
+                return from != ValueType.CHAR && from != ValueType.BOOL;
+            case CHAR:
+                return from != ValueType.BOOL;
+            case BOOL:
+                return true;
+            default: // long, long long
+                return from == ValueType.UNSIGNED_INT;
+        }
+    }
+
+    // Interpreter.convert as instructions
+    private int convert(int value, ValueType from, ValueType to, int dest) {
+        if (!needsConversion(from, to)) return move(RegisterProgram.MOVE_L, value, dest);
+        int register = target(dest);
+        if (to == ValueType.BOOL) {
+            emit(RegisterProgram.TO_BOOL, register, value);
+        } else if (isLong(to)) {
+            emit(RegisterProgram.U2L, register, value);
+        } else {
+            emit(narrowing(to), register, value);
+        }
+        return register;
+    }
+
+    // Interpreter.fromReal as instructions
+    private int fromReal(int value, ValueType to, int dest) {
+        int register = target(dest);
+        switch (to) {
+            case BOOL:
+                emit(RegisterProgram.D2B, register, value);
+                break;
+            case LONG:
+            case LONG_LONG:
+                emit(RegisterProgram.D2L, register, value);
+                break;
+            case UNSIGNED_INT:
+                emit(RegisterProgram.D2L, register, value);
+                emit(RegisterProgram.TO_INT, register, register);
+                break;
+            default:
+                emit(RegisterProgram.D2I, register, value);
+                if (to != ValueType.INT) emit(narrowing(to), register, register);
+        }
+        return register;
+    }
+
+    // Cuts register, in place, to the width of an integer type
+    private void narrow(ValueType type, int register) {
+        if (!isLong(type)) emit(narrowing(type), register, register);
+    }
+
+    private static int narrowing(ValueType type) {
+        switch (type) {
+            case SHORT:
+                return RegisterProgram.TO_SHORT;
+            case CHAR:
+                return RegisterProgram.TO_CHAR;
+            case BOOL:
+                return RegisterProgram.TO_BOOL;
+            default:
+                return RegisterProgram.TO_INT;
+        }
+    }
+
+    private static int moveOp(ValueType type) {
+        switch (Interpreter.category(type)) {
+            case 'I':
+                return RegisterProgram.MOVE_L;
+            case 'D':
+                return RegisterProgram.MOVE_D;
+            default:
+                return RegisterProgram.MOVE_S;
+        }
+    }
+
+    private static int get(ValueType type) {
+        return moveOp(type) - RegisterProgram.MOVE_L + RegisterProgram.GET_L;
+    }
+
+    private static int put(ValueType type) {
+        return moveOp(type) - RegisterProgram.MOVE_L + RegisterProgram.PUT_L;
+    }
+}
@@ -0,0 +1,783 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// A program RegisterCompiler lowered to register machine code, and the
+// machine that runs it.
+//
+// Code is one int[]. An instruction's first word packs the opcode in its
+// low 8 bits and the first operand (usually the destination register, or a
+// jump target) in the upper 24; the other operands, if any, follow as
+// whole words, OPERANDS[op] of them. A function's registers are its
+// parameters (0..n-1), then its other locals, then the temporaries its
+// expressions need; they live at base + r in three parallel register files,
+// long[] for every integer type and bool, double[] for float and double,
+// String[] for string, and the opcode says which file. So arithmetic never
+// boxes, and a local is read where it lies instead of being pushed first.
+//
+// Integer registers hold values in their C++ width the way the Interpreter
+// does (an int as a sign-extended int, an unsigned int as the int with the
+// same bits); the compiler emits every narrowing explicitly. A call's
+// arguments are evaluated into consecutive registers at the top of the
+// caller's frame, which become the callee's parameters, and the result
+// comes back in the first of them.
+//
+// Output is buffered and written to the PrintStream in blocks. Every run
+// counts the instructions it executes, so instructionsPerSecond() is the
+// machine's own throughput figure.
+public final class RegisterProgram {
+    // ===== OPCODES =====
+
+    // Moves and constants: a = destination
+    static final int MOVE_L = 0;      // a b
+    static final int MOVE_D = 1;      // a b
+    static final int MOVE_S = 2;      // a b
+    static final int CONST_I = 3;     // a immediate
+    static final int CONST_L = 4;     // a longs[k]
+    static final int CONST_D = 5;     // a doubles[k]
+    static final int CONST_S = 6;     // a strings[k]
+    static final int GET_L = 7;       // a global
+    static final int GET_D = 8;       // a global
+    static final int GET_S = 9;       // a global
+    static final int PUT_L = 10;      // global b
+    static final int PUT_D = 11;      // global b
+    static final int PUT_S = 12;      // global b
+
+    // int and unsigned int arithmetic (cut to 32 bits): a = b op c
+    static final int ADD_I = 13;
+    static final int SUB_I = 14;
+    static final int MUL_I = 15;
+    static final int DIV_I = 16;
+    static final int REM_I = 17;
+    static final int DIV_U = 18;
+    static final int REM_U = 19;
+    static final int SHL_I = 20;
+    static final int SHR_I = 21;
+    static final int USHR_I = 22;
+    // long and long long arithmetic
+    static final int ADD_L = 23;
+    static final int SUB_L = 24;
+    static final int MUL_L = 25;
+    static final int DIV_L = 26;
+    static final int REM_L = 27;
+    static final int SHL_L = 28;
+    static final int SHR_L = 29;
+    // Bitwise logic, the same at every width
+    static final int AND = 30;
+    static final int OR = 31;
+    static final int XOR = 32;
+    static final int NEG_L = 33;      // a b
+    static final int NOT = 34;        // a b
+    static final int ADDK_I = 35;     // a b immediate: a = (int) (b + immediate)
+    static final int INC_I = 36;      // a immediate: a = (int) (a + immediate)
+    static final int INC_L = 37;      // a immediate
+
+    // Floating point: a = b op c, rounded to float by a separate D2F
+    static final int ADD_D = 38;
+    static final int SUB_D = 39;
+    static final int MUL_D = 40;
+    static final int DIV_D = 41;
+    static final int NEG_D = 42;      // a b
+
+    // Conversions: a = convert(b)
+    static final int TO_INT = 43;
+    static final int TO_SHORT = 44;
+    static final int TO_CHAR = 45;
+    static final int TO_BOOL = 46;
+    static final int U2L = 47;        // unsigned int to its 64-bit value
+    static final int L2D = 48;
+    static final int L2F = 49;
+    static final int D2F = 50;
+    static final int D2L = 51;
+    static final int D2I = 52;
+    static final int D2B = 53;
+
+    // Strings
+    static final int CONCAT = 54;     // a b c
+    static final int CHAR_STR = 55;   // a b: a one-char string
+    static final int LENGTH = 56;     // a b: long a = length of string b
+    static final int CMP_S = 57;      // a b c: long a = order of b and c
+    static final int EQ_S = 58;       // a b c: long a = 0 when equal, 1 otherwise
+    static final int CMP_U = 59;      // a b c: long a = unsigned order of b and c
+
+    // Jumps: the target in a
+    static final int JUMP = 60;
+    static final int JZ = 61;         // target b
+    static final int JNZ = 62;        // target b
+    // Compare two integer registers and branch: target b c
+    static final int JLT = 63;
+    static final int JLE = 64;
+    static final int JGT = 65;
+    static final int JGE = 66;
+    static final int JEQ = 67;
+    static final int JNE = 68;
+    // Compare an integer register with an immediate: target b immediate
+    static final int JLT_K = 69;
+    static final int JLE_K = 70;
+    static final int JGT_K = 71;
+    static final int JGE_K = 72;
+    static final int JEQ_K = 73;
+    static final int JNE_K = 74;
+    // Compare two floating-point registers (false on NaN, except !=)
+    static final int JLT_D = 75;
+    static final int JLE_D = 76;
+    static final int JGT_D = 77;
+    static final int JGE_D = 78;
+    static final int JEQ_D = 79;
+    static final int JNE_D = 80;
+
+    // Calls: the callee's frame starts at register a of the caller's
+    static final int CALL = 81;       // a function
+    static final int RET = 82;
+    static final int RET_L = 83;      // a
+    static final int RET_D = 84;      // a
+    static final int RET_S = 85;      // a
+    static final int HALT = 86;       // a: exit code, or -1 for 0
+
+    // <cmath> and <algorithm>
+    static final int MATH = 87;       // a b function: a = function(b)
+    static final int POW = 88;        // a b c
+    static final int MIN_D = 89;
+    static final int MAX_D = 90;
+    static final int ABS_D = 91;      // a b
+    static final int ABS_I = 92;      // a b
+    static final int ABS_L = 93;      // a b
+    static final int MIN_L = 94;      // a b c
+    static final int MAX_L = 95;      // a b c
+
+    // Output
+    static final int PRINT_I = 96;    // a
+    static final int PRINT_U = 97;
+    static final int PRINT_C = 98;
+    static final int PRINT_L = 99;
+    static final int PRINT_F = 100;
+    static final int PRINT_D = 101;
+    static final int PRINT_S = 102;
+    static final int ENDL = 103;
+
+    static final String[] NAMES = {
+        "move.l", "move.d", "move.s", "const.i", "const.l", "const.d", "const.s",
+        "get.l", "get.d", "get.s", "put.l", "put.d", "put.s",
+        "add.i", "sub.i", "mul.i", "div.i", "rem.i", "div.u", "rem.u", "shl.i", "shr.i", "ushr.i",
+        "add.l", "sub.l", "mul.l", "div.l", "rem.l", "shl.l", "shr.l",
+        "and", "or", "xor", "neg.l", "not", "addk.i", "inc.i", "inc.l",
+        "add.d", "sub.d", "mul.d", "div.d", "neg.d",
+        "to.int", "to.short", "to.char", "to.bool", "u2l", "l2d", "l2f", "d2f", "d2l", "d2i", "d2b",
+        "concat", "char.str", "length", "cmp.s", "eq.s", "cmp.u",
+        "jump", "jz", "jnz", "jlt", "jle", "jgt", "jge", "jeq", "jne",
+        "jlt.k", "jle.k", "jgt.k", "jge.k", "jeq.k", "jne.k",
+        "jlt.d", "jle.d", "jgt.d", "jge.d", "jeq.d", "jne.d",
+        "call", "ret", "ret.l", "ret.d", "ret.s", "halt",
+        "math", "pow", "min.d", "max.d", "abs.d", "abs.i", "abs.l", "min.l", "max.l",
+        "print.i", "print.u", "print.c", "print.l", "print.f", "print.d", "print.s", "endl",
+    };
+
+    // Operand words after the first, by opcode
+    static final byte[] OPERANDS = new byte[NAMES.length];
+
+    static {
+        Arrays.fill(OPERANDS, (byte) 1);
+        for (int op : new int[] {ADD_I, SUB_I, MUL_I, DIV_I, REM_I, DIV_U, REM_U, SHL_I, SHR_I, USHR_I,
+                ADD_L, SUB_L, MUL_L, DIV_L, REM_L, SHL_L, SHR_L, AND, OR, XOR, ADDK_I,
+                ADD_D, SUB_D, MUL_D, DIV_D, CONCAT, CMP_S, EQ_S, CMP_U,
+                JLT, JLE, JGT, JGE, JEQ, JNE, JLT_K, JLE_K, JGT_K, JGE_K, JEQ_K, JNE_K,
+                JLT_D, JLE_D, JGT_D, JGE_D, JEQ_D, JNE_D, MATH, POW, MIN_D, MAX_D, MIN_L, MAX_L}) {
+            OPERANDS[op] = 2;
+        }
+        for (int op : new int[] {JUMP, RET, RET_L, RET_D, RET_S, HALT,
+                PRINT_I, PRINT_U, PRINT_C, PRINT_L, PRINT_F, PRINT_D, PRINT_S, ENDL}) {
+            OPERANDS[op] = 0;
+        }
+    }
+
+    // MATH functions
+    static final String[] MATH_FUNCTIONS = {"sqrt", "sin", "cos", "tan", "exp", "log", "log10", "floor", "ceil", "fabs"};
+
+    // Frames deeper than this are a runaway recursion
+    private static final int MAX_DEPTH = 1 << 16;
+    // Output is handed to the stream in blocks of about this many chars
+    private static final int OUTPUT_BLOCK = 8192;
+
+    // ===== PROGRAM =====
+
+    private final int[] code;
+    private final long[] longs;
+    private final double[] doubles;
+    private final String[] strings;
+    // Entry pc and register count of every function
+    private final int[] entries;
+    private final int[] frameSizes;
+    private final int globals;
+    // Source line of the instructions from lineStarts[i] on
+    private final int[] lineStarts;
+    private final int[] lineNumbers;
+
+    private long executed;
+    private long nanos;
+
+    RegisterProgram(int[] code, long[] longs, double[] doubles, String[] strings,
+                    int[] entries, int[] frameSizes, int globals, int[] lineStarts, int[] lineNumbers) {
+        this.code = code;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.strings = strings;
+        this.entries = entries;
+        this.frameSizes = frameSizes;
+        this.globals = globals;
+        this.lineStarts = lineStarts;
+        this.lineNumbers = lineNumbers;
+    }
+
+    // Code words, for sizing
+    public int size() {
+        return code.length;
+    }
+
+    // Instructions the last run executed, and how fast
+    public long instructionsExecuted() {
+        return executed;
+    }
+
+    public double instructionsPerSecond() {
+        return nanos > 0 ? executed * 1e9 / nanos : 0;
+    }
+
+    // Runs main() like CompiledProgram.run
+    public int run(PrintStream out) {
+        StringBuilder output = new StringBuilder();
+        executed = 0;
+        long start = System.nanoTime();
+        try {
+            return execute(out, output);
+        } finally {
+            nanos = System.nanoTime() - start;
+            out.append(output);
+            out.flush();
+        }
+    }
+
+    // ===== MACHINE =====
+
+    private int execute(PrintStream out, StringBuilder output) {
+        final int[] code = this.code;
+        long[] l = new long[Math.max(64, frameSizes[frameSizes.length - 1] * 4)];
+        double[] d = new double[l.length];
+        String[] s = new String[l.length];
+        long[] globalLongs = new long[globals];
+        double[] globalDoubles = new double[globals];
+        String[] globalStrings = new String[globals];
+        int[] returnPcs = new int[64];
+        int[] returnBases = new int[64];
+        int depth = 0;
+        int base = 0;
+        int pc = 0;
+        int at = 0;
+        long count = 0;
+        try {
+            while (true) {
+                at = pc;
+                int word = code[pc];
+                int a = base + (word >>> 8);
+                if ((++count & 0xFFFF) == 0) ProgramRuntime.poll();
+                switch (word & 0xFF) {
+                    case MOVE_L:
+                        l[a] = l[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case MOVE_D:
+                        d[a] = d[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case MOVE_S:
+                        s[a] = s[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case CONST_I:
+                        l[a] = code[pc + 1];
+                        pc += 2;
+                        break;
+                    case CONST_L:
+                        l[a] = longs[code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case CONST_D:
+                        d[a] = doubles[code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case CONST_S:
+                        s[a] = strings[code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case GET_L:
+                        l[a] = globalLongs[code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case GET_D:
+                        d[a] = globalDoubles[code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case GET_S:
+                        s[a] = globalStrings[code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case PUT_L:
+                        globalLongs[word >>> 8] = l[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case PUT_D:
+                        globalDoubles[word >>> 8] = d[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case PUT_S:
+                        globalStrings[word >>> 8] = s[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+
+                    case ADD_I:
+                        l[a] = (int) (l[base + code[pc + 1]] + l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case SUB_I:
+                        l[a] = (int) (l[base + code[pc + 1]] - l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case MUL_I:
+                        l[a] = (int) (l[base + code[pc + 1]] * l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case DIV_I:
+                        l[a] = (int) (l[base + code[pc + 1]] / l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case REM_I:
+                        l[a] = (int) (l[base + code[pc + 1]] % l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case DIV_U:
+                        l[a] = Integer.divideUnsigned((int) l[base + code[pc + 1]], (int) l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case REM_U:
+                        l[a] = Integer.remainderUnsigned((int) l[base + code[pc + 1]], (int) l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case SHL_I:
+                        l[a] = (int) l[base + code[pc + 1]] << (int) l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case SHR_I:
+                        l[a] = (int) l[base + code[pc + 1]] >> (int) l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case USHR_I:
+                        l[a] = (int) l[base + code[pc + 1]] >>> (int) l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case ADD_L:
+                        l[a] = l[base + code[pc + 1]] + l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case SUB_L:
+                        l[a] = l[base + code[pc + 1]] - l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case MUL_L:
+                        l[a] = l[base + code[pc + 1]] * l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case DIV_L:
+                        l[a] = l[base + code[pc + 1]] / l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case REM_L:
+                        l[a] = l[base + code[pc + 1]] % l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case SHL_L:
+                        l[a] = l[base + code[pc + 1]] << l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case SHR_L:
+                        l[a] = l[base + code[pc + 1]] >> l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case AND:
+                        l[a] = l[base + code[pc + 1]] & l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case OR:
+                        l[a] = l[base + code[pc + 1]] | l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case XOR:
+                        l[a] = l[base + code[pc + 1]] ^ l[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case NEG_L:
+                        l[a] = -l[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case NOT:
+                        l[a] = ~l[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case ADDK_I:
+                        l[a] = (int) (l[base + code[pc + 1]] + code[pc + 2]);
+                        pc += 3;
+                        break;
+                    case INC_I:
+                        l[a] = (int) (l[a] + code[pc + 1]);
+                        pc += 2;
+                        break;
+                    case INC_L:
+                        l[a] += code[pc + 1];
+                        pc += 2;
+                        break;
+
+                    case ADD_D:
+                        d[a] = d[base + code[pc + 1]] + d[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case SUB_D:
+                        d[a] = d[base + code[pc + 1]] - d[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case MUL_D:
+                        d[a] = d[base + code[pc + 1]] * d[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case DIV_D:
+                        d[a] = d[base + code[pc + 1]] / d[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case NEG_D:
+                        d[a] = -d[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+
+                    case TO_INT:
+                        l[a] = (int) l[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case TO_SHORT:
+                        l[a] = (short) l[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case TO_CHAR:
+                        l[a] = (byte) l[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case TO_BOOL:
+                        l[a] = l[base + code[pc + 1]] != 0 ? 1 : 0;
+                        pc += 2;
+                        break;
+                    case U2L:
+                        l[a] = l[base + code[pc + 1]] & 0xFFFFFFFFL;
+                        pc += 2;
+                        break;
+                    case L2D:
+                        d[a] = l[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case L2F:
+                        d[a] = (float) l[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case D2F:
+                        d[a] = (float) d[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case D2L:
+                        l[a] = (long) d[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case D2I:
+                        l[a] = (int) d[base + code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case D2B:
+                        l[a] = d[base + code[pc + 1]] != 0 ? 1 : 0;
+                        pc += 2;
+                        break;
+
+                    case CONCAT:
+                        s[a] = ProgramRuntime.concat(s[base + code[pc + 1]], s[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case CHAR_STR:
+                        s[a] = ProgramRuntime.charToString((int) l[base + code[pc + 1]]);
+                        pc += 2;
+                        break;
+                    case LENGTH:
+                        l[a] = s[base + code[pc + 1]].length();
+                        pc += 2;
+                        break;
+                    case CMP_S:
+                        l[a] = s[base + code[pc + 1]].compareTo(s[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case EQ_S:
+                        l[a] = s[base + code[pc + 1]].equals(s[base + code[pc + 2]]) ? 0 : 1;
+                        pc += 3;
+                        break;
+                    case CMP_U:
+                        l[a] = Integer.compareUnsigned((int) l[base + code[pc + 1]], (int) l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+
+                    case JUMP:
+                        pc = word >>> 8;
+                        break;
+                    case JZ:
+                        pc = l[base + code[pc + 1]] == 0 ? word >>> 8 : pc + 2;
+                        break;
+                    case JNZ:
+                        pc = l[base + code[pc + 1]] != 0 ? word >>> 8 : pc + 2;
+                        break;
+                    case JLT:
+                        pc = l[base + code[pc + 1]] < l[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JLE:
+                        pc = l[base + code[pc + 1]] <= l[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JGT:
+                        pc = l[base + code[pc + 1]] > l[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JGE:
+                        pc = l[base + code[pc + 1]] >= l[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JEQ:
+                        pc = l[base + code[pc + 1]] == l[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JNE:
+                        pc = l[base + code[pc + 1]] != l[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JLT_K:
+                        pc = l[base + code[pc + 1]] < code[pc + 2] ? word >>> 8 : pc + 3;
+                        break;
+                    case JLE_K:
+                        pc = l[base + code[pc + 1]] <= code[pc + 2] ? word >>> 8 : pc + 3;
+                        break;
+                    case JGT_K:
+                        pc = l[base + code[pc + 1]] > code[pc + 2] ? word >>> 8 : pc + 3;
+                        break;
+                    case JGE_K:
+                        pc = l[base + code[pc + 1]] >= code[pc + 2] ? word >>> 8 : pc + 3;
+                        break;
+                    case JEQ_K:
+                        pc = l[base + code[pc + 1]] == code[pc + 2] ? word >>> 8 : pc + 3;
+                        break;
+                    case JNE_K:
+                        pc = l[base + code[pc + 1]] != code[pc + 2] ? word >>> 8 : pc + 3;
+                        break;
+                    case JLT_D:
+                        pc = d[base + code[pc + 1]] < d[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JLE_D:
+                        pc = d[base + code[pc + 1]] <= d[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JGT_D:
+                        pc = d[base + code[pc + 1]] > d[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JGE_D:
+                        pc = d[base + code[pc + 1]] >= d[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JEQ_D:
+                        pc = d[base + code[pc + 1]] == d[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+                    case JNE_D:
+                        pc = d[base + code[pc + 1]] != d[base + code[pc + 2]] ? word >>> 8 : pc + 3;
+                        break;
+
+                    case CALL: {
+                        int f = code[pc + 1];
+                        if (depth == returnPcs.length) {
+                            if (depth == MAX_DEPTH) throw new StackOverflowError();
+                            returnPcs = Arrays.copyOf(returnPcs, depth * 2);
+                            returnBases = Arrays.copyOf(returnBases, depth * 2);
+                        }
+                        returnPcs[depth] = pc + 2;
+                        returnBases[depth] = base;
+                        depth++;
+                        base = a;
+                        if (base + frameSizes[f] > l.length) {
+                            int length = Math.max(l.length * 2, base + frameSizes[f]);
+                            l = Arrays.copyOf(l, length);
+                            d = Arrays.copyOf(d, length);
+                            s = Arrays.copyOf(s, length);
+                        }
+                        pc = entries[f];
+                        break;
+                    }
+                    case RET_L:
+                        l[base] = l[a];
+                        depth--;
+                        pc = returnPcs[depth];
+                        base = returnBases[depth];
+                        break;
+                    case RET_D:
+                        d[base] = d[a];
+                        depth--;
+                        pc = returnPcs[depth];
+                        base = returnBases[depth];
+                        break;
+                    case RET_S:
+                        s[base] = s[a];
+                        depth--;
+                        pc = returnPcs[depth];
+                        base = returnBases[depth];
+                        break;
+                    case RET:
+                        depth--;
+                        pc = returnPcs[depth];
+                        base = returnBases[depth];
+                        break;
+                    case HALT:
+                        return word >>> 8 == 0xFFFFFF ? 0 : (int) l[a];
+
+                    case MATH:
+                        d[a] = math(code[pc + 2], d[base + code[pc + 1]]);
+                        pc += 3;
+                        break;
+                    case POW:
+                        d[a] = Math.pow(d[base + code[pc + 1]], d[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case MIN_D:
+                        d[a] = Math.min(d[base + code[pc + 1]], d[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case MAX_D:
+                        d[a] = Math.max(d[base + code[pc + 1]], d[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case ABS_D:
+                        d[a] = Math.abs(d[base + code[pc + 1]]);
+                        pc += 2;
+                        break;
+                    case ABS_I:
+                        l[a] = Math.abs((int) l[base + code[pc + 1]]);
+                        pc += 2;
+                        break;
+                    case ABS_L:
+                        l[a] = Math.abs(l[base + code[pc + 1]]);
+                        pc += 2;
+                        break;
+                    case MIN_L:
+                        l[a] = Math.min(l[base + code[pc + 1]], l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+                    case MAX_L:
+                        l[a] = Math.max(l[base + code[pc + 1]], l[base + code[pc + 2]]);
+                        pc += 3;
+                        break;
+
+                    case PRINT_I:
+                        output.append((int) l[a]);
+                        pc++;
+                        break;
+                    case PRINT_U:
+                        output.append(Integer.toUnsignedString((int) l[a]));
+                        pc++;
+                        break;
+                    case PRINT_C:
+                        output.append((char) (l[a] & 0xFF));
+                        pc++;
+                        break;
+                    case PRINT_L:
+                        output.append(l[a]);
+                        pc++;
+                        break;
+                    case PRINT_F:
+                        output.append(ProgramRuntime.format((float) d[a]));
+                        pc++;
+                        break;
+                    case PRINT_D:
+                        output.append(ProgramRuntime.format(d[a]));
+                        pc++;
+                        break;
+                    case PRINT_S:
+                        output.append(s[a]);
+                        pc++;
+                        break;
+                    case ENDL:
+                        output.append('\n');
+                        if (output.length() >= OUTPUT_BLOCK) {
+                            out.append(output);
+                            output.setLength(0);
+                        }
+                        pc++;
+                        break;
+                    default:
+                        throw new IllegalStateException("Bad opcode " + (word & 0xFF) + " at " + pc);
+                }
+            }
+        } catch (ProgramRuntime.Halted e) {
+            throw new ProgramRuntime.ProgramException("program stopped", lineAt(at));
+        } catch (ArithmeticException e) {
+            throw new ProgramRuntime.ProgramException("division by zero", lineAt(at));
+        } catch (StackOverflowError e) {
+            throw new ProgramRuntime.ProgramException("stack overflow (recursion too deep)", lineAt(at));
+        } catch (OutOfMemoryError e) {
+            throw new ProgramRuntime.ProgramException("out of memory", lineAt(at));
+        } finally {
+            executed = count;
+        }
+    }
+
+    private static double math(int function, double value) {
+        switch (function) {
+            case 0:
+                return Math.sqrt(value);
+            case 1:
+                return Math.sin(value);
+            case 2:
+                return Math.cos(value);
+            case 3:
+                return Math.tan(value);
+            case 4:
+                return Math.exp(value);
+            case 5:
+                return Math.log(value);
+            case 6:
+                return Math.log10(value);
+            case 7:
+                return Math.floor(value);
+            case 8:
+                return Math.ceil(value);
+            default: // fabs
+                return Math.abs(value);
+        }
+    }
+
+    private int lineAt(int pc) {
+        int i = Arrays.binarySearch(lineStarts, pc);
+        if (i < 0) i = -i - 2;
+        return i >= 0 ? lineNumbers[i] : 0;
+    }
+
+    // ===== LISTING =====
+
+    // The code as text, one instruction per line, for debugging the
+    // compiler
+    public String disassemble() {
+        StringBuilder sb = new StringBuilder();
+        int line = 0;
+        for (int pc = 0; pc < code.length; pc += 1 + OPERANDS[code[pc] & 0xFF]) {
+            for (int f = 0; f < entries.length; f++) {
+                if (entries[f] == pc) sb.append("function ").append(f).append(" (").append(frameSizes[f]).append(" registers):\n");
+            }
+            int at = lineAt(pc);
+            if (at != line) {
+                line = at;
+                sb.append("      ; line ").append(line).append('\n');
+            }
+            int op = code[pc] & 0xFF;
+            sb.append(String.format("%5d  %-9s %d", pc, NAMES[op], code[pc] >>> 8));
+            for (int k = 1; k <= OPERANDS[op]; k++) {
+                sb.append(", ").append(code[pc + k]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
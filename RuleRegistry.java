@@ -0,0 +1,118 @@
+import java.util.*;
+import java.util.function.Predicate;
+
+// Ordered set of per-line diagnostic rules.
+//
+// Each rule is declared once with an id, the scopes it runs in, a cheap
+// applicability test on the classified LineInfo and the check itself. The
+// analyzer's line loop just asks for the enabled rules of each line's
+// scope, so rules can be switched on and off (or new ones added) without
+// touching the loop. Rules run in registration order; order matters because some
+// rules update the symbol table that later rules read.
+public class RuleRegistry {
+    // Where a line is: outside every function, or inside a function body
+    public enum Scope { TOP_LEVEL, FUNCTION_BODY }
+
+    // What a rule's result on a line depends on, for LineCache: nothing
+    // it can be cached by (NONE: it reads the tree or declares symbols),
+    // the line's text only, or the text and the types of its names
+    public enum Memo { NONE, TEXT, TEXT_AND_SYMBOLS }
+
+    public interface Check {
+        void run(SyntaxAnalyzer session, LineInfo line, DiagnosticSink sink);
+    }
+
+    public static final class Rule {
+        final String id;
+        final EnumSet<Scope> scopes;
+        final Predicate<LineInfo> appliesTo;
+        final Memo memo;
+        final Check check;
+
+        Rule(String id, EnumSet<Scope> scopes, Predicate<LineInfo> appliesTo, Memo memo, Check check) {
+            this.id = id;
+            this.scopes = scopes;
+            this.appliesTo = appliesTo;
+            this.memo = memo;
+            this.check = check;
+        }
+
+        public String id() {
+            return id;
+        }
+    }
+
+    private final List<Rule> rules = new ArrayList<>();
+    private final Set<String> disabled = new HashSet<>();
+    private final Map<Scope, Rule[]> active = new EnumMap<>(Scope.class);
+
+    public RuleRegistry add(String id, EnumSet<Scope> scopes, Predicate<LineInfo> appliesTo, Check check) {
+        return add(id, scopes, appliesTo, Memo.NONE, check);
+    }
+
+    public RuleRegistry add(String id, EnumSet<Scope> scopes, Predicate<LineInfo> appliesTo, Memo memo, Check check) {
+        for (Rule rule : rules) {
+            if (rule.id.equals(id)) throw new IllegalArgumentException("Duplicate rule id: " + id);
+        }
+        rules.add(new Rule(id, scopes, appliesTo, memo, check));
+        active.clear();
+        return this;
+    }
+
+    public void setEnabled(String id, boolean enabled) {
+        boolean known = false;
+        for (Rule rule : rules) {
+            known |= rule.id.equals(id);
+        }
+        if (!known) throw new IllegalArgumentException("Unknown rule id: " + id);
+        if (enabled) {
+            disabled.remove(id);
+        } else {
+            disabled.add(id);
+        }
+        active.clear();
+    }
+
+    public boolean isEnabled(String id) {
+        return !disabled.contains(id);
+    }
+
+    public List<String> ids() {
+        List<String> ids = new ArrayList<>(rules.size());
+        for (Rule rule : rules) {
+            ids.add(rule.id);
+        }
+        return ids;
+    }
+
+    // Enabled rules of one scope, in order; cached until the registry changes
+    Rule[] activeRules(Scope scope) {
+        Rule[] list = active.get(scope);
+        if (list == null) {
+            List<Rule> enabled = new ArrayList<>();
+            for (Rule rule : rules) {
+                if (rule.scopes.contains(scope) && !disabled.contains(rule.id)) {
+                    enabled.add(rule);
+                }
+            }
+            list = enabled.toArray(new Rule[0]);
+            active.put(scope, list);
+        }
+        return list;
+    }
+
+    // Runs every applicable rule of the line's scope against it; cacheable
+    // rules go through cache when there is one
+    void run(SyntaxAnalyzer session, LineInfo line, DiagnosticSink sink, LineCache cache) {
+        for (Rule rule : activeRules(line.scope)) {
+            if (rule.appliesTo.test(line)) {
+                if (cache != null && rule.memo != Memo.NONE) {
+                    cache.run(session, rule, line, sink);
+                } else {
+                    rule.check.run(session, line, sink);
+                }
+                if (line.skipRemaining) return;
+            }
+        }
+    }
+}
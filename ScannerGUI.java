@@ -2,7 +2,6 @@ import java.awt.*;
 import java.io.*;
 import java.util.*;
 import java.util.List;
-import java.util.regex.*;
 import javax.swing.*;
 import javax.swing.border.*;
 import javax.swing.event.DocumentEvent;
@@ -12,24 +11,27 @@ import javax.swing.text.*;
 
 public class ScannerGUI {
     private JFrame frame;
-    private JTextArea inputTextArea;
-    private JTextArea symbolTableArea, tokenTableArea, errorConsoleArea;
+    private JTextArea symbolTableArea, tokenTableArea, errorConsoleArea, outputArea, assemblyArea;
     private JButton runButton, compileButton, scanButton, saveButton;
-    private String lastDeclarationType;
+    private JComboBox<String> engineBox;
     private JLabel statusBar;
     private StyleContext styleContext;
     private StyledDocument doc;
-    private Style keywordStyle;
     private String lastTokenNeedingSemicolon = null;
     private JTextPane inputTextPane;
     private JTabbedPane tabbedPane;
     private TextLineNumber textLineNumber;
+    private final IncrementalLexer relexer = new IncrementalLexer();
+    private SyntaxHighlighter highlighter;
+    private AnalysisScheduler scheduler;
+    private SwingDiagnosticSink errorSink;
+    private Thread runningProgram; // touched on the EDT only
 
     // List of keywords to highlight
     private static final String[] KEYWORDS = {
         "int", "float", "double", "char", "string", "void",
         "if", "else", "for", "while", "do", "switch", "case", "default",
-        "break", "continue", "return", "true", "false", "null","void","main()"
+        "break", "continue", "return", "true", "false", "null","void","main"
     };
 
     public ScannerGUI() {
@@ -83,16 +85,28 @@ public class ScannerGUI {
         runButton = new JButton("Run");
         compileButton = new JButton("Compile");
         scanButton = new JButton("Scan & Analyze");
+        // The register VM starts at once; JVM bytecode runs long loops faster
+        engineBox = new JComboBox<>(new String[] {"JVM bytecode", "Register VM"});
+        engineBox.setMaximumSize(engineBox.getPreferredSize());
+        JCheckBox liveAnalysisBox = new JCheckBox("Live Analysis");
+        JSpinner idleDelaySpinner = new JSpinner(new SpinnerNumberModel(800, 100, 5000, 100));
+        idleDelaySpinner.setMaximumSize(idleDelaySpinner.getPreferredSize());
 
         // Toolbar button actions
         compileButton.addActionListener(e -> performCompilation());
-        runButton.addActionListener(e -> JOptionPane.showMessageDialog(frame,
-            "Run feature is under development.", "Info", JOptionPane.INFORMATION_MESSAGE));
+        runButton.addActionListener(e -> runProgram());
         scanButton.addActionListener(e -> scanAndAnalyze());
+        liveAnalysisBox.addActionListener(e -> scheduler.setLive(liveAnalysisBox.isSelected()));
+        idleDelaySpinner.addChangeListener(e -> scheduler.setIdleDelay((Integer) idleDelaySpinner.getValue()));
 
         toolBar.add(runButton);
+        toolBar.add(engineBox);
         toolBar.add(compileButton);
         toolBar.add(scanButton);
+        toolBar.addSeparator();
+        toolBar.add(liveAnalysisBox);
+        toolBar.add(new JLabel(" Delay (ms): "));
+        toolBar.add(idleDelaySpinner);
         frame.add(toolBar, BorderLayout.NORTH);
 
         // ===== TOP: SOURCE CODE AREA (in a panel) =====
@@ -107,25 +121,29 @@ public class ScannerGUI {
         inputTextPane.setDocument(doc);
         inputTextPane.setFont(new Font("Monospaced", Font.PLAIN, 14));
 
-        // Create syntax highlighting styles
-        keywordStyle = styleContext.addStyle("KeywordStyle", null);
-        StyleConstants.setForeground(keywordStyle, Color.BLUE);
-        StyleConstants.setBold(keywordStyle, true);
-
-        // Add document listener for real-time highlighting and status updates
+        // Add document listener for real-time highlighting and status updates.
+        // The token stream is patched synchronously so it never lags the text.
         doc.addDocumentListener(new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent e) {
+                try {
+                    relexer.insert(e.getOffset(), doc.getText(e.getOffset(), e.getLength()));
+                } catch (BadLocationException ex) {
+                    ex.printStackTrace();
+                }
+                scheduler.documentChanged();
                 SwingUtilities.invokeLater(() -> {
-                    highlightKeywords();
+                    highlighter.schedule();
                     updateStatusBar();
                 });
             }
 
             @Override
             public void removeUpdate(DocumentEvent e) {
+                relexer.remove(e.getOffset(), e.getLength());
+                scheduler.documentChanged();
                 SwingUtilities.invokeLater(() -> {
-                    highlightKeywords();
+                    highlighter.schedule();
                     updateStatusBar();
                 });
             }
@@ -136,12 +154,16 @@ public class ScannerGUI {
             }
         });
 
-        inputTextArea = new JTextArea(); // Keep for compatibility
+        inputTextPane.addCaretListener(e -> updateStatusBar());
+
         JScrollPane inputScrollPane = new JScrollPane(inputTextPane);
         
         // Add line numbers to the editor
         textLineNumber = new TextLineNumber(inputTextPane);
         inputScrollPane.setRowHeaderView(textLineNumber);
+        highlighter = new SyntaxHighlighter(inputTextPane, inputScrollPane.getViewport(), relexer, KEYWORDS);
+        scheduler = new AnalysisScheduler(this::documentSnapshot, this::showAnalysisResult,
+            (Integer) idleDelaySpinner.getValue());
         inputPanel.add(inputScrollPane, BorderLayout.CENTER);
 
         // ===== BOTTOM: TABBED PANE =====
@@ -172,13 +194,34 @@ public class ScannerGUI {
         errorConsoleArea.setEditable(false);
         errorConsoleArea.setForeground(Color.RED);
         errorConsoleArea.setMargin(new Insets(5, 5, 5, 5));
+        errorSink = new SwingDiagnosticSink(errorConsoleArea);
         JScrollPane errorScrollPane = new JScrollPane(errorConsoleArea);
         errorPanel.add(errorScrollPane, BorderLayout.CENTER);
 
+        // Create Output Panel
+        JPanel outputPanel = new JPanel(new BorderLayout());
+        outputArea = new JTextArea();
+        outputArea.setFont(new Font("Monospaced", Font.PLAIN, 14));
+        outputArea.setEditable(false);
+        outputArea.setMargin(new Insets(5, 5, 5, 5));
+        JScrollPane outputScrollPane = new JScrollPane(outputArea);
+        outputPanel.add(outputScrollPane, BorderLayout.CENTER);
+
+        // Create Assembly Panel
+        JPanel assemblyPanel = new JPanel(new BorderLayout());
+        assemblyArea = new JTextArea();
+        assemblyArea.setFont(new Font("Monospaced", Font.PLAIN, 14));
+        assemblyArea.setEditable(false);
+        assemblyArea.setMargin(new Insets(5, 5, 5, 5));
+        JScrollPane assemblyScrollPane = new JScrollPane(assemblyArea);
+        assemblyPanel.add(assemblyScrollPane, BorderLayout.CENTER);
+
         // Add tabs
         tabbedPane.addTab("Token List", tokenPanel);
         tabbedPane.addTab("Symbol Table", symbolPanel);
         tabbedPane.addTab("Error Console", errorPanel);
+        tabbedPane.addTab("Output", outputPanel);
+        tabbedPane.addTab("Assembly", assemblyPanel);
 
         // ===== MAIN SPLIT: Source Code (top) & Tabbed Pane (bottom) =====
         JSplitPane verticalSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, inputPanel, tabbedPane);
@@ -189,7 +232,7 @@ public class ScannerGUI {
         // ===== STATUS BAR =====
         JPanel statusPanel = new JPanel(new BorderLayout());
         statusPanel.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
-        statusBar = new JLabel(" Words: 0 | Characters: 0 | Lines: 1");
+        statusBar = new JLabel(" Line: 1 | Column: 1 | Characters: 0 | Lines: 1");
         statusBar.setFont(new Font("SansSerif", Font.PLAIN, 12));
         statusBar.setBorder(BorderFactory.createLoweredSoftBevelBorder());
         statusPanel.add(statusBar, BorderLayout.CENTER);
@@ -199,141 +242,185 @@ public class ScannerGUI {
         updateStatusBar();
     }
 
+    // Line and column come from the root element's line index, so an edit
+    // or a caret move costs a binary search, not a copy of the document
     private void updateStatusBar() {
+        Element root = doc.getDefaultRootElement();
+        int caret = inputTextPane.getCaretPosition();
+        int line = root.getElementIndex(caret);
+        int column = caret - root.getElement(line).getStartOffset();
+        statusBar.setText(String.format(" Line: %d | Column: %d | Characters: %d | Lines: %d",
+            line + 1, column + 1, doc.getLength(), root.getElementCount()));
+    }
+
+    private String documentSnapshot() {
         try {
-            String text = doc.getText(0, doc.getLength());
-            int lines = text.split("\n", -1).length;
-            int chars = text.length();
-            int words = text.trim().isEmpty() ? 0 : text.trim().split("\\s+").length;
-            statusBar.setText(String.format(" Words: %d | Characters: %d | Lines: %d", words, chars, lines));
+            return doc.getText(0, doc.getLength());
         } catch (BadLocationException e) {
             e.printStackTrace();
+            return "";
         }
     }
 
-    private void highlightKeywords() {
-        try {
-            String text = doc.getText(0, doc.getLength());
-            doc.setCharacterAttributes(0, text.length(), styleContext.getStyle(StyleContext.DEFAULT_STYLE), true);
-
-            for (String keyword : KEYWORDS) {
-                Pattern pattern = Pattern.compile("\\b" + keyword + "\\b");
-                Matcher matcher = pattern.matcher(text);
-                while (matcher.find()) {
-                    doc.setCharacterAttributes(matcher.start(), matcher.end() - matcher.start(), keywordStyle, true);
-                }
-            }
-        } catch (BadLocationException e) {
-            e.printStackTrace();
+    // Publishes one analysis run to all three tabs at once
+    private void showAnalysisResult(AnalysisScheduler.Result result) {
+        tokenTableArea.setText(result.tokenTable);
+        symbolTableArea.setText(result.symbolTable);
+        for (Diagnostic diagnostic : result.diagnostics) {
+            errorSink.report(diagnostic);
         }
+        errorSink.flush();
     }
 
     private void scanAndAnalyze() {
-        errorConsoleArea.setText("");
-        tokenTableArea.setText("");
-        symbolTableArea.setText("");
+        // Analysis runs on a worker thread; show the token list once it is in
+        scheduler.analyzeNow(result -> tabbedPane.setSelectedIndex(0));
+    }
 
-        String input;
-        try {
-            input = doc.getText(0, doc.getLength());
-            inputTextArea.setText(input);
-        } catch (BadLocationException e) {
-            e.printStackTrace();
-            return;
-        }
+    // Compile translates a program without errors to x86-64 assembly and
+    // shows it, with per-function compile times and spill counts, in the
+    // Assembly tab. What the backend can't translate goes to the console.
+    // The translation runs on a thread of its own, like a program started
+    // by Run; the button stays disabled until it is done.
+    private void performCompilation() {
+        scheduler.analyzeNow(result -> {
+            if (!compileButton.isEnabled()) return;
+            if (result.hasErrors()) {
+                tabbedPane.setSelectedIndex(2); // Show error console
+                return;
+            }
+            startCompilation(result.source);
+        });
+    }
 
-        
+    private void startCompilation(String source) {
+        compileButton.setEnabled(false);
+        Thread thread = new Thread(() -> {
+            DiagnosticCollector problems = new DiagnosticCollector();
+            X86Compiler.Assembly assembly = translate(source, problems);
+            String text = assembly == null ? null : assembly.report() + "\n" + assembly.text();
+            SwingUtilities.invokeLater(() -> {
+                compileButton.setEnabled(true);
+                if (text == null) {
+                    for (Diagnostic diagnostic : problems.diagnostics()) {
+                        errorSink.report(diagnostic);
+                    }
+                    errorSink.flush();
+                    tabbedPane.setSelectedIndex(2);
+                    return;
+                }
+                assemblyArea.setText(text);
+                assemblyArea.setCaretPosition(0);
+                tabbedPane.setSelectedIndex(4);
+            });
+        }, "wpp-compile");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // What Compile shows for source once it passed the analyzer; null when
+    // the backend can't translate it. Benchmarks x86 checks its output
+    // against gcc through here.
+    static X86Compiler.Assembly translate(String source, DiagnosticSink problems) {
+        Ast ast = Parser.parse(PreprocessedSource.of(source).tokens());
+        return X86Compiler.compile(ast, problems);
+    }
 
-        // Remove comments
-        String commentRegex = "(?s)//[^\\r\\n]*|/\\*.*?\\*/";
-        Pattern commentPattern = Pattern.compile(commentRegex);
-        input = commentPattern.matcher(input).replaceAll("");
-
-        String[] lines = input.split("\n");
-        String regex = "\\b(int|float|double|char|string|if|else|for|while|do|break|continue|return|void)\\b" +
-                      "|[+\\-*/%<>=!&|]{1,2}" +
-                      "|\\d+(\\.\\d+)?" +
-                      "|\'[^\']\'" +
-                      "|\"([^\"]*)\"" +
-                      "|[a-zA-Z_][a-zA-Z0-9_]*" +
-                      "|[{}();,]|\\n";
-
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(input);
-
-        List<String> tokens = new ArrayList<>();
-        List<Integer> tokenLines = new ArrayList<>();
-        int currentLine = 1;
-
-        while (matcher.find()) {
-            String token = matcher.group();
-            if (token.equals("\n")) {
-                currentLine++;
-                continue;
+    // Run doubles as Stop while a program is running. A program with
+    // syntax errors isn't started; the error console shows why.
+    private void runProgram() {
+        if (runningProgram != null) {
+            runningProgram.interrupt();
+            return;
+        }
+        scheduler.analyzeNow(result -> {
+            if (runningProgram != null) return;
+            if (result.hasErrors()) {
+                tabbedPane.setSelectedIndex(2); // Show error console
+                return;
             }
-            tokens.add(token);
-            tokenLines.add(currentLine);
-            
-            // Token categorization
-            if (token.matches("\\b(int|float|double|char|string|void)\\b")) {
-                tokenTableArea.append("[DECLARATION]: " + token + " (Line " + currentLine + ")\n");
-                lastDeclarationType = token;
-            } else if (token.matches("\\b(if|else)\\b")) {
-                tokenTableArea.append("[CONDITIONAL]: " + token + " (Line " + currentLine + ")\n");
-            } else if (token.matches("\\b(for|while|do)\\b")) {
-                tokenTableArea.append("[LOOP]: " + token + " (Line " + currentLine + ")\n");
-            } else if (token.matches("\\b(break|continue|return)\\b")) {
-                tokenTableArea.append("[CONTROL]: " + token + " (Line " + currentLine + ")\n");
-            } else if (token.matches("[+\\-*/%<>=!&|]{1,2}")) {
-                if (token.equals("==") || token.equals("!=") || token.equals("<") ||
-                    token.equals(">") || token.equals("<=") || token.equals(">=")) {
-                    tokenTableArea.append("[RELATIONAL_OPERATOR]: " + token + " (Line " + currentLine + ")\n");
-                } else if (token.equals("+") || token.equals("-") || token.equals("*") ||
-                           token.equals("/") || token.equals("%")) {
-                    tokenTableArea.append("[ARITHMETIC_OPERATOR]: " + token + " (Line " + currentLine + ")\n");
-                } else if (token.equals("=")) {
-                    tokenTableArea.append("[ASSIGNMENT_OPERATOR]: " + token + " (Line " + currentLine + ")\n");
-                } else if (token.equals("&&") || token.equals("||")) {
-                    tokenTableArea.append("[LOGICAL_OPERATOR]: " + token + " (Line " + currentLine + ")\n");
-                } else {
-                    tokenTableArea.append("[OPERATOR]: " + token + " (Line " + currentLine + ")\n");
+            // What was checked, not the document as it is by now
+            startProgram(result.source);
+        });
+    }
+
+    // Compiles and runs source on a thread of its own, then shows what it
+    // printed in the Output tab
+    private void startProgram(String source) {
+        outputArea.setText("");
+        tabbedPane.setSelectedIndex(3);
+        runButton.setText("Stop");
+        boolean registerMachine = engineBox.getSelectedIndex() == 1;
+        Thread thread = new Thread(() -> {
+            BoundedOutput output = new BoundedOutput(RUN_OUTPUT_LIMIT);
+            StringBuilder footer = new StringBuilder();
+            DiagnosticCollector problems = new DiagnosticCollector();
+            Ast ast = Parser.parse(PreprocessedSource.of(source).tokens());
+            CompiledProgram compiled = registerMachine ? null : BytecodeCompiler.compile(ast, problems);
+            RegisterProgram machine = registerMachine ? RegisterCompiler.compile(ast, problems) : null;
+            if (compiled == null && machine == null) {
+                footer.append(problems.toText());
+            } else {
+                PrintStream out = new PrintStream(output, false, java.nio.charset.StandardCharsets.ISO_8859_1);
+                long start = System.nanoTime();
+                try {
+                    int exitCode = machine != null ? machine.run(out) : compiled.run(out);
+                    footer.append("\nProcess exited with code ").append(exitCode);
+                } catch (ProgramRuntime.ProgramException e) {
+                    footer.append('\n').append(e.diagnostic());
+                }
+                footer.append(" (").append((System.nanoTime() - start) / 1_000_000).append(" ms");
+                if (machine != null) {
+                    footer.append(String.format(", %,d instructions, %.1f M/s",
+                        machine.instructionsExecuted(), machine.instructionsPerSecond() / 1e6));
                 }
-            } else if (token.matches("\\d+(\\.\\d+)?")) {
-                tokenTableArea.append("[NUMBER]: " + token + " (Line " + currentLine + ")\n");
-            } else if (token.matches("\'[^\']\'")) {
-                tokenTableArea.append("[CHAR_LITERAL]: " + token + " (Line " + currentLine + ")\n");
-            } else if (token.matches("\"([^\"]*)\"")) {
-                tokenTableArea.append("[STRING_LITERAL]: " + token + " (Line " + currentLine + ")\n");
-            } else if (token.matches("[a-zA-Z_][a-zA-Z0-9_]*")) {
-                tokenTableArea.append("[IDENTIFIER]: " + token + " (Line " + currentLine + ")\n");
-            } else if (token.matches("[{}();,]")) {
-                tokenTableArea.append("[SEPARATOR]: " + token + " (Line " + currentLine + ")\n");
+                footer.append(")\n");
+            }
+            String text = output.text() + footer;
+            SwingUtilities.invokeLater(() -> {
+                outputArea.setText(text);
+                runningProgram = null;
+                runButton.setText("Run");
+            });
+        }, "wpp-program");
+        thread.setDaemon(true);
+        runningProgram = thread;
+        thread.start();
+    }
+
+    // What a program prints, up to a limit; a program printing in an
+    // endless loop can't exhaust memory before someone presses Stop
+    private static final int RUN_OUTPUT_LIMIT = 1 << 20;
+
+    private static class BoundedOutput extends OutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final int limit;
+        private boolean truncated;
+
+        BoundedOutput(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) {
+            if (bytes.size() < limit) {
+                bytes.write(b);
             } else {
-                tokenTableArea.append("[UNKNOWN]: " + token + " (Line " + currentLine + ")\n");
+                truncated = true;
             }
         }
 
-        
-        //errorConsoleArea.setText("");
-        // tokenTableArea.setText("");
-
-        // Perform syntax analysis
-        SyntaxAnalyzer analyzer = new SyntaxAnalyzer();
-        SyntaxAnalyzer.analyzeSyntax(tokens, tokenLines, symbolTableArea, errorConsoleArea);
-        SyntaxAnalyzer.analyze(input, errorConsoleArea); //ughhh
-        tabbedPane.setSelectedIndex(0); // Show token list first // Show error console by default
- 
-         System.out.println("Symbol Table Contents: " + SyntaxAnalyzer.declaredVariables);
-    }
-  
-    private void performCompilation() {
-        scanAndAnalyze();
-        if (errorConsoleArea.getText().isEmpty()) {
-            JOptionPane.showMessageDialog(frame,
-                "Compilation successful. No syntax errors found.", 
-                "Compilation Result", JOptionPane.INFORMATION_MESSAGE);
-        } else {
-            tabbedPane.setSelectedIndex(2); // Show error console
+        @Override
+        public void write(byte[] b, int off, int len) {
+            int room = Math.min(len, limit - bytes.size());
+            bytes.write(b, off, room);
+            if (room < len) truncated = true;
+        }
+
+        String text() {
+            // ProgramRuntime prints chars as single bytes
+            String text = new String(bytes.toByteArray(), java.nio.charset.StandardCharsets.ISO_8859_1);
+            return truncated ? text + "\n... output truncated ...\n" : text;
         }
     }
 
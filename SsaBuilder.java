@@ -0,0 +1,881 @@
+import java.util.*;
+
+// Lowers a checked W++ program to SsaFunctions, one per function plus an
+// entry function (the globals' initializers, then main()) at index
+// functionCount, which returns the exit code.
+//
+// It shares BytecodeCompiler's front end and follows the Interpreter's
+// evaluation rules like RegisterCompiler does, but stays deliberately
+// plain: every conversion is an instruction, x = y is a copy, literals are
+// converted at run time, and phis are placed without looking for ones
+// that merge a single value. Cleaning that up is SsaOptimizer's job, and
+// each of its passes has something to show for it.
+//
+// SSA is built on the fly, the way Braun et al. describe it ("Simple and
+// Efficient Construction of Static Single Assignment Form", 2013): each
+// block maps a local to its current value, a read in a block without one
+// asks the predecessors, and a block whose predecessors aren't all known
+// yet (a loop header before its back edge) gets placeholder phis that are
+// completed when the block is sealed.
+public final class SsaBuilder {
+    private final BytecodeCompiler program;
+    private final Ast ast;
+
+    // Slot of every local in its function
+    private final int[] slots;
+    private ValueType[] slotTypes = new ValueType[0];
+
+    // The function being built and the block being appended to, -1 after
+    // a jump until something needs a block again
+    private SsaFunction function;
+    private int f;
+    private int current;
+    private int line;
+    private int breakTarget = -1;
+    private int continueTarget = -1;
+
+    // Per block: the current value of each local slot, whether all
+    // predecessors are known, and the phis waiting for them
+    private int[][] definitions = new int[16][];
+    private boolean[] sealed = new boolean[16];
+    private int[][] incompletePhis = new int[16][];
+    private int[] incompleteCounts = new int[16];
+
+    private SsaBuilder(BytecodeCompiler program) {
+        this.program = program;
+        this.ast = program.ast();
+        slots = new int[program.variableCount()];
+        Arrays.fill(slots, -1);
+    }
+
+    // The program as SSA functions, or null after reporting to sink why it
+    // can't be lowered
+    public static SsaFunction[] build(Ast ast, DiagnosticSink sink) {
+        BytecodeCompiler program = BytecodeCompiler.checked(ast, sink);
+        if (program == null) return null;
+        return new SsaBuilder(program).functions();
+    }
+
+    private SsaFunction[] functions() {
+        int count = program.functionCount();
+        SsaFunction[] functions = new SsaFunction[count + 1];
+        for (int k = 0; k < count; k++) {
+            functions[k] = buildFunction(k);
+        }
+        functions[count] = buildEntry();
+        return functions;
+    }
+
+    // ===== FUNCTIONS =====
+
+    private SsaFunction buildFunction(int index) {
+        f = index;
+        int node = program.functionNode(index);
+        int count = program.parameterCount(index);
+        ValueType[] parameters = new ValueType[count];
+        for (int k = 0; k < count; k++) {
+            parameters[k] = program.parameterType(index, k);
+        }
+        start(new SsaFunction(program.functionName(index), program.returnType(index), parameters));
+        // Parameters take slots 0..n-1 like RegisterCompiler's registers,
+        // the function's other locals the ones after them
+        int next = count;
+        int k = 0;
+        line = ast.line(node);
+        for (int param = ast.firstChild(node); param >= 0 && k < count; param = ast.nextSibling(param)) {
+            if (ast.kind(param) != Ast.Kind.PARAM) continue;
+            int variable = program.variableOf(param);
+            if (variable >= 0) slots[variable] = k;
+            k++;
+        }
+        for (int variable = program.functionVariables(index); variable < program.functionVariableEnd(index); variable++) {
+            if (slots[variable] < 0) slots[variable] = next++;
+        }
+        slotTypes = new ValueType[Math.max(next, 1)];
+        for (int variable = program.functionVariables(index); variable < program.functionVariableEnd(index); variable++) {
+            slotTypes[slots[variable]] = program.variableType(variable);
+        }
+        for (k = 0; k < count; k++) {
+            slotTypes[k] = parameters[k];
+            write(k, append(SsaFunction.PARAM, parameters[k], k));
+        }
+
+        statement(program.functionBody(index));
+        // Falling off the end returns the zero value, like the other engines
+        line = ast.endLine(node);
+        if (current >= 0) {
+            ValueType type = program.returnType(index);
+            if (type == null) {
+                append(SsaFunction.RETURN, null, 0);
+            } else {
+                append(SsaFunction.RETURN, null, 0, zero(type));
+            }
+        }
+        return function;
+    }
+
+    private SsaFunction buildEntry() {
+        f = -1;
+        start(new SsaFunction("(entry)", ValueType.INT, new ValueType[0]));
+        slotTypes = new ValueType[1];
+        for (int child = ast.firstChild(ast.root()); child >= 0; child = ast.nextSibling(child)) {
+            if (ast.kind(child) == Ast.Kind.DECLARATION) {
+                line = ast.line(child);
+                declaration(child);
+            }
+        }
+        int main = program.mainFunction();
+        line = ast.line(program.functionNode(main));
+        int result = append(SsaFunction.CALL, program.returnType(main), main);
+        if (program.returnType(main) == null) result = constant(ValueType.INT, 0);
+        append(SsaFunction.RETURN, null, 0, result);
+        return function;
+    }
+
+    private void start(SsaFunction built) {
+        function = built;
+        definitions = new int[16][];
+        sealed = new boolean[16];
+        incompletePhis = new int[16][];
+        incompleteCounts = new int[16];
+        current = newBlock();
+        seal(current);
+    }
+
+    // ===== BLOCKS =====
+
+    private int newBlock() {
+        int block = function.newBlock();
+        if (block == definitions.length) {
+            int grown = block * 2;
+            definitions = Arrays.copyOf(definitions, grown);
+            sealed = Arrays.copyOf(sealed, grown);
+            incompletePhis = Arrays.copyOf(incompletePhis, grown);
+            incompleteCounts = Arrays.copyOf(incompleteCounts, grown);
+        }
+        return block;
+    }
+
+    // The block to append to; code after a jump goes to a block of its
+    // own that nothing reaches
+    private int block() {
+        if (current < 0) {
+            current = newBlock();
+            seal(current);
+        }
+        return current;
+    }
+
+    private int append(int op, ValueType type, long aux, int... args) {
+        return function.append(block(), op, type, aux, line, args);
+    }
+
+    private void jump(int target) {
+        if (current < 0) return;
+        append(SsaFunction.JUMP, null, 0);
+        function.edge(current, target);
+        current = -1;
+    }
+
+    private void branch(int condition, int yes, int no) {
+        append(SsaFunction.BRANCH, null, 0, condition);
+        function.edge(current, yes);
+        function.edge(current, no);
+        current = -1;
+    }
+
+    // ===== VARIABLES =====
+
+    private void write(int slot, int value) {
+        write(slot, block(), value);
+    }
+
+    private void write(int slot, int block, int value) {
+        if (definitions[block] == null) {
+            definitions[block] = new int[slotTypes.length];
+            Arrays.fill(definitions[block], -1);
+        }
+        definitions[block][slot] = value;
+    }
+
+    private int read(int slot, int block) {
+        if (definitions[block] != null && definitions[block][slot] >= 0) return definitions[block][slot];
+        int value;
+        int[] predecessors = function.predecessors(block);
+        if (!sealed[block]) {
+            value = function.phi(block, slotTypes[slot], line);
+            if (incompletePhis[block] == null) incompletePhis[block] = new int[8];
+            int n = incompleteCounts[block];
+            if (n + 2 > incompletePhis[block].length) {
+                incompletePhis[block] = Arrays.copyOf(incompletePhis[block], n * 2);
+            }
+            incompletePhis[block][n] = slot;
+            incompletePhis[block][n + 1] = value;
+            incompleteCounts[block] = n + 2;
+        } else if (predecessors.length == 0) {
+            // Code nothing reaches; the block may be finished already
+            int last = function.last(block);
+            value = last >= 0 && SsaFunction.isTerminator(function.op(last))
+                ? function.insertBefore(last, SsaFunction.CONST, slotTypes[slot], 0, line)
+                : function.append(block, SsaFunction.CONST, slotTypes[slot], 0, line);
+            if (slotTypes[slot] == ValueType.STRING) function.makeStringConstant(value, "");
+        } else if (predecessors.length == 1) {
+            value = read(slot, predecessors[0]);
+        } else {
+            value = function.phi(block, slotTypes[slot], line);
+            write(slot, block, value);
+            addPhiOperands(slot, block, value);
+        }
+        write(slot, block, value);
+        return value;
+    }
+
+    private void addPhiOperands(int slot, int block, int phi) {
+        for (int pred : function.predecessors(block)) {
+            function.addOperand(phi, read(slot, pred));
+        }
+    }
+
+    // Every predecessor of block is known: complete its waiting phis
+    private void seal(int block) {
+        for (int k = 0; k < incompleteCounts[block]; k += 2) {
+            addPhiOperands(incompletePhis[block][k], block, incompletePhis[block][k + 1]);
+        }
+        incompletePhis[block] = null;
+        incompleteCounts[block] = 0;
+        sealed[block] = true;
+    }
+
+    private int readVariable(int variable) {
+        if (program.isGlobal(variable)) {
+            return append(SsaFunction.GET_GLOBAL, program.variableType(variable), variable);
+        }
+        return read(slots[variable], block());
+    }
+
+    private void writeVariable(int variable, int value) {
+        if (program.isGlobal(variable)) {
+            append(SsaFunction.SET_GLOBAL, null, variable, value);
+        } else {
+            write(slots[variable], value);
+        }
+    }
+
+    // ===== STATEMENTS =====
+
+    private void statement(int node) {
+        line = ast.line(node);
+        switch (ast.kind(node)) {
+            case BLOCK:
+                for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                    statement(child);
+                }
+                break;
+            case DECLARATION:
+                declaration(node);
+                break;
+            case IF: {
+                int otherwise = ast.child(node, 2);
+                int then = newBlock();
+                int other = newBlock();
+                condition(ast.firstChild(node), then, other);
+                seal(then);
+                seal(other);
+                current = then;
+                statement(ast.child(node, 1));
+                if (otherwise >= 0) {
+                    int end = newBlock();
+                    jump(end);
+                    current = other;
+                    statement(ast.firstChild(otherwise));
+                    jump(end);
+                    seal(end);
+                    current = end;
+                } else {
+                    jump(other);
+                    current = other;
+                }
+                break;
+            }
+            case WHILE:
+                loop(ast.firstChild(node), -1, ast.child(node, 1), true);
+                break;
+            case DO:
+                loop(ast.child(node, 1), -1, ast.firstChild(node), false);
+                break;
+            case FOR: {
+                int init = ast.firstChild(node);
+                int condition = ast.nextSibling(init);
+                int update = ast.nextSibling(condition);
+                if (ast.kind(init) == Ast.Kind.DECLARATION) {
+                    declaration(init);
+                } else if (ast.kind(init) != Ast.Kind.EMPTY) {
+                    effect(init);
+                }
+                loop(ast.kind(condition) != Ast.Kind.EMPTY ? condition : -1,
+                    ast.kind(update) != Ast.Kind.EMPTY ? update : -1, ast.nextSibling(update), true);
+                break;
+            }
+            case RETURN:
+                returnStatement(node);
+                break;
+            case BREAK:
+                jump(breakTarget);
+                break;
+            case CONTINUE:
+                jump(continueTarget);
+                break;
+            case EXPRESSION:
+                effect(ast.firstChild(node));
+                break;
+            default:
+                break;
+        }
+    }
+
+    // A loop gets a header block holding the test (or the body, for a do
+    // loop), entered from a block of its own that only jumps to it, which
+    // is where SsaOptimizer's LICM puts what it hoists. A missing
+    // condition is always true.
+    private void loop(int condition, int update, int body, boolean testFirst) {
+        int savedBreak = breakTarget;
+        int savedContinue = continueTarget;
+        int headLine = line;
+        int header = newBlock();
+        int start = testFirst ? newBlock() : header;
+        int exit = newBlock();
+        int test = testFirst ? header : newBlock();
+        int latch = update >= 0 ? newBlock() : test;
+        jump(header);
+        current = header;
+        if (testFirst) {
+            test(condition, start, exit);
+            seal(start);
+            current = start;
+        }
+        breakTarget = exit;
+        continueTarget = latch;
+        statement(body);
+        jump(latch);
+        if (update >= 0) {
+            seal(latch);
+            current = latch;
+            line = headLine;
+            effect(update);
+            jump(test);
+        }
+        if (!testFirst) {
+            seal(test);
+            current = test;
+            line = headLine;
+            test(condition, header, exit);
+        }
+        seal(header);
+        seal(exit);
+        current = exit;
+        breakTarget = savedBreak;
+        continueTarget = savedContinue;
+    }
+
+    private void test(int condition, int yes, int no) {
+        if (condition >= 0) {
+            condition(condition, yes, no);
+        } else {
+            jump(yes);
+        }
+    }
+
+    private void declaration(int node) {
+        int type = ast.firstChild(node);
+        for (int declarator = ast.nextSibling(type); declarator >= 0; declarator = ast.nextSibling(declarator)) {
+            int variable = program.variableOf(declarator);
+            ValueType declared = program.variableType(variable);
+            int value = ast.child(declarator, 1);
+            writeVariable(variable, value >= 0 ? copied(value, declared) : zero(declared));
+        }
+    }
+
+    private void returnStatement(int node) {
+        int value = ast.firstChild(node);
+        ValueType type = f >= 0 ? program.returnType(f) : null;
+        if (value < 0 || type == null) {
+            append(SsaFunction.RETURN, null, 0);
+        } else {
+            append(SsaFunction.RETURN, null, 0, value(value, type));
+        }
+        current = -1;
+    }
+
+    // An expression whose value isn't used
+    private void effect(int node) {
+        if (program.isOutputStatement(node)) {
+            output(node);
+            return;
+        }
+        switch (ast.kind(node)) {
+            case BINARY:
+                if (ast.tokenIs(node, ",")) {
+                    effect(ast.firstChild(node));
+                    effect(ast.child(node, 1));
+                    return;
+                }
+                break;
+            case ASSIGN:
+                assign(node);
+                return;
+            case UNARY:
+            case POSTFIX:
+                if (isIncrement(node)) {
+                    increment(node, true);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        ValueType type = program.type(node);
+        if (type == null) {
+            call(program.callTarget(node), node); // a void function
+            return;
+        }
+        evaluate(node, type);
+    }
+
+    private void output(int node) {
+        if (!ast.tokenIs(node, "<<") || ast.kind(node) != Ast.Kind.BINARY) return; // cout itself
+        output(ast.firstChild(node));
+        int value = ast.child(node, 1);
+        if (program.isEndl(value)) {
+            append(SsaFunction.ENDL, null, 0);
+            return;
+        }
+        ValueType type = program.type(value);
+        append(SsaFunction.PRINT, type, 0, evaluate(value, type));
+    }
+
+    private int call(int target, int node) {
+        int count = ast.childCount(node) - 1;
+        int[] args = new int[count];
+        int k = 0;
+        for (int arg = ast.child(node, 1); arg >= 0; arg = ast.nextSibling(arg)) {
+            args[k] = value(arg, program.parameterType(target, k));
+            k++;
+        }
+        return append(SsaFunction.CALL, program.returnType(target), target, args);
+    }
+
+    // ===== EXPRESSIONS =====
+
+    // The value of node converted to target
+    private int value(int node, ValueType target) {
+        switch (Interpreter.category(target)) {
+            case 'I':
+                return integral(node, target);
+            case 'D':
+                return real(node, target);
+            default:
+                return text(node);
+        }
+    }
+
+    // Like value(), but a variable read as is is copied, as a naive
+    // x = y would
+    private int copied(int node, ValueType target) {
+        int value = value(node, target);
+        if (ast.kind(node) != Ast.Kind.NAME) return value;
+        return append(SsaFunction.COPY, target, 0, value);
+    }
+
+    // The value of node in its own type
+    private int evaluate(int node, ValueType type) {
+        switch (Interpreter.category(type)) {
+            case 'I':
+                return evaluateLong(node, type);
+            case 'D':
+                return evaluateDouble(node, type);
+            default:
+                return evaluateString(node);
+        }
+    }
+
+    private int evaluateLong(int node, ValueType type) {
+        if (program.isConstant(node)) return constant(type, program.constantValue(node));
+        switch (ast.kind(node)) {
+            case LITERAL:
+                return constant(type, literalLong(node));
+            case NAME:
+                return readVariable(program.variableOf(node));
+            case ASSIGN:
+                return assign(node);
+            case UNARY: {
+                int operand = ast.firstChild(node);
+                switch (ast.tokenText(node)) {
+                    case "++":
+                    case "--":
+                        return increment(node, true);
+                    case "!":
+                        return materialize(node);
+                    case "+":
+                        return integral(operand, type);
+                    default: // - ~
+                        return append(ast.tokenIs(node, "-") ? SsaFunction.NEG : SsaFunction.NOT, type, 0,
+                            integral(operand, type));
+                }
+            }
+            case POSTFIX:
+                return increment(node, false);
+            case BINARY: {
+                String op = ast.tokenText(node);
+                int left = ast.firstChild(node);
+                int right = ast.child(node, 1);
+                if (op.equals(",")) {
+                    effect(left);
+                    return evaluateLong(right, type);
+                }
+                if (type == ValueType.BOOL && comparison(op)) {
+                    if (op.equals("&&") || op.equals("||")) return materialize(node);
+                    return compare(op, left, right);
+                }
+                boolean shift = op.equals("<<") || op.equals(">>");
+                int a = integral(left, type);
+                int b = integral(right, shift ? ValueType.INT : type);
+                return arithmetic(op, type, a, b);
+            }
+            case CONDITIONAL:
+                return conditional(node, type);
+            default: { // CALL
+                int callee = ast.firstChild(node);
+                if (ast.kind(callee) == Ast.Kind.MEMBER) {
+                    return append(SsaFunction.LENGTH, type, 0, evaluateString(ast.firstChild(callee)));
+                }
+                if (program.isCast(node)) return integral(ast.child(node, 1), type);
+                int target = program.callTarget(node);
+                if (target >= 0) return call(target, node);
+                String name = ast.tokenText(callee);
+                int a = integral(ast.child(node, 1), type);
+                if (name.equals("abs")) return append(SsaFunction.BUILTIN, type, SsaFunction.ABS, a);
+                int b = integral(ast.child(node, 2), type);
+                return append(SsaFunction.BUILTIN, type, name.equals("min") ? SsaFunction.MIN : SsaFunction.MAX, a, b);
+            }
+        }
+    }
+
+    private int evaluateDouble(int node, ValueType type) {
+        if (program.isConstant(node)) return constant(type, program.constantValue(node));
+        switch (ast.kind(node)) {
+            case LITERAL: {
+                double value = program.realValue(node);
+                return constant(type, Double.doubleToRawLongBits(type == ValueType.FLOAT ? (float) value : value));
+            }
+            case NAME:
+                return readVariable(program.variableOf(node));
+            case ASSIGN:
+                return assign(node);
+            case UNARY: {
+                int operand = ast.firstChild(node);
+                switch (ast.tokenText(node)) {
+                    case "++":
+                    case "--":
+                        return increment(node, true);
+                    case "-":
+                        return append(SsaFunction.NEG, type, 0, real(operand, type));
+                    default: // +
+                        return real(operand, type);
+                }
+            }
+            case POSTFIX:
+                return increment(node, false);
+            case BINARY: {
+                String op = ast.tokenText(node);
+                if (op.equals(",")) {
+                    effect(ast.firstChild(node));
+                    return evaluateDouble(ast.child(node, 1), type);
+                }
+                int a = real(ast.firstChild(node), type);
+                int b = real(ast.child(node, 1), type);
+                return arithmetic(op, type, a, b);
+            }
+            case CONDITIONAL:
+                return conditional(node, type);
+            default: { // CALL
+                if (program.isCast(node)) return real(ast.child(node, 1), type);
+                int target = program.callTarget(node);
+                if (target >= 0) return call(target, node);
+                String name = ast.tokenText(ast.firstChild(node));
+                int a = real(ast.child(node, 1), type);
+                switch (name) {
+                    case "pow":
+                        return append(SsaFunction.BUILTIN, type, SsaFunction.POW, a, real(ast.child(node, 2), type));
+                    case "abs":
+                        return append(SsaFunction.BUILTIN, type, SsaFunction.ABS, a);
+                    case "min":
+                        return append(SsaFunction.BUILTIN, type, SsaFunction.MIN, a, real(ast.child(node, 2), type));
+                    case "max":
+                        return append(SsaFunction.BUILTIN, type, SsaFunction.MAX, a, real(ast.child(node, 2), type));
+                    default:
+                        return append(SsaFunction.BUILTIN, type,
+                            Arrays.asList(RegisterProgram.MATH_FUNCTIONS).indexOf(name), a);
+                }
+            }
+        }
+    }
+
+    private int evaluateString(int node) {
+        switch (ast.kind(node)) {
+            case LITERAL:
+                return function.stringConstant(block(), program.stringValue(node), line);
+            case NAME:
+                return readVariable(program.variableOf(node));
+            case ASSIGN:
+                return assign(node);
+            case BINARY: {
+                if (ast.tokenIs(node, ",")) {
+                    effect(ast.firstChild(node));
+                    return evaluateString(ast.child(node, 1));
+                }
+                int a = text(ast.firstChild(node));
+                int b = text(ast.child(node, 1));
+                return append(SsaFunction.CONCAT, ValueType.STRING, 0, a, b);
+            }
+            case CONDITIONAL:
+                return conditional(node, ValueType.STRING);
+            default: { // CALL
+                if (program.isCast(node)) return text(ast.child(node, 1));
+                return call(program.callTarget(node), node);
+            }
+        }
+    }
+
+    // A string or char as a string
+    private int text(int node) {
+        ValueType type = program.type(node);
+        if (type != ValueType.CHAR) return evaluateString(node);
+        return append(SsaFunction.CHAR_STR, ValueType.STRING, 0, evaluateLong(node, type));
+    }
+
+    // The value of node converted to the integer type target
+    private int integral(int node, ValueType target) {
+        ValueType type = program.type(node);
+        return convert(evaluate(node, type), target);
+    }
+
+    // The value of node converted to float or double
+    private int real(int node, ValueType target) {
+        ValueType type = program.type(node);
+        return convert(evaluate(node, type), target);
+    }
+
+    // A value in another type, by Interpreter.convert, toReal, fromReal or
+    // round depending on the two types
+    private int convert(int value, ValueType to) {
+        if (function.type(value) == to) return value;
+        return append(SsaFunction.CONVERT, to, 0, value);
+    }
+
+    // a cond ? b : c, as blocks joined by a phi
+    private int conditional(int node, ValueType type) {
+        int yes = newBlock();
+        int no = newBlock();
+        int end = newBlock();
+        condition(ast.firstChild(node), yes, no);
+        seal(yes);
+        seal(no);
+        current = yes;
+        int a = value(ast.child(node, 1), type);
+        jump(end);
+        current = no;
+        int b = value(ast.child(node, 2), type);
+        jump(end);
+        seal(end);
+        current = end;
+        int phi = function.phi(end, type, line);
+        function.setOperands(phi, a, b);
+        return phi;
+    }
+
+    private int constant(ValueType type, long bits) {
+        return append(SsaFunction.CONST, type, bits);
+    }
+
+    private int zero(ValueType type) {
+        if (type == ValueType.STRING) return function.stringConstant(block(), "", line);
+        return constant(type, 0); // 0.0 has all bits clear too
+    }
+
+    // ===== ASSIGNMENT =====
+
+    // Stores the value of an assignment and returns it
+    private int assign(int node) {
+        int variable = program.variableOf(ast.firstChild(node));
+        ValueType type = program.variableType(variable);
+        int value = ast.child(node, 1);
+        String op = program.assignmentOperator(node);
+        int result;
+        if (op.equals("=")) {
+            result = copied(value, type);
+        } else {
+            result = compound(op.substring(0, op.length() - 1), type, readVariable(variable), value);
+        }
+        writeVariable(variable, result);
+        return result;
+    }
+
+    // old op value, old the value of a variable of the given type
+    private int compound(String op, ValueType type, int old, int value) {
+        if (type == ValueType.STRING) {
+            return append(SsaFunction.CONCAT, ValueType.STRING, 0, old, text(value));
+        }
+        ValueType right = program.type(value);
+        boolean shift = op.equals("<<") || op.equals(">>");
+        ValueType common = shift ? ValueType.promote(type, ValueType.INT) : ValueType.promote(type, right);
+        int a = convert(old, common);
+        int b = Interpreter.category(common) == 'D' ? real(value, common)
+            : integral(value, shift ? ValueType.INT : common);
+        return convert(arithmetic(op, common, a, b), type);
+    }
+
+    // ++ and --; the new value for prefix, the old one for postfix
+    private int increment(int node, boolean prefix) {
+        int variable = program.variableOf(ast.firstChild(node));
+        ValueType type = program.variableType(variable);
+        int old = readVariable(variable);
+        String op = ast.tokenIs(node, "++") ? "+" : "-";
+        int updated;
+        if (Interpreter.category(type) == 'D') {
+            updated = arithmetic(op, type, old, constant(type, Double.doubleToRawLongBits(1)));
+        } else {
+            ValueType common = ValueType.promote(type, ValueType.INT);
+            updated = convert(arithmetic(op, common, convert(old, common), constant(common, 1)), type);
+        }
+        writeVariable(variable, updated);
+        return prefix ? updated : old;
+    }
+
+    private boolean isIncrement(int node) {
+        return ast.tokenIs(node, "++") || ast.tokenIs(node, "--");
+    }
+
+    // ===== OPERATORS =====
+
+    private static boolean comparison(String op) {
+        switch (op) {
+            case "&&":
+            case "||":
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+            case "==":
+            case "!=":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private int arithmetic(String op, ValueType type, int a, int b) {
+        int code = Arrays.asList(SsaFunction.OPERATORS).lastIndexOf(op);
+        return append(code, type, 0, a, b);
+    }
+
+    // a op b as a bool, in the type the Interpreter compares them in
+    private int compare(String op, int left, int right) {
+        ValueType l = program.type(left);
+        ValueType r = program.type(right);
+        int a;
+        int b;
+        if (l == ValueType.STRING) {
+            a = evaluateString(left);
+            b = evaluateString(right);
+        } else {
+            ValueType common = ValueType.promote(l, r);
+            a = value(left, common);
+            b = value(right, common);
+        }
+        return append(SsaFunction.COMPARE, ValueType.BOOL, Arrays.asList(SsaFunction.COMPARISONS).indexOf(op), a, b);
+    }
+
+    // ===== CONDITIONS =====
+
+    // Ends the current block with a branch to yes when node holds, to no
+    // when it doesn't; && and || short-circuit through blocks of their own
+    private void condition(int node, int yes, int no) {
+        switch (ast.kind(node)) {
+            case UNARY:
+                if (ast.tokenIs(node, "!")) {
+                    condition(ast.firstChild(node), no, yes);
+                    return;
+                }
+                break;
+            case BINARY: {
+                String op = ast.tokenText(node);
+                int left = ast.firstChild(node);
+                int right = ast.child(node, 1);
+                switch (op) {
+                    case "&&":
+                    case "||": {
+                        int middle = newBlock();
+                        if (op.equals("&&")) {
+                            condition(left, middle, no);
+                        } else {
+                            condition(left, yes, middle);
+                        }
+                        seal(middle);
+                        current = middle;
+                        condition(right, yes, no);
+                        return;
+                    }
+                    case "<":
+                    case "<=":
+                    case ">":
+                    case ">=":
+                    case "==":
+                    case "!=":
+                        branch(compare(op, left, right), yes, no);
+                        return;
+                    default:
+                        break;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        ValueType type = program.type(node);
+        branch(convert(evaluate(node, type), ValueType.BOOL), yes, no);
+    }
+
+    // A condition's value as a bool: 1 on one path, 0 on the other
+    private int materialize(int node) {
+        int yes = newBlock();
+        int no = newBlock();
+        int end = newBlock();
+        condition(node, yes, no);
+        seal(yes);
+        seal(no);
+        current = yes;
+        int one = constant(ValueType.BOOL, 1);
+        jump(end);
+        current = no;
+        int zero = constant(ValueType.BOOL, 0);
+        jump(end);
+        seal(end);
+        current = end;
+        int phi = function.phi(end, ValueType.BOOL, line);
+        function.setOperands(phi, one, zero);
+        return phi;
+    }
+
+    // An integer, char or bool literal's value in its own type
+    private long literalLong(int node) {
+        ValueType type = program.type(node);
+        switch (type) {
+            case CHAR:
+                return program.charValue(node);
+            case BOOL:
+                return ast.tokenIs(node, "true") ? 1 : 0;
+            default:
+                return Interpreter.narrow(type, program.integerValue(node));
+        }
+    }
+}
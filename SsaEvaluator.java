@@ -0,0 +1,359 @@
+import java.io.PrintStream;
+import java.util.*;
+
+// Runs SsaFunctions directly, one value slot per instruction, so the IR can
+// be checked against the other engines before and after every
+// optimization. It isn't meant to be fast; Run has RegisterProgram and
+// CompiledProgram for that.
+//
+// compute() is the one definition of what a pure instruction does with
+// its operands' values, shared with SsaOptimizer's constant propagation:
+// the evaluator and the folder can't disagree about a result.
+public final class SsaEvaluator {
+    private final SsaFunction[] functions;
+    private long[] globals;
+    private String[] globalStrings;
+    private int line;
+    private long steps;
+
+    public SsaEvaluator(SsaFunction[] functions) {
+        this.functions = functions;
+    }
+
+    // Instructions the last run() executed
+    public long steps() {
+        return steps;
+    }
+
+    // Runs the entry function (the last one) like Interpreter.run
+    public int run(PrintStream out) {
+        steps = 0;
+        int variables = 0;
+        for (SsaFunction function : functions) {
+            for (int i = 0; i < function.instructionCount(); i++) {
+                int op = function.op(i);
+                if (op == SsaFunction.GET_GLOBAL || op == SsaFunction.SET_GLOBAL) {
+                    variables = Math.max(variables, (int) function.aux(i) + 1);
+                }
+            }
+        }
+        globals = new long[variables];
+        globalStrings = new String[variables];
+        Arrays.fill(globalStrings, "");
+        PrintStream previous = ProgramRuntime.redirect(out);
+        try {
+            SsaFunction entry = functions[functions.length - 1];
+            return (int) call(entry, new long[0], new String[0], null);
+        } catch (ProgramRuntime.Halted e) {
+            throw new ProgramRuntime.ProgramException("program stopped", line);
+        } catch (ArithmeticException e) {
+            throw new ProgramRuntime.ProgramException("division by zero", line);
+        } catch (StackOverflowError e) {
+            throw new ProgramRuntime.ProgramException("stack overflow (recursion too deep)", line);
+        } finally {
+            out.flush();
+            ProgramRuntime.redirect(previous);
+        }
+    }
+
+    // Calls function with its arguments (strings in their own array).
+    // The result comes back as the return value, or in result[0] for a
+    // string.
+    private long call(SsaFunction function, long[] arguments, String[] stringArguments, String[] result) {
+        long[] values = new long[function.instructionCount()];
+        String[] strings = new String[function.instructionCount()];
+        int block = 0;
+        int from = -1;
+        long[] phiValues = new long[8];
+        String[] phiStrings = new String[8];
+        while (true) {
+            // Phis read their operands all at once, before any is written
+            int first = function.first(block);
+            int i = first;
+            if (from >= 0) {
+                int k = SsaFunction.indexOf(function.predecessors(block), from);
+                int n = 0;
+                for (; i >= 0 && function.op(i) == SsaFunction.PHI; i = function.next(i)) {
+                    if (n == phiValues.length) {
+                        phiValues = Arrays.copyOf(phiValues, n * 2);
+                        phiStrings = Arrays.copyOf(phiStrings, n * 2);
+                    }
+                    int value = function.operand(i, k);
+                    phiValues[n] = values[value];
+                    phiStrings[n] = strings[value];
+                    n++;
+                }
+                n = 0;
+                for (int phi = first; phi != i; phi = function.next(phi)) {
+                    values[phi] = phiValues[n];
+                    strings[phi] = phiStrings[n];
+                    n++;
+                }
+            }
+            for (; i >= 0; i = function.next(i)) {
+                if ((++steps & 0xFFFF) == 0) ProgramRuntime.poll();
+                line = function.line(i);
+                int op = function.op(i);
+                ValueType type = function.type(i);
+                switch (op) {
+                    case SsaFunction.CONST:
+                        if (type == ValueType.STRING) {
+                            strings[i] = function.text(i);
+                        } else {
+                            values[i] = function.aux(i);
+                        }
+                        break;
+                    case SsaFunction.PARAM: {
+                        int k = (int) function.aux(i);
+                        values[i] = arguments[k];
+                        strings[i] = stringArguments[k];
+                        break;
+                    }
+                    case SsaFunction.COPY:
+                        values[i] = values[function.operand(i, 0)];
+                        strings[i] = strings[function.operand(i, 0)];
+                        break;
+                    case SsaFunction.GET_GLOBAL: {
+                        int variable = (int) function.aux(i);
+                        values[i] = globals[variable];
+                        strings[i] = globalStrings[variable];
+                        break;
+                    }
+                    case SsaFunction.SET_GLOBAL: {
+                        int variable = (int) function.aux(i);
+                        globals[variable] = values[function.operand(i, 0)];
+                        globalStrings[variable] = strings[function.operand(i, 0)];
+                        break;
+                    }
+                    case SsaFunction.CONCAT:
+                        strings[i] = ProgramRuntime.concat(strings[function.operand(i, 0)], strings[function.operand(i, 1)]);
+                        break;
+                    case SsaFunction.CHAR_STR:
+                        strings[i] = ProgramRuntime.charToString((int) values[function.operand(i, 0)]);
+                        break;
+                    case SsaFunction.LENGTH:
+                        values[i] = strings[function.operand(i, 0)].length();
+                        break;
+                    case SsaFunction.COMPARE: {
+                        int a = function.operand(i, 0);
+                        int b = function.operand(i, 1);
+                        values[i] = function.type(a) == ValueType.STRING
+                            ? compareStrings((int) function.aux(i), strings[a], strings[b])
+                            : compute(function, i, values[a], values[b]);
+                        break;
+                    }
+                    case SsaFunction.CALL: {
+                        SsaFunction callee = functions[(int) function.aux(i)];
+                        int count = function.operandCount(i);
+                        long[] args = new long[count];
+                        String[] stringArgs = new String[count];
+                        for (int k = 0; k < count; k++) {
+                            args[k] = values[function.operand(i, k)];
+                            stringArgs[k] = strings[function.operand(i, k)];
+                        }
+                        String[] returned = new String[1];
+                        values[i] = call(callee, args, stringArgs, returned);
+                        strings[i] = returned[0];
+                        break;
+                    }
+                    case SsaFunction.PRINT:
+                        print(type, values[function.operand(i, 0)], strings[function.operand(i, 0)]);
+                        break;
+                    case SsaFunction.ENDL:
+                        ProgramRuntime.endl();
+                        break;
+                    case SsaFunction.JUMP:
+                        from = block;
+                        block = function.successors(block)[0];
+                        break;
+                    case SsaFunction.BRANCH:
+                        from = block;
+                        block = function.successors(block)[values[function.operand(i, 0)] != 0 ? 0 : 1];
+                        break;
+                    case SsaFunction.RETURN:
+                        if (function.operandCount(i) == 0) return 0;
+                        if (result != null) result[0] = strings[function.operand(i, 0)];
+                        return values[function.operand(i, 0)];
+                    default: {
+                        int count = function.operandCount(i);
+                        long a = count > 0 ? values[function.operand(i, 0)] : 0;
+                        long b = count > 1 ? values[function.operand(i, 1)] : 0;
+                        values[i] = compute(function, i, a, b);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void print(ValueType type, long value, String text) {
+        switch (type) {
+            case UNSIGNED_INT:
+                ProgramRuntime.printUnsigned((int) value);
+                break;
+            case CHAR:
+                ProgramRuntime.printChar((int) value);
+                break;
+            case LONG:
+            case LONG_LONG:
+                ProgramRuntime.print(value);
+                break;
+            case FLOAT:
+                ProgramRuntime.print((float) Double.longBitsToDouble(value));
+                break;
+            case DOUBLE:
+                ProgramRuntime.print(Double.longBitsToDouble(value));
+                break;
+            case STRING:
+                ProgramRuntime.print(text);
+                break;
+            default:
+                ProgramRuntime.print((int) value);
+        }
+    }
+
+    // ===== SEMANTICS =====
+
+    // The value of pure instruction i, on no strings, given its operands'
+    // values: integers as longs, float and double as raw double bits.
+    // Throws ArithmeticException for an integer division by zero.
+    static long compute(SsaFunction function, int i, long a, long b) {
+        ValueType type = function.type(i);
+        int op = function.op(i);
+        switch (op) {
+            case SsaFunction.ADD:
+            case SsaFunction.SUB:
+            case SsaFunction.MUL:
+            case SsaFunction.DIV:
+            case SsaFunction.REM:
+            case SsaFunction.AND:
+            case SsaFunction.OR:
+            case SsaFunction.XOR:
+            case SsaFunction.SHL:
+            case SsaFunction.SHR: {
+                String operator = SsaFunction.OPERATORS[op];
+                if (Interpreter.category(type) == 'D') {
+                    return bits(Interpreter.arithmetic(operator, real(a), real(b), type));
+                }
+                return Interpreter.arithmetic(operator, a, b, type);
+            }
+            case SsaFunction.NEG:
+                return Interpreter.category(type) == 'D' ? bits(-real(a)) : Interpreter.narrow(type, -a);
+            case SsaFunction.NOT:
+                return Interpreter.narrow(type, ~a);
+            case SsaFunction.CONVERT:
+                return ConstantFolder.convert(a, function.type(function.operand(i, 0)), type);
+            case SsaFunction.COMPARE: {
+                ValueType operands = function.type(function.operand(i, 0));
+                int comparison = (int) function.aux(i);
+                if (Interpreter.category(operands) == 'D') return compareReals(comparison, real(a), real(b)) ? 1 : 0;
+                int order = operands == ValueType.UNSIGNED_INT ? Integer.compareUnsigned((int) a, (int) b) : Long.compare(a, b);
+                return holds(comparison, order) ? 1 : 0;
+            }
+            case SsaFunction.BUILTIN:
+                return builtin((int) function.aux(i), type, a, b);
+            default:
+                throw new IllegalArgumentException(SsaFunction.NAMES[op] + " isn't computed from operands");
+        }
+    }
+
+    private static long builtin(int which, ValueType type, long a, long b) {
+        if (Interpreter.category(type) == 'D') {
+            double x = real(a);
+            double y = real(b);
+            switch (which) {
+                case SsaFunction.POW:
+                    return bits(Math.pow(x, y));
+                case SsaFunction.ABS:
+                    return bits(Math.abs(x));
+                case SsaFunction.MIN:
+                    return bits(Math.min(x, y));
+                case SsaFunction.MAX:
+                    return bits(Math.max(x, y));
+                default:
+                    return bits(math(which, x));
+            }
+        }
+        switch (which) {
+            case SsaFunction.ABS:
+                return type == ValueType.INT ? Math.abs((int) a) : Math.abs(a);
+            case SsaFunction.MIN:
+                return Math.min(a, b);
+            default: // MAX
+                return Math.max(a, b);
+        }
+    }
+
+    // RegisterProgram.MATH_FUNCTIONS by index
+    private static double math(int function, double value) {
+        switch (function) {
+            case 0:
+                return Math.sqrt(value);
+            case 1:
+                return Math.sin(value);
+            case 2:
+                return Math.cos(value);
+            case 3:
+                return Math.tan(value);
+            case 4:
+                return Math.exp(value);
+            case 5:
+                return Math.log(value);
+            case 6:
+                return Math.log10(value);
+            case 7:
+                return Math.floor(value);
+            case 8:
+                return Math.ceil(value);
+            default: // fabs
+                return Math.abs(value);
+        }
+    }
+
+    static long compareStrings(int comparison, String a, String b) {
+        boolean equality = comparison == SsaFunction.EQ || comparison == SsaFunction.NE;
+        int order = equality ? (a.equals(b) ? 0 : 1) : a.compareTo(b);
+        return holds(comparison, order) ? 1 : 0;
+    }
+
+    static boolean compareReals(int comparison, double a, double b) {
+        switch (comparison) {
+            case SsaFunction.LT:
+                return a < b;
+            case SsaFunction.LE:
+                return a <= b;
+            case SsaFunction.GT:
+                return a > b;
+            case SsaFunction.GE:
+                return a >= b;
+            case SsaFunction.EQ:
+                return a == b;
+            default:
+                return a != b;
+        }
+    }
+
+    static boolean holds(int comparison, int order) {
+        switch (comparison) {
+            case SsaFunction.LT:
+                return order < 0;
+            case SsaFunction.LE:
+                return order <= 0;
+            case SsaFunction.GT:
+                return order > 0;
+            case SsaFunction.GE:
+                return order >= 0;
+            case SsaFunction.EQ:
+                return order == 0;
+            default:
+                return order != 0;
+        }
+    }
+
+    static long bits(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    static double real(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+}
@@ -0,0 +1,820 @@
+import java.util.*;
+
+// One function in SSA form: basic blocks of instructions, every value
+// defined once, phi nodes where control flow merges. SsaBuilder lowers
+// the checked tree into it and SsaOptimizer's passes rewrite it.
+//
+// An instruction is its number, and its number is the value it defines.
+// Like Ast and ControlFlowGraph the IR is kept in parallel arrays:
+// opcode, result type, one auxiliary int (a constant's bits, a global,
+// a called function, a comparison), the operand array and the owning
+// block. A block's instructions are a doubly linked list, phis first and
+// the terminator last; successors are the block's own list (a BRANCH goes
+// to successor 0 when its operand is non-zero, to successor 1 otherwise)
+// and phi operand k belongs to predecessor k.
+//
+// Passes never search for the uses of a value they replace. replace()
+// records a forwarding link instead and operand() follows it (compressing
+// the path), so a replacement is O(1) and every later read sees the new
+// value. Removed instructions and blocks keep their numbers; size() counts
+// what is left.
+//
+// Values have the types the Interpreter computes in: integers as longs cut
+// to their C++ width, float and double as doubles, string as String. The
+// evaluation rules are the Interpreter's, so SsaEvaluator and constant
+// folding agree with every engine.
+public final class SsaFunction {
+    // ===== OPCODES =====
+
+    static final int CONST = 0;       // aux = long value or double bits; text for a string
+    static final int PARAM = 1;       // aux = parameter index
+    static final int COPY = 2;        // operand
+    static final int PHI = 3;         // one operand per predecessor
+    static final int GET_GLOBAL = 4;  // aux = variable
+    static final int SET_GLOBAL = 5;  // aux = variable; value
+    static final int ADD = 6;         // type = operation type; a b
+    static final int SUB = 7;
+    static final int MUL = 8;
+    static final int DIV = 9;
+    static final int REM = 10;
+    static final int AND = 11;
+    static final int OR = 12;
+    static final int XOR = 13;
+    static final int SHL = 14;        // b is an int
+    static final int SHR = 15;
+    static final int NEG = 16;        // a
+    static final int NOT = 17;        // a: ~a
+    static final int CONVERT = 18;    // a, from its type to the instruction's
+    static final int COMPARE = 19;    // aux = LT..NE; a b of one type; bool result
+    static final int CONCAT = 20;     // a b
+    static final int CHAR_STR = 21;   // a char as a string
+    static final int LENGTH = 22;     // a string's length
+    static final int BUILTIN = 23;    // aux = builtin; arguments
+    static final int CALL = 24;       // aux = function; arguments; type null for void
+    static final int PRINT = 25;      // type = how to print; value
+    static final int ENDL = 26;
+    static final int JUMP = 27;
+    static final int BRANCH = 28;     // condition
+    static final int RETURN = 29;     // value, or none
+
+    static final String[] NAMES = {
+        "const", "param", "copy", "phi", "get", "set", "add", "sub", "mul", "div", "rem",
+        "and", "or", "xor", "shl", "shr", "neg", "not", "convert", "compare", "concat",
+        "char.str", "length", "builtin", "call", "print", "endl", "jump", "branch", "return",
+    };
+
+    // The C++ operator of each arithmetic opcode, for Interpreter.arithmetic
+    static final String[] OPERATORS = {
+        null, null, null, null, null, null, "+", "-", "*", "/", "%", "&", "|", "^", "<<", ">>",
+    };
+
+    // COMPARE's aux
+    static final int LT = 0;
+    static final int LE = 1;
+    static final int GT = 2;
+    static final int GE = 3;
+    static final int EQ = 4;
+    static final int NE = 5;
+    static final String[] COMPARISONS = {"<", "<=", ">", ">=", "==", "!="};
+
+    // BUILTIN's aux: RegisterProgram.MATH_FUNCTIONS by index, then these
+    static final int POW = 10;
+    static final int ABS = 11;
+    static final int MIN = 12;
+    static final int MAX = 13;
+
+    private static final int[] NONE = new int[0];
+
+    // ===== FUNCTION =====
+
+    final String name;
+    final ValueType returnType;       // null for void
+    final ValueType[] parameterTypes;
+
+    // Instructions
+    private int[] ops = new int[64];
+    private ValueType[] types = new ValueType[64];
+    private long[] auxes = new long[64];
+    private int[][] operands = new int[64][];
+    private int[] blocks = new int[64];
+    private int[] next = new int[64];
+    private int[] previous = new int[64];
+    private int[] forward = new int[64];
+    private int[] lines = new int[64];
+    private final List<String> texts = new ArrayList<>();
+    private int instructionCount;
+    private int liveInstructions;
+
+    // Blocks
+    private int[] firsts = new int[16];
+    private int[] lasts = new int[16];
+    private int[][] successors = new int[16][];
+    private int[][] predecessors = new int[16][];
+    private boolean[] removedBlocks = new boolean[16];
+    private int blockCount;
+    private int liveBlocks;
+
+    SsaFunction(String name, ValueType returnType, ValueType[] parameterTypes) {
+        this.name = name;
+        this.returnType = returnType;
+        this.parameterTypes = parameterTypes;
+    }
+
+    // ===== BUILDING =====
+
+    int newBlock() {
+        if (blockCount == firsts.length) {
+            int grown = blockCount * 2;
+            firsts = Arrays.copyOf(firsts, grown);
+            lasts = Arrays.copyOf(lasts, grown);
+            successors = Arrays.copyOf(successors, grown);
+            predecessors = Arrays.copyOf(predecessors, grown);
+            removedBlocks = Arrays.copyOf(removedBlocks, grown);
+        }
+        firsts[blockCount] = -1;
+        lasts[blockCount] = -1;
+        successors[blockCount] = NONE;
+        predecessors[blockCount] = NONE;
+        liveBlocks++;
+        return blockCount++;
+    }
+
+    // A new instruction, not yet in any block
+    private int create(int op, ValueType type, long aux, int[] args, int line) {
+        if (instructionCount == ops.length) {
+            int grown = instructionCount * 2;
+            ops = Arrays.copyOf(ops, grown);
+            types = Arrays.copyOf(types, grown);
+            auxes = Arrays.copyOf(auxes, grown);
+            operands = Arrays.copyOf(operands, grown);
+            blocks = Arrays.copyOf(blocks, grown);
+            next = Arrays.copyOf(next, grown);
+            previous = Arrays.copyOf(previous, grown);
+            forward = Arrays.copyOf(forward, grown);
+            lines = Arrays.copyOf(lines, grown);
+        }
+        int i = instructionCount++;
+        ops[i] = op;
+        types[i] = type;
+        auxes[i] = aux;
+        operands[i] = args.length == 0 ? NONE : args;
+        blocks[i] = -1;
+        next[i] = -1;
+        previous[i] = -1;
+        forward[i] = -1;
+        lines[i] = line;
+        return i;
+    }
+
+    // Appends an instruction to block
+    int append(int block, int op, ValueType type, long aux, int line, int... args) {
+        int i = create(op, type, aux, args, line);
+        link(i, block, lasts[block], -1);
+        return i;
+    }
+
+    // Inserts an instruction before another one
+    int insertBefore(int before, int op, ValueType type, long aux, int line, int... args) {
+        int i = create(op, type, aux, args, line);
+        link(i, blocks[before], previous[before], before);
+        return i;
+    }
+
+    // A phi with no operands yet, at the head of block
+    int phi(int block, ValueType type, int line) {
+        int i = create(PHI, type, 0, NONE, line);
+        link(i, block, -1, firsts[block]);
+        return i;
+    }
+
+    int stringConstant(int block, String text, int line) {
+        texts.add(text);
+        return append(block, CONST, ValueType.STRING, texts.size() - 1, line);
+    }
+
+    private void link(int i, int block, int before, int after) {
+        blocks[i] = block;
+        previous[i] = before;
+        next[i] = after;
+        if (before >= 0) {
+            next[before] = i;
+        } else {
+            firsts[block] = i;
+        }
+        if (after >= 0) {
+            previous[after] = i;
+        } else {
+            lasts[block] = i;
+        }
+        liveInstructions++;
+    }
+
+    private void unlink(int i) {
+        int block = blocks[i];
+        if (previous[i] >= 0) {
+            next[previous[i]] = next[i];
+        } else {
+            firsts[block] = next[i];
+        }
+        if (next[i] >= 0) {
+            previous[next[i]] = previous[i];
+        } else {
+            lasts[block] = previous[i];
+        }
+        blocks[i] = -1;
+        liveInstructions--;
+    }
+
+    void addOperand(int i, int value) {
+        int[] old = operands[i];
+        int[] grown = Arrays.copyOf(old, old.length + 1);
+        grown[old.length] = value;
+        operands[i] = grown;
+    }
+
+    void setOperand(int i, int k, int value) {
+        operands[i][k] = value;
+    }
+
+    void setOperands(int i, int... values) {
+        operands[i] = values.length == 0 ? NONE : values;
+    }
+
+    void edge(int from, int to) {
+        successors[from] = append(successors[from], to);
+        predecessors[to] = append(predecessors[to], from);
+    }
+
+    private static int[] append(int[] list, int value) {
+        int[] grown = Arrays.copyOf(list, list.length + 1);
+        grown[list.length] = value;
+        return grown;
+    }
+
+    // ===== REWRITING =====
+
+    // Takes i out of its block; uses of it must have been replaced
+    void remove(int i) {
+        if (blocks[i] >= 0) unlink(i);
+    }
+
+    // Every use of i now reads value instead, and i is removed
+    void replace(int i, int value) {
+        if (i == value) return;
+        forward[i] = value;
+        remove(i);
+    }
+
+    // Moves a placed instruction to just before another one
+    void moveBefore(int i, int before) {
+        unlink(i);
+        link(i, blocks[before], previous[before], before);
+    }
+
+    // Turns i, in place, into a constant
+    void makeConstant(int i, long bits) {
+        ops[i] = CONST;
+        auxes[i] = bits;
+        operands[i] = NONE;
+    }
+
+    void makeStringConstant(int i, String text) {
+        texts.add(text);
+        ops[i] = CONST;
+        auxes[i] = texts.size() - 1;
+        operands[i] = NONE;
+    }
+
+    // Turns a BRANCH block's terminator into a JUMP to one successor,
+    // dropping the edge to the other
+    void foldBranch(int block, boolean taken) {
+        int[] targets = successors[block];
+        int keep = targets[taken ? 0 : 1];
+        int drop = targets[taken ? 1 : 0];
+        int terminator = lasts[block];
+        ops[terminator] = JUMP;
+        operands[terminator] = NONE;
+        successors[block] = new int[] {keep};
+        if (drop != keep) {
+            removePredecessor(drop, block);
+        } else {
+            // Both edges went to one block: drop one of its two entries
+            removePredecessorAt(drop, indexOf(predecessors[drop], block));
+        }
+    }
+
+    // Removes the edge from -> to's entry (and its phi operands) in to
+    private void removePredecessor(int to, int from) {
+        int k = indexOf(predecessors[to], from);
+        if (k >= 0) removePredecessorAt(to, k);
+    }
+
+    private void removePredecessorAt(int block, int k) {
+        int[] old = predecessors[block];
+        predecessors[block] = removeAt(old, k);
+        for (int i = firsts[block]; i >= 0 && ops[i] == PHI; i = next[i]) {
+            operands[i] = removeAt(operands[i], k);
+        }
+    }
+
+    private static int[] removeAt(int[] list, int k) {
+        int[] shorter = new int[list.length - 1];
+        System.arraycopy(list, 0, shorter, 0, k);
+        System.arraycopy(list, k + 1, shorter, k, list.length - k - 1);
+        return shorter;
+    }
+
+    static int indexOf(int[] list, int value) {
+        for (int k = 0; k < list.length; k++) {
+            if (list[k] == value) return k;
+        }
+        return -1;
+    }
+
+    // Deletes a block no path from the entry reaches
+    void removeBlock(int block) {
+        for (int successor : successors[block]) {
+            if (!removedBlocks[successor]) removePredecessor(successor, block);
+        }
+        for (int i = firsts[block]; i >= 0; ) {
+            int after = next[i];
+            unlink(i);
+            i = after;
+        }
+        successors[block] = NONE;
+        predecessors[block] = NONE;
+        removedBlocks[block] = true;
+        liveBlocks--;
+    }
+
+    // Appends block to its only predecessor, which must have it as its
+    // only successor, and deletes it
+    void merge(int into, int block) {
+        for (int i = firsts[block]; i >= 0 && ops[i] == PHI; ) {
+            int after = next[i];
+            replace(i, operand(i, 0));
+            i = after;
+        }
+        unlink(lasts[into]); // the jump
+        for (int i = firsts[block]; i >= 0; ) {
+            int after = next[i];
+            unlink(i);
+            link(i, into, lasts[into], -1);
+            i = after;
+        }
+        successors[into] = successors[block];
+        for (int successor : successors[block]) {
+            int[] preds = predecessors[successor];
+            for (int k = 0; k < preds.length; k++) {
+                if (preds[k] == block) preds[k] = into;
+            }
+        }
+        successors[block] = NONE;
+        predecessors[block] = NONE;
+        removedBlocks[block] = true;
+        liveBlocks--;
+    }
+
+    // Puts a new block on the edge from -> to (which must exist) and
+    // returns it; phi operands for the edge stay valid
+    int splitEdge(int from, int to) {
+        int middle = newBlock();
+        int k = indexOf(successors[from], to);
+        successors[from][k] = middle;
+        successors[middle] = new int[] {to};
+        predecessors[middle] = new int[] {from};
+        int j = indexOf(predecessors[to], from);
+        predecessors[to][j] = middle;
+        append(middle, JUMP, null, 0, lines[lasts[from]]);
+        return middle;
+    }
+
+    // Gives block a single new predecessor standing for the ones in
+    // outside: they jump to it instead, and phi operands from them merge
+    // in new phis there. Returns the new block.
+    int splitPredecessors(int block, boolean[] outside) {
+        int header = newBlock();
+        int[] preds = predecessors[block];
+        int[] moved = new int[preds.length];
+        int movedCount = 0;
+        int[] kept = new int[preds.length + 1];
+        int keptCount = 0;
+        for (int k = 0; k < preds.length; k++) {
+            if (outside[k]) {
+                moved[movedCount++] = k;
+            } else {
+                kept[keptCount++] = preds[k];
+            }
+        }
+        int line = firsts[block] >= 0 ? lines[firsts[block]] : 0;
+        // Phi operands: the moved ones merge in the new block
+        for (int i = firsts[block]; i >= 0 && ops[i] == PHI; i = next[i]) {
+            int[] args = operands[i];
+            int merged;
+            if (movedCount == 1) {
+                merged = args[moved[0]];
+            } else {
+                merged = phi(header, types[i], lines[i]);
+                int[] mergedArgs = new int[movedCount];
+                for (int m = 0; m < movedCount; m++) {
+                    mergedArgs[m] = args[moved[m]];
+                }
+                operands[merged] = mergedArgs;
+            }
+            int[] newArgs = new int[keptCount + 1];
+            int n = 0;
+            for (int k = 0; k < preds.length; k++) {
+                if (!outside[k]) newArgs[n++] = args[k];
+            }
+            newArgs[n] = merged;
+            operands[i] = newArgs;
+        }
+        int[] headerPreds = new int[movedCount];
+        for (int m = 0; m < movedCount; m++) {
+            int pred = preds[moved[m]];
+            headerPreds[m] = pred;
+            int[] targets = successors[pred];
+            for (int s = 0; s < targets.length; s++) {
+                if (targets[s] == block) targets[s] = header;
+            }
+        }
+        predecessors[header] = headerPreds;
+        kept[keptCount] = header;
+        predecessors[block] = Arrays.copyOf(kept, keptCount + 1);
+        successors[header] = new int[] {block};
+        append(header, JUMP, null, 0, line);
+        return header;
+    }
+
+    // ===== READING =====
+
+    int op(int i) {
+        return ops[i];
+    }
+
+    ValueType type(int i) {
+        return types[i];
+    }
+
+    long aux(int i) {
+        return auxes[i];
+    }
+
+    String text(int i) {
+        return texts.get((int) auxes[i]);
+    }
+
+    int line(int i) {
+        return lines[i];
+    }
+
+    int operandCount(int i) {
+        return operands[i].length;
+    }
+
+    // Operand k of i, after any replacement of the value it named
+    int operand(int i, int k) {
+        int value = operands[i][k];
+        if (forward[value] < 0) return value;
+        int target = value;
+        while (forward[target] >= 0) {
+            target = forward[target];
+        }
+        // Compress the chain
+        while (forward[value] >= 0 && forward[value] != target) {
+            int after = forward[value];
+            forward[value] = target;
+            value = after;
+        }
+        operands[i][k] = target;
+        return target;
+    }
+
+    // The block i is in, -1 once removed
+    int block(int i) {
+        return blocks[i];
+    }
+
+    boolean isRemoved(int i) {
+        return blocks[i] < 0;
+    }
+
+    int first(int block) {
+        return firsts[block];
+    }
+
+    int last(int block) {
+        return lasts[block];
+    }
+
+    int next(int i) {
+        return next[i];
+    }
+
+    int terminator(int block) {
+        return lasts[block];
+    }
+
+    int[] successors(int block) {
+        return successors[block];
+    }
+
+    int[] predecessors(int block) {
+        return predecessors[block];
+    }
+
+    boolean isBlockRemoved(int block) {
+        return removedBlocks[block];
+    }
+
+    int blockCount() {
+        return blockCount;
+    }
+
+    int instructionCount() {
+        return instructionCount;
+    }
+
+    // Instructions and blocks still in the function
+    public int size() {
+        return liveInstructions;
+    }
+
+    public int blocks() {
+        return liveBlocks;
+    }
+
+    double doubleValue(int i) {
+        return Double.longBitsToDouble(auxes[i]);
+    }
+
+    boolean isConstant(int i) {
+        return ops[i] == CONST;
+    }
+
+    // Whether removing i when its value is unused changes what the
+    // program does: output, stores, calls, control flow, and integer
+    // division that can still trap
+    boolean hasEffect(int i) {
+        switch (ops[i]) {
+            case SET_GLOBAL:
+            case CALL:
+            case PRINT:
+            case ENDL:
+            case JUMP:
+            case BRANCH:
+            case RETURN:
+                return true;
+            case DIV:
+            case REM:
+                return mayTrap(i);
+            default:
+                return false;
+        }
+    }
+
+    // An integer division by something not known to be non-zero
+    boolean mayTrap(int i) {
+        if ((ops[i] != DIV && ops[i] != REM) || Interpreter.category(types[i]) != 'I') return false;
+        int divisor = operand(i, 1);
+        return ops[divisor] != CONST || auxes[divisor] == 0;
+    }
+
+    // Whether two instructions with the same opcode, type, aux and
+    // operands always compute the same value
+    boolean isPure(int i) {
+        switch (ops[i]) {
+            case CONST:
+            case PARAM:
+            case PHI:
+            case GET_GLOBAL:
+            case SET_GLOBAL:
+            case CALL:
+            case PRINT:
+            case ENDL:
+            case JUMP:
+            case BRANCH:
+            case RETURN:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // ===== ORDER AND DOMINANCE =====
+
+    // Blocks reachable from the entry (block 0), in reverse postorder
+    int[] reversePostorder() {
+        int[] order = new int[blockCount];
+        int count = 0;
+        boolean[] seen = new boolean[blockCount];
+        int[] stack = new int[blockCount];
+        int[] position = new int[blockCount];
+        int depth = 0;
+        stack[depth++] = 0;
+        seen[0] = true;
+        while (depth > 0) {
+            int block = stack[depth - 1];
+            int[] targets = successors[block];
+            if (position[block] < targets.length) {
+                int target = targets[position[block]++];
+                if (!seen[target]) {
+                    seen[target] = true;
+                    stack[depth++] = target;
+                }
+            } else {
+                order[count++] = block;
+                depth--;
+            }
+        }
+        int[] reversed = new int[count];
+        for (int k = 0; k < count; k++) {
+            reversed[k] = order[count - 1 - k];
+        }
+        return reversed;
+    }
+
+    // Immediate dominator of every reachable block (the entry its own),
+    // -1 for unreachable ones. Cooper, Harvey and Kennedy's iteration over
+    // reverse postorder.
+    int[] dominators(int[] order) {
+        int[] rank = new int[blockCount];
+        Arrays.fill(rank, -1);
+        for (int k = 0; k < order.length; k++) {
+            rank[order[k]] = k;
+        }
+        int[] idom = new int[blockCount];
+        Arrays.fill(idom, -1);
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = 1; k < order.length; k++) {
+                int block = order[k];
+                int dominator = -1;
+                for (int pred : predecessors[block]) {
+                    if (rank[pred] < 0 || idom[pred] < 0) continue;
+                    dominator = dominator < 0 ? pred : intersect(idom, rank, pred, dominator);
+                }
+                if (dominator != idom[block]) {
+                    idom[block] = dominator;
+                    changed = true;
+                }
+            }
+        }
+        return idom;
+    }
+
+    private static int intersect(int[] idom, int[] rank, int a, int b) {
+        while (a != b) {
+            while (rank[a] > rank[b]) a = idom[a];
+            while (rank[b] > rank[a]) b = idom[b];
+        }
+        return a;
+    }
+
+    static boolean dominates(int[] idom, int a, int b) {
+        while (true) {
+            if (a == b) return true;
+            if (b == 0 || idom[b] < 0) return false;
+            b = idom[b];
+        }
+    }
+
+    // ===== CHECKING =====
+
+    // Throws IllegalStateException when the IR is malformed: a block
+    // without a terminator or with one in the middle, a phi whose operand
+    // count isn't its block's predecessor count, edges listed on one side
+    // only, or a use its definition doesn't dominate
+    void verify() {
+        int[] order = reversePostorder();
+        int[] idom = dominators(order);
+        for (int block : order) {
+            int terminator = lasts[block];
+            if (terminator < 0 || !isTerminator(ops[terminator])) {
+                throw new IllegalStateException(name + ": block " + block + " has no terminator");
+            }
+            int expected = ops[terminator] == BRANCH ? 2 : ops[terminator] == JUMP ? 1 : 0;
+            if (successors[block].length != expected) {
+                throw new IllegalStateException(name + ": block " + block + " has " + successors[block].length + " successors");
+            }
+            for (int successor : successors[block]) {
+                if (indexOf(predecessors[successor], block) < 0) {
+                    throw new IllegalStateException(name + ": edge " + block + " -> " + successor + " missing a predecessor");
+                }
+            }
+            boolean phis = true;
+            for (int i = firsts[block]; i >= 0; i = next[i]) {
+                if (blocks[i] != block) throw new IllegalStateException(name + ": v" + i + " in the wrong block");
+                if (ops[i] == PHI) {
+                    if (!phis) throw new IllegalStateException(name + ": phi v" + i + " after other instructions");
+                    if (operands[i].length != predecessors[block].length) {
+                        throw new IllegalStateException(name + ": phi v" + i + " has " + operands[i].length
+                            + " operands for " + predecessors[block].length + " predecessors");
+                    }
+                } else {
+                    phis = false;
+                }
+                if (isTerminator(ops[i]) && i != terminator) {
+                    throw new IllegalStateException(name + ": terminator v" + i + " inside block " + block);
+                }
+                for (int k = 0; k < operands[i].length; k++) {
+                    int value = operand(i, k);
+                    int at = blocks[value];
+                    if (at < 0) throw new IllegalStateException(name + ": v" + i + " uses removed v" + value);
+                    int user = ops[i] == PHI ? predecessors[block][k] : block;
+                    boolean dominated = at == user ? ops[i] == PHI || before(value, i) : dominates(idom, at, user);
+                    if (idom[user] >= 0 && !dominated) {
+                        throw new IllegalStateException(name + ": v" + value + " doesn't dominate its use in v" + i);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean before(int a, int b) {
+        for (int i = previous[b]; i >= 0; i = previous[i]) {
+            if (i == a) return true;
+        }
+        return false;
+    }
+
+    static boolean isTerminator(int op) {
+        return op == JUMP || op == BRANCH || op == RETURN;
+    }
+
+    // ===== LISTING =====
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("function ").append(name).append('(');
+        for (int k = 0; k < parameterTypes.length; k++) {
+            if (k > 0) sb.append(", ");
+            sb.append(parameterTypes[k].spelling());
+        }
+        sb.append(") -> ").append(returnType != null ? returnType.spelling() : "void").append('\n');
+        for (int block : reversePostorder()) {
+            sb.append("b").append(block).append(':');
+            if (predecessors[block].length > 0) {
+                sb.append("  ; from");
+                for (int pred : predecessors[block]) {
+                    sb.append(" b").append(pred);
+                }
+            }
+            sb.append('\n');
+            for (int i = firsts[block]; i >= 0; i = next[i]) {
+                sb.append("    ");
+                appendInstruction(sb, i);
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private void appendInstruction(StringBuilder sb, int i) {
+        int op = ops[i];
+        if (types[i] != null && !isTerminator(op) && op != PRINT) {
+            sb.append('v').append(i).append(" = ");
+        }
+        sb.append(NAMES[op]);
+        if (types[i] != null) sb.append(' ').append(types[i].spelling());
+        switch (op) {
+            case CONST:
+                if (types[i] == ValueType.STRING) {
+                    sb.append(" \"").append(text(i)).append('"');
+                } else if (Interpreter.category(types[i]) == 'D') {
+                    sb.append(' ').append(doubleValue(i));
+                } else {
+                    sb.append(' ').append(auxes[i]);
+                }
+                break;
+            case PARAM:
+            case GET_GLOBAL:
+            case SET_GLOBAL:
+                sb.append(" #").append(auxes[i]);
+                break;
+            case COMPARE:
+                sb.append(' ').append(COMPARISONS[(int) auxes[i]]);
+                break;
+            case BUILTIN:
+                sb.append(' ').append(auxes[i] < POW ? RegisterProgram.MATH_FUNCTIONS[(int) auxes[i]]
+                    : new String[] {"pow", "abs", "min", "max"}[(int) auxes[i] - POW]);
+                break;
+            case CALL:
+                sb.append(" f").append(auxes[i]);
+                break;
+            default:
+                break;
+        }
+        for (int k = 0; k < operands[i].length; k++) {
+            sb.append(k == 0 ? " " : ", ").append('v').append(operand(i, k));
+        }
+        if (op == JUMP || op == BRANCH) {
+            for (int target : successors[blocks[i]]) {
+                sb.append(" b").append(target);
+            }
+        }
+    }
+}
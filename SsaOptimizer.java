@@ -0,0 +1,743 @@
+import java.util.*;
+
+// The pass manager for SsaFunctions: runs a pipeline of passes over every
+// function and reports, per pass, how long it took and how big the IR was
+// before and after it.
+//
+// The passes:
+//   constant propagation   Wegman and Zadeck's sparse conditional constant
+//                          propagation: folds what is constant on every
+//                          path that can run, turns branches on constants
+//                          into jumps, and drops the blocks no path reaches
+//   copy propagation       replaces copies, and phis that merge a single
+//                          value, with that value
+//   common subexpressions  value numbering over the dominator tree: an
+//                          instruction computing what a dominating one
+//                          already computed reuses its value
+//   loop-invariant motion  moves what a loop computes the same way every
+//                          iteration to the block that enters the loop
+//   dead code elimination  removes instructions whose values nothing with
+//                          an effect needs, blocks nothing reaches, and
+//                          jumps to a block that has no other way in
+//
+// Every pass keeps the function valid SSA (SsaFunction.verify) and keeps
+// what it prints: nothing with an effect is moved or dropped, and an
+// integer division that could still divide by zero is neither removed nor
+// hoisted.
+public final class SsaOptimizer {
+    static final int CONSTANTS = 0;
+    static final int COPIES = 1;
+    static final int SUBEXPRESSIONS = 2;
+    static final int LOOP_INVARIANTS = 3;
+    static final int DEAD_CODE = 4;
+
+    static final String[] NAMES = {
+        "constant propagation", "copy propagation", "common subexpressions",
+        "loop-invariant motion", "dead code elimination",
+    };
+
+    static final int[] DEFAULT_PIPELINE = {CONSTANTS, COPIES, SUBEXPRESSIONS, LOOP_INVARIANTS, DEAD_CODE};
+
+    private final int[] pipeline;
+    private final boolean verify;
+
+    public SsaOptimizer() {
+        this(DEFAULT_PIPELINE, false);
+    }
+
+    // verify: check the IR after every pass (IllegalStateException if a
+    // pass broke it)
+    SsaOptimizer(int[] pipeline, boolean verify) {
+        this.pipeline = pipeline;
+        this.verify = verify;
+    }
+
+    // What the passes did, summed over the functions they ran on
+    public static final class Report {
+        final int[] passes;
+        final long[] nanos;
+        final long[] sizesBefore;
+        final long[] sizesAfter;
+        final long[] blocksBefore;
+        final long[] blocksAfter;
+        int functions;
+
+        Report(int[] passes) {
+            this.passes = passes;
+            nanos = new long[passes.length];
+            sizesBefore = new long[passes.length];
+            sizesAfter = new long[passes.length];
+            blocksBefore = new long[passes.length];
+            blocksAfter = new long[passes.length];
+        }
+
+        void add(Report other) {
+            for (int k = 0; k < passes.length; k++) {
+                nanos[k] += other.nanos[k];
+                sizesBefore[k] += other.sizesBefore[k];
+                sizesAfter[k] += other.sizesAfter[k];
+                blocksBefore[k] += other.blocksBefore[k];
+                blocksAfter[k] += other.blocksAfter[k];
+            }
+            functions += other.functions;
+        }
+
+        public long totalNanos() {
+            long total = 0;
+            for (long n : nanos) total += n;
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("  %-24s %10s %22s %18s%n", "pass", "time", "instructions", "blocks"));
+            for (int k = 0; k < passes.length; k++) {
+                sb.append(String.format("  %-24s %7.2f ms %9d -> %-9d %7d -> %-7d%n", NAMES[passes[k]], nanos[k] / 1e6,
+                    sizesBefore[k], sizesAfter[k], blocksBefore[k], blocksAfter[k]));
+            }
+            if (passes.length > 0) {
+                sb.append(String.format("  %-24s %7.2f ms %9d -> %-9d %7d -> %-7d  (%d functions)%n", "total",
+                    totalNanos() / 1e6, sizesBefore[0], sizesAfter[passes.length - 1], blocksBefore[0],
+                    blocksAfter[passes.length - 1], functions));
+            }
+            return sb.toString();
+        }
+    }
+
+    public Report run(SsaFunction[] functions) {
+        Report report = new Report(pipeline);
+        for (SsaFunction function : functions) {
+            report.add(run(function));
+        }
+        return report;
+    }
+
+    public Report run(SsaFunction function) {
+        Report report = new Report(pipeline);
+        report.functions = 1;
+        for (int k = 0; k < pipeline.length; k++) {
+            report.sizesBefore[k] = function.size();
+            report.blocksBefore[k] = function.blocks();
+            long start = System.nanoTime();
+            runPass(pipeline[k], function);
+            report.nanos[k] = System.nanoTime() - start;
+            report.sizesAfter[k] = function.size();
+            report.blocksAfter[k] = function.blocks();
+            if (verify) function.verify();
+        }
+        return report;
+    }
+
+    static void runPass(int pass, SsaFunction function) {
+        switch (pass) {
+            case CONSTANTS:
+                new ConstantPropagation(function).run();
+                break;
+            case COPIES:
+                propagateCopies(function);
+                break;
+            case SUBEXPRESSIONS:
+                eliminateCommonSubexpressions(function);
+                break;
+            case LOOP_INVARIANTS:
+                hoistLoopInvariants(function);
+                break;
+            default:
+                eliminateDeadCode(function);
+        }
+    }
+
+    // ===== CONSTANT PROPAGATION =====
+
+    // Each value is unknown (not yet seen on a path that runs), a constant,
+    // or varying; each edge runs or hasn't been seen to. Values only move
+    // down that lattice and edges only start running, so the worklists
+    // empty out.
+    private static final class ConstantPropagation {
+        private static final byte UNKNOWN = 0;
+        private static final byte CONSTANT = 1;
+        private static final byte VARYING = 2;
+
+        private final SsaFunction function;
+        private final byte[] states;
+        private final long[] values;
+        private final String[] strings;
+        private final boolean[] reached;
+        private final boolean[][] edges; // by block, per predecessor
+        private final int[][] users;
+        private final ArrayDeque<Integer> blockWork = new ArrayDeque<>();
+        private final ArrayDeque<Integer> valueWork = new ArrayDeque<>();
+
+        ConstantPropagation(SsaFunction function) {
+            this.function = function;
+            int count = function.instructionCount();
+            states = new byte[count];
+            values = new long[count];
+            strings = new String[count];
+            reached = new boolean[function.blockCount()];
+            edges = new boolean[function.blockCount()][];
+            for (int block = 0; block < function.blockCount(); block++) {
+                edges[block] = new boolean[function.predecessors(block).length];
+            }
+            users = users(function);
+        }
+
+        void run() {
+            reach(0);
+            while (!blockWork.isEmpty() || !valueWork.isEmpty()) {
+                while (!blockWork.isEmpty()) {
+                    int block = blockWork.poll();
+                    for (int i = function.first(block); i >= 0; i = function.next(i)) {
+                        visit(i);
+                    }
+                }
+                while (!valueWork.isEmpty()) {
+                    int i = valueWork.poll();
+                    if (!function.isRemoved(i) && reached[function.block(i)]) visit(i);
+                }
+            }
+            rewrite();
+        }
+
+        private void reach(int block) {
+            reached[block] = true;
+            blockWork.add(block);
+        }
+
+        private void follow(int from, int to) {
+            int[] preds = function.predecessors(to);
+            boolean added = false;
+            for (int k = 0; k < preds.length; k++) {
+                if (preds[k] == from && !edges[to][k]) {
+                    edges[to][k] = true;
+                    added = true;
+                }
+            }
+            if (!added) return;
+            if (!reached[to]) {
+                reach(to);
+            } else {
+                // A new way in: only the phis can change
+                for (int i = function.first(to); i >= 0 && function.op(i) == SsaFunction.PHI; i = function.next(i)) {
+                    visit(i);
+                }
+            }
+        }
+
+        private void visit(int i) {
+            int block = function.block(i);
+            switch (function.op(i)) {
+                case SsaFunction.JUMP:
+                    follow(block, function.successors(block)[0]);
+                    return;
+                case SsaFunction.BRANCH: {
+                    int condition = function.operand(i, 0);
+                    int[] targets = function.successors(block);
+                    if (states[condition] == CONSTANT) {
+                        follow(block, targets[values[condition] != 0 ? 0 : 1]);
+                    } else if (states[condition] == VARYING) {
+                        follow(block, targets[0]);
+                        follow(block, targets[1]);
+                    }
+                    return;
+                }
+                case SsaFunction.CONST:
+                    if (function.type(i) == ValueType.STRING) {
+                        set(i, 0, function.text(i));
+                    } else {
+                        set(i, function.aux(i), null);
+                    }
+                    return;
+                case SsaFunction.PHI:
+                    visitPhi(i, block);
+                    return;
+                case SsaFunction.COPY:
+                    copy(i, function.operand(i, 0));
+                    return;
+                default:
+                    break;
+            }
+            if (!function.isPure(i) || function.type(i) == null) {
+                if (function.type(i) != null) vary(i);
+                return;
+            }
+            int count = function.operandCount(i);
+            for (int k = 0; k < count; k++) {
+                byte state = states[function.operand(i, k)];
+                if (state == VARYING) {
+                    vary(i);
+                    return;
+                }
+                if (state == UNKNOWN) return;
+            }
+            fold(i);
+        }
+
+        private void visitPhi(int phi, int block) {
+            boolean[] live = edges[block];
+            int found = -1;
+            for (int k = 0; k < live.length; k++) {
+                if (!live[k]) continue;
+                int value = function.operand(phi, k);
+                byte state = states[value];
+                if (state == VARYING) {
+                    vary(phi);
+                    return;
+                }
+                if (state == UNKNOWN) continue;
+                if (found < 0) {
+                    found = value;
+                } else if (values[found] != values[value] || !Objects.equals(strings[found], strings[value])) {
+                    vary(phi);
+                    return;
+                }
+            }
+            if (found >= 0) copy(phi, found);
+        }
+
+        // Every operand is a constant: the instruction's own value
+        private void fold(int i) {
+            int count = function.operandCount(i);
+            int a = count > 0 ? function.operand(i, 0) : -1;
+            int b = count > 1 ? function.operand(i, 1) : -1;
+            try {
+                switch (function.op(i)) {
+                    case SsaFunction.CONCAT:
+                        set(i, 0, ProgramRuntime.concat(strings[a], strings[b]));
+                        return;
+                    case SsaFunction.CHAR_STR:
+                        set(i, 0, ProgramRuntime.charToString((int) values[a]));
+                        return;
+                    case SsaFunction.LENGTH:
+                        set(i, strings[a].length(), null);
+                        return;
+                    case SsaFunction.COMPARE:
+                        if (function.type(a) == ValueType.STRING) {
+                            set(i, SsaEvaluator.compareStrings((int) function.aux(i), strings[a], strings[b]), null);
+                            return;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                set(i, SsaEvaluator.compute(function, i, a >= 0 ? values[a] : 0, b >= 0 ? values[b] : 0), null);
+            } catch (ArithmeticException e) {
+                vary(i); // left to divide by zero when it runs
+            }
+        }
+
+        private void copy(int i, int from) {
+            if (states[from] == CONSTANT) {
+                set(i, values[from], strings[from]);
+            } else if (states[from] == VARYING) {
+                vary(i);
+            }
+        }
+
+        private void set(int i, long value, String string) {
+            if (states[i] != UNKNOWN) return; // a constant stays the one it was
+            states[i] = CONSTANT;
+            values[i] = value;
+            strings[i] = string;
+            changed(i);
+        }
+
+        private void vary(int i) {
+            if (states[i] == VARYING) return;
+            states[i] = VARYING;
+            changed(i);
+        }
+
+        private void changed(int i) {
+            for (int user : users[i]) {
+                valueWork.add(user);
+            }
+        }
+
+        private void rewrite() {
+            int entryEnd = function.terminator(0);
+            for (int block = 0; block < function.blockCount(); block++) {
+                if (function.isBlockRemoved(block) || !reached[block]) continue;
+                for (int i = function.first(block); i >= 0; ) {
+                    int after = function.next(i);
+                    int op = function.op(i);
+                    if (i >= states.length) {
+                        // A constant this rewrite added
+                    } else if (states[i] == CONSTANT && op != SsaFunction.CONST) {
+                        if (op == SsaFunction.PHI) {
+                            // Constants go where they dominate every use
+                            int constant = function.insertBefore(entryEnd, SsaFunction.CONST, function.type(i),
+                                values[i], function.line(i));
+                            if (strings[i] != null) function.makeStringConstant(constant, strings[i]);
+                            function.replace(i, constant);
+                        } else if (strings[i] != null) {
+                            function.makeStringConstant(i, strings[i]);
+                        } else {
+                            function.makeConstant(i, values[i]);
+                        }
+                    } else if (op == SsaFunction.BRANCH) {
+                        // The condition may be a phi already replaced by a new constant
+                        int condition = function.operand(i, 0);
+                        if (condition >= states.length) {
+                            function.foldBranch(block, function.aux(condition) != 0);
+                        } else if (states[condition] == CONSTANT) {
+                            function.foldBranch(block, values[condition] != 0);
+                        }
+                    }
+                    i = after;
+                }
+            }
+            for (int block = 0; block < function.blockCount(); block++) {
+                if (!function.isBlockRemoved(block) && !reached[block]) function.removeBlock(block);
+            }
+        }
+    }
+
+    // The instructions using each value, for the instructions in blocks
+    private static int[][] users(SsaFunction function) {
+        int count = function.instructionCount();
+        int[] counts = new int[count];
+        for (int block = 0; block < function.blockCount(); block++) {
+            if (function.isBlockRemoved(block)) continue;
+            for (int i = function.first(block); i >= 0; i = function.next(i)) {
+                for (int k = 0; k < function.operandCount(i); k++) {
+                    counts[function.operand(i, k)]++;
+                }
+            }
+        }
+        int[][] users = new int[count][];
+        for (int i = 0; i < count; i++) {
+            users[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int block = 0; block < function.blockCount(); block++) {
+            if (function.isBlockRemoved(block)) continue;
+            for (int i = function.first(block); i >= 0; i = function.next(i)) {
+                for (int k = 0; k < function.operandCount(i); k++) {
+                    int value = function.operand(i, k);
+                    users[value][counts[value]++] = i;
+                }
+            }
+        }
+        return users;
+    }
+
+    // ===== COPY PROPAGATION =====
+
+    // Until nothing changes: a copy becomes its operand, and so does a phi
+    // whose operands are one value apart from the phi itself (removing one
+    // can make the phis using it trivial in turn)
+    static void propagateCopies(SsaFunction function) {
+        int[] order = function.reversePostorder();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int block : order) {
+                for (int i = function.first(block); i >= 0; ) {
+                    int after = function.next(i);
+                    int op = function.op(i);
+                    if (op == SsaFunction.COPY) {
+                        function.replace(i, function.operand(i, 0));
+                        changed = true;
+                    } else if (op == SsaFunction.PHI) {
+                        int same = -1;
+                        boolean trivial = true;
+                        for (int k = 0; k < function.operandCount(i) && trivial; k++) {
+                            int value = function.operand(i, k);
+                            if (value == i || value == same) continue;
+                            if (same >= 0) trivial = false;
+                            same = value;
+                        }
+                        if (trivial && same >= 0) {
+                            function.replace(i, same);
+                            changed = true;
+                        }
+                    }
+                    i = after;
+                }
+            }
+        }
+    }
+
+    // ===== COMMON SUBEXPRESSIONS =====
+
+    // Walks the dominator tree depth first with a table of what has been
+    // computed on the way down from the entry; an instruction found in it
+    // is replaced. Constants are numbered too, so equal ones merge.
+    static void eliminateCommonSubexpressions(SsaFunction function) {
+        int[] order = function.reversePostorder();
+        int[] idom = function.dominators(order);
+        int[][] children = dominatorChildren(function, order, idom);
+        Map<String, Integer> available = new HashMap<>();
+        List<String> added = new ArrayList<>();
+        int[] stack = new int[order.length * 2 + 2];
+        int depth = 0;
+        stack[depth++] = 0;
+        stack[depth++] = -1;
+        while (depth > 0) {
+            int mark = stack[--depth];
+            int block = stack[--depth];
+            if (mark >= 0) {
+                // Leaving block: forget what it added
+                while (added.size() > mark) {
+                    available.remove(added.remove(added.size() - 1));
+                }
+                continue;
+            }
+            stack[depth++] = block;
+            stack[depth++] = added.size();
+            for (int i = function.first(block); i >= 0; ) {
+                int after = function.next(i);
+                String key = valueKey(function, i);
+                if (key != null) {
+                    Integer existing = available.get(key);
+                    if (existing != null) {
+                        function.replace(i, existing);
+                    } else {
+                        available.put(key, i);
+                        added.add(key);
+                    }
+                }
+                i = after;
+            }
+            for (int child : children[block]) {
+                if (depth + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[depth++] = child;
+                stack[depth++] = -1;
+            }
+        }
+    }
+
+    // What an instruction computes, as a key equal for equal computations,
+    // or null when it can't be reused
+    private static String valueKey(SsaFunction function, int i) {
+        int op = function.op(i);
+        ValueType type = function.type(i);
+        if (op == SsaFunction.CONST) {
+            return type == ValueType.STRING ? "s" + function.text(i) : "c" + type.ordinal() + ":" + function.aux(i);
+        }
+        if (!function.isPure(i) || op == SsaFunction.COPY) return null;
+        int count = function.operandCount(i);
+        int a = count > 0 ? function.operand(i, 0) : -1;
+        int b = count > 1 ? function.operand(i, 1) : -1;
+        if (count == 2 && isCommutative(function, i) && a > b) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(op).append(':').append(type.ordinal()).append(':').append(function.aux(i));
+        if (a >= 0) key.append(':').append(a);
+        if (b >= 0) key.append(':').append(b);
+        for (int k = 2; k < count; k++) {
+            key.append(':').append(function.operand(i, k));
+        }
+        return key.toString();
+    }
+
+    private static boolean isCommutative(SsaFunction function, int i) {
+        switch (function.op(i)) {
+            case SsaFunction.ADD:
+            case SsaFunction.MUL:
+            case SsaFunction.AND:
+            case SsaFunction.OR:
+            case SsaFunction.XOR:
+                return true;
+            case SsaFunction.COMPARE: {
+                long comparison = function.aux(i);
+                return comparison == SsaFunction.EQ || comparison == SsaFunction.NE;
+            }
+            case SsaFunction.BUILTIN: {
+                long which = function.aux(i);
+                return which == SsaFunction.MIN || which == SsaFunction.MAX;
+            }
+            default:
+                return false;
+        }
+    }
+
+    private static int[][] dominatorChildren(SsaFunction function, int[] order, int[] idom) {
+        int[] counts = new int[function.blockCount()];
+        for (int block : order) {
+            if (block != 0) counts[idom[block]]++;
+        }
+        int[][] children = new int[function.blockCount()][];
+        for (int block = 0; block < children.length; block++) {
+            children[block] = new int[counts[block]];
+            counts[block] = 0;
+        }
+        for (int block : order) {
+            if (block != 0) children[idom[block]][counts[idom[block]]++] = block;
+        }
+        return children;
+    }
+
+    // ===== LOOP-INVARIANT CODE MOTION =====
+
+    // Finds the natural loops (a back edge is one to a block that dominates
+    // its source; the loop is what reaches the source without passing the
+    // header), gives every header a single block entering it from outside,
+    // then, innermost loop first, moves each instruction whose operands all
+    // come from outside the loop to the end of that block. An instruction
+    // moved out of an inner loop can move on out of the enclosing one.
+    // Only instructions that can't fail are moved, since the loop body
+    // might not run them at all.
+    static void hoistLoopInvariants(SsaFunction function) {
+        List<Loop> loops = loops(function);
+        boolean split = false;
+        for (Loop loop : loops) {
+            if (preheader(function, loop) < 0) {
+                int[] preds = function.predecessors(loop.header);
+                boolean[] outside = new boolean[preds.length];
+                for (int k = 0; k < preds.length; k++) {
+                    outside[k] = !loop.body[preds[k]];
+                }
+                function.splitPredecessors(loop.header, outside);
+                split = true;
+            }
+        }
+        // New blocks belong to the loops around them: find them again
+        if (split) loops = loops(function);
+        loops.sort((a, b) -> Integer.compare(a.size, b.size));
+        int[] order = function.reversePostorder();
+        for (Loop loop : loops) {
+            int end = function.terminator(preheader(function, loop));
+            for (int block : order) {
+                if (!loop.body[block]) continue;
+                for (int i = function.first(block); i >= 0; ) {
+                    int after = function.next(i);
+                    if (isInvariant(function, i, loop.body)) function.moveBefore(i, end);
+                    i = after;
+                }
+            }
+        }
+    }
+
+    static final class Loop {
+        final int header;
+        final boolean[] body;
+        int size;
+
+        Loop(int header, int blocks) {
+            this.header = header;
+            body = new boolean[blocks];
+        }
+    }
+
+    private static boolean isInvariant(SsaFunction function, int i, boolean[] body) {
+        int op = function.op(i);
+        if (op != SsaFunction.CONST && !function.isPure(i)) return false;
+        if (op == SsaFunction.COPY || function.mayTrap(i)) return false;
+        for (int k = 0; k < function.operandCount(i); k++) {
+            if (body[function.block(function.operand(i, k))]) return false;
+        }
+        return true;
+    }
+
+    // One loop per header (back edges to the same header make one loop)
+    static List<Loop> loops(SsaFunction function) {
+        int[] order = function.reversePostorder();
+        int[] idom = function.dominators(order);
+        Map<Integer, Loop> byHeader = new LinkedHashMap<>();
+        int[] work = new int[function.blockCount()];
+        for (int block : order) {
+            for (int header : function.successors(block)) {
+                if (!SsaFunction.dominates(idom, header, block)) continue;
+                Loop loop = byHeader.computeIfAbsent(header, h -> new Loop(h, function.blockCount()));
+                boolean[] body = loop.body;
+                body[header] = true;
+                int count = 0;
+                if (!body[block]) {
+                    body[block] = true;
+                    work[count++] = block;
+                }
+                while (count > 0) {
+                    int b = work[--count];
+                    for (int pred : function.predecessors(b)) {
+                        if (!body[pred] && idom[pred] >= 0) {
+                            body[pred] = true;
+                            work[count++] = pred;
+                        }
+                    }
+                }
+            }
+        }
+        for (Loop loop : byHeader.values()) {
+            for (boolean in : loop.body) {
+                if (in) loop.size++;
+            }
+        }
+        return new ArrayList<>(byHeader.values());
+    }
+
+    // The loop's one outside predecessor, if it has just the header as a
+    // successor; -1 otherwise
+    private static int preheader(SsaFunction function, Loop loop) {
+        int found = -1;
+        for (int pred : function.predecessors(loop.header)) {
+            if (loop.body[pred]) continue;
+            if (found >= 0 && found != pred) return -1;
+            found = pred;
+        }
+        if (found < 0 || function.successors(found).length != 1) return -1;
+        return found;
+    }
+
+    // ===== DEAD CODE ELIMINATION =====
+
+    // Removes the blocks the entry doesn't reach, then marks what the
+    // instructions with an effect need, transitively, and removes the rest.
+    // Last, a block that is its predecessor's only successor and has no
+    // other predecessor joins it.
+    static void eliminateDeadCode(SsaFunction function) {
+        int[] order = function.reversePostorder();
+        boolean[] reachable = new boolean[function.blockCount()];
+        for (int block : order) {
+            reachable[block] = true;
+        }
+        for (int block = 0; block < function.blockCount(); block++) {
+            if (!reachable[block] && !function.isBlockRemoved(block)) function.removeBlock(block);
+        }
+
+        boolean[] live = new boolean[function.instructionCount()];
+        int[] work = new int[function.instructionCount()];
+        int count = 0;
+        for (int block : order) {
+            for (int i = function.first(block); i >= 0; i = function.next(i)) {
+                if (function.hasEffect(i)) {
+                    live[i] = true;
+                    work[count++] = i;
+                }
+            }
+        }
+        while (count > 0) {
+            int i = work[--count];
+            for (int k = 0; k < function.operandCount(i); k++) {
+                int value = function.operand(i, k);
+                if (!live[value]) {
+                    live[value] = true;
+                    work[count++] = value;
+                }
+            }
+        }
+        for (int block : order) {
+            for (int i = function.first(block); i >= 0; ) {
+                int after = function.next(i);
+                if (!live[i]) function.remove(i);
+                i = after;
+            }
+        }
+
+        for (int block : order) {
+            if (function.isBlockRemoved(block)) continue;
+            while (true) {
+                int[] targets = function.successors(block);
+                if (targets.length != 1) break;
+                int next = targets[0];
+                if (next == block || next == 0 || function.predecessors(next).length != 1) break;
+                function.merge(block, next);
+            }
+        }
+    }
+}
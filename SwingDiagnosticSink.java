@@ -0,0 +1,34 @@
+import javax.swing.*;
+
+// Shows diagnostics in a JTextArea. Reports are only buffered; flush()
+// replaces the area's text in one setText, so a run with hundreds of
+// diagnostics costs one document update and one repaint instead of one per
+// append. report() may be called from any thread; the text area is only
+// touched on the EDT.
+public class SwingDiagnosticSink implements DiagnosticSink {
+    private final JTextArea area;
+    private StringBuilder pending = new StringBuilder();
+
+    public SwingDiagnosticSink(JTextArea area) {
+        this.area = area;
+    }
+
+    @Override
+    public synchronized void report(Diagnostic diagnostic) {
+        pending.append(diagnostic).append('\n');
+    }
+
+    @Override
+    public void flush() {
+        String text;
+        synchronized (this) {
+            text = pending.toString();
+            pending = new StringBuilder();
+        }
+        if (SwingUtilities.isEventDispatchThread()) {
+            area.setText(text);
+        } else {
+            SwingUtilities.invokeLater(() -> area.setText(text));
+        }
+    }
+}
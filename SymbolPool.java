@@ -0,0 +1,281 @@
+import java.util.*;
+
+// Interns identifier and keyword spellings as small int ids.
+//
+// Every TokenStream owns a pool and interns each word token as it is
+// added, so from the lexer on a name is an id: the parser tests word sets
+// with an array lookup, the symbol table indexes its bindings by id, and
+// two names are the same name when their ids are equal. The characters of
+// each distinct spelling are copied into one shared char[] the first time
+// they are seen; a String for an id is only made when someone asks for its
+// spelling, and then only once.
+//
+// The words in SEED are interned first, in order, by every pool, so their
+// ids are the same everywhere and can be used as constants (seeded()) and
+// as indexes into static word sets (wordSet()). Seeded spellings are the
+// String literals themselves, so spelling(id).equals("int") is an identity
+// check.
+//
+// A pool belongs to one token stream and is not thread-safe. Spellings are
+// never removed; an IncrementalLexer's pool grows with every distinct name
+// typed during the session.
+public final class SymbolPool {
+    private static final String[] SEED = {
+        // The C++ keywords the analyzer knows
+        "int", "float", "double", "char", "bool", "if", "else", "long", "short", "unsigned",
+        "true", "false", "string", "for", "while", "do", "switch", "case", "break", "continue",
+        "return", "void", "struct", "class", "const", "static", "enum", "namespace", "using", "try",
+        "catch", "throw",
+        // Other words the parser and the checks look for
+        "signed", "auto", "size_t", "byte", "constexpr", "volatile", "extern", "inline",
+        "register", "union", "typedef", "template", "std", "main", "null",
+        "cout", "cin", "cerr", "endl",
+        // Type names of more than one word, as Parser.typeName spells them
+        "long long", "unsigned int"
+    };
+    private static final Map<String, Integer> SEED_IDS = new HashMap<>();
+
+    static {
+        for (int id = 0; id < SEED.length; id++) {
+            SEED_IDS.put(SEED[id], id);
+        }
+    }
+
+    private static final boolean[] KEYWORDS = wordSet("int", "float", "double", "char", "bool", "if", "else",
+            "long", "short", "unsigned", "true", "false", "string", "for", "while", "do", "switch", "case", "break", "continue",
+            "return", "void", "struct", "class", "const", "static", "enum", "namespace", "using", "try", "catch", "throw");
+
+    // Spelling i is chars[offsets[i], offsets[i] + lengths[i])
+    private char[] chars = new char[512];
+    private int charCount;
+    private int[] offsets = new int[128];
+    private int[] lengths = new int[128];
+    private int[] hashes = new int[128];
+    private String[] strings = new String[128];
+    private int[] counts = new int[128];
+    private int size;
+
+    // Open addressing, linear probing; slots hold id + 1, 0 when empty
+    private int[] table = new int[256];
+
+    // Statistics over intern() calls: how many, how many distinct
+    // spellings they named, and what the calls and the distinct spellings
+    // would have cost as one String each
+    private long occurrences;
+    private int distinct;
+    private long occurrenceBytes;
+    private long distinctBytes;
+
+    public SymbolPool() {
+        for (String word : SEED) {
+            int id = insert(word, 0, word.length(), hash(word, 0, word.length()));
+            strings[id] = word;
+        }
+    }
+
+    // ===== SEEDED WORDS =====
+
+    // Id of a SEED word, the same in every pool
+    public static int seeded(String word) {
+        Integer id = SEED_IDS.get(word);
+        if (id == null) {
+            throw new IllegalArgumentException("not a seeded word: " + word);
+        }
+        return id;
+    }
+
+    // Membership flags for SEED words, indexed by id; test with in()
+    public static boolean[] wordSet(String... words) {
+        boolean[] set = new boolean[SEED.length];
+        for (String word : words) {
+            set[seeded(word)] = true;
+        }
+        return set;
+    }
+
+    public static boolean in(boolean[] set, int id) {
+        return id >= 0 && id < set.length && set[id];
+    }
+
+    // One of the C++ keywords, which can't be used as names
+    public static boolean isKeyword(int id) {
+        return in(KEYWORDS, id);
+    }
+
+    // ===== INTERNING =====
+
+    // Id of source[start, end), adding it if it is new
+    public int intern(CharSequence source, int start, int end) {
+        int length = end - start;
+        int hash = hash(source, start, end);
+        int id = probe(source, start, end, hash);
+        if (id < 0) {
+            id = insert(source, start, end, hash);
+        }
+        occurrences++;
+        occurrenceBytes += stringBytes(length);
+        if (counts[id]++ == 0) {
+            distinct++;
+            distinctBytes += stringBytes(length);
+        }
+        return id;
+    }
+
+    public int intern(CharSequence spelling) {
+        return intern(spelling, 0, spelling.length());
+    }
+
+    // Id of source[start, end), or -1 if the pool has never seen it
+    public int find(CharSequence source, int start, int end) {
+        return probe(source, start, end, hash(source, start, end));
+    }
+
+    public int find(CharSequence spelling) {
+        return find(spelling, 0, spelling.length());
+    }
+
+    public String spelling(int id) {
+        String spelling = strings[id];
+        if (spelling == null) {
+            spelling = new String(chars, offsets[id], lengths[id]);
+            strings[id] = spelling;
+        }
+        return spelling;
+    }
+
+    public int length(int id) {
+        return lengths[id];
+    }
+
+    // Number of ids handed out, seeded words included; every id is below it
+    public int size() {
+        return size;
+    }
+
+    // How many times id was interned
+    public int count(int id) {
+        return counts[id];
+    }
+
+    private int probe(CharSequence source, int start, int end, int hash) {
+        int mask = table.length - 1;
+        int length = end - start;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) return -1;
+            int id = entry - 1;
+            if (hashes[id] == hash && lengths[id] == length && sameChars(id, source, start)) {
+                return id;
+            }
+        }
+    }
+
+    private boolean sameChars(int id, CharSequence source, int start) {
+        int offset = offsets[id];
+        for (int k = 0; k < lengths[id]; k++) {
+            if (chars[offset + k] != source.charAt(start + k)) return false;
+        }
+        return true;
+    }
+
+    private int insert(CharSequence source, int start, int end, int hash) {
+        int length = end - start;
+        if (size == offsets.length) {
+            int grown = size * 2;
+            offsets = Arrays.copyOf(offsets, grown);
+            lengths = Arrays.copyOf(lengths, grown);
+            hashes = Arrays.copyOf(hashes, grown);
+            strings = Arrays.copyOf(strings, grown);
+            counts = Arrays.copyOf(counts, grown);
+        }
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        for (int k = 0; k < length; k++) {
+            chars[charCount + k] = source.charAt(start + k);
+        }
+        int id = size++;
+        offsets[id] = charCount;
+        lengths[id] = length;
+        hashes[id] = hash;
+        charCount += length;
+
+        // Keep the table at most half full
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            place(id);
+        }
+        return id;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int id = 0; id < size; id++) {
+            place(id);
+        }
+    }
+
+    private void place(int id) {
+        int mask = table.length - 1;
+        int slot = hashes[id] & mask;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = id + 1;
+    }
+
+    // String.hashCode of the characters, spread so the low bits that pick a
+    // slot depend on all of them
+    private static int hash(CharSequence source, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + source.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // ===== STATISTICS =====
+
+    // Words interned so far, counting repeats
+    public long occurrences() {
+        return occurrences;
+    }
+
+    // Distinct spellings among them
+    public int distinct() {
+        return distinct;
+    }
+
+    // Heap a String per occurrence would have taken, minus what interning
+    // takes: one String per distinct spelling and an int id per occurrence
+    public long bytesSaved() {
+        return occurrenceBytes - distinctBytes - 4 * occurrences;
+    }
+
+    // The same three numbers for the words of tokens alone, as
+    // {occurrences, distinct, bytes saved}. A pool that outlives one
+    // version of a document (an IncrementalLexer's) has also counted every
+    // word its earlier versions had.
+    public long[] statistics(TokenStream tokens) {
+        BitSet seen = new BitSet(size);
+        long words = 0;
+        long wordBytes = 0;
+        long spellingBytes = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            int id = tokens.symbol(i);
+            if (id < 0) continue;
+            words++;
+            wordBytes += stringBytes(lengths[id]);
+            if (!seen.get(id)) {
+                seen.set(id);
+                spellingBytes += stringBytes(lengths[id]);
+            }
+        }
+        return new long[] {words, seen.cardinality(), wordBytes - spellingBytes - 4 * words};
+    }
+
+    // Approximate heap size of a Latin-1 String of length characters: the
+    // String object plus its byte[]
+    private static long stringBytes(int length) {
+        return 24 + ((16 + length + 7) & ~7);
+    }
+}
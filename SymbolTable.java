@@ -0,0 +1,245 @@
+import java.util.*;
+
+// Block-scoped symbol table for one analysis run.
+//
+// Names and types are SymbolPool ids of the token stream being analyzed.
+// Symbols and scopes are numbered in the order they are created and kept
+// in parallel arrays, like TokenStream and Ast. An array indexed by name id
+// holds the innermost visible symbol, so a lookup is one array read; each
+// symbol remembers the binding it shadows, so popping a scope just puts
+// those back. Opening a scope costs a few ints and no map, so deeply
+// nested code does not grow anything but the arrays.
+//
+// Popped symbols stay in the arrays: after the run, symbolCount() and the
+// per-symbol accessors describe every declaration the file made, with the
+// scope and line it was made in, which is what the Symbol Table tab and the
+// never-initialized warnings read.
+public final class SymbolTable {
+    public static final int GLOBAL_SCOPE = 0;
+
+    private SymbolPool pool = new SymbolPool();
+    // Innermost visible symbol per name id, -1 for none
+    private int[] visible = new int[0];
+
+    private int[] names = new int[32];
+    private int[] types = new int[32];
+    private boolean[] initialized = new boolean[32];
+    private int[] lines = new int[32];
+    private int[] symbolScopes = new int[32];
+    private int[] shadowed = new int[32];
+    // Compile-time constants: const variables whose initializer folded,
+    // with the value in the declared type as ConstantFolder keeps it
+    private boolean[] constants = new boolean[32];
+    private long[] constantValues = new long[32];
+    private int symbolCount;
+    // Bumped whenever a lookup may answer differently: a declaration, a
+    // scope closing, a clear
+    private long version;
+
+    private String[] scopeNames = new String[16];
+    private int[] scopeLines = new int[16];
+    private int[] scopeParents = new int[16];
+    private int scopeCount;
+
+    // Open scopes, innermost last, and how many symbols were live when
+    // each opened; live holds the symbols of the open scopes, in order
+    private int[] open = new int[16];
+    private int[] marks = new int[16];
+    private int depth;
+    private int[] live = new int[32];
+    private int liveCount;
+
+    public SymbolTable() {
+        clear(pool);
+    }
+
+    // Forgets everything and leaves only the global scope open; names and
+    // types from now on are ids in pool
+    public void clear(SymbolPool pool) {
+        this.pool = pool;
+        Arrays.fill(visible, -1);
+        symbolCount = 0;
+        scopeCount = 0;
+        depth = 0;
+        liveCount = 0;
+        version++;
+        pushScope("global", 0);
+    }
+
+    // ===== SCOPES =====
+
+    // Opens a scope inside the current one; name is what the Symbol Table
+    // tab shows for it ("main()", "block", "for", ...)
+    public int pushScope(String name, int line) {
+        if (scopeCount == scopeNames.length) {
+            int grown = scopeCount * 2;
+            scopeNames = Arrays.copyOf(scopeNames, grown);
+            scopeLines = Arrays.copyOf(scopeLines, grown);
+            scopeParents = Arrays.copyOf(scopeParents, grown);
+        }
+        int scope = scopeCount++;
+        scopeNames[scope] = name;
+        scopeLines[scope] = line;
+        scopeParents[scope] = depth > 0 ? open[depth - 1] : -1;
+
+        if (depth == open.length) {
+            open = Arrays.copyOf(open, depth * 2);
+            marks = Arrays.copyOf(marks, depth * 2);
+        }
+        open[depth] = scope;
+        marks[depth] = liveCount;
+        depth++;
+        return scope;
+    }
+
+    // Closes the innermost scope; the global scope never closes
+    public void popScope() {
+        if (depth <= 1) return;
+        depth--;
+        if (liveCount > marks[depth]) version++;
+        while (liveCount > marks[depth]) {
+            int symbol = live[--liveCount];
+            visible[names[symbol]] = shadowed[symbol];
+        }
+    }
+
+    public int currentScope() {
+        return open[depth - 1];
+    }
+
+    // Number of scopes open, the global one included
+    public int depth() {
+        return depth;
+    }
+
+    public int scopeCount() {
+        return scopeCount;
+    }
+
+    public String scopeName(int scope) {
+        return scopeNames[scope];
+    }
+
+    public int scopeLine(int scope) {
+        return scopeLines[scope];
+    }
+
+    // Enclosing scope, or -1 for the global scope
+    public int scopeParent(int scope) {
+        return scopeParents[scope];
+    }
+
+    // ===== SYMBOLS =====
+
+    // Declares name in the current scope, shadowing any outer symbol of the
+    // same name. Returns the new symbol, or -1 when the current scope
+    // already has one by that name.
+    public int declare(int name, int type, boolean isInitialized, int line) {
+        int outer = lookup(name);
+        if (outer >= 0 && symbolScopes[outer] == currentScope()) {
+            return -1;
+        }
+        if (name >= visible.length) {
+            int old = visible.length;
+            visible = Arrays.copyOf(visible, Math.max(name + 1, pool.size()) + 64);
+            Arrays.fill(visible, old, visible.length, -1);
+        }
+        if (symbolCount == names.length) {
+            int grown = symbolCount * 2;
+            names = Arrays.copyOf(names, grown);
+            types = Arrays.copyOf(types, grown);
+            initialized = Arrays.copyOf(initialized, grown);
+            lines = Arrays.copyOf(lines, grown);
+            symbolScopes = Arrays.copyOf(symbolScopes, grown);
+            shadowed = Arrays.copyOf(shadowed, grown);
+            constants = Arrays.copyOf(constants, grown);
+            constantValues = Arrays.copyOf(constantValues, grown);
+        }
+        int symbol = symbolCount++;
+        names[symbol] = name;
+        types[symbol] = type;
+        initialized[symbol] = isInitialized;
+        lines[symbol] = line;
+        symbolScopes[symbol] = currentScope();
+        shadowed[symbol] = outer;
+        constants[symbol] = false;
+        visible[name] = symbol;
+        version++;
+        if (liveCount == live.length) {
+            live = Arrays.copyOf(live, liveCount * 2);
+        }
+        live[liveCount++] = symbol;
+        return symbol;
+    }
+
+    // The innermost visible symbol with name id name, or -1
+    public int lookup(int name) {
+        return name >= 0 && name < visible.length ? visible[name] : -1;
+    }
+
+    // Lookup by spelling, for text that was not lexed (a name matched in a
+    // line); a spelling the pool has never seen can't be declared
+    public int lookup(CharSequence name) {
+        return lookup(pool.find(name));
+    }
+
+    public int lookup(CharSequence source, int start, int end) {
+        return lookup(pool.find(source, start, end));
+    }
+
+    // Changes whenever the visible symbols do, so a result derived from
+    // lookups can be kept while it stays the same
+    public long version() {
+        return version;
+    }
+
+    public int symbolCount() {
+        return symbolCount;
+    }
+
+    public String name(int symbol) {
+        return pool.spelling(names[symbol]);
+    }
+
+    public String type(int symbol) {
+        return pool.spelling(types[symbol]);
+    }
+
+    public int nameId(int symbol) {
+        return names[symbol];
+    }
+
+    public int typeId(int symbol) {
+        return types[symbol];
+    }
+
+    public boolean isInitialized(int symbol) {
+        return initialized[symbol];
+    }
+
+    public void setInitialized(int symbol) {
+        initialized[symbol] = true;
+    }
+
+    public void setConstant(int symbol, long value) {
+        constants[symbol] = true;
+        constantValues[symbol] = value;
+    }
+
+    public boolean isConstant(int symbol) {
+        return constants[symbol];
+    }
+
+    public long constantValue(int symbol) {
+        return constantValues[symbol];
+    }
+
+    // Line of the declaration
+    public int line(int symbol) {
+        return lines[symbol];
+    }
+
+    public int scope(int symbol) {
+        return symbolScopes[symbol];
+    }
+}
@@ -1,252 +1,630 @@
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 import java.util.regex.*;
-import javax.swing.*;
 
+// One analysis session. The symbol table and the per-line state belong to
+// the instance, so every run (or every thread) uses its own SyntaxAnalyzer
+// and any number of them can run at the same time. The only statics are
+// immutable keyword tables.
 public class SyntaxAnalyzer {
-    private static final Set<String> cppKeywords = Set.of("int", "float", "double", "char", "bool", "if", "else",
+    private static final String[] CPP_KEYWORDS = {"int", "float", "double", "char", "bool", "if", "else",
             "long", "short", "unsigned", "true", "false", "string", "for", "while", "do", "switch", "case", "break", "continue",
-            "return", "void", "struct", "class", "const", "static", "enum", "namespace", "using", "try", "catch", "throw");
+            "return", "void", "struct", "class", "const", "static", "enum", "namespace", "using", "try", "catch", "throw"};
+    // Case-folded, for finding miscased keywords in line text; exact
+    // keyword tests go through SymbolPool.isKeyword
+    private static final KeywordMatcher KEYWORD_MATCHER = new KeywordMatcher(CPP_KEYWORDS);
+
+    // Type tests on SymbolPool ids
+    private static final int STRING_TYPE = SymbolPool.seeded("string");
+    private static final int NULL = SymbolPool.seeded("null");
+    // What <iostream> declares; programs use these without declaring them
+    private static final boolean[] STREAM_NAMES = SymbolPool.wordSet("std", "cout", "cin", "cerr", "endl");
+    private static final boolean[] NUMERIC_TYPES = SymbolPool.wordSet("int", "float", "double", "long", "short",
+                                                                      "unsigned int", "long long");
+    private static final boolean[] INCREMENTABLE_TYPES = SymbolPool.wordSet("int", "long", "float", "double",
+                                                                            "short", "byte");
+
+    // Every pattern the checks use is compiled once, here, instead of on
+    // every line (String.matches and replaceAll compile a new Pattern per
+    // call)
+    private static final Pattern MAIN_SIGNATURE = Pattern.compile("\\b(int|void)\\s+main\\s*\\([^)]*\\)");
+    private static final Pattern MALFORMED_MAIN = Pattern.compile("\\bmain\\s*\\)\\s*\\(|\\bmain\\s*[^(]*\\(|\\bmain\\s*\\([^)]*[^)]$");
+    private static final Pattern MAIN_WORD = Pattern.compile("\\bmain\\b");
+    private static final Pattern MAIN_HEADER = Pattern.compile("\\b(int|void)\\s+main\\s*\\([^)]*\\)\\s*([{]?)");
+
+    private static final String[] DATA_TYPES = {"int", "float", "double", "char", "bool", "long", "short",
+                                                "unsigned", "signed", "string", "void", "auto", "size_t"};
+    private static final KeywordMatcher DATA_TYPE_MATCHER = new KeywordMatcher(DATA_TYPES);
+
+    private static final Pattern RANGE_FOR = Pattern.compile(".*\\bfor\\s*\\(.*:.*\\).*");
+    private static final Pattern STRAY_PUNCTUATION = Pattern.compile(
+        "(?<![\"'\\w\\s\\\\])" +    // Not preceded by word, space, \ or quote
+        "([!#%^&*\\[\\]|~]|(?<!\\+)\\+(?!\\+)|(?<!-)\\-(?!-))" + // Match allowed punctuations; + only if not part of ++, - only if not part of --
+        "(?![\"'\\w\\s\\\\])"       // Not followed by word, space, \ or quote
+    );
+    private static final Pattern INVALID_SEQUENCE = Pattern.compile("(?<![=<>!&|+-])([#%^&*+-])\\1{2,}(?![=<>!&|+-])");
+    private static final Map<Character, Set<String>> VALID_CONTEXTS = new HashMap<>();
+
+    private static final Pattern FUNCTION_DECLARATION = Pattern.compile("^\\s*(int|void|float|double|char|bool|long|short|unsigned)\\s+[a-zA-Z_][a-zA-Z0-9_]*\\s*\\(.*");
+    private static final Pattern TYPED_LINE = Pattern.compile("^\\s*(int|float|double|char|bool|long|short|unsigned)\\s+.*");
+    private static final Pattern IF_ELSE_PREFIX = Pattern.compile("^\\s*(if|else)\\s*.*");
+    private static final Pattern USING_NAMESPACE = Pattern.compile("^\\s*using\\s+namespace\\s+\\w+\\s*;\\s*$");
+    private static final Pattern NAME_START = Pattern.compile("^[a-zA-Z_].*");
+    private static final Pattern VALID_NAME = Pattern.compile("^[a-zA-Z_][a-zA-Z0-9_]*$");
+
+    // "x op value;" for any of the operators; the operator is fixed by where
+    // the leading name ends, so one alternation finds the same match as
+    // trying the operators one by one
+    private static final Pattern ASSIGNMENT = Pattern.compile("^\\s*([a-zA-Z_][a-zA-Z0-9_]*)\\s*("
+        + "=|\\+=|-=|\\*=|/=|%=|<<=|>>=|&=|\\^=|\\|=" + ")\\s*(.+);\\s*$");
+
+    private static final Pattern UNARY_MINUS_RUN = Pattern.compile("[=]\\s*-\\s*-\\s*-\\s*-");
+    private static final Pattern POST_INC_DEC = Pattern.compile("([a-zA-Z_][a-zA-Z0-9_]*)\\s*(\\+\\+|--)");
+    private static final Pattern PRE_INC_DEC = Pattern.compile("(\\+\\+|--)\\s*([a-zA-Z_][a-zA-Z0-9_]*)");
+    private static final Pattern INC_DEC_WITH_VARIABLE = Pattern.compile("(\\+\\+|--)\\s*[a-zA-Z_].*");
+    private static final Pattern INC_DEC_BEFORE_SEMICOLON = Pattern.compile("(\\+\\+|--)\\s*;");
+
+    private static final Pattern BINARY_OPERATION = Pattern.compile("(\\b[a-zA-Z_][a-zA-Z0-9_]*\\b)\\s*([+\\-*/])\\s*(\\b[a-zA-Z_][a-zA-Z0-9_]*\\b|\\d+(\\.\\d+)?)");
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+
+    static {
+
+        VALID_CONTEXTS.put('!', Set.of("operator", "conditional"));
+        VALID_CONTEXTS.put('@', Set.of("preprocessor", "annotation"));
+        VALID_CONTEXTS.put('#', Set.of("preprocessor", "stringizing"));
+        VALID_CONTEXTS.put('$', Set.of("identifier"));
+        VALID_CONTEXTS.put('%', Set.of("operator", "formatstring"));
+        VALID_CONTEXTS.put('^', Set.of("operator"));
+        VALID_CONTEXTS.put('&', Set.of("operator", "reference", "address"));
+        VALID_CONTEXTS.put('*', Set.of("operator", "pointer", "dereference", "multiplication"));
+        VALID_CONTEXTS.put('(', Set.of("grouping", "call", "precedence"));
+        VALID_CONTEXTS.put(')', Set.of("grouping", "call", "precedence"));
+        VALID_CONTEXTS.put('_', Set.of("identifier"));
+        VALID_CONTEXTS.put('+', Set.of("operator", "addition", "increment"));
+        VALID_CONTEXTS.put('-', Set.of("operator", "subtraction", "decrement", "negative"));
+        VALID_CONTEXTS.put('=', Set.of("assignment", "comparison", "initialization"));
+        VALID_CONTEXTS.put(':', Set.of("label", "scope", "ternary", "foreach"));
+        VALID_CONTEXTS.put(';', Set.of("statement_end"));
+        VALID_CONTEXTS.put('{', Set.of("block_start"));
+        VALID_CONTEXTS.put('}', Set.of("block_end"));
+        VALID_CONTEXTS.put('[', Set.of("array"));
+        VALID_CONTEXTS.put(']', Set.of("array"));
+        VALID_CONTEXTS.put('<', Set.of("comparison", "template", "stream"));
+        VALID_CONTEXTS.put('>', Set.of("comparison", "template", "stream"));
+        VALID_CONTEXTS.put('?', Set.of("ternary"));
+        VALID_CONTEXTS.put(',', Set.of("separator"));
+        VALID_CONTEXTS.put('.', Set.of("member", "decimal"));
+        VALID_CONTEXTS.put('/', Set.of("operator", "division", "comment"));
+        VALID_CONTEXTS.put('\\', Set.of("escape", "line_continuation"));
+        VALID_CONTEXTS.put('|', Set.of("operator", "bitwise"));
+        VALID_CONTEXTS.put('`', Set.of());
+        VALID_CONTEXTS.put('~', Set.of("operator", "destructor", "bitwise"));
+    }
 
-    public static final Map<String, VariableInfo> declaredVariables = new HashMap<>();
-    private static final Set<String> assignmentOperators = Set.of("=", "+=", "-=", "*=", "/=", "%=", "<<=", ">>=", "&=", "^=", "|=");
-    private static boolean skipRemainingChecksForLine = false;
+    private final SymbolTable symbols = new SymbolTable();
+    private SymbolPool pool;
+    private final RuleRegistry rules;
+    // Results of the line-local rules from earlier runs, or null
+    private final LineCache lineCache;
+    // The tree and per-function dataflow problems of earlier runs, or null
+    private final TreeCache treeCache;
+    private PreprocessedSource source;
+    private Ast ast;
+    // Initializers and assigned values folded so far this run; const
+    // names fold to the values the symbol table recorded for them
+    private ConstantFolder folder;
+    private int nextProblem;
+    private final List<Diagnostic> flowProblems = new ArrayList<>();
+    private int nextFlowProblem;
+
+    // Scopes of the tree in the order they open (functions, non-body
+    // blocks, for statements), as [start, end) offsets of their nodes, and
+    // the end offsets of the ones currently open in the symbol table
+    private int[] scopeNodes = new int[16];
+    private int[] scopeStarts = new int[16];
+    private int[] scopeEnds = new int[16];
+    private int scopeCount;
+    private int nextScope;
+    private int[] openScopeEnds = new int[16];
+    private int openScopes;
+
+    // Per-session scratch state for the line checks, so that checking a
+    // line allocates nothing unless it reports something
+    private final Map<Pattern, Matcher> matchers = new IdentityHashMap<>();
+    private final LineCursor.View name = new LineCursor.View();
+    private final LineCursor.View otherName = new LineCursor.View();
+    private final LineCursor.View value = new LineCursor.View();
+    // A line with the inside of its literals blanked (see withoutLiterals)
+    private final StringBuilder unquotedText = new StringBuilder();
+    private final LineCursor.View unquoted = new LineCursor.View();
+    private final int[] typeCounts = new int[DATA_TYPES.length];
+    private final TypeCounter typeCounter = new TypeCounter();
+    private final MiscasedKeywords miscasedKeywords = new MiscasedKeywords();
+    private final BitSet conditionNames = new BitSet();
+
+    // Polled every CANCEL_INTERVAL lines and before each function's
+    // dataflow; once it answers true the run stops with a
+    // CancellationException, so a superseded run frees its thread early
+    private static final int CANCEL_INTERVAL = 256;
+    private BooleanSupplier cancelled = () -> false;
+
+    public SyntaxAnalyzer() {
+        this(defaultRules());
+    }
 
-    static class VariableInfo {
-        String type;
-        boolean initialized;
+    public SyntaxAnalyzer(RuleRegistry rules) {
+        this(rules, null);
+    }
 
-        public VariableInfo(String type, boolean initialized) {
-            this.type = type;
-            this.initialized = initialized;
-        }
+    // A session that reuses, and adds to, what earlier sessions with the
+    // same cache found on lines that have not changed since
+    public SyntaxAnalyzer(LineCache lineCache) {
+        this(defaultRules(), lineCache);
     }
 
-    private static void updateSymbolTableGUI(JTextArea symbolTableArea) {
-        if (symbolTableArea == null) return;
-        
+    public SyntaxAnalyzer(RuleRegistry rules, LineCache lineCache) {
+        this(rules, lineCache, null);
+    }
+
+    // Also reparses only what changed in the tree of the sessions before
+    // it, and reruns the dataflow checks only on the functions that did
+    public SyntaxAnalyzer(LineCache lineCache, TreeCache treeCache) {
+        this(defaultRules(), lineCache, treeCache);
+    }
+
+    public SyntaxAnalyzer(RuleRegistry rules, LineCache lineCache, TreeCache treeCache) {
+        this.rules = rules;
+        this.lineCache = lineCache;
+        this.treeCache = treeCache;
+    }
+
+    // The standard line checks, in the order they run on each line. Every
+    // call returns a fresh registry, so a session can enable or disable
+    // rules without affecting other sessions.
+    public static RuleRegistry defaultRules() {
+        EnumSet<RuleRegistry.Scope> everywhere = EnumSet.allOf(RuleRegistry.Scope.class);
+        EnumSet<RuleRegistry.Scope> functionBody = EnumSet.of(RuleRegistry.Scope.FUNCTION_BODY);
+        RuleRegistry registry = new RuleRegistry();
+        // The rules tagged TEXT or TEXT_AND_SYMBOLS only read the line and
+        // the types of its names, so a LineCache may answer them
+        // "int sq(int a) {" names a type per parameter, not several in one
+        // declaration
+        registry.add("multiple-types", everywhere,
+            line -> line.kind() != LineInfo.Kind.PREPROCESSOR && !line.isFunctionHeader(), RuleRegistry.Memo.TEXT,
+            (session, line, sink) -> {
+                // Inside functions such lines have always been checked further
+                if (session.checkMultipleDataTypes(line.text(), line.number(), sink)
+                        && line.scope() == RuleRegistry.Scope.TOP_LEVEL) {
+                    line.skipRemaining();
+                }
+            });
+        registry.add("string-arithmetic", everywhere, line -> line.containsAny("+-*/"), RuleRegistry.Memo.TEXT_AND_SYMBOLS,
+            (session, line, sink) -> session.checkStringArithmeticOperations(line.text(), line.number(), sink));
+        registry.add("keyword-case", everywhere, line -> true, RuleRegistry.Memo.TEXT,
+            (session, line, sink) -> session.checkKeywordCase(line.text(), line.number(), sink));
+        // Missing semicolons, else without if, empty initializers, ...:
+        // everything the Parser found, reported as the line loop reaches its line
+        registry.add("parse-errors", everywhere, line -> true,
+            (session, line, sink) -> session.reportParseProblems(line.number(), sink));
+        // Declarations go in before the line is checked for undeclared
+        // names, so "for (int k = 0; k < n; k++)" does not report its own k
+        registry.add("declaration", everywhere, line -> line.statementCount() > 0,
+            (session, line, sink) -> session.checkDeclarations(line, sink));
+        registry.add("undeclared-identifier", everywhere, line -> true, RuleRegistry.Memo.TEXT_AND_SYMBOLS,
+            (session, line, sink) -> session.checkIdentifiersWithoutKeywords(line.text(), line.number(), sink));
+        registry.add("assignment", functionBody, line -> line.hasLeadingWord() && line.contains('='),
+            (session, line, sink) -> session.checkAssignmentOperators(line, sink));
+        registry.add("operators", functionBody, line -> line.containsAny("+-*/&|^%"), RuleRegistry.Memo.TEXT_AND_SYMBOLS,
+            (session, line, sink) -> session.checkProblematicOperators(line.text(), line.number(), sink));
+        registry.add("syntax", functionBody, line -> true, RuleRegistry.Memo.TEXT,
+            (session, line, sink) -> session.checkSyntaxErrors(line.raw(), line.number(), sink));
+        registry.add("if-else", functionBody, line -> line.statementCount() > 0,
+            (session, line, sink) -> session.checkIfStatements(line, sink));
+        // Uninitialized reads, dead stores and unused variables, found per
+        // function on its control-flow graph and reported line by line
+        registry.add("dataflow", functionBody, line -> true,
+            (session, line, sink) -> session.reportFlowProblems(line.number(), sink));
+        return registry;
+    }
+
+    // Symbol Table tab text: every declaration of the last analyze() run,
+    // in source order, with the scope it was made in and its line
+    public String symbolTableText() {
         StringBuilder sb = new StringBuilder();
         sb.append("SYMBOL TABLE:\n");
-        sb.append("----------------------------------------\n");
-        sb.append(String.format("%-15s | %-10s | %-10s\n", "IDENTIFIER", "TYPE", "INITIALIZED"));
-        sb.append("----------------------------------------\n");
-            
-        for (Map.Entry<String, VariableInfo> entry : declaredVariables.entrySet()) {
-            sb.append(String.format("%-15s | %-10s | %-10s\n", 
-                entry.getKey(), 
-                entry.getValue().type, 
-                entry.getValue().initialized ? "Yes" : "No"));
-        }
-           
-        symbolTableArea.setText(sb.toString());
-    }
-
-    public static void analyzeSyntax(List<String> tokens, List<Integer> tokenLines, 
-    JTextArea symbolTableArea, JTextArea errorConsoleArea) {
-declaredVariables.clear(); // Clear previous analysis
-
-// DEBUG: Print tokens to verify input
-System.out.println("Tokens: " + tokens);
-
-// Process tokens to populate declaredVariables
-for (int i = 0; i < tokens.size(); i++) {
-String token = tokens.get(i);
-if (cppKeywords.contains(token)) { // Found a type keyword (e.g., "int")
-if (i + 1 < tokens.size()) {
-String nextToken = tokens.get(i + 1);
-if (nextToken.matches("[a-zA-Z_][a-zA-Z0-9_]*")) { // Valid variable name
-String varName = nextToken;
-declaredVariables.put(varName, new VariableInfo(token, false));
-System.out.println("DEBUG: Registered variable - " + token + " " + varName);
-}
-}
-}
-}
+        sb.append("-------------------------------------------------------------------------------\n");
+        sb.append(String.format("%-15s | %-10s | %-11s | %-15s | %-5s | %s\n", "IDENTIFIER", "TYPE", "INITIALIZED", "SCOPE", "LINE", "CONSTANT"));
+        sb.append("-------------------------------------------------------------------------------\n");
+
+        for (int symbol = 0; symbol < symbols.symbolCount(); symbol++) {
+            sb.append(String.format("%-15s | %-10s | %-11s | %-15s | %-5d | %s\n",
+                symbols.name(symbol),
+                symbols.type(symbol),
+                symbols.isInitialized(symbol) ? "Yes" : "No",
+                scopeLabel(symbols.scope(symbol)),
+                symbols.line(symbol),
+                symbols.isConstant(symbol)
+                    ? ConstantFolder.format(ValueType.of(symbols.typeId(symbol)), symbols.constantValue(symbol)) : ""));
+        }
+        if (folder != null) {
+            sb.append(String.format("%d expressions folded, %d lookups answered from the fold cache\n",
+                folder.evaluations(), folder.reuses()));
+        }
+        if (lineCache != null) {
+            sb.append(String.format("%d of %d line checks answered from the line cache (%.1f%%), %d cached\n",
+                lineCache.runHits(), lineCache.runHits() + lineCache.runMisses(),
+                lineCache.runHitRate() * 100, lineCache.size()));
+        }
+        if (treeCache != null && rules.isEnabled("dataflow")) {
+            sb.append(String.format("%d of %d functions' dataflow answered from the tree cache, %d cached\n",
+                treeCache.runHits(), treeCache.runHits() + treeCache.runMisses(), treeCache.size()));
+        }
+        if (pool != null) {
+            // Over this run's tokens; the tree cache's pool has seen every
+            // earlier version of the document too
+            long[] names = pool.statistics(ast.tokens());
+            sb.append("-------------------------------------------------------------------------------\n");
+            sb.append(String.format("%d distinct names for %d occurrences, ~%d bytes saved by interning\n",
+                names[1], names[0], names[2]));
+        }
+
+        return sb.toString();
+    }
 
-updateSymbolTableGUI(symbolTableArea); // Update GUI
-}
-  
-    private static String assembleCode(List<String> tokens) {
-        StringBuilder code = new StringBuilder();
-        for (String token : tokens) {
-            code.append(token).append(" ");
+    // "global", "main()", or the kind of a nested scope indented by depth
+    // and followed by the line it opens on ("  for @12")
+    private String scopeLabel(int scope) {
+        if (scope == SymbolTable.GLOBAL_SCOPE) {
+            return symbols.scopeName(scope);
+        }
+        StringBuilder label = new StringBuilder();
+        for (int outer = symbols.scopeParent(scope); outer > SymbolTable.GLOBAL_SCOPE; outer = symbols.scopeParent(outer)) {
+            label.append("  ");
+        }
+        label.append(symbols.scopeName(scope));
+        if (!symbols.scopeName(scope).endsWith(")")) {
+            label.append(" @").append(symbols.scopeLine(scope));
         }
-        return code.toString();
+        return label.toString();
     }
 
-    public static void analyze(String code, JTextArea outputArea) {
-    
+    public void setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
 
-        String processedCode = checkComments(code, outputArea);
-        if (processedCode.equals("//ANALYSIS_TERMINATED_DUE_TO_UNCLOSED_COMMENT")) {
-            return; // Exit early, don't perform further analysis
-        }
+    private void checkCancelled() {
+        if (cancelled.getAsBoolean()) throw new CancellationException();
+    }
 
-        code = code.replaceAll("/\\*[\\s\\S]*?\\*/", "");
-        String[] lines = code.split("\\n");
-        int lineNumber = 0;
-        declaredVariables.clear();
-    
-        // Then continue with the rest of your analysis using the processed code
-    
-        // Add this line to check for main function issues
-        checkMainFunction(code, outputArea);
-        
-    
-        boolean expectingElse = false;
-        for (String line : lines) {
-            lineNumber++;
-            skipRemainingChecksForLine = false;
-            String trimmed = line.replaceAll("//.*$", "").trim();
-            if (trimmed.isEmpty()) continue;
-    
-            checkMultipleDataTypes(trimmed, lineNumber, outputArea);
-            if (skipRemainingChecksForLine) continue;
-    
-            checkStringArithmeticOperations(trimmed, lineNumber, outputArea);
-            
-            if (trimmed.matches("^\\s*else\\b.*") && !expectingElse) {
-                outputArea.append("Line " + lineNumber + ": Error - 'else' without matching 'if'.\n");
+    // The symbol table of the last analyze() run
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    public void analyze(String code, DiagnosticSink sink) {
+        analyze(PreprocessedSource.of(code), sink);
+    }
+
+    // Everything below works on source.code(), which has no comments left
+    // in it, and on its tokens: source.tokens(), or the tree cache's copy
+    public void analyze(PreprocessedSource source, DiagnosticSink sink) {
+        for (Diagnostic problem : source.problems()) {
+            sink.report(problem);
+        }
+        if (source.hasUnterminatedComment()) {
+            return; // the rest of the file is comment, nothing to analyze
+        }
+
+        this.source = source;
+        String code = source.code();
+        ast = treeCache != null ? treeCache.update(code) : Parser.parse(source.tokens());
+        pool = ast.tokens().pool();
+        symbols.clear(pool);
+        folder = new ConstantFolder(ast, new ConstantFolder.Names() {
+            @Override
+            public ValueType constantType(int node) {
+                int symbol = constantSymbol(node);
+                return symbol >= 0 ? ValueType.of(symbols.typeId(symbol)) : null;
             }
-    
-            if (!trimmed.matches("^\\s*else\\b.*")) {
-                expectingElse = false;
+
+            @Override
+            public long constantValue(int node) {
+                return symbols.constantValue(constantSymbol(node));
             }
-    
-            checkKeywordCase(trimmed, lineNumber, outputArea);
-            checkSemicolon(trimmed, lineNumber, outputArea);
-            checkEmptyInitialization(trimmed, lineNumber, outputArea);
-            checkIdentifiersWithoutKeywords(trimmed, lineNumber, outputArea);
-            checkMultipleDeclarations(trimmed, lineNumber, outputArea);
-            checkDeclaration(trimmed, lineNumber, outputArea);
-            checkInitialization(trimmed, lineNumber, outputArea);
-            // checkAssignmentOperators(trimmed, lineNumber, outputArea);
-            // checkProblematicOperators(trimmed, lineNumber, outputArea);
-            // checkSyntaxErrors(line, lineNumber, outputArea);
-            // expectingElse = checkIfElseStatements(trimmed, lineNumber, outputArea) || expectingElse;
+        });
+        collectScopes();
+        declareFunctions();
+        nextProblem = 0;
+        analyzeFlow();
+
+        checkMainFunction(code, sink);
+
+        if (lineCache != null) lineCache.beginRun();
+        runRules(sink);
+        if (lineCache != null) lineCache.endRun();
+        if (rules.isEnabled("parse-errors")) {
+            reportParseProblems(Integer.MAX_VALUE, sink);
+        }
+        if (rules.isEnabled("dataflow")) {
+            reportFlowProblems(Integer.MAX_VALUE, sink);
         }
     
-        for (Map.Entry<String, VariableInfo> entry : declaredVariables.entrySet()) {
-            if (!entry.getValue().initialized) {
-                outputArea.append("Warning: Variable '" + entry.getKey() + "' is declared but never initialized.\n");
+        // Locals are the dataflow rule's business; this is for globals
+        for (int symbol = 0; symbol < symbols.symbolCount(); symbol++) {
+            if (symbols.scope(symbol) == SymbolTable.GLOBAL_SCOPE && !symbols.isInitialized(symbol)) {
+                sink.report(Diagnostic.warning("never-initialized", 0, "Warning: Variable '" + symbols.name(symbol) + "' is declared but never initialized."));
             }
         }
     }
 
-    private static String checkComments(String code, JTextArea outputArea) {
-        int lineNumber = 1;
-        boolean inMultilineComment = false;
-        int commentStartLine = 0;
-        StringBuilder processedCode = new StringBuilder();
-        
-        for (int i = 0; i < code.length(); i++) {
-            // Check for end of multiline comment
-            if (inMultilineComment) {
-                if (i < code.length() - 1 && code.charAt(i) == '*' && code.charAt(i + 1) == '/') {
-                    inMultilineComment = false;
-                    i++; // Skip the '/' character
-                    continue;
-                }
-                
-                // Check for nested comment start - error in C++
-                if (i < code.length() - 1 && code.charAt(i) == '/' && code.charAt(i + 1) == '*') {
-                    outputArea.append("Error at line " + lineNumber + ": Nested comments are not allowed in C++\n");
-                    i++; // Skip the '*' character
-                    
-                    // Important: Don't change inMultilineComment state here,
-                    // we're already in a comment so we just continue processing
-                }
-                
-                // Count lines within comments
-                if (code.charAt(i) == '\n') {
-                    lineNumber++;
-                    processedCode.append('\n'); // Keep newlines for line count consistency
+    // Returns the tree of the last analyze() run, or null
+    public Ast syntaxTree() {
+        return ast;
+    }
+
+    // The compile-time constant symbol a NAME node refers to, or -1
+    private int constantSymbol(int node) {
+        if (ast.firstToken(node) != ast.lastToken(node)) return -1;
+        int symbol = symbols.lookup(ast.symbol(node));
+        return symbol >= 0 && symbols.isConstant(symbol) ? symbol : -1;
+    }
+
+    // setInitialized for a line-local rule: the line cache has to know, to
+    // do it again when it replays the rule's result
+    private void markInitialized(int symbol) {
+        symbols.setInitialized(symbol);
+        if (lineCache != null) lineCache.markedInitialized(symbol);
+    }
+
+    // The session's Matcher for pattern, reset to input. A check must be
+    // done with a matcher before it asks for the same pattern again.
+    private Matcher matcher(Pattern pattern, CharSequence input) {
+        Matcher matcher = matchers.get(pattern);
+        if (matcher == null) {
+            matcher = pattern.matcher(input);
+            matchers.put(pattern, matcher);
+            return matcher;
+        }
+        return matcher.reset(input);
+    }
+
+    // Classifies each line once and hands it to the registry, which runs
+    // only the enabled rules that apply to it. Every line is visited
+    // exactly once, in order, and is given the statements that start on it
+    // and the function whose body it is in.
+    private void runRules(DiagnosticSink sink) {
+        int[] bodies = functionBodies();
+        int[] headers = functionHeaders();
+        int header = 0;
+        LineCursor cursor = new LineCursor(source.code());
+        LineInfo line = new LineInfo();
+        line.ast = ast;
+        int statement = 0;
+        int statementCount = ast.statementCount();
+        int body = 0;
+        int visited = 0;
+        while (cursor.next()) {
+            if (++visited % CANCEL_INTERVAL == 0) checkCancelled();
+            if (cursor.isBlank()) continue;
+            int sourceLine = cursor.number();
+            enterScopes(cursor.start());
+
+            // A line belongs to the body its first character is in
+            int first = cursor.textStart();
+            while (body < bodies.length && first >= bodies[body + 2]) body += 3;
+            boolean inBody = body < bodies.length && first >= bodies[body + 1];
+
+            while (statement < statementCount && ast.line(ast.statement(statement)) < sourceLine) statement++;
+            line.firstStatement = statement;
+            while (statement < statementCount && ast.line(ast.statement(statement)) == sourceLine) statement++;
+            line.statementEnd = statement;
+            line.function = inBody ? bodies[body] : -1;
+            while (header < headers.length && headers[header + 1] <= first) header += 2;
+            line.header = header < headers.length && headers[header] < cursor.textEnd();
+            line.reset(inBody ? RuleRegistry.Scope.FUNCTION_BODY : RuleRegistry.Scope.TOP_LEVEL, cursor, sourceLine);
+            rules.run(this, line, sink, lineCache);
+        }
+    }
+
+    // Every node that opens a scope, in source order. A function's
+    // parameters and its body share one scope, so its body BLOCK is not
+    // listed separately.
+    private void collectScopes() {
+        TokenStream tokens = ast.tokens();
+        scopeCount = 0;
+        nextScope = 0;
+        openScopes = 0;
+        int functionBody = -1;
+        for (int k = 0; k < ast.statementCount(); k++) {
+            int node = ast.statement(k);
+            Ast.Kind kind = ast.kind(node);
+            if (kind == Ast.Kind.FUNCTION) {
+                for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                    if (ast.kind(child) == Ast.Kind.BLOCK) functionBody = child;
                 }
+            } else if (node == functionBody || (kind != Ast.Kind.BLOCK && kind != Ast.Kind.FOR)) {
                 continue;
             }
-            
-            // Check for start of multiline comment
-            if (i < code.length() - 1 && code.charAt(i) == '/' && code.charAt(i + 1) == '*') {
-                inMultilineComment = true;
-                commentStartLine = lineNumber;
-                i++; // Skip the '*' character
-                continue;
+            if (scopeCount == scopeNodes.length) {
+                scopeNodes = Arrays.copyOf(scopeNodes, scopeCount * 2);
+                scopeStarts = Arrays.copyOf(scopeStarts, scopeCount * 2);
+                scopeEnds = Arrays.copyOf(scopeEnds, scopeCount * 2);
             }
-            
-            // Check for single-line comment
-            if (i < code.length() - 1 && code.charAt(i) == '/' && code.charAt(i + 1) == '/') {
-                // Skip to end of line
-                while (i < code.length() && code.charAt(i) != '\n') {
-                    i++;
-                }
-                // Don't skip the newline itself
-                if (i < code.length() && code.charAt(i) == '\n') {
-                    processedCode.append('\n');
-                    lineNumber++;
-                }
-                continue;
+            // An unclosed block already ends with the last token of input
+            scopeNodes[scopeCount] = node;
+            scopeStarts[scopeCount] = tokens.start(ast.firstToken(node));
+            scopeEnds[scopeCount] = tokens.end(ast.lastToken(node));
+            scopeCount++;
+        }
+    }
+
+    // Function names go in the global scope before any line is checked,
+    // typed by what they return, so a call finds its function wherever it
+    // is defined; a prototype and its definition are one symbol
+    private void declareFunctions() {
+        for (int node = ast.firstChild(ast.root()); node >= 0; node = ast.nextSibling(node)) {
+            if (ast.kind(node) == Ast.Kind.FUNCTION && ast.token(node) >= 0) {
+                symbols.declare(ast.symbol(node), Parser.typeSymbol(ast, ast.firstChild(node)), true, ast.line(node));
             }
-            
-            // Add character to processed code
-            processedCode.append(code.charAt(i));
-            
-            // Count lines outside comments
-            if (code.charAt(i) == '\n') {
-                lineNumber++;
+        }
+    }
+
+    // Brings the symbol table to offset: closes the scopes that ended
+    // before it and opens the ones that start at or before it. Offsets
+    // only move forward during a run.
+    private void enterScopes(int offset) {
+        while (openScopes > 0 && openScopeEnds[openScopes - 1] <= offset) {
+            openScopes--;
+            symbols.popScope();
+        }
+        while (nextScope < scopeCount && scopeStarts[nextScope] <= offset) {
+            int start = scopeStarts[nextScope];
+            while (openScopes > 0 && openScopeEnds[openScopes - 1] <= start) {
+                openScopes--;
+                symbols.popScope();
+            }
+            int node = scopeNodes[nextScope];
+            String name;
+            switch (ast.kind(node)) {
+                case FUNCTION: name = ast.token(node) >= 0 ? pool.spelling(ast.symbol(node)) + "()" : "function"; break;
+                case FOR: name = "for"; break;
+                default: name = "block";
             }
+            symbols.pushScope(name, ast.line(node));
+            if (openScopes == openScopeEnds.length) {
+                openScopeEnds = Arrays.copyOf(openScopeEnds, openScopes * 2);
+            }
+            openScopeEnds[openScopes++] = scopeEnds[nextScope];
+            nextScope++;
         }
-        
-        // Check if we ended with an unclosed multiline comment
-        if (inMultilineComment) {
-            // Only show the comment error
-            outputArea.append("Error: Unterminated multi-line comment starting at line " + commentStartLine + "\n");
-            
-            // Return a special marker to indicate analysis should stop
-            return "//ANALYSIS_TERMINATED_DUE_TO_UNCLOSED_COMMENT";
+    }
+
+    // Function definitions in source order, as (FUNCTION node, body start,
+    // body end) triples of the tree's brace structure: a body runs from
+    // just after its '{' to its matching '}', or to the end of input when
+    // the '}' is missing
+    private int[] functionBodies() {
+        TokenStream tokens = ast.tokens();
+        int[] bodies = new int[12];
+        int size = 0;
+        for (int node = ast.firstChild(ast.root()); node >= 0; node = ast.nextSibling(node)) {
+            if (ast.kind(node) != Ast.Kind.FUNCTION) continue;
+            int block = -1;
+            for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                if (ast.kind(child) == Ast.Kind.BLOCK) block = child;
+            }
+            if (block < 0) continue; // a prototype
+            int open = ast.firstToken(block);
+            int close = ast.lastToken(block);
+            if (size == bodies.length) bodies = Arrays.copyOf(bodies, size * 2);
+            bodies[size++] = node;
+            bodies[size++] = tokens.end(open);
+            bodies[size++] = close > open && tokens.textEquals(close, "}") ? tokens.start(close) : source.code().length();
+        }
+        return Arrays.copyOf(bodies, size);
+    }
+
+    // Every top-level function's header, prototypes included, as (start,
+    // end) offset pairs in source order: from its first token to the end
+    // of its ')' (or of its last token when the ')' is missing)
+    private int[] functionHeaders() {
+        TokenStream tokens = ast.tokens();
+        int[] headers = new int[8];
+        int size = 0;
+        for (int node = ast.firstChild(ast.root()); node >= 0; node = ast.nextSibling(node)) {
+            if (ast.kind(node) != Ast.Kind.FUNCTION) continue;
+            int last = ast.lastToken(node);
+            for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                if (ast.kind(child) == Ast.Kind.BLOCK) last = ast.firstToken(child) - 1;
+            }
+            if (size == headers.length) headers = Arrays.copyOf(headers, size * 2);
+            headers[size++] = tokens.start(ast.firstToken(node));
+            headers[size++] = tokens.end(last);
+        }
+        return Arrays.copyOf(headers, size);
+    }
+
+    // Parse errors on lines up to and including sourceLine that have not
+    // been reported yet
+    private void reportParseProblems(int sourceLine, DiagnosticSink sink) {
+        List<Diagnostic> problems = ast.problems();
+        while (nextProblem < problems.size() && problems.get(nextProblem).line <= sourceLine) {
+            sink.report(problems.get(nextProblem++));
         }
-        
-        return processedCode.toString();
     }
+
+    // Runs the dataflow checks on every function and keeps what they find
+    // in line order for reportFlowProblems
+    private void analyzeFlow() {
+        flowProblems.clear();
+        nextFlowProblem = 0;
+        if (!rules.isEnabled("dataflow")) return;
+        if (treeCache != null) treeCache.beginRun(ast);
+        for (int node = ast.firstChild(ast.root()); node >= 0; node = ast.nextSibling(node)) {
+            if (ast.kind(node) == Ast.Kind.FUNCTION) {
+                checkCancelled();
+                if (treeCache != null) {
+                    treeCache.checkFunction(ast, node, pool, flowProblems::add);
+                } else {
+                    new Dataflow(ControlFlowGraph.build(ast, node)).check(pool, flowProblems::add);
+                }
+            }
+        }
+        if (treeCache != null) treeCache.endRun();
+        flowProblems.sort(Comparator.comparingInt(diagnostic -> diagnostic.line));
+    }
+
+    // Dataflow problems on lines up to and including sourceLine that have
+    // not been reported yet
+    private void reportFlowProblems(int sourceLine, DiagnosticSink sink) {
+        while (nextFlowProblem < flowProblems.size() && flowProblems.get(nextFlowProblem).line <= sourceLine) {
+            sink.report(flowProblems.get(nextFlowProblem++));
+        }
+    }
+
  // Add this method to the SyntaxAnalyzer class
- private static void checkMainFunction(String code, JTextArea outputArea) {
-    Pattern mainFunctionPattern = Pattern.compile("\\b(int|void)\\s+main\\s*\\([^)]*\\)");
-    Matcher mainFunctionMatcher = mainFunctionPattern.matcher(code);
+ private void checkMainFunction(String code, DiagnosticSink sink) {
+    Matcher mainFunctionMatcher = MAIN_SIGNATURE.matcher(code).useTransparentBounds(true);
     
     int mainCount = 0;
-    while (mainFunctionMatcher.find()) {
-        mainCount++;
+    int firstMain = -1;
+    for (int at = findMainSignature(mainFunctionMatcher, code, 0); at >= 0;
+            at = findMainSignature(mainFunctionMatcher, code, mainFunctionMatcher.end())) {
+        if (mainCount++ == 0) firstMain = at;
     }
     
     if (mainCount > 1) {
-        outputArea.append("Error: Multiple main functions detected. A C++ program can have only one main function.\n");
+        sink.report(Diagnostic.error("multiple-main", 0, "Error: Multiple main functions detected. A C++ program can have only one main function."));
         return;
     }
     // Check if main function exists with proper syntax
-    boolean hasProperMain = Pattern.compile("\\b(int|void)\\s+main\\s*\\([^)]*\\)").matcher(code).find();
+    boolean hasProperMain = mainCount > 0;
     if (!hasProperMain) {
         // Check if there's some attempt at defining main but with incorrect syntax
-        boolean hasIncorrectMain = Pattern.compile("\\bmain\\s*\\)\\s*\\(|\\bmain\\s*[^(]*\\(|\\bmain\\s*\\([^)]*[^)]$").matcher(code).find();
+        boolean hasIncorrectMain = MALFORMED_MAIN.matcher(code).find();
         
         if (hasIncorrectMain) {
-            outputArea.append("Error: Invalid main function syntax. Correct syntax is: int main() or int main(int argc, char* argv[])\n");
+            sink.report(Diagnostic.error("main-syntax", 0, "Error: Invalid main function syntax. Correct syntax is: int main() or int main(int argc, char* argv[])"));
         } else {
             // No main function found at all
-            boolean anyMainWord = Pattern.compile("\\bmain\\b").matcher(code).find();
+            boolean anyMainWord = MAIN_WORD.matcher(code).find();
             if (anyMainWord) {
-                outputArea.append("Error: 'main' keyword found but not properly declared as a function. Use: int main() { ... }\n");
+                sink.report(Diagnostic.error("main-not-function", 0, "Error: 'main' keyword found but not properly declared as a function. Use: int main() { ... }"));
             } else {
-                outputArea.append("Error: No main() function found.\n");
+                sink.report(Diagnostic.error("no-main", 0, "Error: No main() function found."));
             }
         }
         return;
     }
     
-    // Check for missing braces in main function
-    Pattern mainPattern = Pattern.compile("\\b(int|void)\\s+main\\s*\\([^)]*\\)\\s*([{]?)");
-    Matcher mainMatcher = mainPattern.matcher(code);
-    if (mainMatcher.find()) {
+    // Check for missing braces in main function; the header starts where
+    // the first signature does
+    Matcher mainMatcher = MAIN_HEADER.matcher(code).useTransparentBounds(true).region(firstMain, code.length());
+    if (mainMatcher.lookingAt()) {
         String openingBrace = mainMatcher.group(2);
         if (openingBrace == null || openingBrace.isEmpty()) {
-            outputArea.append("Error: Missing opening brace '{' for main function.\n");
+            sink.report(Diagnostic.error("main-open-brace", 0, "Error: Missing opening brace '{' for main function."));
         } else {
             // Check for matching closing brace
             int startPos = mainMatcher.end();
@@ -265,292 +643,190 @@ updateSymbolTableGUI(symbolTableArea); // Update GUI
             }
             
             if (!closingBraceFound) {
-                outputArea.append("Error: Missing closing brace '}' for main function.\n");
+                sink.report(Diagnostic.error("main-close-brace", 0, "Error: Missing closing brace '}' for main function."));
             }
         }
     }
-    Pattern mainBodyPattern = Pattern.compile("\\b(int|void)\\s+main\\s*\\([^)]*\\)\\s*\\{([\\s\\S]*?)\\}");
-    Matcher mainBodyMatcher = mainBodyPattern.matcher(code);
-    
-    if (mainBodyMatcher.find()) {
-        String mainBody = mainBodyMatcher.group(2);
-        
-        // Apply all the checks from analyze() method to the main body
-        mainBody = mainBody.replaceAll("/\\*[\\s\\S]*?\\*/", "");
-        String[] lines = mainBody.split("\\n");
-        int lineNumber = 0;
-        Map<String, VariableInfo> mainFunctionVariables = new HashMap<>();
-        
-        boolean expectingElse = false;
-        for (String line : lines) {
-            lineNumber++;
-            boolean skipRemainingChecksForLine = false;
-            String trimmed = line.replaceAll("//.*$", "").trim();
-            if (trimmed.isEmpty()) continue;
-    
-            // Apply all your existing checks
-            checkMultipleDataTypes(trimmed, lineNumber, outputArea);
-            if (skipRemainingChecksForLine) continue;
-    
-            checkStringArithmeticOperations(trimmed, lineNumber, outputArea);
-            
-            if (trimmed.matches("^\\s*else\\b.*") && !expectingElse) {
-                outputArea.append("Main function line " + lineNumber + ": Error - 'else' without matching 'if'.\n");
-            }
-    
-            if (!trimmed.matches("^\\s*else\\b.*")) {
-                expectingElse = false;
-            }
-    
-            checkKeywordCase(trimmed, lineNumber, outputArea);
-            checkSemicolon(trimmed, lineNumber, outputArea);
-            checkEmptyInitialization(trimmed, lineNumber, outputArea);
-            checkIdentifiersWithoutKeywords(trimmed, lineNumber, outputArea);
-            checkMultipleDeclarations(trimmed, lineNumber, outputArea);
-            checkDeclaration(trimmed, lineNumber, outputArea);
-            checkInitialization(trimmed, lineNumber, outputArea);
-            checkAssignmentOperators(trimmed, lineNumber, outputArea);
-            checkProblematicOperators(trimmed, lineNumber, outputArea);
-            checkSyntaxErrors(line, lineNumber, outputArea);
-            expectingElse = checkIfElseStatements(trimmed, lineNumber, outputArea) || expectingElse;
-        }
-    
-        // Check for uninitialized variables in main function
-        for (Map.Entry<String, VariableInfo> entry : mainFunctionVariables.entrySet()) {
-            if (!entry.getValue().initialized) {
-                outputArea.append("Warning in main function: Variable '" + entry.getKey() + "' is declared but never initialized.\n");
-            }
-        }
-        
-        // Check for missing return statement if main is declared as int
-        if (mainBodyMatcher.group(1).equals("int") && !Pattern.compile("\\breturn\\b").matcher(mainBody).find()) {
-            // outputArea.append("Warning: int main() function should have a return statement.\n");
-        }
-    }
 
 } 
-// no chnage till now
-    private static void checkKeywordCase(String line, int lineNumber, JTextArea outputArea) {
-        for (String kw : cppKeywords) {
-            Pattern pattern = Pattern.compile("\\b" + Pattern.quote(kw) + "\\b", Pattern.CASE_INSENSITIVE);
-            Matcher matcher = pattern.matcher(line);
-            while (matcher.find()) {
-                String match = matcher.group();
-                if (!match.equals(kw)) {
-                    outputArea.append("Line " + lineNumber + ": Incorrect keyword format -> '" + match + "' should be '" + kw + "'\n");
-                }
+
+    // Start of the first "int main(...)" or "void main(...)" at or after
+    // from, the match MAIN_SIGNATURE.find() would give, or -1; matcher is
+    // left on it. Only the offsets where a type ends the whitespace before
+    // a "main" can start one, so the regex is tried there instead of at
+    // every offset of the file.
+    private static int findMainSignature(Matcher matcher, String code, int from) {
+        for (int main = code.indexOf("main", from); main >= 0; main = code.indexOf("main", main + 1)) {
+            int space = main;
+            while (space > 0 && " \t\n\u000B\f\r".indexOf(code.charAt(space - 1)) >= 0) space--;
+            if (space == main) continue;
+            for (int start = space - 4; start <= space - 3; start++) {
+                if (start >= from && matcher.region(start, code.length()).lookingAt()) return start;
             }
         }
+        return -1;
     }
-    
 
-    private static boolean isStatementThatNeedsSemicolon(String line) {
-        line = line.trim();
-        
-        // Check if this is a function definition (has parentheses followed by a brace)
-        if (line.matches(".*\\)\\s*(\\{.*)?$") && 
-        line.matches(".*\\b[a-zA-Z_][a-zA-Z0-9_]*\\s*\\(.*")) {
-        return false;
-    }
-        return !(line.startsWith("if") ||
-                line.startsWith("else") ||
-                line.startsWith("while") ||
-                line.startsWith("for") ||
-                line.startsWith("do") ||
-                line.endsWith("{") ||
-                line.endsWith("}"));
+// no chnage till now
+    // One case-folded pass over the line finds every keyword, whatever its
+    // case; only the ones not spelled exactly right are reported
+private void checkKeywordCase(CharSequence line, int lineNumber, DiagnosticSink sink) {
+        miscasedKeywords.line = line;
+        miscasedKeywords.lineNumber = lineNumber;
+        miscasedKeywords.sink = sink;
+        KEYWORD_MATCHER.scan(line, 0, line.length(), miscasedKeywords);
     }
 
-    private static void checkSemicolon(String line, int lineNumber, JTextArea outputArea) {
-        // Skip preprocessor directives, empty lines, and comments
-        if (line.trim().startsWith("#") || line.trim().isEmpty() || line.trim().startsWith("//")) {
-            return;
-        }
-        
-        // Skip function definitions (like int main() {...})
-        if (line.matches(".*\\)\\s*\\{.*") && 
-            line.matches(".*\\b[a-zA-Z_][a-zA-Z0-9_]*\\s*\\(.*")) {
-            return;
-        }
-        
-        // Original skipping conditions
-        if (line.matches(".*\\{\\s*$") || line.matches(".*\\}\\s*$") ||
-            line.matches("^\\s*if\\s*\\(.*\\).*") || line.matches("^\\s*else.*")) {
-            return;
-        }
-        
-        // Additional skipping for loop and while statements
-        if (line.matches("^\\s*for\\s*\\(.*\\).*") || line.matches("^\\s*while\\s*\\(.*\\).*")) {
-            return;
-        }
-    
-        // If we get here and the line needs a semicolon but doesn't have one, flag it
-        if (isStatementThatNeedsSemicolon(line) && !line.trim().endsWith(";")) {
-            // Additional check: make sure it's not a function declaration
-            if (!line.matches(".*\\)\\s*$")) {
-                outputArea.append("Line " + lineNumber + ": Error - Missing semicolon.\n");
+    private static final class MiscasedKeywords implements KeywordMatcher.Listener {
+        CharSequence line;
+        int lineNumber;
+        DiagnosticSink sink;
+
+        @Override
+        public void onMatch(int keyword, int start, int end, boolean exactCase) {
+            if (!exactCase) {
+                String match = line.subSequence(start, end).toString();
+                String kw = KEYWORD_MATCHER.keyword(keyword);
+                sink.report(Diagnostic.error("keyword-case", lineNumber, "Incorrect keyword format -> '" + match + "' should be '" + kw + "'"));
             }
         }
     }
+    
 
-    private static void checkMultipleDataTypes(String line, int lineNumber, JTextArea outputArea) {
+    // Returns true when it reported an error; the rest of the line's checks
+    // are skipped then
+private boolean checkMultipleDataTypes(LineCursor.View line, int lineNumber, DiagnosticSink sink) {
         // Skip comments and preprocessor directives
-        if (line.trim().startsWith("//") || line.trim().startsWith("#")) {
-            return;
+        if (line.startsWith("//") || line.startsWith("#")) {
+            return false;
         }
         
         // Skip function bodies that contain multiple declarations
-        if (line.contains("{") && line.contains("}")) {
+        if (line.contains('{') && line.contains('}')) {
             // This is likely a function with body on one line
-            return;
+            return false;
         }
         
-        // Skip separate variable declarations (int i=0; int j=0;)
-        if (line.contains(";") && line.trim().split(";").length > 1) {
+        // Skip separate variable declarations (int i=0; int j=0;): go on
+        // only if one of the ';'-separated statements names two types
+        int semicolon = line.indexOf(';');
+        if (semicolon >= 0 && hasTextAfter(line, semicolon)) {
             boolean hasMultipleDeclarations = false;
-            String[] statements = line.trim().split(";");
-            
-            for (String statement : statements) {
-                if (statement.trim().isEmpty()) continue;
-                
-                List<String> typesInStatement = new ArrayList<>();
-                for (String type : new String[]{"int", "float", "double", "char", "bool", "long", "short", 
-                                               "unsigned", "signed", "string", "void", "auto", "size_t"}) {
-                    Pattern pattern = Pattern.compile("\\b" + type + "\\b");
-                    Matcher matcher = pattern.matcher(statement);
-                    if (matcher.find()) {
-                        typesInStatement.add(type);
-                    }
-                }
-                
+            for (int from = 0; from < line.length() && !hasMultipleDeclarations; ) {
+                int to = line.indexOf(";", from);
+                if (to < 0) to = line.length();
                 // Check if this individual statement has multiple data types
-                if (typesInStatement.size() > 1) {
-                    hasMultipleDeclarations = true;
-                    break;
-                }
+                hasMultipleDeclarations = countTypes(line, from, to, to) > 1;
+                from = to + 1;
             }
             
             if (!hasMultipleDeclarations) {
-                return;
+                return false;
             }
         }
     
         // Original check for multiple data types in a single declaration
-        String[] types = {"int", "float", "double", "char", "bool", "long", "short",
-                         "unsigned", "signed", "string", "void", "auto", "size_t"};
-    
-        List<String> foundTypes = new ArrayList<>();
-        for (String type : types) {
-            Pattern pattern = Pattern.compile("\\b" + type + "\\b");
-            Matcher matcher = pattern.matcher(line);
-    
-            while (matcher.find()) {
-                int position = matcher.start();
-                if (line.substring(0, position).contains("//")) {
-                    continue;
-                }
-                foundTypes.add(type);
-            }
+        int comment = line.indexOf("//");
+        countTypes(line, 0, line.length(), comment < 0 ? line.length() : comment + 2);
+        int found = 0;
+        for (int count : typeCounts) {
+            found += count;
         }
     
-        if (foundTypes.size() > 1) {
+        if (found > 1) {
             // Check for valid combinations
-            if (foundTypes.size() == 2) {
-                if (foundTypes.contains("long") && foundTypes.contains("long")) {
-                    return;
-                }
-                if (foundTypes.contains("unsigned") && foundTypes.contains("int")) {
-                    return;
+            if (found == 2) {
+                if (typeCounts[typeIndex("long")] > 0) {
+                    return false;
                 }
-                if (foundTypes.contains("unsigned") && foundTypes.contains("short")) {
-                    return;
-                }
-                if ((foundTypes.contains("unsigned") && foundTypes.contains("long"))) {
-                    return;
+                if (typeCounts[typeIndex("unsigned")] > 0 && (typeCounts[typeIndex("int")] > 0 || typeCounts[typeIndex("short")] > 0)) {
+                    return false;
                 }
             }
     
-            outputArea.append("Line " + lineNumber + ": Error - Multiple data types in single declaration: " +
-                             String.join(", ", foundTypes) + "\n");
-            skipRemainingChecksForLine = true;
+            StringBuilder foundTypes = new StringBuilder();
+            for (int t = 0; t < DATA_TYPES.length; t++) {
+                for (int k = 0; k < typeCounts[t]; k++) {
+                    if (foundTypes.length() > 0) foundTypes.append(", ");
+                    foundTypes.append(DATA_TYPES[t]);
+                }
+            }
+            sink.report(Diagnostic.error("multiple-types", lineNumber, "Error - Multiple data types in single declaration: " + foundTypes));
+            return true;
         }
+        return false;
+    }
+
+    private static boolean hasTextAfter(CharSequence line, int semicolon) {
+        for (int i = semicolon + 1; i < line.length(); i++) {
+            if (line.charAt(i) != ';') return true;
+        }
+        return false;
+    }
+
+    private static int typeIndex(String type) {
+        return DATA_TYPE_MATCHER.find(type, 0, type.length());
     }
 
-    private static void checkEmptyInitialization(String line, int lineNumber, JTextArea outputArea) {
-        if (line.matches(".*=\\s*;") || line.matches(".*=[^;]*;\\s*$") && line.matches(".*=\\s*;\\s*$")) {
-            outputArea.append("Line " + lineNumber + ": Syntax error - empty initialization or assignment (missing right-hand side).\n");
+    // Counts every whole-word, exactly spelled type name in line[from, to)
+    // that starts before countBefore into typeCounts, and returns how many
+    // different types there were
+    private int countTypes(CharSequence line, int from, int to, int countBefore) {
+        Arrays.fill(typeCounts, 0);
+        typeCounter.distinct = 0;
+        typeCounter.countBefore = countBefore;
+        typeCounter.counts = typeCounts;
+        DATA_TYPE_MATCHER.scan(line, from, to, typeCounter);
+        return typeCounter.distinct;
+    }
+
+    private static final class TypeCounter implements KeywordMatcher.Listener {
+        int[] counts;
+        int distinct;
+        int countBefore;
+
+        @Override
+        public void onMatch(int keyword, int start, int end, boolean exactCase) {
+            if (exactCase && start < countBefore) {
+                if (counts[keyword]++ == 0) distinct++;
+            }
         }
     }
 
-    private static void checkSyntaxErrors(String line, int lineNumber, JTextArea outputArea) {
+    private void checkSyntaxErrors(LineCursor.View line, int lineNumber, DiagnosticSink sink) {
         boolean inStringLiteral = false;
         boolean inCharLiteral = false;
         boolean inComment = false;
-        boolean inPreprocessor = line.trim().startsWith("#");
-
-        Map<Character, Set<String>> validContexts = new HashMap<>();
-        validContexts.put('!', Set.of("operator", "conditional"));
-        validContexts.put('@', Set.of("preprocessor", "annotation"));
-        validContexts.put('#', Set.of("preprocessor", "stringizing"));
-        validContexts.put('$', Set.of("identifier"));
-        validContexts.put('%', Set.of("operator", "formatstring"));
-        validContexts.put('^', Set.of("operator"));
-        validContexts.put('&', Set.of("operator", "reference", "address"));
-        validContexts.put('*', Set.of("operator", "pointer", "dereference", "multiplication"));
-        validContexts.put('(', Set.of("grouping", "call", "precedence"));
-        validContexts.put(')', Set.of("grouping", "call", "precedence"));
-        validContexts.put('_', Set.of("identifier"));
-         validContexts.put('+', Set.of("operator", "addition", "increment"));
-         validContexts.put('-', Set.of("operator", "subtraction", "decrement", "negative"));
-        validContexts.put('=', Set.of("assignment", "comparison", "initialization"));
-        validContexts.put(':', Set.of("label", "scope", "ternary", "foreach"));
-        validContexts.put(';', Set.of("statement_end"));
-        validContexts.put('{', Set.of("block_start"));
-        validContexts.put('}', Set.of("block_end"));
-        validContexts.put('[', Set.of("array"));
-        validContexts.put(']', Set.of("array"));
-        validContexts.put('<', Set.of("comparison", "template", "stream"));
-        validContexts.put('>', Set.of("comparison", "template", "stream"));
-        validContexts.put('?', Set.of("ternary"));
-        validContexts.put(',', Set.of("separator"));
-        validContexts.put('.', Set.of("member", "decimal"));
-        validContexts.put('/', Set.of("operator", "division", "comment"));
-        validContexts.put('\\', Set.of("escape", "line_continuation"));
-        validContexts.put('|', Set.of("operator", "bitwise"));
-        validContexts.put('`', Set.of());
-        validContexts.put('~', Set.of("operator", "destructor", "bitwise"));
-
-        if (line.contains(":") && !line.matches(".*\\bfor\\s*\\(.*:.*\\).*")) {
-            outputArea.append("Line " + lineNumber + ": Unexpected colon detected. Check syntax.\n");
-        }
-
-        if (line.contains("@") && !inStringLiteral && !inCharLiteral && !inComment) {
-            outputArea.append("Line " + lineNumber + ": Unexpected '@' symbol detected. This is not standard C++ syntax.\n");
-        }
-
-        if (line.contains("$") && !inStringLiteral && !inCharLiteral && !inComment) {
-            outputArea.append("Line " + lineNumber + ": Unexpected '$' symbol detected. This is not standard C++ syntax.\n");
-        }
-
-        if (line.contains("`") && !inStringLiteral && !inCharLiteral && !inComment) {
-            outputArea.append("Line " + lineNumber + ": Unexpected '`' symbol detected. This is not standard C++ syntax.\n");
-        }
-
-        Pattern strayPunctuation = Pattern.compile(
-            "(?<![\"'\\w\\s\\\\])" +    // Not preceded by word, space, \ or quote
-            "([!#%^&*\\[\\]|~]|(?<!\\+)\\+(?!\\+)|(?<!-)\\-(?!-))" + // Match allowed punctuations; + only if not part of ++, - only if not part of --
-            "(?![\"'\\w\\s\\\\])"       // Not followed by word, space, \ or quote
-        );
-        Matcher strayMatcher = strayPunctuation.matcher(line);
+        boolean inPreprocessor = startsWithTrimmed(line, "#");
+
+
+        // Text inside string and char literals ("a: b", "x@y") is not code
+        LineCursor.View code = withoutLiterals(line);
+        if (hasSingleColon(code) && !matcher(RANGE_FOR, code).matches()) {
+            sink.report(Diagnostic.error("stray-colon", lineNumber, "Unexpected colon detected. Check syntax."));
+        }
+
+        if (code.contains('@') && !inStringLiteral && !inCharLiteral && !inComment) {
+            sink.report(Diagnostic.error("invalid-symbol", lineNumber, "Unexpected '@' symbol detected. This is not standard C++ syntax."));
+        }
+
+        if (code.contains('$') && !inStringLiteral && !inCharLiteral && !inComment) {
+            sink.report(Diagnostic.error("invalid-symbol", lineNumber, "Unexpected '$' symbol detected. This is not standard C++ syntax."));
+        }
+
+        if (code.contains('`') && !inStringLiteral && !inCharLiteral && !inComment) {
+            sink.report(Diagnostic.error("invalid-symbol", lineNumber, "Unexpected '`' symbol detected. This is not standard C++ syntax."));
+        }
+
+        Matcher strayMatcher = matcher(STRAY_PUNCTUATION, code);
         if (strayMatcher.find() && !inStringLiteral && !inCharLiteral && !inComment) {
-            outputArea.append("Line " + lineNumber + ": Unexpected stray character '" + strayMatcher.group(1) + "' detected. Check syntax.\n");
+            sink.report(Diagnostic.error("stray-character", lineNumber, "Unexpected stray character '" + strayMatcher.group(1) + "' detected. Check syntax."));
         }
 
-        Pattern invalidSequence = Pattern.compile("(?<![=<>!&|+-])([#%^&*+-])\\1{2,}(?![=<>!&|+-])");
-        Matcher invalidSequenceMatcher = invalidSequence.matcher(line);
+        Matcher invalidSequenceMatcher = matcher(INVALID_SEQUENCE, code);
         if (invalidSequenceMatcher.find() && !inStringLiteral && !inCharLiteral && !inComment) {
-            outputArea.append("Line " + lineNumber + ": Invalid sequence of special characters '" +
-                             invalidSequenceMatcher.group(0) + "' detected. Check syntax.\n");
+            sink.report(Diagnostic.error("invalid-sequence", lineNumber, "Invalid sequence of special characters '" +
+                             invalidSequenceMatcher.group(0) + "' detected. Check syntax."));
         }
 
         for (int i = 0; i < line.length(); i++) {
@@ -568,19 +844,19 @@ updateSymbolTableGUI(symbolTableArea); // Update GUI
                 continue;
             }
 
-            if (!Character.isLetterOrDigit(c) && !Character.isWhitespace(c) && validContexts.containsKey(c)) {
-                if (c == '!' && i < line.length() - 1 && !isValidNotOperatorContext(line, i, outputArea)) {
-                    outputArea.append("Line " + lineNumber + ": Unexpected '!' symbol in this context. Check syntax.\n");
+            if (!Character.isLetterOrDigit(c) && !Character.isWhitespace(c) && VALID_CONTEXTS.containsKey(c)) {
+                if (c == '!' && i < line.length() - 1 && !isValidNotOperatorContext(line, i, sink)) {
+                    sink.report(Diagnostic.error("invalid-not", lineNumber, "Unexpected '!' symbol in this context. Check syntax."));
                 } else if (c == '#' && !inPreprocessor && i > 0 && !isValidStringizingOperator(line, i)) {
-                    outputArea.append("Line " + lineNumber + ": Unexpected '#' symbol outside preprocessor directive. Check syntax.\n");
+                    sink.report(Diagnostic.error("stray-hash", lineNumber, "Unexpected '#' symbol outside preprocessor directive. Check syntax."));
                 } else if (c == '$' && !isValidInIdentifier(line, i)) {
-                    outputArea.append("Line " + lineNumber + ": '$' is not standard in C++ identifiers. Check syntax.\n");
+                    sink.report(Diagnostic.error("dollar-identifier", lineNumber, "'$' is not standard in C++ identifiers. Check syntax."));
                 }
             }
         }
     }
 
-    private static boolean isValidNotOperatorContext(String line, int position, JTextArea outputArea) {
+    private static boolean isValidNotOperatorContext(CharSequence line, int position, DiagnosticSink sink) {
         return position < line.length() - 1 &&
                (line.charAt(position + 1) == '=' ||
                 Character.isLetterOrDigit(line.charAt(position + 1)) ||
@@ -588,12 +864,61 @@ updateSymbolTableGUI(symbolTableArea); // Update GUI
                 line.charAt(position + 1) == ' ');
     }
 
-    private static boolean isValidStringizingOperator(String line, int position) {
-        return line.trim().startsWith("#define") &&
+    private static boolean isValidStringizingOperator(LineCursor.View line, int position) {
+        return startsWithTrimmed(line, "#define") &&
                position > line.indexOf("#define") + 7;
     }
 
-    private static boolean isValidInIdentifier(String line, int position) {
+    // line, or a copy of it with what is between the quotes of each string
+    // and char literal replaced by spaces; valid until the next call
+    private LineCursor.View withoutLiterals(LineCursor.View line) {
+        if (!line.contains('"') && !line.contains('\'')) return line;
+        unquotedText.setLength(0);
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote == 0) {
+                if (c == '"' || c == '\'') quote = c;
+                unquotedText.append(c);
+            } else if (c == quote) {
+                quote = 0;
+                unquotedText.append(c);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                unquotedText.append("  ");
+                i++;
+            } else {
+                unquotedText.append(' ');
+            }
+        }
+        return unquoted.set(unquotedText, 0, unquotedText.length());
+    }
+
+    // A ':' that is not half of a scope operator, as in "std::cout", nor
+    // the second half of a conditional "c ? a : b"
+    private static boolean hasSingleColon(LineCursor.View line) {
+        int conditionals = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '?') conditionals++;
+            if (c != ':') continue;
+            if (i + 1 < line.length() && line.charAt(i + 1) == ':') {
+                i++;
+            } else if (conditionals > 0) {
+                conditionals--;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWithTrimmed(LineCursor.View line, String prefix) {
+        int start = 0;
+        while (start < line.length() && line.charAt(start) <= ' ') start++;
+        return line.indexOf(prefix, start) == start;
+    }
+
+    private static boolean isValidInIdentifier(CharSequence line, int position) {
         if (position > 0 && position < line.length() - 1) {
             return Character.isLetterOrDigit(line.charAt(position - 1)) ||
                    line.charAt(position - 1) == '_' ||
@@ -603,56 +928,61 @@ updateSymbolTableGUI(symbolTableArea); // Update GUI
         return false;
     }
 
-    private static void checkIdentifiersWithoutKeywords(String line, int lineNumber, JTextArea outputArea) {
-        if (line.matches("^\\s*(int|void|float|double|char|bool|long|short|unsigned)\\s+[a-zA-Z_][a-zA-Z0-9_]*\\s*\\(.*")) {
+    private void checkIdentifiersWithoutKeywords(LineCursor.View line, int lineNumber, DiagnosticSink sink) {
+        if (matcher(FUNCTION_DECLARATION, line).matches()) {
             return;
         }
       
-        if (line.matches("^\\s*(int|float|double|char|bool|long|short|unsigned)\\s+.*")) {
+        if (matcher(TYPED_LINE, line).matches()) {
             return;
         }
 
-        if (line.matches("^\\s*(if|else)\\s*.*")) {
+        if (matcher(IF_ELSE_PREFIX, line).matches()) {
             return;
         }
 
-        if (line.contains("main")) {
-            Pattern mainPattern = Pattern.compile("\\bmain\\b");
-            Matcher mainMatcher = mainPattern.matcher(line);
-            if (mainMatcher.find()) {
-                // Replace 'main' with a placeholder to avoid triggering identifier warnings
-                line = line.replaceAll("\\bmain\\b", "MAIN_FUNCTION_PLACEHOLDER");
-            }
+        // "#include <iostream>" and "using namespace std;" name headers and
+        // namespaces, not variables
+        if (startsWithTrimmed(line, "#") || matcher(USING_NAMESPACE, line).matches()) {
+            return;
         }
 
-        Pattern identPattern = Pattern.compile("\\b([a-zA-Z_][a-zA-Z0-9_]*)\\b");
-        Matcher matcher = identPattern.matcher(line);
+        // The line's IDENTIFIER tokens, so words inside string and char
+        // literals ("Hello, World!") are not taken for names. Literals end
+        // with their line, so the tokens depend on the text alone.
+        TokenStream tokens = ast.tokens();
+        int end = line.start() + line.length();
+        for (int t = tokens.firstEndingAtOrAfter(line.start() + 1); t < tokens.size() && tokens.start(t) < end; t++) {
+            if (tokens.kind(t) != TokenKind.IDENTIFIER) continue;
+            int id = tokens.symbol(t);
+            if (SymbolPool.isKeyword(id) || SymbolPool.in(STREAM_NAMES, id)) continue;
 
-        while (matcher.find()) {
-            String identifier = matcher.group(1);
-            if (cppKeywords.contains(identifier)) continue;
-
-            if (!declaredVariables.containsKey(identifier)) {
-                outputArea.append("Line " + lineNumber + ": Identifier '" + identifier + "' used without declaration.\n");
+            if (symbols.lookup(id) < 0) {
+                sink.report(Diagnostic.error("undeclared-identifier", lineNumber, "Identifier '" + pool.spelling(id) + "' used without declaration."));
             }
         }
     }
 
-    private static boolean isValidVariableName(String name, int lineNumber, JTextArea outputArea) {
+    // id is the name's SymbolPool id, -1 if it is not a single word
+    private static boolean isValidVariableName(String name, int id, int lineNumber, DiagnosticSink sink) {
         // Variable name should already be extracted without = or value
         
-        if (cppKeywords.contains(name)) {
-            outputArea.append("Line " + lineNumber + ": Cannot use reserved keyword '" + name + "' as variable name.\n");
+        if (SymbolPool.isKeyword(id)) {
+            sink.report(Diagnostic.error("keyword-as-name", lineNumber, "Cannot use reserved keyword '" + name + "' as variable name."));
             return false;
         }
+        // A word token is [a-zA-Z_][a-zA-Z0-9_]* already
+        if (id >= 0) {
+            return true;
+        }
         
-        if (!name.matches("^[a-zA-Z_].*")) {
-            outputArea.append("Line " + lineNumber + ": Variable name '" + name + "' must begin with a letter or underscore.\n");
+        if (!NAME_START.matcher(name).matches()) {
+            sink.report(Diagnostic.error("invalid-name", lineNumber, "Variable name '" + name + "' must begin with a letter or underscore."));
             return false;
         }
         
-        if (!name.matches("^[a-zA-Z_][a-zA-Z0-9_]*$")) {
-            outputArea.append("Line " + lineNumber + ": Variable name '" + name + "' contains invalid characters. Only letters, digits, and underscores are allowed.\n");
+        if (!VALID_NAME.matcher(name).matches()) {
+            sink.report(Diagnostic.error("invalid-name", lineNumber, "Variable name '" + name + "' contains invalid characters. Only letters, digits, and underscores are allowed."));
             return false;
         }
         
@@ -660,238 +990,194 @@ updateSymbolTableGUI(symbolTableArea); // Update GUI
     }
 
 
-    private static void checkMultipleDeclarations(String line, int lineNumber, JTextArea outputArea) {
-        for (String type : new String[]{"int", "float", "double", "char", "bool", "long", "long long", "short", "unsigned int", "string"}) {
-            Pattern pattern = Pattern.compile("^\\s*" + type + "\\s+([^;]+);");
-            Matcher matcher = pattern.matcher(line);
-
-            if (matcher.find()) {
-                String declarations = matcher.group(1);
-                String[] vars = declarations.split(",");
-
-                if (vars.length <= 1 && !declarations.contains(",")) {
-                    return;
-                }
-
-                for (String var : vars) {
-                    var = var.trim();
-                    if (var.contains("=")) {
-                        String[] parts = var.split("=", 2);
-                        String varName = parts[0].trim();
-                        String value = parts[1].trim();
-
-                        if (!isValidVariableName(varName, lineNumber, outputArea)) {
-                            continue;
-                        }
-
-                        if (declaredVariables.containsKey(varName)) {
-                            // outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' is already declared.\n");
-                        } else {
-                            declaredVariables.put(varName, new VariableInfo(type, true));
-                            if (!isValidValue(type, value, outputArea)) {
-                                outputArea.append("Line " + lineNumber + ": Invalid initialization value for variable '" + varName + "' of type " + type + ".\n");
-                            }
-                        }
-                    } else {
-                        String varName = var.trim();
-                        if (!isValidVariableName(varName, lineNumber, outputArea)) {
-                            continue;
-                        }
-
-                        if (declaredVariables.containsKey(varName)) {
-                            // outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' is already declared.\n");
-                        } else {
-                            declaredVariables.put(varName, new VariableInfo(type, false));
-                        }
+    // Declarations (and function parameters) that start on this line go
+    // into the symbol table; names and initial values are checked on the way
+    private void checkDeclarations(LineInfo line, DiagnosticSink sink) {
+        Ast ast = line.ast();
+        TokenStream tokens = ast.tokens();
+        for (int k = 0; k < line.statementCount(); k++) {
+            int statement = line.statement(k);
+            // Scopes opened earlier on the line ("for (int i ...", "{ int a")
+            // are entered before the statement declares anything
+            enterScopes(tokens.start(ast.firstToken(statement)));
+            if (ast.kind(statement) == Ast.Kind.DECLARATION) {
+                declare(ast, statement, line, sink);
+            } else if (ast.kind(statement) == Ast.Kind.FUNCTION) {
+                for (int param = ast.firstChild(statement); param >= 0; param = ast.nextSibling(param)) {
+                    if (ast.kind(param) == Ast.Kind.PARAM && ast.token(param) >= 0) {
+                        symbols.declare(ast.symbol(param), Parser.typeSymbol(ast, ast.firstChild(param)), true, ast.line(param));
                     }
                 }
-                return;
             }
         }
     }
 
-    private static void checkDeclaration(String line, int lineNumber, JTextArea outputArea) {
-        if (line.contains(",")) {
-            return;
-        }
-    
-        // First check for malformed declarations like "int;" without variable name
-        Pattern malformedPattern = Pattern.compile("^\\s*(int|float|double|char|bool|long long|long|short|unsigned int|string)\\s*;\\s*$");
-        Matcher malformedMatcher = malformedPattern.matcher(line);
-        
-        if (malformedMatcher.find()) {
-            String dataType = malformedMatcher.group(1);
-            outputArea.append("Line " + lineNumber + ": Error - Declaration of '" + dataType + "' without variable name.\n");
-            return;
-        }
-    
-        // Modified pattern to handle declarations with or without initialization
-        Pattern pattern = Pattern.compile("^\\s*(int|float|double|char|bool|long long|long|short|unsigned int|string)\\s+(\\w+)\\s*(=\\s*\\S+)?\\s*;\\s*$");
-        Matcher matcher = pattern.matcher(line);
-        
-        if (matcher.find()) {
-            String varType = matcher.group(1);
-            String varName = matcher.group(2);
-            boolean initialized = matcher.group(3) != null; // Check if initialization is present
-    
-            System.out.println("DEBUG: Found declaration - " + varType + " " + varName); 
-    
-            if (!isValidVariableName(varName, lineNumber, outputArea)) {
-                return;  
+    private void declare(Ast ast, int declaration, LineInfo line, DiagnosticSink sink) {
+        int type = ast.firstChild(declaration);
+        int typeId = Parser.typeSymbol(ast, type);
+        String typeName = pool.spelling(typeId);
+        ValueType valueType = ValueType.of(typeId);
+        boolean constant = ConstantFolder.isConstQualified(ast, type);
+        boolean list = ast.childCount(declaration) > 2;
+        for (int declarator = ast.nextSibling(type); declarator >= 0; declarator = ast.nextSibling(declarator)) {
+            int lineNumber = ast.line(declarator);
+            int nameNode = ast.firstChild(declarator);
+            // A plain name is a single word token; anything else ("9x",
+            // "std::x") is checked by its text
+            int nameId = ast.kind(nameNode) == Ast.Kind.NAME && ast.firstToken(nameNode) == ast.lastToken(nameNode)
+                ? ast.symbol(nameNode) : -1;
+            int value = ast.child(declarator, 1);
+
+            // Only a word that is a keyword needs its spelling for the check;
+            // other words aren't turned into Strings unless a message needs them
+            if (nameId < 0) {
+                String text = ast.text(nameNode);
+                if (!isValidVariableName(text, nameId, lineNumber, sink)) continue;
+                nameId = pool.intern(text);
+            } else if (SymbolPool.isKeyword(nameId) && !isValidVariableName(pool.spelling(nameId), nameId, lineNumber, sink)) {
+                continue;
             }
-    
-            if (declaredVariables.containsKey(varName)) {
-                // outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' is already declared.\n");
-            } else {
-                declaredVariables.put(varName, new VariableInfo(varType, initialized));
-                System.out.println("DEBUG: Added to symbol table - " + varName + " (initialized: " + initialized + ")");
+            // "int y = ;" was already reported by the parser; a value with a
+            // stray character in it ("= @1") still counts and gets checked
+            boolean initialized = value >= 0 && (ast.kind(value) != Ast.Kind.ERROR || ast.token(value) >= 0);
+            int symbol = symbols.declare(nameId, typeId, initialized, lineNumber);
+            if (symbol < 0) {
+                // Already declared in this scope; an outer one is shadowed instead
+                // sink.report(Diagnostic.error("redeclared", lineNumber, "Variable '" + pool.spelling(nameId) + "' is already declared."));
+                continue;
+            }
+            if (!initialized || valueType == null) continue;
+            if (!isValidValue(valueType, ast, value)) {
+                sink.report(Diagnostic.error("invalid-value", lineNumber, list
+                    ? "Invalid initialization value for variable '" + pool.spelling(nameId) + "' of type " + typeName + "."
+                    : "Invalid initialization value for type " + typeName + "."));
+            } else if (checkConstant(valueType, ast, value, lineNumber, sink) && constant
+                    && valueType.isArithmetic()) {
+                // Declared after its own initializer is folded, so
+                // "const int n = n + 1;" doesn't read itself
+                symbols.setConstant(symbol, ConstantFolder.convert(folder.value(value), folder.type(value), valueType));
             }
         }
     }
 
-    private static void checkInitialization(String line, int lineNumber, JTextArea outputArea) {
-        if (line.contains(",")) {
-            return;
-        }
-
-        Pattern pattern = Pattern.compile("^\\s*(int|float|double|char|bool|long long|long|short|unsigned int|string)\\s+([a-zA-Z_][a-zA-Z0-9_]*)\\s*=\\s*([^;]+);\\s*$");
-        Matcher matcher = pattern.matcher(line);
-        if (matcher.find()) {
-            String type = matcher.group(1);
-            String varName = matcher.group(2);
-            String value = matcher.group(3).trim();
-
-            if (!isValidVariableName(varName, lineNumber, outputArea)) {
-                return;
-            }
-
-            if (declaredVariables.containsKey(varName)) {
-                // outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' is already declared.\n");
+    private void checkAssignmentOperators(LineInfo info, DiagnosticSink sink) {
+        CharSequence line = info.text();
+        int lineNumber = info.number();
+        Matcher matcher = matcher(ASSIGNMENT, line);
+        if (matcher.lookingAt()) {
+            LineCursor.View varName = name.set(line, matcher.start(1), matcher.end(1));
+            LineCursor.View value = trimmed(this.value, line, matcher.start(3), matcher.end(3));
+
+            int symbol = symbols.lookup(varName);
+            if (symbol < 0) {
+                sink.report(Diagnostic.error("undeclared-variable", lineNumber, "Variable '" + varName + "' used before declaration."));
             } else {
-                declaredVariables.put(varName, new VariableInfo(type, true));
-                if (!isValidValue(type, value, outputArea)) {
-                    outputArea.append("Line " + lineNumber + ": Invalid initialization value for type " + type + ".\n");
+                symbols.setInitialized(symbol);
+                if (containsNestedAssignment(value)) {
+                    sink.report(Diagnostic.warning("nested-assignment", lineNumber, "Complex nested assignment detected. This may lead to confusion: " + value));
                 }
-            }
-        }
-    }
-
-    private static void checkAssignmentOperators(String line, int lineNumber, JTextArea outputArea) {
-        for (String op : assignmentOperators) {
-            Pattern pattern = Pattern.compile("^\\s*([a-zA-Z_][a-zA-Z0-9_]*)\\s*\\" + op + "\\s*(.+);\\s*$");
-            Matcher matcher = pattern.matcher(line);
-
-            if (matcher.find()) {
-                String varName = matcher.group(1);
-                String value = matcher.group(2).trim();
-
-                if (!declaredVariables.containsKey(varName)) {
-                    outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' used before declaration.\n");
-                } else {
-                    VariableInfo info = declaredVariables.get(varName);
-                    if (!op.equals("=") && !info.initialized) {
-                        outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' used in " + op + " before initialization.\n");
-                    }
 
-                    info.initialized = true;
-                    if (containsNestedAssignment(value)) {
-                        outputArea.append("Line " + lineNumber + ": Complex nested assignment detected. This may lead to confusion: " + value + "\n");
-                    }
-
-                    if (!isValidValue(info.type, value, outputArea)) {
-                        outputArea.append("Line " + lineNumber + ": Invalid value for variable of type " + info.type + ".\n");
+                // The value is typed from the tree: the right side of the
+                // assignment the line's statement is
+                ValueType type = ValueType.of(symbols.typeId(symbol));
+                int assigned = assignedValue(info);
+                if (type != null && assigned >= 0) {
+                    if (!isValidValue(type, info.ast(), assigned)) {
+                        sink.report(Diagnostic.error("invalid-value", lineNumber, "Invalid value for variable of type " + type.spelling() + "."));
+                    } else {
+                        checkConstant(type, info.ast(), assigned, lineNumber, sink);
                     }
                 }
-                return;
             }
         }
     }
 
-    private static boolean containsNestedAssignment(String value) {
-        for (String op : assignmentOperators) {
-            if (value.contains(op)) {
-                return true;
-            }
-        }
-        return false;
+    // The value node of the assignment statement that starts the line, or -1
+    private static int assignedValue(LineInfo line) {
+        if (line.statementCount() == 0) return -1;
+        Ast ast = line.ast();
+        int statement = line.statement(0);
+        if (ast.kind(statement) != Ast.Kind.EXPRESSION) return -1;
+        int assignment = ast.firstChild(statement);
+        return assignment >= 0 && ast.kind(assignment) == Ast.Kind.ASSIGN ? ast.child(assignment, 1) : -1;
     }
 
-    private static void checkProblematicOperators(String line, int lineNumber, JTextArea outputArea) {
+    // view = text[start, end) without leading and trailing whitespace
+    private static LineCursor.View trimmed(LineCursor.View view, CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        return view.set(text, start, end);
+    }
+
+    // Every assignment operator ends in '=', so one search finds any of them
+    private static boolean containsNestedAssignment(LineCursor.View value) {
+        return value.contains('=');
+    }
+
+    private void checkProblematicOperators(LineCursor.View line, int lineNumber, DiagnosticSink sink) {
         // Original checks
-        if (line.matches(".*\\+\\+\\+.*") || line.matches(".*---.*")) {
-            outputArea.append("Line " + lineNumber + ": Syntax error - invalid multiple increment/decrement operators.\n");
+        if (line.contains("+++") || line.contains("---")) {
+            sink.report(Diagnostic.error("invalid-operator", lineNumber, "Syntax error - invalid multiple increment/decrement operators."));
         }
     
-        if (line.matches(".*\\+\\+--.*") || line.matches(".*--\\+\\+.*")) {
-            outputArea.append("Line " + lineNumber + ": Confusing operator sequence detected (++-- or --++). This may lead to unexpected behavior.\n");
+        if (line.contains("++--") || line.contains("--++")) {
+            sink.report(Diagnostic.warning("confusing-operator", lineNumber, "Confusing operator sequence detected (++-- or --++). This may lead to unexpected behavior."));
         }
     
-        if (line.matches(".*[=]\\s*-\\s*-\\s*-\\s*-.*")) {
-            outputArea.append("Line " + lineNumber + ": Misleading sequence of unary minus operators. This could be parsed incorrectly.\n");
+        if (matcher(UNARY_MINUS_RUN, line).find()) {
+            sink.report(Diagnostic.warning("confusing-operator", lineNumber, "Misleading sequence of unary minus operators. This could be parsed incorrectly."));
         }
     
-        if (line.matches(".*\\*&.*") || line.matches(".*&\\*.*")) {
-            outputArea.append("Line " + lineNumber + ": Potentially invalid operator combination (*& or &*).\n");
+        if (line.contains("*&") || line.contains("&*")) {
+            sink.report(Diagnostic.warning("confusing-operator", lineNumber, "Potentially invalid operator combination (*& or &*)."));
         }
     
-        if (line.matches(".*\\*\\*.*") || line.matches(".*/\\*.*") || line.matches(".*/\\+.*") ||
-            line.matches(".*\\+/.*") || line.matches(".*\\+-.*") || line.matches(".*-\\+.*")) {
-            outputArea.append("Line " + lineNumber + ": Invalid or confusing consecutive arithmetic operators detected.\n");
+        if (line.contains("**") || line.contains("/*") || line.contains("/+") ||
+            line.contains("+/") || line.contains("+-") || line.contains("-+")) {
+            sink.report(Diagnostic.error("invalid-operator", lineNumber, "Invalid or confusing consecutive arithmetic operators detected."));
         }
         
         // First check for valid increment/decrement operations
         boolean foundValidIncDec = false;
         
         // Check for valid post-increment/decrement (most common)
-        Pattern postIncDec = Pattern.compile("([a-zA-Z_][a-zA-Z0-9_]*)\\s*(\\+\\+|--)");
-        Matcher postMatch = postIncDec.matcher(line);
+        Matcher postMatch = matcher(POST_INC_DEC, line);
         
         while (postMatch.find()) {
             foundValidIncDec = true;
-            String varName = postMatch.group(1);
+            LineCursor.View varName = name.set(line, postMatch.start(1), postMatch.end(1));
             
             // Inline validation logic
-            if (!declaredVariables.containsKey(varName)) {
-                outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' used with increment/decrement operator before declaration.\n");
+            int symbol = symbols.lookup(varName);
+            if (symbol < 0) {
+                sink.report(Diagnostic.error("undeclared-variable", lineNumber, "Variable '" + varName + "' used with increment/decrement operator before declaration."));
             } else {
-                VariableInfo info = declaredVariables.get(varName);
-                if (!info.initialized) {
-                    outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' used with increment/decrement operator before initialization.\n");
-                    // Mark as initialized since it's being assigned a value
-                    info.initialized = true;
-                }
+                markInitialized(symbol);
                 
                 // Check if the variable type is compatible with increment/decrement
-                if (!info.type.equals("int") && !info.type.equals("long") && !info.type.equals("float") &&
-                    !info.type.equals("double") && !info.type.equals("short") && !info.type.equals("byte")) {
-                    outputArea.append("Line " + lineNumber + ": Increment/decrement operator used on non-numeric type '" + info.type + "'.\n");
+                if (!SymbolPool.in(INCREMENTABLE_TYPES, symbols.typeId(symbol))) {
+                    sink.report(Diagnostic.error("non-numeric-increment", lineNumber, "Increment/decrement operator used on non-numeric type '" + symbols.type(symbol) + "'."));
                 }
             }
         }
         
         // Check for valid pre-increment/decrement
-        Pattern preIncDec = Pattern.compile("(\\+\\+|--)\\s*([a-zA-Z_][a-zA-Z0-9_]*)");
-        Matcher preMatch = preIncDec.matcher(line);
+        Matcher preMatch = matcher(PRE_INC_DEC, line);
         
         while (preMatch.find()) {
             foundValidIncDec = true;
-            String varName = preMatch.group(2);
+            LineCursor.View varName = name.set(line, preMatch.start(2), preMatch.end(2));
             
             // Inline validation logic
-            if (!declaredVariables.containsKey(varName)) {
-                outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' used with increment/decrement operator before declaration.\n");
+            int symbol = symbols.lookup(varName);
+            if (symbol < 0) {
+                sink.report(Diagnostic.error("undeclared-variable", lineNumber, "Variable '" + varName + "' used with increment/decrement operator before declaration."));
             } else {
-                VariableInfo info = declaredVariables.get(varName);
-                if (!info.initialized) {
-                    outputArea.append("Line " + lineNumber + ": Variable '" + varName + "' used with increment/decrement operator before initialization.\n");
-                    // Mark as initialized since it's being assigned a value
-                    info.initialized = true;
-                }
+                markInitialized(symbol);
                 
                 // Check if the variable type is compatible with increment/decrement
-                if (!info.type.equals("int") && !info.type.equals("long") && !info.type.equals("float") &&
-                    !info.type.equals("double") && !info.type.equals("short") && !info.type.equals("byte")) {
-                    outputArea.append("Line " + lineNumber + ": Increment/decrement operator used on non-numeric type '" + info.type + "'.\n");
+                if (!SymbolPool.in(INCREMENTABLE_TYPES, symbols.typeId(symbol))) {
+                    sink.report(Diagnostic.error("non-numeric-increment", lineNumber, "Increment/decrement operator used on non-numeric type '" + symbols.type(symbol) + "'."));
                 }
             }
         }
@@ -904,278 +1190,331 @@ updateSymbolTableGUI(symbolTableArea); // Update GUI
             }
             
             // Check for increment/decrement at the beginning of the line
-            String trimmedLine = line.trim();
+            LineCursor.View trimmedLine = line; // already trimmed
             if ((trimmedLine.startsWith("++") || trimmedLine.startsWith("--"))) {
                 // If it starts with ++ or -- but doesn't have a variable after it
-                if (!trimmedLine.matches("(\\+\\+|--)\\s*[a-zA-Z_].*")) {
-                    outputArea.append("Line " + lineNumber + ": Increment/decrement operator missing a variable.\n");
+                if (!matcher(INC_DEC_WITH_VARIABLE, trimmedLine).matches()) {
+                    sink.report(Diagnostic.error("invalid-operator", lineNumber, "Increment/decrement operator missing a variable."));
                 }
             } 
             // Check for standalone operators elsewhere
-            else if (line.matches(".*\\+\\+\\s*;.*") || line.matches(".*--\\s*;.*")) {
-                outputArea.append("Line " + lineNumber + ": Potentially invalid increment/decrement operation.\n");
+            else if (matcher(INC_DEC_BEFORE_SEMICOLON, line).find()) {
+                sink.report(Diagnostic.warning("invalid-operator", lineNumber, "Potentially invalid increment/decrement operation."));
             }
         }
-        
-        // Check for dangling operators
-        Pattern danglingOp = Pattern.compile("([a-zA-Z_][a-zA-Z0-9_]*)\\s*([+\\-*/&|^%])\\s*;");
-        Matcher danglingMatch = danglingOp.matcher(line);
-        
-        if (danglingMatch.find()) {
-            String op = danglingMatch.group(2);
-            outputArea.append("Line " + lineNumber + ": Incomplete expression with dangling operator '" + op + "'.\n");
-        }
     }
 
-    private static void checkStringArithmeticOperations(String line, int lineNumber, JTextArea outputArea) {
-        Pattern pattern = Pattern.compile("(\\b[a-zA-Z_][a-zA-Z0-9_]*\\b)\\s*([+\\-*/])\\s*(\\b[a-zA-Z_][a-zA-Z0-9_]*\\b|\\d+(\\.\\d+)?)");
-        Matcher matcher = pattern.matcher(line);
+    private void checkStringArithmeticOperations(CharSequence line, int lineNumber, DiagnosticSink sink) {
+        Matcher matcher = matcher(BINARY_OPERATION, line);
 
         while (matcher.find()) {
-            String leftOperand = matcher.group(1);
-            String operator = matcher.group(2);
-            String rightOperand = matcher.group(3);
+            LineCursor.View leftOperand = name.set(line, matcher.start(1), matcher.end(1));
+            char operator = line.charAt(matcher.start(2));
+            LineCursor.View rightOperand = otherName.set(line, matcher.start(3), matcher.end(3));
 
-            if (declaredVariables.containsKey(leftOperand) &&
-                declaredVariables.get(leftOperand).type.equals("string")) {
+            int left = symbols.lookup(leftOperand);
+            int right = symbols.lookup(rightOperand);
+            if (left >= 0 && symbols.typeId(left) == STRING_TYPE) {
                 boolean rightIsNumeric = false;
-                if (rightOperand.matches("-?\\d+(\\.\\d+)?")) {
+                if (matcher(NUMBER, rightOperand).matches()) {
+                    rightIsNumeric = true;
+                } else if (right >= 0 && SymbolPool.in(NUMERIC_TYPES, symbols.typeId(right))) {
                     rightIsNumeric = true;
-                } else if (declaredVariables.containsKey(rightOperand)) {
-                    String rightType = declaredVariables.get(rightOperand).type;
-                    if (rightType.equals("int") || rightType.equals("float") ||
-                        rightType.equals("double") || rightType.equals("long") ||
-                        rightType.equals("short") || rightType.equals("unsigned int") ||
-                        rightType.equals("long long")) {
-                        rightIsNumeric = true;
-                    }
                 }
 
                 if (rightIsNumeric) {
-                    outputArea.append("Line " + lineNumber + ": Error - Invalid arithmetic operation: string " +
-                                     operator + " numeric value is not allowed.\n");
+                    sink.report(Diagnostic.error("string-arithmetic", lineNumber, "Error - Invalid arithmetic operation: string " +
+                                     operator + " numeric value is not allowed."));
                 }
             }
 
-            if (declaredVariables.containsKey(rightOperand) &&
-                declaredVariables.get(rightOperand).type.equals("string")) {
+            if (right >= 0 && symbols.typeId(right) == STRING_TYPE) {
                 boolean leftIsNumeric = false;
-                if (leftOperand.matches("-?\\d+(\\.\\d+)?")) {
+                if (matcher(NUMBER, leftOperand).matches()) {
+                    leftIsNumeric = true;
+                } else if (left >= 0 && SymbolPool.in(NUMERIC_TYPES, symbols.typeId(left))) {
                     leftIsNumeric = true;
-                } else if (declaredVariables.containsKey(leftOperand)) {
-                    String leftType = declaredVariables.get(leftOperand).type;
-                    if (leftType.equals("int") || leftType.equals("float") ||
-                        leftType.equals("double") || leftType.equals("long") ||
-                        leftType.equals("short") || leftType.equals("unsigned int") ||
-                        leftType.equals("long long")) {
-                        leftIsNumeric = true;
-                    }
                 }
 
                 if (leftIsNumeric) {
-                    outputArea.append("Line " + lineNumber + ": Error - Invalid arithmetic operation: numeric value " +
-                                     operator + " string is not allowed.\n");
+                    sink.report(Diagnostic.error("string-arithmetic", lineNumber, "Error - Invalid arithmetic operation: numeric value " +
+                                     operator + " string is not allowed."));
                 }
             }
         }
     }
 
-    private static boolean checkIfElseStatements(String line, int lineNumber, JTextArea outputArea) {
-        boolean foundIf = false;
-        line = line.trim(); // Clean whitespace
-    
-        // Check for 'if' with proper parentheses
-        if (line.matches("^if\\s*\\(.*\\)\\s*.*")) {
-            foundIf = true;
-            String condition = line.replaceAll("^if\\s*\\((.*)\\).*", "$1");
-            checkConditionVariables(condition, lineNumber, outputArea);
-    
-            if (condition.trim().isEmpty()) {
-                outputArea.append("Line " + lineNumber + ": Error - Empty condition in if statement.\n");
-            }
-    
-            // Now check braces only if needed
-            if (!line.contains("{") && !line.matches("^if\\s*\\(.*\\)\\s*[^;{]+;\\s*$")) {
-                outputArea.append("Line " + lineNumber + ": Warning - Missing opening brace in if statement.\n");
-            }
-        }
-        // Check for 'else if'
-        else if (line.matches("^else\\s+if\\s*\\(.*\\)\\s*.*")) {
-            foundIf = true;
-            String condition = line.replaceAll("^else\\s+if\\s*\\((.*)\\).*", "$1");
-            checkConditionVariables(condition, lineNumber, outputArea);
-    
-            if (condition.trim().isEmpty()) {
-                outputArea.append("Line " + lineNumber + ": Error - Empty condition in else-if statement.\n");
-            }
-    
-            if (!line.contains("{") && !line.matches("^else\\s+if\\s*\\(.*\\)\\s*[^;{]+;\\s*$")) {
-                outputArea.append("Line " + lineNumber + ": Warning - Missing opening brace in else-if statement.\n");
-            }
-        }
-        // Check for 'else'
-        else if (line.matches("^else\\s*(\\{)?\\s*$")) {
-            if (!line.contains("{")) {
-                outputArea.append("Line " + lineNumber + ": Warning - Missing opening brace in else statement.\n");
-            }
-        }
-        // Single line 'else' statement
-        else if (line.matches("^else\\s+[^;{]+;\\s*$")) {
-            outputArea.append("Line " + lineNumber + ": Single-line else statement detected without braces.\n");
-        }
-        // Bad syntax: if without parentheses
-        else if (line.matches("^if\\s+[^\\(].*")) {
-            outputArea.append("Line " + lineNumber + ": Syntax error - 'if' missing parentheses.\n");
-        }
-    
-        return foundIf;
-    }
-    
-    
-    private static void checkConditionVariables(String condition, int lineNumber, JTextArea outputArea) {
-        String cleanedCondition = condition.replaceAll("\"[^\"]*\"", "STRINGLITERAL")
-                                         .replaceAll("\'[^\']*\'", "CHARLITERAL");
-
-        Pattern identPattern = Pattern.compile("\\b([a-zA-Z_][a-zA-Z0-9_]*)\\b(?!\\s*\\()");
-        Matcher matcher = identPattern.matcher(cleanedCondition);
-
-        Set<String> checkedVariables = new HashSet<>();
-        while (matcher.find()) {
-            String identifier = matcher.group(1);
-            if (checkedVariables.contains(identifier)) continue;
-            checkedVariables.add(identifier);
-
-            if (cppKeywords.contains(identifier)) continue;
-            if (identifier.equals("true") || identifier.equals("false") || identifier.equals("null")) continue;
-
-            if (!declaredVariables.containsKey(identifier)) {
-                outputArea.append("Line " + lineNumber + ": Condition uses undeclared variable '" + identifier + "'.\n");
-            } else if (!declaredVariables.get(identifier).initialized) {
-                outputArea.append("Line " + lineNumber + ": Condition uses uninitialized variable '" + identifier + "'.\n");
+    // Conditions and braces of the if statements that start on this line;
+    // a chained "else if" is its own if statement on the else's line
+    private void checkIfStatements(LineInfo line, DiagnosticSink sink) {
+        Ast ast = line.ast();
+        TokenStream tokens = ast.tokens();
+        for (int k = 0; k < line.statementCount(); k++) {
+            int node = line.statement(k);
+            if (ast.kind(node) != Ast.Kind.IF) continue;
+            int ifToken = ast.token(node);
+            // "if x" is a parse error already
+            if (ifToken + 1 >= tokens.size() || !tokens.textEquals(ifToken + 1, "(")) continue;
+
+            int lineNumber = line.number();
+            boolean elseIf = ifToken > 0 && tokens.textEquals(ifToken - 1, "else");
+            String statement = elseIf ? "else-if" : "if";
+            int condition = ast.child(node, 0);
+            if (ast.isEmpty(condition)) {
+                sink.report(Diagnostic.error("empty-condition", lineNumber, "Error - Empty condition in " + statement + " statement."));
+            } else {
+                conditionNames.clear();
+                checkConditionVariables(ast, condition, lineNumber, conditionNames, sink);
             }
-        }
-
-        Pattern memberPattern = Pattern.compile("(\\b[a-zA-Z_][a-zA-Z0-9_]*)\\s*\\.\\s*([a-zA-Z_][a-zA-Z0-9_]*)");
-        Matcher memberMatcher = memberPattern.matcher(cleanedCondition);
 
-        while (memberMatcher.find()) {
-            String objectName = memberMatcher.group(1);
-            if (cppKeywords.contains(objectName) ||
-                objectName.equals("true") || objectName.equals("false") || objectName.equals("null")) {
-                continue;
+            int then = ast.child(node, 1);
+            if (ast.kind(then) != Ast.Kind.BLOCK && ast.line(then) != ast.line(node)) {
+                sink.report(Diagnostic.warning("missing-brace", lineNumber, "Warning - Missing opening brace in " + statement + " statement."));
             }
 
-            if (!declaredVariables.containsKey(objectName)) {
-                outputArea.append("Line " + lineNumber + ": Condition uses undeclared object '" + objectName + "'.\n");
-            } else if (!declaredVariables.get(objectName).initialized) {
-                outputArea.append("Line " + lineNumber + ": Condition uses uninitialized object '" + objectName + "'.\n");
+            int elseNode = ast.child(node, 2);
+            if (elseNode >= 0) {
+                int body = ast.firstChild(elseNode);
+                int elseLine = ast.line(elseNode);
+                if (ast.kind(body) == Ast.Kind.BLOCK || ast.kind(body) == Ast.Kind.IF) {
+                    continue;
+                }
+                if (ast.line(body) == ast.line(elseNode)) {
+                    sink.report(Diagnostic.warning("missing-brace", elseLine, "Single-line else statement detected without braces."));
+                } else {
+                    sink.report(Diagnostic.warning("missing-brace", elseLine, "Warning - Missing opening brace in else statement."));
+                }
             }
         }
     }
 
-    private static boolean isValidValue(String type, String value, JTextArea outputArea) {
-        if (value.trim().isEmpty()) {
-            return false;
-        }
-
-        if (declaredVariables.containsKey(value)) {
-            VariableInfo info = declaredVariables.get(value);
-            if (!info.initialized) {
-                return false;
+    // Every variable a condition reads must be declared and initialized.
+    // Called names and member names are not variables; the object of a
+    // member access is reported as an object.
+    private void checkConditionVariables(Ast ast, int node, int lineNumber, BitSet checked, DiagnosticSink sink) {
+        switch (ast.kind(node)) {
+            case NAME:
+                checkConditionName(ast.symbol(node), "variable", lineNumber, checked, sink);
+                return;
+            case CALL: {
+                int callee = ast.firstChild(node);
+                if (ast.kind(callee) != Ast.Kind.NAME) {
+                    checkConditionVariables(ast, callee, lineNumber, checked, sink);
+                }
+                for (int arg = ast.nextSibling(callee); arg >= 0; arg = ast.nextSibling(arg)) {
+                    checkConditionVariables(ast, arg, lineNumber, checked, sink);
+                }
+                return;
             }
-            return isTypeCompatible(type, info.type);
+            case MEMBER: {
+                int object = ast.firstChild(node);
+                if (ast.kind(object) == Ast.Kind.NAME) {
+                    checkConditionName(ast.symbol(object), "object", lineNumber, checked, sink);
+                } else {
+                    checkConditionVariables(ast, object, lineNumber, checked, sink);
+                }
+                return;
+            }
+            default:
+                for (int child = ast.firstChild(node); child >= 0; child = ast.nextSibling(child)) {
+                    checkConditionVariables(ast, child, lineNumber, checked, sink);
+                }
         }
+    }
 
-        if (value.contains("+") || value.contains("-") ||
-            value.contains("*") || value.contains("/") ||
-            value.contains("%")) {
-            return true;
-        }
+    // checked holds the name ids already looked at in this condition
+    private void checkConditionName(int id, String what, int lineNumber, BitSet checked, DiagnosticSink sink) {
+        if (id < 0 || checked.get(id)) return;
+        checked.set(id);
+        if (SymbolPool.isKeyword(id) || id == NULL) return;
 
-        if (type.equals("bool") && (value.equals("true") || value.equals("false"))) {
-            return true;
+        String identifier = pool.spelling(id);
+        int symbol = symbols.lookup(id);
+        if (symbol < 0) {
+            sink.report(Diagnostic.error("undeclared-variable", lineNumber, "Condition uses undeclared " + what + " '" + identifier + "'."));
         }
+    }
 
-        switch (type) {
-            case "int":
-            case "long":
-            case "short":
-            case "unsigned int":
-                return value.matches("-?\\d+");
-            case "long long":
-                return value.matches("-?\\d+[lL]?");
-            case "float":
-            case "double":
-                return value.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?[fF]?");
-            case "char":
-                return value.matches("'.'");
-            case "bool":
-                return value.equals("true") || value.equals("false") ||
-                       value.equals("0") || value.equals("1");
-            case "string":
-                if (value.matches("\".*\"")) {
-                    return true;
-                }
-                if (declaredVariables.containsKey(value)) {
-                    return declaredVariables.get(value).type.equals("string");
-                }
-                return false;
-            default:
-                return false;
-        }
+    // A value may be stored in a variable of type target. Constant
+    // expressions are folded and get the literal rules ("float f = 1.5;",
+    // "float g = 1.5 * 2;"); an integer constant may go into any integer
+    // type and is range-checked by checkConstant instead. Anything else
+    // gets the conversions between variables.
+    private boolean isValidValue(ValueType target, Ast ast, int value) {
+        ValueType type = typeOf(ast, value);
+        if (type != ValueType.ERROR && folder.isConstant(value)) {
+            ValueType folded = folder.type(value);
+            return isInteger(folded) && target.isIntegral() || target.acceptsConstant(folded);
+        }
+        return isConstant(ast, value) ? target.acceptsConstant(type) : target.accepts(type);
     }
 
-    private static boolean isTypeCompatible(String targetType, String sourceType) {
-        if (targetType.equals(sourceType)) {
-            return true;
+    // What folding an accepted value found: a division by zero, a signed
+    // overflow or a shift out of range anywhere in it, or a constant too
+    // large for target. Returns false when the value isn't a usable
+    // constant.
+    private boolean checkConstant(ValueType target, Ast ast, int value, int lineNumber, DiagnosticSink sink) {
+        boolean constant = folder.isConstant(value);
+        int problem = folder.problem(value);
+        if (problem != 0) {
+            String expression = ast.text(folder.problemNode(value));
+            switch (problem) {
+                case ConstantFolder.DIVISION_BY_ZERO:
+                    sink.report(Diagnostic.error("division-by-zero", lineNumber, "Division by zero in '" + expression + "'."));
+                    break;
+                case ConstantFolder.OVERFLOW:
+                    sink.report(Diagnostic.warning("constant-overflow", lineNumber, "Integer overflow in constant expression '" + expression + "'."));
+                    break;
+                default:
+                    sink.report(Diagnostic.warning("constant-overflow", lineNumber, "Shift count out of range in '" + expression + "'."));
+            }
         }
-
-        if (targetType.equals("double") && (sourceType.equals("int") || sourceType.equals("float") ||
-                                          sourceType.equals("long") || sourceType.equals("short") ||
-                                          sourceType.equals("long long") || sourceType.equals("unsigned int"))) {
-            return true;
+        if (!constant) return false;
+        ValueType type = folder.type(value);
+        if (!isInteger(type)) return true;
+        long number = Interpreter.widen(type, folder.value(value));
+        long min;
+        long max;
+        switch (target) {
+            case CHAR:
+                min = Byte.MIN_VALUE;
+                max = Byte.MAX_VALUE;
+                break;
+            case SHORT:
+                min = Short.MIN_VALUE;
+                max = Short.MAX_VALUE;
+                break;
+            case INT:
+                min = Integer.MIN_VALUE;
+                max = Integer.MAX_VALUE;
+                break;
+            case UNSIGNED_INT:
+                // -1 for the largest unsigned value is an idiom, not a mistake
+                min = Integer.MIN_VALUE;
+                max = 0xFFFFFFFFL;
+                break;
+            default:
+                return true;
         }
-
-        if (targetType.equals("float") && (sourceType.equals("int") || sourceType.equals("short") ||
-                                         sourceType.equals("long") || sourceType.equals("unsigned int"))) {
-            return true;
+        if (number < min || number > max) {
+            sink.report(Diagnostic.error("constant-out-of-range", lineNumber,
+                "Value " + ConstantFolder.format(type, folder.value(value)) + " is out of range for type " + target.spelling() + "."));
+            return false;
         }
+        return true;
+    }
 
-        if (targetType.equals("long long") && (sourceType.equals("int") || sourceType.equals("short") ||
-                                             sourceType.equals("long") || sourceType.equals("unsigned int"))) {
-            return true;
-        }
+    // The integer types, not char and bool: what an integer constant has
+    private static boolean isInteger(ValueType type) {
+        return type.isIntegral() && type != ValueType.CHAR && type != ValueType.BOOL;
+    }
 
-        if (targetType.equals("long") && (sourceType.equals("int") || sourceType.equals("short") ||
-                                        sourceType.equals("unsigned int"))) {
-            return true;
+    private static boolean isConstant(Ast ast, int node) {
+        while (ast.kind(node) == Ast.Kind.UNARY && isSign(ast.tokens(), ast.token(node))) {
+            node = ast.firstChild(node);
         }
+        return ast.kind(node) == Ast.Kind.LITERAL;
+    }
 
-        if (targetType.equals("int") && (sourceType.equals("short"))) {
-            return true;
-        }
+    private static boolean isSign(TokenStream tokens, int op) {
+        return tokens.kind(op) == TokenKind.ARITHMETIC_OPERATOR && (tokens.charAt(op, 0) == '-' || tokens.charAt(op, 0) == '+');
+    }
 
-        if (targetType.equals("unsigned int") && (sourceType.equals("short"))) {
-            return true;
+    // Type of the expression at node, bottom-up: literals have the type the
+    // lexer gave them, names the type they were declared with, and each
+    // operator combines its operands' types through ValueType's tables.
+    // Undeclared and uninitialized names are other rules' business and
+    // don't make the value invalid.
+    private ValueType typeOf(Ast ast, int node) {
+        TokenStream tokens = ast.tokens();
+        switch (ast.kind(node)) {
+            case LITERAL: {
+                // "10abc" spans two tokens and is no literal at all
+                ValueType literal = tokens.literal(ast.token(node));
+                return literal != null && ast.firstToken(node) == ast.lastToken(node) ? literal : ValueType.ERROR;
+            }
+            case NAME: {
+                if (ast.firstToken(node) != ast.lastToken(node)) return ValueType.UNKNOWN; // std::x
+                int symbol = symbols.lookup(ast.symbol(node));
+                if (symbol < 0) return ValueType.UNKNOWN;
+                ValueType type = ValueType.of(symbols.typeId(symbol));
+                return type != null ? type : ValueType.UNKNOWN;
+            }
+            case UNARY:
+                return unaryType(tokens, ast.token(node), typeOf(ast, ast.firstChild(node)));
+            case POSTFIX:
+                return typeOf(ast, ast.firstChild(node));
+            case BINARY:
+                return binaryType(tokens, ast.token(node), typeOf(ast, ast.firstChild(node)), typeOf(ast, ast.child(node, 1)));
+            case ASSIGN: {
+                ValueType left = typeOf(ast, ast.firstChild(node));
+                return typeOf(ast, ast.child(node, 1)) == ValueType.ERROR ? ValueType.ERROR : left;
+            }
+            case CONDITIONAL: {
+                ValueType condition = typeOf(ast, ast.firstChild(node));
+                ValueType then = typeOf(ast, ast.child(node, 1));
+                ValueType otherwise = typeOf(ast, ast.child(node, 2));
+                if (condition == ValueType.ERROR) return ValueType.ERROR;
+                if (then == otherwise) return then;
+                ValueType promoted = ValueType.promote(then, otherwise);
+                return promoted == ValueType.ERROR && then != ValueType.ERROR && otherwise != ValueType.ERROR
+                    ? ValueType.UNKNOWN : promoted;
+            }
+            case ERROR:
+                // A stray character is a bad value; a missing operand was
+                // already reported by the parser
+                return ast.token(node) >= 0 ? ValueType.ERROR : ValueType.UNKNOWN;
+            default:
+                // Calls, indexing and members: types the analyzer doesn't track
+                return ValueType.UNKNOWN;
         }
+    }
 
-        if (targetType.equals("bool") && (sourceType.equals("int") || sourceType.equals("short") ||
-                                        sourceType.equals("long") || sourceType.equals("long long") ||
-                                        sourceType.equals("unsigned int"))) {
-            return true;
+    private static ValueType unaryType(TokenStream tokens, int op, ValueType operand) {
+        if (operand == ValueType.ERROR) return ValueType.ERROR;
+        char c = tokens.charAt(op, 0);
+        if (tokens.length(op) == 2) return operand; // ++ --
+        switch (c) {
+            case '!':
+                return ValueType.BOOL;
+            case '-':
+            case '+':
+                return operand.isArithmetic() ? ValueType.promote(operand, ValueType.INT)
+                    : operand == ValueType.UNKNOWN ? ValueType.UNKNOWN : ValueType.ERROR;
+            case '~':
+                return operand.isIntegral() ? ValueType.promote(operand, ValueType.INT)
+                    : operand == ValueType.UNKNOWN ? ValueType.UNKNOWN : ValueType.ERROR;
+            default:
+                return ValueType.UNKNOWN; // * and &: pointers aren't tracked
         }
+    }
 
-        if (targetType.equals("string") && sourceType.equals("char")) {
-            return true;
+    private static ValueType binaryType(TokenStream tokens, int op, ValueType left, ValueType right) {
+        if (left == ValueType.ERROR || right == ValueType.ERROR) return ValueType.ERROR;
+        char c = tokens.charAt(op, 0);
+        switch (tokens.kind(op)) {
+            case RELATIONAL_OPERATOR:
+            case LOGICAL_OPERATOR:
+                return ValueType.BOOL;
+            case SEPARATOR:
+                return right; // a, b
+            default:
         }
-
-        if (targetType.equals("string") && (sourceType.equals("int") || sourceType.equals("float") ||
-                                          sourceType.equals("double") || sourceType.equals("long") ||
-                                          sourceType.equals("short") || sourceType.equals("unsigned int") ||
-                                          sourceType.equals("long long") || sourceType.equals("bool"))) {
-            return false;
+        if (left == ValueType.UNKNOWN || right == ValueType.UNKNOWN) return ValueType.UNKNOWN;
+        if (tokens.kind(op) == TokenKind.ARITHMETIC_OPERATOR) {
+            if (c == '+' && (left == ValueType.STRING || right == ValueType.STRING)) {
+                // Concatenation takes strings and chars, not numbers
+                return isText(left) && isText(right) ? ValueType.STRING : ValueType.ERROR;
+            }
+            if (c == '%' && !(left.isIntegral() && right.isIntegral())) return ValueType.ERROR;
+            return ValueType.promote(left, right);
         }
+        // & | ^ << >> need integers; a shift has its left operand's type
+        if (!left.isIntegral() || !right.isIntegral()) return ValueType.ERROR;
+        return c == '<' || c == '>' ? ValueType.promote(left, ValueType.INT) : ValueType.promote(left, right);
+    }
 
-        return false;
+    private static boolean isText(ValueType type) {
+        return type == ValueType.STRING || type == ValueType.CHAR;
     }
 }
@@ -0,0 +1,170 @@
+import java.awt.*;
+import javax.swing.*;
+import javax.swing.text.*;
+
+// Token-driven syntax highlighting for the source editor.
+//
+// Only the visible part of the document (plus one screen above and below,
+// so short scrolls are already coloured) is styled, straight from the
+// IncrementalLexer's token kinds. Edits and scrolling just restart a short
+// coalescing timer, so a burst of keystrokes costs one styling pass after
+// the burst instead of one per key. Within the window, adjacent tokens with
+// the same style are merged into a single setCharacterAttributes call.
+//
+// Comments are never tokens, but the lexer only skips whitespace and
+// comments, so any non-blank text between two tokens is a comment; that
+// makes comment colouring free as well.
+public class SyntaxHighlighter {
+    private static final int DELAY_MS = 40;
+
+    private final JTextPane textPane;
+    private final JViewport viewport;
+    private final StyledDocument doc;
+    private final IncrementalLexer lexer;
+    private final KeywordMatcher extraKeywords;
+    private final Timer timer;
+
+    private final Style plainStyle;
+    private final Style commentStyle;
+    private final Style[] styleByKind = new Style[TokenKind.values().length];
+
+    // Pending run of consecutive characters that share a style
+    private Style runStyle;
+    private int runStart;
+    private int runEnd;
+    private int windowStart;
+    private int windowEnd;
+
+    // extraKeywords are identifiers the lexer has no category for (true,
+    // main, switch, ...) that should still be coloured as keywords
+    public SyntaxHighlighter(JTextPane textPane, JViewport viewport, IncrementalLexer lexer, String[] extraKeywords) {
+        this.textPane = textPane;
+        this.viewport = viewport;
+        this.doc = textPane.getStyledDocument();
+        this.lexer = lexer;
+        this.extraKeywords = new KeywordMatcher(extraKeywords);
+
+        plainStyle = doc.addStyle("PlainStyle", null);
+
+        Style keywordStyle = doc.addStyle("KeywordStyle", null);
+        StyleConstants.setForeground(keywordStyle, Color.BLUE);
+        StyleConstants.setBold(keywordStyle, true);
+
+        Style numberStyle = doc.addStyle("NumberStyle", null);
+        StyleConstants.setForeground(numberStyle, new Color(170, 90, 0));
+
+        Style stringStyle = doc.addStyle("StringStyle", null);
+        StyleConstants.setForeground(stringStyle, new Color(0, 128, 0));
+
+        Style operatorStyle = doc.addStyle("OperatorStyle", null);
+        StyleConstants.setForeground(operatorStyle, new Color(128, 0, 128));
+
+        commentStyle = doc.addStyle("CommentStyle", null);
+        StyleConstants.setForeground(commentStyle, Color.GRAY);
+        StyleConstants.setItalic(commentStyle, true);
+
+        styleByKind[TokenKind.DECLARATION.ordinal()] = keywordStyle;
+        styleByKind[TokenKind.CONDITIONAL.ordinal()] = keywordStyle;
+        styleByKind[TokenKind.LOOP.ordinal()] = keywordStyle;
+        styleByKind[TokenKind.CONTROL.ordinal()] = keywordStyle;
+        styleByKind[TokenKind.NUMBER.ordinal()] = numberStyle;
+        styleByKind[TokenKind.CHAR_LITERAL.ordinal()] = stringStyle;
+        styleByKind[TokenKind.STRING_LITERAL.ordinal()] = stringStyle;
+        styleByKind[TokenKind.RELATIONAL_OPERATOR.ordinal()] = operatorStyle;
+        styleByKind[TokenKind.ARITHMETIC_OPERATOR.ordinal()] = operatorStyle;
+        styleByKind[TokenKind.ASSIGNMENT_OPERATOR.ordinal()] = operatorStyle;
+        styleByKind[TokenKind.LOGICAL_OPERATOR.ordinal()] = operatorStyle;
+        styleByKind[TokenKind.OPERATOR.ordinal()] = operatorStyle;
+        styleByKind[TokenKind.IDENTIFIER.ordinal()] = keywordStyle; // only for extraKeywords
+
+        timer = new Timer(DELAY_MS, e -> highlightVisible());
+        timer.setRepeats(false);
+        viewport.addChangeListener(e -> schedule());
+    }
+
+    // Requests a styling pass; calls within DELAY_MS are coalesced
+    public void schedule() {
+        timer.restart();
+    }
+
+    private void highlightVisible() {
+        int length = doc.getLength();
+        if (length == 0) return;
+
+        Rectangle view = viewport.getViewRect();
+        int margin = view.height;
+        Element root = doc.getDefaultRootElement();
+        int top = textPane.viewToModel2D(new Point(0, Math.max(0, view.y - margin)));
+        int bottom = textPane.viewToModel2D(new Point(view.x + view.width, view.y + view.height + margin));
+        windowStart = root.getElement(root.getElementIndex(Math.max(0, top))).getStartOffset();
+        windowEnd = Math.min(length, root.getElement(root.getElementIndex(Math.max(0, bottom))).getEndOffset());
+        if (windowEnd <= windowStart) return;
+
+        doc.setCharacterAttributes(windowStart, windowEnd - windowStart, plainStyle, true);
+
+        TokenStream tokens = lexer.tokens();
+        CharSequence text = lexer.text();
+        int count = tokens.size();
+        int i = tokens.firstEndingAtOrAfter(windowStart + 1);
+        int previousEnd = i > 0 ? tokens.end(i - 1) : 0;
+        runStyle = null;
+
+        while (i < count && tokens.start(i) < windowEnd) {
+            int start = tokens.start(i);
+            styleComment(text, previousEnd, start);
+            addRun(start, tokens.end(i), styleFor(tokens, i));
+            previousEnd = tokens.end(i);
+            i++;
+        }
+        styleComment(text, previousEnd, i < count ? tokens.start(i) : text.length());
+        flushRun();
+    }
+
+    private Style styleFor(TokenStream tokens, int i) {
+        TokenKind kind = tokens.kind(i);
+        if (kind == TokenKind.IDENTIFIER) {
+            return extraKeywords.findExact(tokens.source(), tokens.start(i), tokens.end(i)) >= 0
+                ? styleByKind[kind.ordinal()] : null;
+        }
+        return styleByKind[kind.ordinal()];
+    }
+
+    // The text between two tokens is whitespace and comments only
+    private void styleComment(CharSequence text, int from, int to) {
+        from = Math.max(from, windowStart);
+        to = Math.min(to, windowEnd);
+        while (from < to && Character.isWhitespace(text.charAt(from))) from++;
+        while (to > from && Character.isWhitespace(text.charAt(to - 1))) to--;
+        if (from < to) {
+            addRun(from, to, commentStyle);
+        }
+    }
+
+    // Runs of one style separated only by whitespace are merged; the
+    // whitespace takes the style too, which is invisible
+    private void addRun(int start, int end, Style style) {
+        if (style == null) {
+            flushRun();
+            return;
+        }
+        if (style == runStyle) {
+            runEnd = end;
+            return;
+        }
+        flushRun();
+        runStyle = style;
+        runStart = start;
+        runEnd = end;
+    }
+
+    private void flushRun() {
+        if (runStyle != null) {
+            int start = Math.max(runStart, windowStart);
+            int end = Math.min(runEnd, windowEnd);
+            if (start < end) {
+                doc.setCharacterAttributes(start, end - start, runStyle, true);
+            }
+            runStyle = null;
+        }
+    }
+}
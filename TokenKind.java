@@ -0,0 +1,25 @@
+// Token categories produced by the Lexer. The names double as the labels
+// shown in the Token List tab, e.g. "[DECLARATION]: int (Line 1)".
+public enum TokenKind {
+    DECLARATION,
+    CONDITIONAL,
+    LOOP,
+    CONTROL,
+    RELATIONAL_OPERATOR,
+    ARITHMETIC_OPERATOR,
+    ASSIGNMENT_OPERATOR,
+    LOGICAL_OPERATOR,
+    OPERATOR,
+    NUMBER,
+    CHAR_LITERAL,
+    STRING_LITERAL,
+    IDENTIFIER,
+    SEPARATOR,
+    UNKNOWN;
+
+    private static final TokenKind[] VALUES = values();
+
+    public static TokenKind of(int code) {
+        return VALUES[code];
+    }
+}
@@ -0,0 +1,303 @@
+import java.util.*;
+
+// Compact, struct-of-arrays token list produced by the Lexer.
+//
+// Each token is a kind code, start/end offsets into the source buffer, a
+// line and a column, kept in parallel primitive arrays. No per-token objects
+// are created: a token's text is read straight out of the source, and only
+// materialised as a String when a caller explicitly asks for one. Word
+// tokens (identifiers and keywords) are interned into the stream's
+// SymbolPool as they are added, so symbol(i) names them by id, and
+// literal tokens carry the ValueType the lexer classified them as.
+//
+// The arrays have a gap (like GapBuffer) so IncrementalLexer can replace
+// tokens in the middle of the stream. Tokens after the gap store their
+// offsets and lines relative to tailOffsetShift/tailLineShift; an edit
+// moves every later token by changing those two numbers, and only the
+// tokens the gap travels across are ever rewritten. Plain lexing always
+// appends, so the gap just stays at the end.
+public final class TokenStream {
+    private final CharSequence source;
+    private byte[] kinds;
+    private int[] starts;
+    private int[] ends;
+    private int[] lines;
+    private int[] columns;
+    private int[] symbols;
+    private byte[] literals;
+    private final SymbolPool pool = new SymbolPool();
+    private int gapStart;
+    private int gapEnd;
+    private int tailOffsetShift;
+    private int tailLineShift;
+    private int unterminatedComment = -1;
+
+    public TokenStream(CharSequence source) {
+        this(source, Math.max(16, source.length() / 4));
+    }
+
+    public TokenStream(CharSequence source, int capacity) {
+        this.source = source;
+        kinds = new byte[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        lines = new int[capacity];
+        columns = new int[capacity];
+        symbols = new int[capacity];
+        literals = new byte[capacity];
+        gapEnd = capacity;
+    }
+
+    // Appends a token at the gap (the end of the stream unless an
+    // incremental edit is in progress)
+    void add(TokenKind kind, int start, int end, int line, int column, byte literal) {
+        if (gapStart == gapEnd) {
+            grow();
+        }
+        kinds[gapStart] = (byte) kind.ordinal();
+        starts[gapStart] = start;
+        ends[gapStart] = end;
+        lines[gapStart] = line;
+        columns[gapStart] = column;
+        symbols[gapStart] = isWord(kind) ? pool.intern(source, start, end) : -1;
+        literals[gapStart] = literal;
+        gapStart++;
+    }
+
+    private static boolean isWord(TokenKind kind) {
+        switch (kind) {
+            case IDENTIFIER:
+            case DECLARATION:
+            case CONDITIONAL:
+            case LOOP:
+            case CONTROL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void grow() {
+        int capacity = kinds.length;
+        int tail = capacity - gapEnd;
+        int grown = capacity + (capacity >> 1) + 16;
+        kinds = growArray(kinds, grown, tail);
+        starts = growArray(starts, grown, tail);
+        ends = growArray(ends, grown, tail);
+        lines = growArray(lines, grown, tail);
+        columns = growArray(columns, grown, tail);
+        symbols = growArray(symbols, grown, tail);
+        literals = growArray(literals, grown, tail);
+        gapEnd = grown - tail;
+    }
+
+    private byte[] growArray(byte[] array, int capacity, int tail) {
+        byte[] grown = Arrays.copyOf(array, capacity);
+        System.arraycopy(array, array.length - tail, grown, capacity - tail, tail);
+        return grown;
+    }
+
+    private int[] growArray(int[] array, int capacity, int tail) {
+        int[] grown = Arrays.copyOf(array, capacity);
+        System.arraycopy(array, array.length - tail, grown, capacity - tail, tail);
+        return grown;
+    }
+
+    // ===== INCREMENTAL EDITING (used by IncrementalLexer) =====
+
+    // Moves the gap so that it sits just before token index
+    void moveGap(int index) {
+        while (gapStart > index) {
+            gapStart--;
+            gapEnd--;
+            moveToken(gapStart, gapEnd, -tailOffsetShift, -tailLineShift);
+        }
+        while (gapStart < index) {
+            moveToken(gapEnd, gapStart, tailOffsetShift, tailLineShift);
+            gapStart++;
+            gapEnd++;
+        }
+    }
+
+    private void moveToken(int from, int to, int offsetShift, int lineShift) {
+        kinds[to] = kinds[from];
+        starts[to] = starts[from] + offsetShift;
+        ends[to] = ends[from] + offsetShift;
+        lines[to] = lines[from] + lineShift;
+        columns[to] = columns[from];
+        symbols[to] = symbols[from];
+        literals[to] = literals[from];
+    }
+
+    // Shifts every token after the gap by an edit's offset and line deltas
+    void shiftTail(int offsetDelta, int lineDelta) {
+        tailOffsetShift += offsetDelta;
+        tailLineShift += lineDelta;
+    }
+
+    // Shifts the columns of the tokens right after the gap that sit on the
+    // given line; tokens on later lines keep their columns
+    void shiftTailColumns(int line, int columnDelta) {
+        for (int p = gapEnd; p < kinds.length && lines[p] + tailLineShift == line; p++) {
+            columns[p] += columnDelta;
+        }
+    }
+
+    boolean hasTail() {
+        return gapEnd < kinds.length;
+    }
+
+    int tailStart() {
+        return starts[gapEnd] + tailOffsetShift;
+    }
+
+    int tailColumn() {
+        return columns[gapEnd];
+    }
+
+    void dropTail() {
+        gapEnd++;
+    }
+
+    void setUnterminatedComment(int offset) {
+        unterminatedComment = offset;
+    }
+
+    // Offset of a /* comment left open at the end of the source, or -1
+    public int unterminatedComment() {
+        return unterminatedComment;
+    }
+
+    // ===== ACCESSORS =====
+
+    private int slot(int i) {
+        return i < gapStart ? i : i + (gapEnd - gapStart);
+    }
+
+    public CharSequence source() {
+        return source;
+    }
+
+    public int size() {
+        return gapStart + (kinds.length - gapEnd);
+    }
+
+    public TokenKind kind(int i) {
+        return TokenKind.of(kinds[slot(i)]);
+    }
+
+    public int start(int i) {
+        return i < gapStart ? starts[i] : starts[i + (gapEnd - gapStart)] + tailOffsetShift;
+    }
+
+    public int end(int i) {
+        return i < gapStart ? ends[i] : ends[i + (gapEnd - gapStart)] + tailOffsetShift;
+    }
+
+    public int length(int i) {
+        int p = slot(i);
+        return ends[p] - starts[p];
+    }
+
+    public int line(int i) {
+        return i < gapStart ? lines[i] : lines[i + (gapEnd - gapStart)] + tailLineShift;
+    }
+
+    public int column(int i) {
+        return columns[slot(i)];
+    }
+
+    // SymbolPool id of a word token, -1 for any other token
+    public int symbol(int i) {
+        return symbols[slot(i)];
+    }
+
+    // The ValueType of a literal token, null for any other token
+    public ValueType literal(int i) {
+        return ValueType.ofCode(literals[slot(i)]);
+    }
+
+    public SymbolPool pool() {
+        return pool;
+    }
+
+    public char charAt(int i, int index) {
+        return source.charAt(start(i) + index);
+    }
+
+    // Index of the first token whose end is at or after offset (size() if none)
+    public int firstEndingAtOrAfter(int offset) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (end(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Lazy view of the token's text; nothing is copied until toString()
+    public CharSequence text(int i) {
+        return new Slice(source, start(i), end(i));
+    }
+
+    public String textString(int i) {
+        return new Slice(source, start(i), end(i)).toString();
+    }
+
+    public boolean textEquals(int i, String word) {
+        int start = start(i);
+        int length = length(i);
+        if (length != word.length()) return false;
+        for (int k = 0; k < length; k++) {
+            if (source.charAt(start + k) != word.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    // Appends token i in the Token List format: "[KIND]: text (Line n)"
+    public void appendTo(StringBuilder sb, int i) {
+        sb.append('[').append(kind(i).name()).append("]: ")
+          .append(source, start(i), end(i))
+          .append(" (Line ").append(line(i)).append(')');
+    }
+
+    static final class Slice implements CharSequence {
+        private final CharSequence source;
+        private final int start;
+        private final int end;
+
+        Slice(CharSequence source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return source.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new Slice(source, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            if (source instanceof String) {
+                return ((String) source).substring(start, end);
+            }
+            return new StringBuilder(end - start).append(source, start, end).toString();
+        }
+    }
+}
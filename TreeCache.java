@@ -0,0 +1,205 @@
+import java.util.*;
+
+// The syntax tree of an analysis run and the dataflow problems of its
+// functions, kept for the next run so re-analysing a document after an
+// edit neither parses the whole file again nor reruns the dataflow checks
+// of the functions the edit didn't touch.
+//
+// The tree belongs to an IncrementalParser that is fed code(), the
+// comment-free text, so its tokens are the ones source.tokens() would
+// give. Runs see snapshots rather than edits: update() finds the one span
+// the new code differs in (longest common prefix and suffix) and replays
+// it as a removal and an insertion. Each comes back as an
+// IncrementalParser.Change, and the top-level node it happened under (the
+// function whose body was the container, or the new nodes themselves) is
+// marked touched. Every other top-level node has the same tokens and the
+// same id as in the last run.
+//
+// Dataflow problems are recorded per function, with lines relative to the
+// function's first line and columns on that line relative to its first
+// token, so a function that only moved replays them in place. An
+// untouched function finds its entry by node id; any other one is looked
+// up by its text. The control-flow graph resolves only the function's
+// parameters and locals (globals produce no events), so that text is the
+// whole key: unlike LineCache, no symbol signature is needed.
+//
+// The parser's SymbolPool only grows: every spelling typed on the way to
+// a name ("c", "co", "cou", ...) stays interned. Once it holds more than
+// twice the spellings it started the tree with (plus POOL_SLACK), the
+// next update builds a new parser, and pool, from the text.
+//
+// Once more than MAX_ENTRIES functions are cached, the ones the last run
+// did not see are dropped. Like a LineCache, a TreeCache serves one
+// session at a time; AnalysisScheduler keeps one for its worker thread.
+public final class TreeCache {
+    private static final int MAX_ENTRIES = 1 << 14;
+    private static final int POOL_SLACK = 4096;
+    private static final Diagnostic[] NO_DIAGNOSTICS = new Diagnostic[0];
+    // Relative line of a problem that has none
+    private static final int NO_LINE = Integer.MIN_VALUE;
+
+    private static final class Entry {
+        final Diagnostic[] problems;
+        int lastRun;
+
+        Entry(Diagnostic[] problems) {
+            this.problems = problems;
+        }
+    }
+
+    private IncrementalParser parser;
+    private String code = "";
+    // Pool size when the parser was built
+    private int poolBase;
+    // Top-level nodes replaced or edited inside since the last complete
+    // dataflow pass (a cancelled run leaves them marked); all of them when
+    // the tree was parsed from scratch in between
+    private final BitSet touched = new BitSet();
+    private boolean fresh = true;
+
+    private final Map<String, Entry> byText = new HashMap<>();
+    // Entries by the node id of the function they were last used for, in
+    // tree
+    private Entry[] byNode = new Entry[64];
+    private Ast tree;
+    private int run;
+    private final List<Diagnostic> found = new ArrayList<>();
+
+    private long hits;
+    private long misses;
+    private int runHits;
+    private int runMisses;
+
+    // ===== TREE =====
+
+    // The tree for code, reparsed from the last one where it differs
+    Ast update(String next) {
+        if (parser == null || parser.tokens().pool().size() > 2 * poolBase + POOL_SLACK) {
+            parser = new IncrementalParser();
+            parser.insert(0, next);
+            poolBase = parser.tokens().pool().size();
+            fresh = true;
+        } else {
+            int limit = Math.min(code.length(), next.length());
+            int prefix = 0;
+            while (prefix < limit && code.charAt(prefix) == next.charAt(prefix)) prefix++;
+            int suffix = 0;
+            while (suffix < limit - prefix
+                    && code.charAt(code.length() - 1 - suffix) == next.charAt(next.length() - 1 - suffix)) {
+                suffix++;
+            }
+            int removed = code.length() - prefix - suffix;
+            int added = next.length() - prefix - suffix;
+            if (removed > 0) record(parser.remove(prefix, removed));
+            if (added > 0) record(parser.insert(prefix, next.subSequence(prefix, prefix + added)));
+        }
+        code = next;
+        return parser.ast();
+    }
+
+    private void record(IncrementalParser.Change change) {
+        if (change.full) {
+            fresh = true;
+            return;
+        }
+        Ast ast = parser.ast();
+        touched.set(change.firstNode, change.endNode);
+        int node = change.container;
+        if (node == ast.root()) return;
+        while (ast.parent(node) != ast.root()) node = ast.parent(node);
+        touched.set(node);
+    }
+
+    // ===== DATAFLOW =====
+
+    // Called by SyntaxAnalyzer around its analyzeFlow pass
+    void beginRun(Ast ast) {
+        run++;
+        runHits = 0;
+        runMisses = 0;
+        if (ast != tree || fresh) {
+            tree = ast;
+            Arrays.fill(byNode, null);
+        }
+    }
+
+    void endRun() {
+        touched.clear();
+        fresh = false;
+        if (byText.size() <= MAX_ENTRIES) return;
+        byText.values().removeIf(entry -> entry.lastRun != run);
+    }
+
+    // Reports the dataflow problems of function, replaying the stored ones
+    // when the function is unchanged since a run that checked it
+    void checkFunction(Ast ast, int function, SymbolPool pool, DiagnosticSink sink) {
+        Entry entry = ast == tree && !fresh && !touched.get(function) && function < byNode.length
+            ? byNode[function] : null;
+        String text = null;
+        if (entry == null) {
+            text = ast.text(function);
+            entry = byText.get(text);
+        }
+        int firstLine = ast.line(function);
+        int firstColumn = ast.tokens().column(ast.firstToken(function));
+        if (entry != null) {
+            hits++;
+            runHits++;
+        } else {
+            misses++;
+            runMisses++;
+            found.clear();
+            new Dataflow(ControlFlowGraph.build(ast, function)).check(pool, found::add);
+            Diagnostic[] problems = found.isEmpty() ? NO_DIAGNOSTICS : new Diagnostic[found.size()];
+            for (int k = 0; k < problems.length; k++) {
+                Diagnostic d = found.get(k);
+                int line = d.line > 0 ? d.line - firstLine : NO_LINE;
+                int column = line == 0 && d.column > 0 ? d.column - firstColumn : d.column;
+                problems[k] = new Diagnostic(d.severity, d.code, line, column, d.length, d.message);
+            }
+            entry = new Entry(problems);
+            byText.put(text, entry);
+        }
+        entry.lastRun = run;
+        if (function >= byNode.length) byNode = Arrays.copyOf(byNode, Math.max(function + 1, byNode.length * 2));
+        byNode[function] = entry;
+        for (Diagnostic d : entry.problems) {
+            int line = d.line == NO_LINE ? 0 : d.line + firstLine;
+            int column = d.line == 0 && d.column > 0 ? d.column + firstColumn : d.column;
+            sink.report(new Diagnostic(d.severity, d.code, line, column, d.length, d.message));
+        }
+    }
+
+    public void clear() {
+        parser = null;
+        code = "";
+        tree = null;
+        fresh = true;
+        byText.clear();
+        Arrays.fill(byNode, null);
+    }
+
+    // ===== STATISTICS =====
+
+    // Functions whose dataflow problems came from the cache and were
+    // computed, over the last run and over the cache's lifetime
+    public int runHits() {
+        return runHits;
+    }
+
+    public int runMisses() {
+        return runMisses;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public int size() {
+        return byText.size();
+    }
+}
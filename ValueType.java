@@ -0,0 +1,160 @@
+// The value types the analyzer checks initializers and assignments
+// against, as a small lattice.
+//
+// Each type is one interned constant, so types are compared with == and
+// index tables by ordinal. What may be assigned to what, and what an
+// arithmetic operator makes of two operands, are boolean and ValueType
+// matrices filled in once, here; a check is one array read.
+//
+// Two elements stand outside the C++ types. UNKNOWN is the top: a value
+// the analyzer can't type (a call, a member, a name it can't resolve or
+// whose type it doesn't model), which is accepted anywhere. ERROR is the
+// bottom: a value that is known to be bad (a stray character, string
+// arithmetic), which is accepted nowhere. ERROR wins over UNKNOWN when
+// both occur in one expression.
+public enum ValueType {
+    INT("int"),
+    SHORT("short"),
+    LONG("long"),
+    LONG_LONG("long long"),
+    UNSIGNED_INT("unsigned int"),
+    FLOAT("float"),
+    DOUBLE("double"),
+    CHAR("char"),
+    BOOL("bool"),
+    STRING("string"),
+    UNKNOWN(null),
+    ERROR(null);
+
+    private static final ValueType[] VALUES = values();
+
+    // By SymbolPool id of the type's spelling, for the seeded ids
+    private static final ValueType[] BY_SYMBOL;
+
+    // ASSIGNABLE[target][source]: a value of type source may be stored in
+    // a target, the implicit conversions the analyzer has always allowed
+    private static final boolean[][] ASSIGNABLE = new boolean[VALUES.length][VALUES.length];
+    // The same for a literal (or a negated one) of type source: an integer
+    // constant fits any arithmetic type, a floating one float and double
+    private static final boolean[][] CONSTANT_ASSIGNABLE = new boolean[VALUES.length][VALUES.length];
+    // Result of + - * / on two arithmetic operands, after promotion
+    private static final ValueType[][] PROMOTED = new ValueType[VALUES.length][VALUES.length];
+
+    static {
+        int symbols = 0;
+        for (ValueType type : VALUES) {
+            if (type.spelling != null) symbols = Math.max(symbols, type.symbol + 1);
+        }
+        BY_SYMBOL = new ValueType[symbols];
+        for (ValueType type : VALUES) {
+            if (type.spelling != null) BY_SYMBOL[type.symbol] = type;
+        }
+
+        for (ValueType type : VALUES) {
+            allow(type, type);
+        }
+        allow(DOUBLE, INT, FLOAT, LONG, SHORT, LONG_LONG, UNSIGNED_INT);
+        allow(FLOAT, INT, SHORT, LONG, UNSIGNED_INT);
+        allow(LONG_LONG, INT, SHORT, LONG, UNSIGNED_INT);
+        allow(LONG, INT, SHORT, UNSIGNED_INT);
+        allow(INT, SHORT);
+        allow(UNSIGNED_INT, SHORT);
+        allow(BOOL, INT, SHORT, LONG, LONG_LONG, UNSIGNED_INT);
+        allow(STRING, CHAR);
+        for (ValueType target : VALUES) {
+            ASSIGNABLE[target.ordinal()][UNKNOWN.ordinal()] = true;
+            ASSIGNABLE[target.ordinal()][ERROR.ordinal()] = false;
+        }
+
+        for (int target = 0; target < VALUES.length; target++) {
+            CONSTANT_ASSIGNABLE[target] = ASSIGNABLE[target].clone();
+        }
+        allowConstant(INT, INT, SHORT, LONG, LONG_LONG, UNSIGNED_INT, FLOAT, DOUBLE, BOOL);
+        allowConstant(LONG, LONG, LONG_LONG, FLOAT, DOUBLE);
+        allowConstant(UNSIGNED_INT, UNSIGNED_INT, LONG, LONG_LONG, FLOAT, DOUBLE);
+        allowConstant(DOUBLE, FLOAT, DOUBLE);
+        allowConstant(FLOAT, FLOAT, DOUBLE);
+
+        // Usual arithmetic conversions: the wider operand decides, and
+        // anything narrower than int is computed as an int
+        ValueType[] rank = {DOUBLE, FLOAT, LONG_LONG, LONG, UNSIGNED_INT};
+        for (ValueType left : VALUES) {
+            for (ValueType right : VALUES) {
+                ValueType result = ERROR;
+                if (left == ERROR || right == ERROR) {
+                    result = ERROR;
+                } else if (left == UNKNOWN || right == UNKNOWN) {
+                    result = UNKNOWN;
+                } else if (left.isArithmetic() && right.isArithmetic()) {
+                    result = INT;
+                    for (ValueType wider : rank) {
+                        if (left == wider || right == wider) {
+                            result = wider;
+                            break;
+                        }
+                    }
+                }
+                PROMOTED[left.ordinal()][right.ordinal()] = result;
+            }
+        }
+    }
+
+    private final String spelling;
+    private final int symbol;
+
+    ValueType(String spelling) {
+        this.spelling = spelling;
+        this.symbol = spelling != null ? SymbolPool.seeded(spelling) : -1;
+    }
+
+    private static void allow(ValueType target, ValueType... sources) {
+        for (ValueType source : sources) {
+            ASSIGNABLE[target.ordinal()][source.ordinal()] = true;
+        }
+    }
+
+    private static void allowConstant(ValueType source, ValueType... targets) {
+        for (ValueType target : targets) {
+            CONSTANT_ASSIGNABLE[target.ordinal()][source.ordinal()] = true;
+        }
+    }
+
+    // The type a SymbolPool type id names, or null for a type outside the
+    // lattice (void, auto, a class, ...)
+    public static ValueType of(int symbol) {
+        return symbol >= 0 && symbol < BY_SYMBOL.length ? BY_SYMBOL[symbol] : null;
+    }
+
+    // The type stored as code (its ordinal) by the lexer, null for -1
+    static ValueType ofCode(byte code) {
+        return code < 0 ? null : VALUES[code];
+    }
+
+    // The type as the source spells it; null for UNKNOWN and ERROR
+    public String spelling() {
+        return spelling;
+    }
+
+    public boolean isArithmetic() {
+        return ordinal() <= BOOL.ordinal();
+    }
+
+    public boolean isIntegral() {
+        return isArithmetic() && this != FLOAT && this != DOUBLE;
+    }
+
+    // A value of type source may be stored in this type
+    public boolean accepts(ValueType source) {
+        return ASSIGNABLE[ordinal()][source.ordinal()];
+    }
+
+    // A constant of type source may be stored in this type
+    public boolean acceptsConstant(ValueType source) {
+        return CONSTANT_ASSIGNABLE[ordinal()][source.ordinal()];
+    }
+
+    // The type of left op right for an arithmetic operator
+    public static ValueType promote(ValueType left, ValueType right) {
+        return PROMOTED[left.ordinal()][right.ordinal()];
+    }
+}
@@ -0,0 +1,1568 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Compiles a checked W++ program to x86-64 assembly: AT&T syntax for the
+// GNU assembler, System V calling convention, linked against libc and
+// libm. This is what Compile shows.
+//
+// The input is SsaBuilder's IR after SsaOptimizer's default pipeline.
+// Each function then goes through four steps:
+//   1. out of SSA: an edge from a branch into a block with phis gets a
+//      block of its own, and every phi becomes a copy at the end of each
+//      predecessor. The copies on one edge happen at once, so they are
+//      ordered, with a temporary where they form a cycle.
+//   2. instruction selection, in reverse postorder, into two-address
+//      machine instructions over virtual registers (one per SSA value)
+//      and the few physical registers instructions fix: rax and rdx for
+//      division, cl for shift counts, the argument registers for calls.
+//   3. liveness over the blocks, one live interval per virtual register,
+//      and LinearScan to give each a register or a stack slot. The spill
+//      cost counts every definition and use 10^(loop depth).
+//   4. emission, with spilled operands rewritten through the scratch
+//      registers where an instruction can't take memory, then a peephole
+//      pass over the text.
+//
+// The subset is the language's integer and floating-point part: every
+// integer type, float and double, locals and globals, branches and loops,
+// calls between the program's functions, the <cmath> functions (sqrt and
+// fabs inline, the rest in libm) and cout of numbers, chars and string
+// literals (printf and putchar). Other uses of strings are reported as
+// "asm-unsupported" on their line. Values keep the Interpreter's
+// representation, an integer sign-extended to 64 bits from its C++ width
+// and a float as the double it rounds to, so the program prints what Run
+// prints. Where the hardware and Java differ (integer division by zero
+// traps; a double too large for a long converts to its smallest value)
+// the compiled program does what the hardware does.
+//
+// rax, rcx and rdx are never allocated: division, shifts, calls and
+// flags materialization use them as fixed operands. r10, r11, xmm14 and
+// xmm15 are the scratch registers for spilled operands and rsp and rbp
+// hold the frame, which leaves nine general-purpose and fourteen SSE
+// registers to allocate.
+public final class X86Compiler {
+    // ===== REGISTERS =====
+
+    // General-purpose registers in encoding order, SSE registers after them
+    private static final int RAX = 0;
+    private static final int RCX = 1;
+    private static final int RDX = 2;
+    private static final int RBX = 3;
+    private static final int RSI = 6;
+    private static final int RDI = 7;
+    private static final int R8 = 8;
+    private static final int R9 = 9;
+    private static final int R10 = 10;
+    private static final int R11 = 11;
+    private static final int R12 = 12;
+    private static final int R13 = 13;
+    private static final int R14 = 14;
+    private static final int R15 = 15;
+    private static final int XMM0 = 16;
+    private static final int XMM14 = 30;
+    private static final int XMM15 = 31;
+
+    // By width (8, 4, 2 and 1 bytes), then register
+    private static final String[][] NAMES = {
+        {"rax", "rcx", "rdx", "rbx", "rsp", "rbp", "rsi", "rdi",
+            "r8", "r9", "r10", "r11", "r12", "r13", "r14", "r15"},
+        {"eax", "ecx", "edx", "ebx", "esp", "ebp", "esi", "edi",
+            "r8d", "r9d", "r10d", "r11d", "r12d", "r13d", "r14d", "r15d"},
+        {"ax", "cx", "dx", "bx", "sp", "bp", "si", "di",
+            "r8w", "r9w", "r10w", "r11w", "r12w", "r13w", "r14w", "r15w"},
+        {"al", "cl", "dl", "bl", "spl", "bpl", "sil", "dil",
+            "r8b", "r9b", "r10b", "r11b", "r12b", "r13b", "r14b", "r15b"},
+    };
+
+    // Register classes
+    private static final int GENERAL = 0;
+    private static final int SSE = 1;
+
+    // What LinearScan may hand out, by class, in order of preference
+    private static final int[][] VOLATILE = {
+        {RSI, RDI, R8, R9},
+        {16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29},
+    };
+    private static final int[][] PRESERVED = {
+        {RBX, R12, R13, R14, R15},
+        {},
+    };
+
+    private static final int[] INTEGER_ARGUMENTS = {RDI, RSI, RDX, RCX, R8, R9};
+    private static final int SSE_ARGUMENTS = 8;
+
+    // ===== OPERANDS =====
+
+    // A machine operand is an int: its kind in the top bits, the width it
+    // is read at (8, 4, 2 or 1 bytes as 0..3) below that, then a payload
+    private static final int NONE = 0;
+    private static final int VREG = 1 << 28;   // virtual register
+    private static final int REG = 2 << 28;    // physical register
+    private static final int IMM = 3 << 28;    // immediates[payload]
+    private static final int SYM = 4 << 28;    // memory at symbols[payload], RIP-relative
+    private static final int LABEL = 5 << 28;  // a block of the function
+    private static final int SLOT = 6 << 28;   // spill slot, after allocation
+    private static final int KIND = 0xF << 28;
+    private static final int WIDTH_SHIFT = 26;
+    private static final int PAYLOAD = (1 << WIDTH_SHIFT) - 1;
+
+    private static final int QUAD = 0;
+    private static final int LONG = 1;
+    private static final int WORD = 2;
+    private static final int BYTE = 3;
+
+    // ===== INSTRUCTIONS =====
+
+    // Operand a is the AT&T source, b the destination
+    private static final int USE_A = 1;
+    private static final int USE_B = 2;
+    private static final int DEF_B = 4;
+    private static final int REG_A = 8;    // a can't be memory
+    private static final int REG_B = 16;   // b can't be memory
+    private static final int CALL = 32;    // clobbers the caller-saved registers
+    private static final int A_SSE = 64;   // a (or its scratch) is an SSE register
+    private static final int B_SSE = 128;
+    private static final int PARALLEL = 256; // parallels[a]: moves that happen at once
+
+    private static final String[] INTEGER_OPS = {
+        null, null, null, null, null, null, "addq", "subq", "imulq", null, null, "andq", "orq", "xorq",
+    };
+    private static final String[] SSE_OPS = {
+        null, null, null, null, null, null, "addsd", "subsd", "mulsd", "divsd",
+    };
+
+    // Condition suffixes by SsaFunction comparison, and their negations
+    private static final String[] SIGNED = {"l", "le", "g", "ge", "e", "ne"};
+    private static final String[] UNSIGNED = {"b", "be", "a", "ae", "e", "ne"};
+    private static final String[] CONDITIONS = {"l", "le", "g", "ge", "e", "ne", "b", "be", "a", "ae", "p", "np"};
+    private static final String[] NEGATIONS = {"ge", "g", "le", "l", "ne", "e", "ae", "a", "be", "b", "np", "p"};
+    // a OP b is b MIRRORED[OP] a
+    private static final int[] MIRRORED = {SsaFunction.GT, SsaFunction.GE, SsaFunction.LT, SsaFunction.LE,
+        SsaFunction.EQ, SsaFunction.NE};
+
+    private final SsaFunction[] functions;
+    private final String[] names;
+
+    // Symbols the program refers to, and the read-only data and globals
+    // behind some of them
+    private final List<String> symbols = new ArrayList<>();
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    private final Map<Long, Integer> doubles = new LinkedHashMap<>();
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+    private final TreeMap<Integer, Integer> globals = new TreeMap<>();
+
+    // The function being compiled
+    private SsaFunction function;
+    private int functionIndex;
+    private int[] layout;
+    private int nextBlock;
+    private int line;
+    private int[] useCounts;
+    private boolean[] fused;
+
+    // Virtual registers: vregs[value] for an SSA value; by number, the
+    // class and the physical register a move to or from it would like
+    private int[] vregs;
+    private int[] vregClasses = new int[64];
+    private int[] vregHints = new int[64];
+    private int vregCount;
+
+    // Machine instructions; a label has a null mnemonic and its block in a
+    private String[] mnemonics = new String[256];
+    private int[] as = new int[256];
+    private int[] bs = new int[256];
+    private int[] flags = new int[256];
+    private int count;
+    private int[] blockLabels;
+    private long[] immediates = new long[64];
+    private int immediateCount;
+    // Per PARALLEL instruction: sources, destinations and classes
+    private final List<int[][]> parallels = new ArrayList<>();
+
+    private X86Compiler(SsaFunction[] functions) {
+        this.functions = functions;
+        names = new String[functions.length];
+        Set<String> taken = new HashSet<>();
+        for (int k = 0; k < functions.length; k++) {
+            String name = k == functions.length - 1 ? "main" : "wpp_" + functions[k].name;
+            if (!taken.add(name)) name = name + "_" + k;
+            names[k] = name;
+        }
+    }
+
+    // Compiles the tree, or reports why it can't be compiled to sink and
+    // returns null. Like BytecodeCompiler, it expects a tree the analyzer
+    // found no errors in.
+    public static Assembly compile(Ast ast, DiagnosticSink sink) {
+        long start = System.nanoTime();
+        SsaFunction[] functions = SsaBuilder.build(ast, sink);
+        if (functions == null) return null;
+        new SsaOptimizer().run(functions);
+        long optimized = System.nanoTime() - start;
+        X86Compiler compiler = new X86Compiler(functions);
+        try {
+            return compiler.program(optimized);
+        } catch (Unsupported e) {
+            sink.report(Diagnostic.error("asm-unsupported", e.line, e.getMessage()));
+            return null;
+        }
+    }
+
+    // Why an instruction can't be compiled, and where
+    private static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int line;
+
+        Unsupported(int line, String message) {
+            super(message, null, false, false);
+            this.line = line;
+        }
+    }
+
+    private Unsupported unsupported(String message) {
+        return new Unsupported(line, message);
+    }
+
+    // The compiled program: its assembly and, per function, what compiling
+    // it took
+    public static final class Assembly {
+        private final String text;
+        final String[] functions;
+        final long[] nanos;
+        final int[] instructions;
+        final int[] virtualRegisters;
+        final int[] spills;
+        final int[] removed;
+        final long frontEndNanos;
+
+        Assembly(String text, String[] functions, long[] nanos, int[] instructions, int[] virtualRegisters,
+                 int[] spills, int[] removed, long frontEndNanos) {
+            this.text = text;
+            this.functions = functions;
+            this.nanos = nanos;
+            this.instructions = instructions;
+            this.virtualRegisters = virtualRegisters;
+            this.spills = spills;
+            this.removed = removed;
+            this.frontEndNanos = frontEndNanos;
+        }
+
+        public String text() {
+            return text;
+        }
+
+        public int spills() {
+            int total = 0;
+            for (int n : spills) total += n;
+            return total;
+        }
+
+        public long totalNanos() {
+            long total = frontEndNanos;
+            for (long n : nanos) total += n;
+            return total;
+        }
+
+        // Per function: compile time, instructions emitted, virtual
+        // registers, spilled intervals and instructions the peephole
+        // pass removed
+        public String report() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("  %-24s %10s %12s %8s %7s %9s%n", "function", "time", "instructions",
+                "vregs", "spills", "peephole"));
+            int instructionTotal = 0;
+            int vregTotal = 0;
+            int removedTotal = 0;
+            for (int k = 0; k < functions.length; k++) {
+                sb.append(String.format("  %-24s %7.3f ms %12d %8d %7d %9d%n", functions[k], nanos[k] / 1e6,
+                    instructions[k], virtualRegisters[k], spills[k], removed[k]));
+                instructionTotal += instructions[k];
+                vregTotal += virtualRegisters[k];
+                removedTotal += removed[k];
+            }
+            sb.append(String.format("  %-24s %7.3f ms %12d %8d %7d %9d  (SSA and optimizer %.2f ms)%n", "total",
+                totalNanos() / 1e6, instructionTotal, vregTotal, spills(), removedTotal, frontEndNanos / 1e6));
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    // ===== PROGRAM =====
+
+    private Assembly program(long frontEndNanos) {
+        int n = functions.length;
+        long[] nanos = new long[n];
+        int[] instructionCounts = new int[n];
+        int[] vregCounts = new int[n];
+        int[] spillCounts = new int[n];
+        int[] removed = new int[n];
+        StringBuilder text = new StringBuilder();
+        text.append("# W++ compiled for x86-64 (System V, AT&T syntax)\n");
+        text.append("\t.text\n");
+        for (int k = 0; k < n; k++) {
+            long start = System.nanoTime();
+            functionIndex = k;
+            function = functions[k];
+            lower();
+            LinearScan allocation = allocate();
+            List<String[]> lines = emit(allocation);
+            removed[k] = peephole(lines);
+            nanos[k] = System.nanoTime() - start;
+            instructionCounts[k] = instructions(lines);
+            vregCounts[k] = vregCount;
+            spillCounts[k] = allocation.spills;
+            text.append(String.format("%n# %s: %d instructions, %d virtual registers, %d spilled%n",
+                k == n - 1 ? "program entry" : function.name + "()", instructionCounts[k], vregCount,
+                allocation.spills));
+            format(lines, text);
+        }
+        data(text);
+        return new Assembly(text.toString(), names, nanos, instructionCounts, vregCounts, spillCounts, removed,
+            frontEndNanos);
+    }
+
+    private void data(StringBuilder text) {
+        if (!doubles.isEmpty() || !strings.isEmpty()) {
+            text.append("\n\t.section\t.rodata\n");
+            text.append("\t.p2align\t3\n");
+            for (Map.Entry<Long, Integer> entry : doubles.entrySet()) {
+                text.append(symbols.get(entry.getValue())).append(":\n");
+                text.append(String.format("\t.quad\t0x%016x\t# %s%n", entry.getKey(),
+                    Double.longBitsToDouble(entry.getKey())));
+            }
+            for (Map.Entry<String, Integer> entry : strings.entrySet()) {
+                text.append(symbols.get(entry.getValue())).append(":\n");
+                text.append("\t.string\t\"").append(escape(entry.getKey())).append("\"\n");
+            }
+        }
+        if (!globals.isEmpty()) {
+            text.append("\n\t.data\n");
+            text.append("\t.p2align\t3\n");
+            for (int symbol : globals.values()) {
+                text.append(symbols.get(symbol)).append(":\n");
+                text.append("\t.quad\t0\n");
+            }
+        }
+        text.append("\n\t.section\t.note.GNU-stack,\"\",@progbits\n");
+    }
+
+    // A string as .string takes it: UTF-8, with quotes, backslashes and
+    // anything unprintable as octal escapes
+    private static String escape(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xFF;
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append((char) c);
+            } else if (c >= 0x20 && c < 0x7F) {
+                sb.append((char) c);
+            } else {
+                sb.append(String.format("\\%03o", c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private int symbol(String name) {
+        Integer id = symbolIds.get(name);
+        if (id == null) {
+            id = symbols.size();
+            symbols.add(name);
+            symbolIds.put(name, id);
+        }
+        return SYM | id;
+    }
+
+    private int doubleConstant(long bits) {
+        Integer id = doubles.get(bits);
+        if (id == null) {
+            id = payload(symbol(".LC" + doubles.size()));
+            doubles.put(bits, id);
+        }
+        return SYM | id;
+    }
+
+    private int stringConstant(String value) {
+        Integer id = strings.get(value);
+        if (id == null) {
+            id = payload(symbol(".LS" + strings.size()));
+            strings.put(value, id);
+        }
+        return SYM | id;
+    }
+
+    private int global(int variable) {
+        Integer id = globals.get(variable);
+        if (id == null) {
+            id = payload(symbol("wpp_global" + variable));
+            globals.put(variable, id);
+        }
+        return SYM | id;
+    }
+
+    // ===== OUT OF SSA =====
+
+    // Phi copies go at the end of a predecessor, which is only right when
+    // it has no other successor: an edge from a branch into a block with
+    // phis gets a block of its own
+    private void splitCriticalEdges() {
+        int blocks = function.blockCount();
+        for (int block = 0; block < blocks; block++) {
+            if (function.isBlockRemoved(block) || function.successors(block).length < 2) continue;
+            for (int s = 0; s < function.successors(block).length; s++) {
+                int target = function.successors(block)[s];
+                int first = function.first(target);
+                if (first >= 0 && function.op(first) == SsaFunction.PHI) function.splitEdge(block, target);
+            }
+        }
+    }
+
+    // The copies phis ask for on the edge from -> to. They happen at once:
+    // a copy goes first when no other reads its destination, and when only
+    // cycles are left one destination is saved in a temporary.
+    private void phiCopies(int from, int to) {
+        int k = SsaFunction.indexOf(function.predecessors(to), from);
+        List<int[]> pending = new ArrayList<>();
+        for (int phi = function.first(to); phi >= 0 && function.op(phi) == SsaFunction.PHI; phi = function.next(phi)) {
+            int destination = vreg(phi);
+            int source = operand(function.operand(phi, k));
+            if (source != destination) pending.add(new int[] {destination, source, classOf(function.type(phi))});
+        }
+        while (!pending.isEmpty()) {
+            boolean progress = false;
+            for (int c = 0; c < pending.size(); c++) {
+                int[] copy = pending.get(c);
+                if (isRead(pending, copy[0])) continue;
+                move(copy[1], copy[0], copy[2]);
+                pending.remove(c--);
+                progress = true;
+            }
+            if (!progress) {
+                int[] copy = pending.get(0);
+                int temporary = VREG | newVreg(copy[2]);
+                move(copy[0], temporary, copy[2]);
+                for (int[] other : pending) {
+                    if (other[1] == copy[0]) other[1] = temporary;
+                }
+            }
+        }
+    }
+
+    private static boolean isRead(List<int[]> copies, int destination) {
+        for (int[] copy : copies) {
+            if (copy[1] == destination) return true;
+        }
+        return false;
+    }
+
+    // ===== INSTRUCTION SELECTION =====
+
+    private void lower() {
+        splitCriticalEdges();
+        layout = function.reversePostorder();
+        int size = function.instructionCount();
+        useCounts = new int[size];
+        fused = new boolean[size];
+        vregs = new int[size];
+        Arrays.fill(vregs, -1);
+        vregCount = 0;
+        count = 0;
+        immediateCount = 0;
+        parallels.clear();
+        blockLabels = new int[function.blockCount()];
+        for (int block : layout) {
+            for (int i = function.first(block); i >= 0; i = function.next(i)) {
+                for (int k = 0; k < function.operandCount(i); k++) {
+                    useCounts[function.operand(i, k)]++;
+                }
+            }
+        }
+        for (int k = 0; k < layout.length; k++) {
+            int block = layout[k];
+            nextBlock = k + 1 < layout.length ? layout[k + 1] : -1;
+            blockLabels[block] = count;
+            emit(null, LABEL | block, NONE, 0);
+            if (k == 0) parameters();
+            for (int i = function.first(block); i >= 0; i = function.next(i)) {
+                line = function.line(i);
+                instruction(i, block);
+            }
+        }
+    }
+
+    private void instruction(int i, int block) {
+        int op = function.op(i);
+        if (op != SsaFunction.CONST && op != SsaFunction.PRINT) {
+            boolean string = function.type(i) == ValueType.STRING;
+            for (int k = 0; k < function.operandCount(i); k++) {
+                string |= function.type(function.operand(i, k)) == ValueType.STRING;
+            }
+            if (string) throw unsupported("Only string literals printed with cout can be compiled to x86-64.");
+        }
+        switch (op) {
+            case SsaFunction.CONST: {
+                ValueType type = function.type(i);
+                long value = function.aux(i);
+                if (useCounts[i] > 0 && classOf(type) == GENERAL && type != ValueType.STRING && value != (int) value) {
+                    emit("movabsq", immediate(value), vreg(i), USE_A | DEF_B | REG_B);
+                }
+                break;
+            }
+            case SsaFunction.PARAM:
+            case SsaFunction.PHI:
+                break;
+            case SsaFunction.COPY:
+                move(operand(function.operand(i, 0)), vreg(i), classOf(function.type(i)));
+                break;
+            case SsaFunction.GET_GLOBAL:
+                move(global((int) function.aux(i)), vreg(i), classOf(function.type(i)));
+                break;
+            case SsaFunction.SET_GLOBAL: {
+                int value = function.operand(i, 0);
+                move(operand(value), global((int) function.aux(i)), classOf(function.type(value)));
+                break;
+            }
+            case SsaFunction.ADD:
+            case SsaFunction.SUB:
+            case SsaFunction.MUL:
+            case SsaFunction.DIV:
+            case SsaFunction.REM:
+            case SsaFunction.AND:
+            case SsaFunction.OR:
+            case SsaFunction.XOR:
+            case SsaFunction.SHL:
+            case SsaFunction.SHR:
+                arithmetic(i);
+                break;
+            case SsaFunction.NEG:
+                negate(i);
+                break;
+            case SsaFunction.NOT: {
+                int v = vreg(i);
+                move(operand(function.operand(i, 0)), v, GENERAL);
+                emit("notq", NONE, v, USE_B | DEF_B);
+                narrow(function.type(i), v, v);
+                break;
+            }
+            case SsaFunction.CONVERT:
+                convert(i);
+                break;
+            case SsaFunction.COMPARE:
+                if (isFused(i, block)) {
+                    fused[i] = true;
+                } else {
+                    materialize(i);
+                }
+                break;
+            case SsaFunction.BUILTIN:
+                builtin(i);
+                break;
+            case SsaFunction.CALL:
+                call(i);
+                break;
+            case SsaFunction.PRINT:
+                print(i);
+                break;
+            case SsaFunction.ENDL:
+                call("putchar@PLT", new int[] {immediate('\n')}, new int[] {GENERAL}, false);
+                break;
+            case SsaFunction.JUMP: {
+                int target = function.successors(block)[0];
+                phiCopies(block, target);
+                if (target != nextBlock) emit("jmp", LABEL | target, NONE, 0);
+                break;
+            }
+            case SsaFunction.BRANCH:
+                branch(i, block);
+                break;
+            case SsaFunction.RETURN:
+                if (function.operandCount(i) > 0) {
+                    int value = function.operand(i, 0);
+                    int cls = classOf(function.type(value));
+                    move(operand(value), register(cls == SSE ? XMM0 : RAX, QUAD), cls);
+                }
+                emit("ret", NONE, NONE, 0);
+                break;
+            default:
+                throw unsupported("'" + SsaFunction.NAMES[op] + "' can't be compiled to x86-64.");
+        }
+    }
+
+    // Parameters arrive in the System V argument registers and move to
+    // their virtual registers all at once, so none is overwritten before
+    // it is read whatever the allocator picks
+    private void parameters() {
+        ValueType[] types = function.parameterTypes;
+        int[] registers = argumentRegisters(types);
+        int[] sources = new int[types.length];
+        int[] destinations = new int[types.length];
+        int[] classes = new int[types.length];
+        int n = 0;
+        for (int i = function.first(0); i >= 0; i = function.next(i)) {
+            if (function.op(i) != SsaFunction.PARAM || useCounts[i] == 0) continue;
+            int k = (int) function.aux(i);
+            sources[n] = register(registers[k], QUAD);
+            destinations[n] = vreg(i);
+            classes[n] = classOf(types[k]);
+            vregHints[payload(destinations[n])] = registers[k];
+            n++;
+        }
+        parallel(Arrays.copyOf(sources, n), Arrays.copyOf(destinations, n), Arrays.copyOf(classes, n));
+    }
+
+    private void parallel(int[] sources, int[] destinations, int[] classes) {
+        if (sources.length == 0) return;
+        emit("parallel", parallels.size(), NONE, PARALLEL);
+        parallels.add(new int[][] {sources, destinations, classes});
+    }
+
+    private int[] argumentRegisters(ValueType[] types) {
+        int[] registers = new int[types.length];
+        int integers = 0;
+        int sse = 0;
+        for (int k = 0; k < types.length; k++) {
+            if (types[k] == ValueType.STRING) {
+                throw unsupported("Only string literals printed with cout can be compiled to x86-64.");
+            }
+            if (classOf(types[k]) == SSE) {
+                if (sse == SSE_ARGUMENTS) throw unsupported("More than 8 floating-point arguments can't be compiled to x86-64.");
+                registers[k] = XMM0 + sse++;
+            } else {
+                if (integers == INTEGER_ARGUMENTS.length) {
+                    throw unsupported("More than 6 integer arguments can't be compiled to x86-64.");
+                }
+                registers[k] = INTEGER_ARGUMENTS[integers++];
+            }
+        }
+        return registers;
+    }
+
+    private void arithmetic(int i) {
+        int op = function.op(i);
+        ValueType type = function.type(i);
+        int a = operand(function.operand(i, 0));
+        int b = operand(function.operand(i, 1));
+        int v = vreg(i);
+        if (classOf(type) == SSE) {
+            if (SSE_OPS.length <= op || SSE_OPS[op] == null) {
+                throw unsupported("Operator '" + SsaFunction.OPERATORS[op] + "' on " + type.spelling()
+                    + " can't be compiled to x86-64.");
+            }
+            move(a, v, SSE);
+            emit(SSE_OPS[op], b, v, USE_A | USE_B | DEF_B | REG_B);
+            round(type, v);
+            return;
+        }
+        switch (op) {
+            case SsaFunction.DIV:
+            case SsaFunction.REM: {
+                int divisor = inMemoryOrRegister(b);
+                boolean remainder = op == SsaFunction.REM;
+                if (type == ValueType.UNSIGNED_INT) {
+                    emit("movl", width(a, LONG), register(RAX, LONG), USE_A | DEF_B);
+                    emit("xorl", register(RDX, LONG), register(RDX, LONG), DEF_B);
+                    emit("divl", width(divisor, LONG), NONE, USE_A);
+                } else {
+                    emit("movq", a, register(RAX, QUAD), USE_A | DEF_B);
+                    emit("cqto", NONE, NONE, 0);
+                    emit("idivq", divisor, NONE, USE_A);
+                }
+                narrow(type, register(remainder ? RDX : RAX, QUAD), v);
+                break;
+            }
+            case SsaFunction.SHL:
+            case SsaFunction.SHR: {
+                // Java's shifts: int ones on 32 bits, count masked to 5 bits
+                boolean wide = type == ValueType.LONG || type == ValueType.LONG_LONG;
+                String mnemonic = op == SsaFunction.SHL ? "shl" : type == ValueType.UNSIGNED_INT ? "shr" : "sar";
+                move(a, v, GENERAL);
+                int shift;
+                if (kind(b) == IMM) {
+                    shift = immediate(immediates[payload(b)] & (wide ? 63 : 31));
+                } else {
+                    move(b, register(RCX, QUAD), GENERAL);
+                    shift = register(RCX, BYTE);
+                }
+                emit(mnemonic + (wide ? "q" : "l"), shift, wide ? v : width(v, LONG), USE_A | USE_B | DEF_B);
+                if (!wide) narrow(ValueType.INT, v, v);
+                break;
+            }
+            default:
+                move(a, v, GENERAL);
+                emit(INTEGER_OPS[op], b, v, USE_A | USE_B | DEF_B | (op == SsaFunction.MUL ? REG_B : 0));
+                if (op != SsaFunction.AND && op != SsaFunction.OR && op != SsaFunction.XOR) narrow(type, v, v);
+        }
+    }
+
+    private void negate(int i) {
+        ValueType type = function.type(i);
+        int a = operand(function.operand(i, 0));
+        int v = vreg(i);
+        if (classOf(type) == SSE) {
+            flipSign(a, v, "btcq");
+            return;
+        }
+        move(a, v, GENERAL);
+        emit("negq", NONE, v, USE_B | DEF_B);
+        narrow(type, v, v);
+    }
+
+    // Negation and fabs on the sign bit, through rax: -0.0 and NaN come
+    // out as in Java
+    private void flipSign(int a, int v, String mnemonic) {
+        emit("movq", a, register(RAX, QUAD), USE_A | DEF_B | A_SSE);
+        emit(mnemonic, immediate(63), register(RAX, QUAD), USE_A | USE_B | DEF_B);
+        emit("movq", register(RAX, QUAD), v, USE_A | DEF_B);
+    }
+
+    // Interpreter.convert, toReal, fromReal and round
+    private void convert(int i) {
+        ValueType to = function.type(i);
+        int value = function.operand(i, 0);
+        ValueType from = function.type(value);
+        int a = operand(value);
+        int v = vreg(i);
+        if (classOf(from) == SSE) {
+            if (classOf(to) == SSE) {
+                if (to == ValueType.FLOAT) {
+                    emit("cvtsd2ss", a, v, USE_A | DEF_B | REG_B);
+                    emit("cvtss2sd", v, v, USE_A | DEF_B | REG_B);
+                } else {
+                    move(a, v, SSE);
+                }
+            } else if (to == ValueType.BOOL) {
+                // Non-zero, NaN included
+                emit("ucomisd", doubleConstant(0), inRegister(a), USE_A | USE_B | REG_B);
+                emit("setne", NONE, register(RAX, BYTE), DEF_B);
+                emit("setp", NONE, register(RCX, BYTE), DEF_B);
+                emit("orb", register(RCX, BYTE), register(RAX, BYTE), USE_A | USE_B | DEF_B);
+                emit("movzbq", register(RAX, BYTE), v, USE_A | DEF_B | REG_B);
+            } else if (to == ValueType.LONG || to == ValueType.LONG_LONG) {
+                emit("cvttsd2siq", a, v, USE_A | DEF_B | REG_B);
+            } else if (to == ValueType.UNSIGNED_INT) {
+                emit("cvttsd2siq", a, register(RAX, QUAD), USE_A | DEF_B);
+                narrow(to, register(RAX, QUAD), v);
+            } else {
+                emit("cvttsd2sil", a, register(RAX, LONG), USE_A | DEF_B);
+                narrow(to, register(RAX, QUAD), v);
+            }
+            return;
+        }
+        // An integer, widened first: an unsigned int is zero-extended
+        int wide = inMemoryOrRegister(a);
+        if (from == ValueType.UNSIGNED_INT) {
+            emit("movl", width(wide, LONG), register(RAX, LONG), USE_A | DEF_B);
+            wide = register(RAX, QUAD);
+        }
+        if (to == ValueType.FLOAT) {
+            emit("cvtsi2ssq", wide, v, USE_A | DEF_B | REG_B);
+            emit("cvtss2sd", v, v, USE_A | DEF_B | REG_B);
+        } else if (to == ValueType.DOUBLE) {
+            emit("cvtsi2sdq", wide, v, USE_A | DEF_B | REG_B);
+        } else {
+            narrow(to, wide, v);
+        }
+    }
+
+    // v = value cut to type's width, as Interpreter.narrow
+    private void narrow(ValueType type, int value, int v) {
+        switch (type) {
+            case INT:
+            case UNSIGNED_INT:
+                emit("movslq", width(value, LONG), v, USE_A | DEF_B | REG_B);
+                break;
+            case SHORT:
+                emit("movswq", width(value, WORD), v, USE_A | DEF_B | REG_B);
+                break;
+            case CHAR:
+                emit("movsbq", width(value, BYTE), v, USE_A | DEF_B | REG_B);
+                break;
+            case BOOL:
+                emit("cmpq", immediate(0), value, USE_A | USE_B);
+                emit("setne", NONE, register(RAX, BYTE), DEF_B);
+                emit("movzbq", register(RAX, BYTE), v, USE_A | DEF_B | REG_B);
+                break;
+            default:
+                if (value != v) move(value, v, GENERAL);
+        }
+    }
+
+    // A double result rounded to float, for a float operation
+    private void round(ValueType type, int v) {
+        if (type != ValueType.FLOAT) return;
+        emit("cvtsd2ss", v, v, USE_A | DEF_B | REG_B);
+        emit("cvtss2sd", v, v, USE_A | DEF_B | REG_B);
+    }
+
+    // A comparison whose only use is the branch right after it sets the
+    // flags for the branch instead of a value. Double == and != need two
+    // flags (unordered is not equal), so they always make a value.
+    private boolean isFused(int i, int block) {
+        int terminator = function.terminator(block);
+        if (useCounts[i] != 1 || function.next(i) != terminator) return false;
+        if (function.op(terminator) != SsaFunction.BRANCH || function.operand(terminator, 0) != i) return false;
+        int comparison = (int) function.aux(i);
+        boolean equality = comparison == SsaFunction.EQ || comparison == SsaFunction.NE;
+        return !(equality && classOf(function.type(function.operand(i, 0))) == SSE);
+    }
+
+    // Sets the flags for comparison i and returns the condition that holds
+    // when it is true
+    private String compare(int i) {
+        int left = function.operand(i, 0);
+        int right = function.operand(i, 1);
+        ValueType type = function.type(left);
+        int comparison = (int) function.aux(i);
+        int a = operand(left);
+        int b = operand(right);
+        if (classOf(type) == SSE) {
+            // ucomisd sets "above" for an ordered a > b, so < and <= swap
+            // the operands; unordered (NaN) is below and equal
+            if (comparison == SsaFunction.LT || comparison == SsaFunction.LE) {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+            emit("ucomisd", b, inRegister(a), USE_A | USE_B | REG_B);
+            switch (comparison) {
+                case SsaFunction.LT:
+                case SsaFunction.GT:
+                    return "a";
+                case SsaFunction.LE:
+                case SsaFunction.GE:
+                    return "ae";
+                default:
+                    return SIGNED[comparison];
+            }
+        }
+        if (kind(a) == IMM) {
+            if (kind(b) == IMM) {
+                a = inMemoryOrRegister(a);
+            } else {
+                int swap = a;
+                a = b;
+                b = swap;
+                comparison = MIRRORED[comparison];
+            }
+        }
+        emit("cmpq", b, a, USE_A | USE_B);
+        return (type == ValueType.UNSIGNED_INT ? UNSIGNED : SIGNED)[comparison];
+    }
+
+    private void materialize(int i) {
+        int v = vreg(i);
+        String condition = compare(i);
+        int comparison = (int) function.aux(i);
+        if (classOf(function.type(function.operand(i, 0))) == SSE
+                && (comparison == SsaFunction.EQ || comparison == SsaFunction.NE)) {
+            // Equal and ordered, or not equal or unordered
+            boolean equal = comparison == SsaFunction.EQ;
+            emit(equal ? "sete" : "setne", NONE, register(RAX, BYTE), DEF_B);
+            emit(equal ? "setnp" : "setp", NONE, register(RCX, BYTE), DEF_B);
+            emit(equal ? "andb" : "orb", register(RCX, BYTE), register(RAX, BYTE), USE_A | USE_B | DEF_B);
+        } else {
+            emit("set" + condition, NONE, register(RAX, BYTE), DEF_B);
+        }
+        emit("movzbq", register(RAX, BYTE), v, USE_A | DEF_B | REG_B);
+    }
+
+    private void branch(int i, int block) {
+        int value = function.operand(i, 0);
+        String condition;
+        if (fused[value]) {
+            condition = compare(value);
+        } else {
+            emit("cmpq", immediate(0), inMemoryOrRegister(operand(value)), USE_A | USE_B);
+            condition = "ne";
+        }
+        int[] targets = function.successors(block);
+        if (targets[0] == nextBlock) {
+            emit("j" + negate(condition), LABEL | targets[1], NONE, 0);
+        } else {
+            emit("j" + condition, LABEL | targets[0], NONE, 0);
+            if (targets[1] != nextBlock) emit("jmp", LABEL | targets[1], NONE, 0);
+        }
+    }
+
+    private static String negate(String condition) {
+        for (int k = 0; k < CONDITIONS.length; k++) {
+            if (CONDITIONS[k].equals(condition)) return NEGATIONS[k];
+        }
+        throw new IllegalArgumentException(condition);
+    }
+
+    private void builtin(int i) {
+        int which = (int) function.aux(i);
+        ValueType type = function.type(i);
+        int a = operand(function.operand(i, 0));
+        int v = vreg(i);
+        if (classOf(type) == SSE) {
+            if (which == 0) {
+                emit("sqrtsd", a, v, USE_A | DEF_B | REG_B);
+            } else if (which == SsaFunction.ABS || which == RegisterProgram.MATH_FUNCTIONS.length - 1) {
+                flipSign(a, v, "btrq");
+            } else {
+                String name = which == SsaFunction.POW ? "pow" : which == SsaFunction.MIN ? "fmin"
+                    : which == SsaFunction.MAX ? "fmax" : RegisterProgram.MATH_FUNCTIONS[which];
+                int count = function.operandCount(i);
+                int[] arguments = new int[count];
+                int[] classes = new int[count];
+                for (int k = 0; k < count; k++) {
+                    arguments[k] = operand(function.operand(i, k));
+                    classes[k] = SSE;
+                }
+                call(name + "@PLT", arguments, classes, false);
+                move(register(XMM0, QUAD), v, SSE);
+            }
+            return;
+        }
+        if (which == SsaFunction.ABS) {
+            // -a, unless that is negative; Math.abs of the smallest value is itself
+            int source = inMemoryOrRegister(a);
+            move(source, v, GENERAL);
+            emit("negq", NONE, v, USE_B | DEF_B);
+            emit("cmovlq", source, v, USE_A | USE_B | DEF_B | REG_B);
+            if (type == ValueType.INT) narrow(type, v, v);
+        } else {
+            int b = inMemoryOrRegister(operand(function.operand(i, 1)));
+            move(a, v, GENERAL);
+            emit("cmpq", b, v, USE_A | USE_B);
+            emit(which == SsaFunction.MIN ? "cmovgq" : "cmovlq", b, v, USE_A | USE_B | DEF_B | REG_B);
+        }
+    }
+
+    private void call(int i) {
+        SsaFunction callee = functions[(int) function.aux(i)];
+        int[] registers = argumentRegisters(callee.parameterTypes);
+        int count = function.operandCount(i);
+        int[] arguments = new int[count];
+        int[] classes = new int[count];
+        for (int k = 0; k < count; k++) {
+            arguments[k] = operand(function.operand(i, k));
+            classes[k] = registers[k] >= XMM0 ? SSE : GENERAL;
+        }
+        call(names[(int) function.aux(i)], arguments, classes, false);
+        ValueType type = function.type(i);
+        if (type != null && useCounts[i] > 0) {
+            int cls = classOf(type);
+            move(register(cls == SSE ? XMM0 : RAX, QUAD), vreg(i), cls);
+        }
+    }
+
+    private void print(int i) {
+        int value = function.operand(i, 0);
+        switch (function.type(i)) {
+            case STRING:
+                if (function.op(value) != SsaFunction.CONST) {
+                    throw unsupported("Only string literals printed with cout can be compiled to x86-64.");
+                }
+                printf("%s", stringConstant(function.text(value)), GENERAL);
+                break;
+            case CHAR:
+                call("putchar@PLT", new int[] {operand(value)}, new int[] {GENERAL}, false);
+                break;
+            case FLOAT:
+            case DOUBLE:
+                // %g is cout's default: six significant digits
+                printf("%g", operand(value), SSE);
+                break;
+            case UNSIGNED_INT:
+                printf("%u", operand(value), GENERAL);
+                break;
+            case LONG:
+            case LONG_LONG:
+                printf("%ld", operand(value), GENERAL);
+                break;
+            default:
+                printf("%d", operand(value), GENERAL);
+        }
+    }
+
+    private void printf(String format, int value, int cls) {
+        call("printf@PLT", new int[] {stringConstant(format), value}, new int[] {GENERAL, cls}, true);
+    }
+
+    // Calls target with the System V argument registers loaded from
+    // arguments: values all at once, as a parallel move, then immediates
+    // and addresses (a general-purpose SYM argument is the symbol's
+    // address)
+    private void call(String target, int[] arguments, int[] classes, boolean variadic) {
+        int[] registers = new int[arguments.length];
+        int integers = 0;
+        int sse = 0;
+        for (int k = 0; k < arguments.length; k++) {
+            registers[k] = classes[k] == SSE ? XMM0 + sse++ : INTEGER_ARGUMENTS[integers++];
+        }
+        int[] sources = new int[arguments.length];
+        int[] destinations = new int[arguments.length];
+        int[] moveClasses = new int[arguments.length];
+        int n = 0;
+        for (int k = 0; k < arguments.length; k++) {
+            int argument = arguments[k];
+            if (kind(argument) == IMM || (kind(argument) == SYM && classes[k] == GENERAL)) continue;
+            sources[n] = argument;
+            destinations[n] = register(registers[k], QUAD);
+            moveClasses[n] = classes[k];
+            if (kind(argument) == VREG) vregHints[payload(argument)] = registers[k];
+            n++;
+        }
+        parallel(Arrays.copyOf(sources, n), Arrays.copyOf(destinations, n), Arrays.copyOf(moveClasses, n));
+        for (int k = 0; k < arguments.length; k++) {
+            int argument = arguments[k];
+            if (kind(argument) == IMM) {
+                emit("movq", argument, register(registers[k], QUAD), USE_A | DEF_B);
+            } else if (kind(argument) == SYM && classes[k] == GENERAL) {
+                emit("leaq", argument, register(registers[k], QUAD), USE_A | DEF_B);
+            }
+        }
+        if (variadic) emit("movl", immediate(sse), register(RAX, LONG), USE_A | DEF_B);
+        emit("call", symbol(target), NONE, CALL);
+    }
+
+    // ===== OPERANDS AND EMISSION =====
+
+    private static int classOf(ValueType type) {
+        return Interpreter.category(type) == 'D' ? SSE : GENERAL;
+    }
+
+    private int newVreg(int cls) {
+        if (vregCount == vregClasses.length) {
+            vregClasses = Arrays.copyOf(vregClasses, vregCount * 2);
+            vregHints = Arrays.copyOf(vregHints, vregCount * 2);
+        }
+        vregClasses[vregCount] = cls;
+        vregHints[vregCount] = -1;
+        return vregCount++;
+    }
+
+    // The virtual register of SSA value i
+    private int vreg(int i) {
+        if (vregs[i] < 0) vregs[i] = newVreg(classOf(function.type(i)));
+        return VREG | vregs[i];
+    }
+
+    // SSA value i as an operand: an integer constant that fits 32 bits as
+    // an immediate, a double constant from read-only data, anything else
+    // in its virtual register
+    private int operand(int i) {
+        if (function.op(i) == SsaFunction.CONST) {
+            long value = function.aux(i);
+            if (classOf(function.type(i)) == SSE) return doubleConstant(value);
+            if (value == (int) value) return immediate(value);
+        }
+        return vreg(i);
+    }
+
+    // An operand where an instruction can't take an immediate
+    private int inMemoryOrRegister(int operand) {
+        if (kind(operand) != IMM) return operand;
+        int temporary = VREG | newVreg(GENERAL);
+        emit("movq", operand, temporary, USE_A | DEF_B);
+        return temporary;
+    }
+
+    // A double operand where an instruction needs it in a register (a
+    // spilled one is loaded into scratch when emitted)
+    private int inRegister(int operand) {
+        if (kind(operand) != SYM) return operand;
+        int temporary = VREG | newVreg(SSE);
+        move(operand, temporary, SSE);
+        return temporary;
+    }
+
+    private int immediate(long value) {
+        if (immediateCount == immediates.length) immediates = Arrays.copyOf(immediates, immediateCount * 2);
+        immediates[immediateCount] = value;
+        return IMM | immediateCount++;
+    }
+
+    private static int register(int r, int width) {
+        return REG | width << WIDTH_SHIFT | r;
+    }
+
+    private static int width(int operand, int width) {
+        return operand & ~(3 << WIDTH_SHIFT) | width << WIDTH_SHIFT;
+    }
+
+    private static int kind(int operand) {
+        return operand & KIND;
+    }
+
+    private static int payload(int operand) {
+        return operand & PAYLOAD;
+    }
+
+    private static int widthOf(int operand) {
+        return operand >>> WIDTH_SHIFT & 3;
+    }
+
+    private void move(int source, int destination, int cls) {
+        int sse = cls == SSE ? A_SSE | B_SSE : 0;
+        emit(cls == SSE ? "movsd" : "movq", source, destination, USE_A | DEF_B | sse);
+    }
+
+    private void emit(String mnemonic, int a, int b, int flag) {
+        if (count == mnemonics.length) {
+            int size = count * 2;
+            mnemonics = Arrays.copyOf(mnemonics, size);
+            as = Arrays.copyOf(as, size);
+            bs = Arrays.copyOf(bs, size);
+            flags = Arrays.copyOf(flags, size);
+        }
+        if (isSse(a)) flag |= A_SSE;
+        if (isSse(b)) flag |= B_SSE;
+        mnemonics[count] = mnemonic;
+        as[count] = a;
+        bs[count] = b;
+        flags[count] = flag;
+        count++;
+    }
+
+    private boolean isSse(int operand) {
+        if (kind(operand) == VREG) return vregClasses[payload(operand)] == SSE;
+        return kind(operand) == REG && payload(operand) >= XMM0;
+    }
+
+    // ===== REGISTER ALLOCATION =====
+
+    private LinearScan allocate() {
+        int[] ends = blockEnds();
+        int words = vregCount;
+        BitSet[] uses = new BitSet[function.blockCount()];
+        BitSet[] defs = new BitSet[function.blockCount()];
+        BitSet[] liveIn = new BitSet[function.blockCount()];
+        BitSet[] liveOut = new BitSet[function.blockCount()];
+        for (int block : layout) {
+            uses[block] = new BitSet(words);
+            defs[block] = new BitSet(words);
+            liveIn[block] = new BitSet(words);
+            liveOut[block] = new BitSet(words);
+            for (int j = blockLabels[block]; j < ends[block]; j++) {
+                for (int v : reads(j)) {
+                    if (!defs[block].get(v)) uses[block].set(v);
+                }
+                for (int v : writes(j)) {
+                    defs[block].set(v);
+                }
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = layout.length - 1; k >= 0; k--) {
+                int block = layout[k];
+                BitSet out = liveOut[block];
+                for (int target : function.successors(block)) {
+                    out.or(liveIn[target]);
+                }
+                BitSet in = (BitSet) out.clone();
+                in.andNot(defs[block]);
+                in.or(uses[block]);
+                if (!in.equals(liveIn[block])) {
+                    liveIn[block] = in;
+                    changed = true;
+                }
+            }
+        }
+
+        // One interval per virtual register: position 2j is where
+        // instruction j reads, 2j + 1 where it writes, so a register read
+        // for the last time can be written by the same instruction
+        int[] starts = new int[vregCount];
+        int[] intervalEnds = new int[vregCount];
+        double[] costs = new double[vregCount];
+        int[] hintIntervals = new int[vregCount];
+        Arrays.fill(starts, -1);
+        Arrays.fill(hintIntervals, -1);
+        int[] depths = loopDepths();
+        List<Integer> calls = new ArrayList<>();
+        for (int block : layout) {
+            int first = 2 * blockLabels[block];
+            int last = 2 * ends[block] - 1;
+            for (int v = liveIn[block].nextSetBit(0); v >= 0; v = liveIn[block].nextSetBit(v + 1)) {
+                extend(starts, intervalEnds, v, first);
+            }
+            for (int v = liveOut[block].nextSetBit(0); v >= 0; v = liveOut[block].nextSetBit(v + 1)) {
+                extend(starts, intervalEnds, v, last);
+            }
+            double weight = Math.pow(10, Math.min(depths[block], 6));
+            for (int j = blockLabels[block]; j < ends[block]; j++) {
+                if ((flags[j] & CALL) != 0) calls.add(2 * j);
+                for (int v : reads(j)) {
+                    extend(starts, intervalEnds, v, 2 * j);
+                    costs[v] += weight;
+                }
+                for (int v : writes(j)) {
+                    extend(starts, intervalEnds, v, 2 * j + 1);
+                    costs[v] += weight;
+                }
+                // A copy would like its destination where its source was
+                boolean copy = "movq".equals(mnemonics[j]) || "movsd".equals(mnemonics[j]);
+                if (copy && kind(as[j]) == VREG && kind(bs[j]) == VREG && hintIntervals[payload(bs[j])] < 0) {
+                    hintIntervals[payload(bs[j])] = payload(as[j]);
+                }
+            }
+        }
+        boolean[] crossesCall = new boolean[vregCount];
+        for (int v = 0; v < vregCount; v++) {
+            if (starts[v] < 0) continue;
+            for (int position : calls) {
+                if (starts[v] < position && intervalEnds[v] > position) {
+                    crossesCall[v] = true;
+                    break;
+                }
+            }
+        }
+        return new LinearScan(starts, intervalEnds, costs, crossesCall, Arrays.copyOf(vregClasses, vregCount),
+            VOLATILE, PRESERVED, Arrays.copyOf(vregHints, vregCount), hintIntervals).run();
+    }
+
+    // The virtual registers instruction j reads, and those it writes
+    private int[] reads(int j) {
+        int f = flags[j];
+        if ((f & PARALLEL) != 0) return vregsIn(parallels.get(as[j])[0]);
+        int a = (f & USE_A) != 0 && kind(as[j]) == VREG ? payload(as[j]) : -1;
+        int b = (f & USE_B) != 0 && kind(bs[j]) == VREG ? payload(bs[j]) : -1;
+        return a < 0 ? (b < 0 ? new int[0] : new int[] {b}) : (b < 0 ? new int[] {a} : new int[] {a, b});
+    }
+
+    private int[] writes(int j) {
+        int f = flags[j];
+        if ((f & PARALLEL) != 0) return vregsIn(parallels.get(as[j])[1]);
+        return (f & DEF_B) != 0 && kind(bs[j]) == VREG ? new int[] {payload(bs[j])} : new int[0];
+    }
+
+    private static int[] vregsIn(int[] operands) {
+        int[] found = new int[operands.length];
+        int n = 0;
+        for (int operand : operands) {
+            if (kind(operand) == VREG) found[n++] = payload(operand);
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    private static void extend(int[] starts, int[] ends, int v, int position) {
+        if (starts[v] < 0) {
+            starts[v] = position;
+            ends[v] = position;
+        } else {
+            starts[v] = Math.min(starts[v], position);
+            ends[v] = Math.max(ends[v], position);
+        }
+    }
+
+    // Where each block's machine instructions end (exclusive)
+    private int[] blockEnds() {
+        int[] ends = new int[function.blockCount()];
+        for (int k = 0; k < layout.length; k++) {
+            ends[layout[k]] = k + 1 < layout.length ? blockLabels[layout[k + 1]] : count;
+        }
+        return ends;
+    }
+
+    private int[] loopDepths() {
+        int[] depths = new int[function.blockCount()];
+        for (SsaOptimizer.Loop loop : SsaOptimizer.loops(function)) {
+            for (int block = 0; block < loop.body.length; block++) {
+                if (loop.body[block]) depths[block]++;
+            }
+        }
+        return depths;
+    }
+
+    // ===== EMISSION =====
+
+    private List<String[]> emit(LinearScan allocation) {
+        List<Integer> saved = new ArrayList<>();
+        for (int r : PRESERVED[GENERAL]) {
+            if ((allocation.usedRegisters & 1L << r) != 0) saved.add(r);
+        }
+        // rsp is 16-byte aligned after pushing rbp; keep it so at calls
+        int frame = allocation.slots * 8;
+        if ((saved.size() * 8 + frame) % 16 != 0) frame += 8;
+
+        List<String[]> lines = new ArrayList<>();
+        if (functionIndex == functions.length - 1) lines.add(new String[] {".globl", names[functionIndex]});
+        lines.add(new String[] {null, names[functionIndex]});
+        lines.add(new String[] {"pushq", "%rbp"});
+        lines.add(new String[] {"movq", "%rsp", "%rbp"});
+        for (int r : saved) {
+            lines.add(new String[] {"pushq", "%" + NAMES[QUAD][r]});
+        }
+        if (frame > 0) lines.add(new String[] {"subq", "$" + frame, "%rsp"});
+
+        for (int j = 0; j < count; j++) {
+            if (mnemonics[j] == null) {
+                lines.add(new String[] {null, label(payload(as[j]))});
+                continue;
+            }
+            if (mnemonics[j].equals("ret")) {
+                if (frame > 0) {
+                    lines.add(saved.isEmpty() ? new String[] {"movq", "%rbp", "%rsp"}
+                        : new String[] {"leaq", -8 * saved.size() + "(%rbp)", "%rsp"});
+                }
+                for (int k = saved.size() - 1; k >= 0; k--) {
+                    lines.add(new String[] {"popq", "%" + NAMES[QUAD][saved.get(k)]});
+                }
+                lines.add(new String[] {"popq", "%rbp"});
+                lines.add(new String[] {"ret"});
+                continue;
+            }
+            if ((flags[j] & PARALLEL) != 0) {
+                int[][] moves = parallels.get(as[j]);
+                parallelMove(moves[0], moves[1], moves[2], allocation, saved.size(), lines);
+                continue;
+            }
+            if (mnemonics[j].equals("call")) {
+                lines.add(new String[] {"call", symbols.get(payload(as[j]))});
+                continue;
+            }
+            rewrite(mnemonics[j], locate(as[j], allocation), locate(bs[j], allocation), flags[j], saved.size(),
+                lines);
+        }
+        return lines;
+    }
+
+    // Moves that happen at once, now that their locations are known: a
+    // move goes first when no other reads its destination, and when only
+    // cycles are left one destination is saved in r11 or xmm15
+    private void parallelMove(int[] sources, int[] destinations, int[] classes, LinearScan allocation, int saved,
+                              List<String[]> lines) {
+        List<int[]> pending = new ArrayList<>();
+        for (int k = 0; k < sources.length; k++) {
+            int source = width(locate(sources[k], allocation), QUAD);
+            int destination = width(locate(destinations[k], allocation), QUAD);
+            if (source != destination) pending.add(new int[] {destination, source, classes[k]});
+        }
+        while (!pending.isEmpty()) {
+            boolean progress = false;
+            for (int c = 0; c < pending.size(); c++) {
+                int[] move = pending.get(c);
+                if (isRead(pending, move[0])) continue;
+                rewriteMove(move[1], move[0], move[2], saved, lines);
+                pending.remove(c--);
+                progress = true;
+            }
+            if (!progress) {
+                int[] move = pending.get(0);
+                int scratch = register(move[2] == SSE ? XMM15 : R11, QUAD);
+                rewriteMove(move[0], scratch, move[2], saved, lines);
+                for (int[] other : pending) {
+                    if (other[1] == move[0]) other[1] = scratch;
+                }
+            }
+        }
+    }
+
+    private void rewriteMove(int source, int destination, int cls, int saved, List<String[]> lines) {
+        int sse = cls == SSE ? A_SSE | B_SSE : 0;
+        rewrite(cls == SSE ? "movsd" : "movq", source, destination, USE_A | DEF_B | sse, saved, lines);
+    }
+
+    // An instruction with its allocated operands. A spilled operand is a
+    // stack slot; where the instruction can't take memory there (or would
+    // have two memory operands) it goes through a scratch register.
+    private void rewrite(String mnemonic, int a, int b, int f, int saved, List<String[]> lines) {
+        boolean memoryA = isMemory(a);
+        boolean memoryB = isMemory(b);
+        if (memoryA && ((f & REG_A) != 0 || (memoryB && (f & REG_B) == 0))) {
+            boolean sse = (f & A_SSE) != 0;
+            int scratch = sse ? XMM14 : R10;
+            lines.add(new String[] {sse ? "movsd" : "movq", text(width(a, QUAD), saved),
+                text(register(scratch, QUAD), saved)});
+            a = register(scratch, widthOf(a));
+        }
+        if (memoryB && (f & REG_B) != 0) {
+            boolean sse = (f & B_SSE) != 0;
+            String load = sse ? "movsd" : "movq";
+            int scratch = register(sse ? XMM15 : R11, QUAD);
+            String memory = text(b, saved);
+            if ((f & USE_B) != 0) lines.add(new String[] {load, memory, text(scratch, saved)});
+            lines.add(instruction(mnemonic, a, width(scratch, widthOf(b)), saved));
+            if ((f & DEF_B) != 0) lines.add(new String[] {load, text(scratch, saved), memory});
+            return;
+        }
+        lines.add(instruction(mnemonic, a, b, saved));
+    }
+
+    private String[] instruction(String mnemonic, int a, int b, int saved) {
+        if (a == NONE && b == NONE) return new String[] {mnemonic};
+        if (a == NONE) return new String[] {mnemonic, text(b, saved)};
+        if (b == NONE) return new String[] {mnemonic, text(a, saved)};
+        return new String[] {mnemonic, text(a, saved), text(b, saved)};
+    }
+
+    private static int locate(int operand, LinearScan allocation) {
+        if (kind(operand) != VREG) return operand;
+        int location = allocation.locations[payload(operand)];
+        if (location >= 0) return REG | widthOf(operand) << WIDTH_SHIFT | location;
+        return SLOT | widthOf(operand) << WIDTH_SHIFT | (-location - 1);
+    }
+
+    private static boolean isMemory(int operand) {
+        return kind(operand) == SLOT || kind(operand) == SYM;
+    }
+
+    private String text(int operand, int saved) {
+        int p = payload(operand);
+        switch (kind(operand)) {
+            case REG:
+                return p >= XMM0 ? "%xmm" + (p - XMM0) : "%" + NAMES[widthOf(operand)][p];
+            case IMM:
+                return "$" + immediates[p];
+            case SYM:
+                return symbols.get(p) + "(%rip)";
+            case LABEL:
+                return label(p);
+            case SLOT:
+                return -8 * (saved + p + 1) + "(%rbp)";
+            default:
+                throw new IllegalStateException("unallocated operand " + Integer.toHexString(operand));
+        }
+    }
+
+    private String label(int block) {
+        return ".L" + functionIndex + "_" + block;
+    }
+
+    // ===== PEEPHOLE =====
+
+    // Cleans up after instruction selection and allocation, on the text:
+    //   mov X, X               removed
+    //   mov X, R; mov R, X     the second removed
+    //   movq $0, %reg          xorl, unless the next instruction reads flags
+    //   jmp to a jmp           straight to its target
+    //   jcc L1; jmp L2; L1:    jncc L2
+    //   jmp to the next line   removed, with code no jump reaches and
+    //                          labels nothing jumps to
+    // Returns how many instructions it removed.
+    private static int peephole(List<String[]> lines) {
+        int before = instructions(lines);
+        List<String[]> out = new ArrayList<>(lines);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // Jumps to a jump
+            Map<String, String> forward = new HashMap<>();
+            for (int k = 0; k + 1 < out.size(); k++) {
+                if (out.get(k)[0] == null && "jmp".equals(out.get(k + 1)[0])) {
+                    forward.put(out.get(k)[1], out.get(k + 1)[1]);
+                }
+            }
+            Set<String> referenced = new HashSet<>();
+            for (String[] line : out) {
+                if (line[0] == null || !line[0].startsWith("j")) continue;
+                String target = line[1];
+                for (int hops = 0; hops < 8 && forward.containsKey(target); hops++) {
+                    target = forward.get(target);
+                }
+                if (!target.equals(line[1])) {
+                    line[1] = target;
+                    changed = true;
+                }
+                referenced.add(target);
+            }
+
+            List<String[]> kept = new ArrayList<>();
+            boolean reachable = true;
+            for (int k = 0; k < out.size(); k++) {
+                String[] line = out.get(k);
+                String[] next = k + 1 < out.size() ? out.get(k + 1) : null;
+                if (line[0] == null) {
+                    if (line[1].startsWith(".L") && !referenced.contains(line[1])) {
+                        changed = true;
+                        continue;
+                    }
+                    reachable = true;
+                    kept.add(line);
+                    continue;
+                }
+                if (!reachable) {
+                    changed = true;
+                    continue;
+                }
+                if (line[0].equals("jmp") && next != null && next[0] == null && next[1].equals(line[1])) {
+                    changed = true;
+                    continue;
+                }
+                if (line[0].startsWith("j") && !line[0].equals("jmp") && next != null && "jmp".equals(next[0])
+                        && k + 2 < out.size() && out.get(k + 2)[0] == null && out.get(k + 2)[1].equals(line[1])) {
+                    line[0] = "j" + negate(line[0].substring(1));
+                    line[1] = next[1];
+                    kept.add(line);
+                    k++;
+                    changed = true;
+                    continue;
+                }
+                if (isMove(line) && line[1].equals(line[2])) {
+                    changed = true;
+                    continue;
+                }
+                if (isMove(line) && next != null && line[0].equals(next[0]) && line[2].startsWith("%")
+                        && line[1].equals(next[2]) && line[2].equals(next[1])) {
+                    kept.add(line);
+                    k++;
+                    changed = true;
+                    continue;
+                }
+                if (line[0].equals("movq") && line[1].equals("$0") && line[2].startsWith("%")
+                        && !line[2].startsWith("%xmm") && (next == null || !readsFlags(next))) {
+                    String register = NAMES[LONG][registerNumber(line[2].substring(1))];
+                    line[0] = "xorl";
+                    line[1] = "%" + register;
+                    line[2] = "%" + register;
+                    changed = true;
+                }
+                kept.add(line);
+                if (line[0].equals("jmp") || line[0].equals("ret")) reachable = false;
+            }
+            out = kept;
+        }
+        lines.clear();
+        lines.addAll(out);
+        return before - instructions(lines);
+    }
+
+    private static boolean isMove(String[] line) {
+        return line.length == 3 && (line[0].equals("movq") || line[0].equals("movsd"));
+    }
+
+    private static boolean readsFlags(String[] line) {
+        if (line[0] == null) return false;
+        String m = line[0];
+        return (m.startsWith("j") && !m.equals("jmp")) || m.startsWith("set") || m.startsWith("cmov")
+            || m.startsWith("adc") || m.startsWith("sbb");
+    }
+
+    private static int registerNumber(String name) {
+        for (int r = 0; r < NAMES[QUAD].length; r++) {
+            if (NAMES[QUAD][r].equals(name)) return r;
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static int instructions(List<String[]> lines) {
+        int n = 0;
+        for (String[] line : lines) {
+            if (line[0] != null && !line[0].startsWith(".")) n++;
+        }
+        return n;
+    }
+
+    private static void format(List<String[]> lines, StringBuilder text) {
+        for (String[] line : lines) {
+            if (line[0] == null) {
+                text.append(line[1]).append(":\n");
+                continue;
+            }
+            text.append('\t').append(line[0]);
+            for (int k = 1; k < line.length; k++) {
+                text.append(k == 1 ? "\t" : ", ").append(line[k]);
+            }
+            text.append('\n');
+        }
+    }
+}